@@ -0,0 +1,75 @@
+package com.feedly.cassandra;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Spreads index values over a fixed number of partitions using the hash of the leading index value. Finds on a leading value read a single
+ * partition, range finds over different leading values must read all partitions, so this partitioner suits indexes mostly used for
+ * equality finds.
+ * <p>
+ * The leading value's hash code must be stable across processes, as it is for strings, numbers, dates and uuids. Enums are hashed by name.
+ * Partitioners are created using their no-arg constructor, which uses 16 partitions. To use another count, subclass and pass the count to the
+ * super constructor. Changing the count of an existing index requires the index to be rebuilt.
+ *
+ * @author kireet
+ */
+public class HashModIndexRowPartitioner implements IIndexRowPartitioner
+{
+    private final int _numPartitions;
+    private final List<List<Object>> _all;
+
+    public HashModIndexRowPartitioner()
+    {
+        this(16);
+    }
+
+    /**
+     * @param numPartitions the number of partitions
+     */
+    public HashModIndexRowPartitioner(int numPartitions)
+    {
+        if(numPartitions <= 0)
+            throw new IllegalArgumentException("partition count must be positive: " + numPartitions);
+
+        _numPartitions = numPartitions;
+
+        List<List<Object>> all = new ArrayList<List<Object>>(numPartitions);
+        for(int i = 0; i < numPartitions; i++)
+            all.add(Collections.<Object>singletonList((long) i));
+        _all = Collections.unmodifiableList(all);
+    }
+
+    public int getNumPartitions()
+    {
+        return _numPartitions;
+    }
+
+    @Override
+    public List<List<Object>> partitionValue(List<Object> idxValue)
+    {
+        if(idxValue.isEmpty())
+            return _all;
+
+        return Collections.singletonList(_all.get(partition(idxValue.get(0))));
+    }
+
+    @Override
+    public List<List<Object>> partitionRange(List<Object> startIdxValues, List<Object> endIdxValues)
+    {
+        if(!startIdxValues.isEmpty() && !endIdxValues.isEmpty() && startIdxValues.get(0).equals(endIdxValues.get(0)))
+            return partitionValue(startIdxValues);
+
+        return _all;
+    }
+
+    private int partition(Object val)
+    {
+        int h = val instanceof Enum ? ((Enum<?>) val).name().hashCode() : val.hashCode();
+        h ^= (h >>> 20) ^ (h >>> 12); //spread sequential values
+        h ^= (h >>> 7) ^ (h >>> 4);
+
+        return (h & Integer.MAX_VALUE) % _numPartitions;
+    }
+}
@@ -9,6 +9,9 @@ import java.util.List;
  * 
  * @return the partitioner.
  * @see SingleIndexRowPartitioner
+ * @see TimeBucketIndexRowPartitioner
+ * @see HashModIndexRowPartitioner
+ * @see PrefixIndexRowPartitioner
  */
 public interface IIndexRowPartitioner
 {
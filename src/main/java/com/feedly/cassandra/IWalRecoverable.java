@@ -0,0 +1,25 @@
+package com.feedly.cassandra;
+
+/**
+ * a DAO whose range index WAL entries can be recovered in the background. Range indexed DAOs register themselves with their
+ * {@link PersistenceManager} during initialization.
+ * 
+ * @author kireet
+ * @see PersistenceManager#getRegisteredDaos()
+ */
+public interface IWalRecoverable
+{
+    /**
+     * find the time of the oldest pending WAL entry.
+     * @return the time in millis, -1 if there are no entries
+     */
+    public long oldestWalEntryTime();
+    
+    /**
+     * make range indexes consistent for WAL entries written before a given time.
+     * @param before recover entries written before this time (in millis)
+     * @param renewal run before each batch is read, may throw to stop recovery. May be null.
+     * @return the number of entries recovered
+     */
+    public int checkWal(long before, Runnable renewal);
+}
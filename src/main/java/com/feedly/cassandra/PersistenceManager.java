@@ -2,12 +2,14 @@ package com.feedly.cassandra;
 
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArraySet;
 
 import me.prettyprint.cassandra.model.AllOneConsistencyLevelPolicy;
 import me.prettyprint.cassandra.model.BasicColumnDefinition;
@@ -65,6 +67,7 @@ public class PersistenceManager implements IKeyspaceFactory
     private String _clusterName;
     private Cluster _cluster;
     private int _replicationFactor = 1;
+    private final Set<IWalRecoverable> _daos = new CopyOnWriteArraySet<IWalRecoverable>();
     
     static
     {
@@ -120,6 +123,28 @@ public class PersistenceManager implements IKeyspaceFactory
         _syncSchema = b;
     }
     
+    /**
+     * register a DAO for automatic WAL recovery, called by DAOs during initialization.
+     * @param dao the dao
+     */
+    public void registerDao(IWalRecoverable dao)
+    {
+        _daos.add(dao);
+    }
+    
+    public void unregisterDao(IWalRecoverable dao)
+    {
+        _daos.remove(dao);
+    }
+    
+    /**
+     * @return the DAOs currently registered for WAL recovery, a live view
+     */
+    public Collection<IWalRecoverable> getRegisteredDaos()
+    {
+        return Collections.unmodifiableSet(_daos);
+    }
+    
     public void destroy()
     {
         try
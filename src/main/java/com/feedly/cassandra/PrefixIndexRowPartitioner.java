@@ -0,0 +1,109 @@
+package com.feedly.cassandra;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Partitions index values by the first characters of the leading index value, which must be a string. Values shorter than the prefix length
+ * are partitioned by the whole value. Range finds read one partition per prefix in the range, so start and end values must share all but
+ * the last prefix character. With the default prefix length of 1 any range can be read. Ranges spanning more than
+ * {@link #MAX_RANGE_PARTITIONS} partitions are rejected, e.g. a start value shorter than the prefix reads every character that can follow
+ * it, so the end value's last prefix character must be low enough.
+ * <p>
+ * Partitioners are created using their no-arg constructor. To use a longer prefix, subclass and pass the length to the super constructor.
+ * Changing the length of an existing index requires the index to be rebuilt.
+ *
+ * @author kireet
+ */
+public class PrefixIndexRowPartitioner implements IIndexRowPartitioner
+{
+    /**
+     * the maximum number of partitions a range may span.
+     */
+    public static final int MAX_RANGE_PARTITIONS = 1024;
+
+    private final int _length;
+
+    public PrefixIndexRowPartitioner()
+    {
+        this(1);
+    }
+
+    /**
+     * @param length the prefix length
+     */
+    public PrefixIndexRowPartitioner(int length)
+    {
+        if(length <= 0)
+            throw new IllegalArgumentException("prefix length must be positive: " + length);
+
+        _length = length;
+    }
+
+    public int getLength()
+    {
+        return _length;
+    }
+
+    @Override
+    public List<List<Object>> partitionValue(List<Object> idxValue)
+    {
+        return Collections.singletonList(partition(prefix(leadingValue(idxValue))));
+    }
+
+    @Override
+    public List<List<Object>> partitionRange(List<Object> startIdxValues, List<Object> endIdxValues)
+    {
+        String start = prefix(leadingValue(startIdxValues));
+        String end = prefix(leadingValue(endIdxValues));
+        if(start.equals(end))
+            return Collections.singletonList(partition(start));
+
+        /*
+         * all values in the range begin with the common prefix P of length - 1. They fall in partition P itself if the start is P, and in
+         * partitions P + c for each last character c in the range.
+         */
+        String common = end.substring(0, Math.min(end.length(), _length - 1));
+        if(!start.startsWith(common) || end.length() < _length)
+            throw new IllegalArgumentException("invalid range [" + start + ", " + end + "], values must share the first " + (_length - 1) + 
+                                                       " character(s)");
+
+        //a start shorter than the prefix is the common prefix itself, followed by any character
+        boolean shortStart = start.length() < _length;
+        char first = shortStart ? Character.MIN_VALUE : start.charAt(_length - 1);
+        char last = end.charAt(_length - 1);
+        int numPartitions = last - first + 1 + (shortStart ? 1 : 0);
+        if(numPartitions > MAX_RANGE_PARTITIONS)
+            throw new IllegalArgumentException("range [" + start + ", " + end + "] spans " + numPartitions + " partitions, more than " + 
+                                                       MAX_RANGE_PARTITIONS);
+
+        List<List<Object>> rv = new ArrayList<List<Object>>(Math.max(numPartitions, 0));
+        if(shortStart)
+            rv.add(partition(start));
+
+        for(int c = first; c <= last; c++)
+            rv.add(partition(common + (char) c));
+
+        return rv;
+    }
+
+    private List<Object> partition(String prefix)
+    {
+        return Collections.<Object>singletonList(prefix);
+    }
+
+    private String prefix(String val)
+    {
+        return val.length() <= _length ? val : val.substring(0, _length);
+    }
+
+    private String leadingValue(List<Object> idxValue)
+    {
+        Object val = idxValue.isEmpty() ? null : idxValue.get(0);
+        if(val instanceof String)
+            return (String) val;
+
+        throw new IllegalArgumentException("prefix partitioning requires a leading String index value, found " + val);
+    }
+}
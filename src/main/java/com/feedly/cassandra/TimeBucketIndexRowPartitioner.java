@@ -0,0 +1,92 @@
+package com.feedly.cassandra;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Partitions index values into fixed width time buckets using the leading index value, which must be a {@link Date} or a number of
+ * milliseconds. The partition key is the start time of the bucket. Range finds only read the buckets overlapping the range, ranges spanning
+ * more than {@link #MAX_RANGE_PARTITIONS} buckets are rejected.
+ * <p>
+ * Partitioners are created using their no-arg constructor, which uses daily buckets. To use another width, subclass and pass the width to
+ * the super constructor. Changing the width of an existing index requires the index to be rebuilt.
+ *
+ * @author kireet
+ */
+public class TimeBucketIndexRowPartitioner implements IIndexRowPartitioner
+{
+    /**
+     * the maximum number of buckets a range may span.
+     */
+    public static final int MAX_RANGE_PARTITIONS = 1024;
+
+    private final long _width;
+
+    public TimeBucketIndexRowPartitioner()
+    {
+        this(TimeUnit.DAYS.toMillis(1));
+    }
+
+    /**
+     * @param width the bucket width in milliseconds
+     */
+    public TimeBucketIndexRowPartitioner(long width)
+    {
+        if(width <= 0)
+            throw new IllegalArgumentException("bucket width must be positive: " + width);
+
+        _width = width;
+    }
+
+    public long getWidth()
+    {
+        return _width;
+    }
+
+    @Override
+    public List<List<Object>> partitionValue(List<Object> idxValue)
+    {
+        return Collections.singletonList(partition(bucket(leadingValue(idxValue))));
+    }
+
+    @Override
+    public List<List<Object>> partitionRange(List<Object> startIdxValues, List<Object> endIdxValues)
+    {
+        long first = bucket(leadingValue(startIdxValues));
+        long last = bucket(leadingValue(endIdxValues));
+        if(last >= first && (last - first < 0 || last - first >= MAX_RANGE_PARTITIONS)) //difference can overflow for tiny widths
+            throw new IllegalArgumentException("range [" + first * _width + ", " + last * _width + "] spans more than " + 
+                                                       MAX_RANGE_PARTITIONS + " buckets");
+
+        List<List<Object>> rv = new ArrayList<List<Object>>();
+        for(long b = first; b <= last; b++)
+            rv.add(partition(b));
+
+        return rv;
+    }
+
+    private List<Object> partition(long bucket)
+    {
+        return Collections.<Object>singletonList(bucket * _width);
+    }
+
+    private long bucket(long millis)
+    {
+        long b = millis / _width;
+        return millis < 0 && millis % _width != 0 ? b - 1 : b; //round down negative times
+    }
+
+    private long leadingValue(List<Object> idxValue)
+    {
+        Object val = idxValue.isEmpty() ? null : idxValue.get(0);
+        if(val instanceof Date)
+            return ((Date) val).getTime();
+        if(val instanceof Number)
+            return ((Number) val).longValue();
+
+        throw new IllegalArgumentException("time bucket partitioning requires a leading Date or long index value, found " + val);
+    }
+}
@@ -11,6 +11,8 @@ import me.prettyprint.hector.api.Serializer;
 import com.feedly.cassandra.IIndexRowPartitioner;
 import com.feedly.cassandra.SingleIndexRowPartitioner;
 import com.feedly.cassandra.entity.ByteIndicatorSerializer;
+import com.feedly.cassandra.entity.ECollectionIndexType;
+import com.feedly.cassandra.entity.ECounterShardStrategy;
 
 
 /**
@@ -51,12 +53,27 @@ public @interface Column
      * exact value lookups. The downside of range indexes is write performance is significantly worse as custom built indexes must be used,
      * resulting in multiple cassandra operations per save. 
      * <p>
+     * Maps and lists of simple values may also be range indexed, see {@link #collectionIndex()}. An index entry is written for each
+     * map key (or value) or list element, finds match rows whose collection holds the entry set in the template's collection.
+     * <p>
      * counter columns may not be indexed.
      * 
      * @return true if the column should be range indexed
      */
     public boolean rangeIndexed() default false;
     
+    /**
+     * For range indexed maps, should the keys or the values of the map be indexed? List elements are always indexed. Templates passed to
+     * finds hold a single entry in the indexed collection, when indexing keys the entry's value is ignored but may not be null.
+     * <p>
+     * Puts only write the entries held by a collection, entries are removed from maps by setting null values. Index entries of map values
+     * replaced or list elements removed are only deleted if stale index values are removed on put, otherwise they are filtered when read.
+     * 
+     * @return the indexed part of the map
+     * @see com.feedly.cassandra.dao.PutOptions#setRemoveStaleIndexValues(boolean)
+     */
+    public ECollectionIndexType collectionIndex() default ECollectionIndexType.KEYS;
+    
     /**
      * Partitions index columns into rows. This is neeeded for column families that have the potential to get extremely large. Cassandra
      * allows up to 2 billion columns per row, so in most cases the default implementation (that places all values in a single row) should
@@ -67,6 +84,25 @@ public @interface Column
      */
     public Class<? extends IIndexRowPartitioner> rangeIndexPartitioner() default SingleIndexRowPartitioner.class;
     
+    /**
+     * Should the range index be maintained asynchronously? The row is written before the put returns while index updates are written in
+     * the background, so finds may not reflect a put for a short period. Pending index updates are protected by the WAL and are not lost
+     * if the process dies.
+     * 
+     * @return true if the range index should be maintained asynchronously
+     * @see com.feedly.cassandra.dao.CassandraDaoBase#setAsyncIndexInterval(long)
+     */
+    public boolean asyncRangeIndex() default false;
+    
+    /**
+     * Is the range index added to an entity with existing rows? If so, finds don't use the index until it has been backfilled. Completed
+     * backfills are recorded in cassandra, so the flag can stay in place afterwards.
+     * 
+     * @return true if the index must be backfilled before it is used
+     * @see com.feedly.cassandra.dao.CassandraDaoBase#backfillIndex(String...)
+     */
+    public boolean rangeIndexBackfill() default false;
+    
     /**
      * The time to live for this column. For collections, the time to live applies to each entry in the collection, not the entire collection
      * itself. TTL values for collections and embedded properties override any TTL values specified in the embedded objects. The granularity 
@@ -82,4 +118,20 @@ public @interface Column
      * @return the time unit
      */
     public TimeUnit ttlUnit() default TimeUnit.SECONDS;
+
+    /**
+     * The number of physical columns a counter is spread across. Frequently incremented counters can become a contention point, sharding
+     * spreads increments across multiple columns which are summed when read. The first shard uses the unsharded column name so existing
+     * counter values are retained when sharding is enabled.
+     * <p>
+     * may only be used on counter columns of non-embedded entities.
+     * @return the number of shards
+     */
+    public int counterShards() default 1;
+    
+    /**
+     * how to select the shard to increment, see {@link #counterShards()}.
+     * @return the shard strategy
+     */
+    public ECounterShardStrategy counterShardStrategy() default ECounterShardStrategy.RANDOM;
 }
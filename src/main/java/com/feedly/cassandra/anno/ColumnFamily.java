@@ -71,4 +71,12 @@ public @interface ColumnFamily
      * @return the time unit
      */
     public TimeUnit ttlUnit() default TimeUnit.SECONDS;
+    
+    /**
+     * the number of rows used for the range index write ahead log. Every range indexed write inserts and deletes a WAL column, for write
+     * heavy families a single row can become a hot spot. Rows are selected by hashing the row key. The first shard is the unsharded row
+     * so entries written before sharding was enabled are still recovered.
+     * @return the number of WAL rows
+     */
+    public int walShards() default 1;
 }
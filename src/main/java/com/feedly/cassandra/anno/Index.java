@@ -33,4 +33,21 @@ public @interface Index
      * @see SingleIndexRowPartitioner
      */
     Class<? extends IIndexRowPartitioner> partitioner() default SingleIndexRowPartitioner.class;
+    
+    /**
+     * Should the index be maintained asynchronously? The row is written before the put returns while index updates are written in the
+     * background, so finds may not reflect a put for a short period. Pending index updates are protected by the WAL and are not lost if
+     * the process dies.
+     * @return true if the index should be maintained asynchronously
+     * @see com.feedly.cassandra.dao.CassandraDaoBase#setAsyncIndexInterval(long)
+     */
+    boolean async() default false;
+    
+    /**
+     * Is the index added to an entity with existing rows? If so, finds don't use the index until it has been backfilled. Completed
+     * backfills are recorded in cassandra, so the flag can stay in place afterwards.
+     * @return true if the index must be backfilled before it is used
+     * @see com.feedly.cassandra.dao.CassandraDaoBase#backfillIndex(String...)
+     */
+    boolean backfill() default false;
 }
@@ -0,0 +1,64 @@
+package com.feedly.cassandra.dao;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class AsyncIndexMonitor extends OperationStatisticsMonitor implements AsyncIndexMonitorMBean
+{
+    private final AtomicLong _numFailed = new AtomicLong();
+    private final AsyncIndexWriter<?, ?> _writer;
+    private volatile long _lastAppliedLag;
+
+    AsyncIndexMonitor(OperationStatistics stats, AsyncIndexWriter<?, ?> writer)
+    {
+        super(stats);
+        _writer = writer;
+    }
+
+    @Override
+    public int getQueueSize()
+    {
+        return _writer.size();
+    }
+
+    /**
+     * @return the age in millis of the oldest index update not yet written, 0 if there are none
+     */
+    @Override
+    public long getOldestPendingAge()
+    {
+        return _writer.oldestPendingAge();
+    }
+
+    /**
+     * @return the max time in millis index updates written by the last flush were queued for
+     */
+    @Override
+    public long getLastAppliedLag()
+    {
+        return _lastAppliedLag;
+    }
+
+    @Override
+    public long getNumFailedBatches()
+    {
+        return _numFailed.get();
+    }
+
+    @Override
+    public void reset()
+    {
+        super.reset();
+        _numFailed.set(0);
+        _lastAppliedLag = 0;
+    }
+
+    void lastAppliedLag(long lag)
+    {
+        _lastAppliedLag = lag;
+    }
+
+    void failedBatch()
+    {
+        _numFailed.incrementAndGet();
+    }
+}
@@ -0,0 +1,9 @@
+package com.feedly.cassandra.dao;
+
+public interface AsyncIndexMonitorMBean extends OperationStatisticsMonitorMBean
+{
+    public int getQueueSize();
+    public long getOldestPendingAge();
+    public long getLastAppliedLag();
+    public long getNumFailedBatches();
+}
@@ -0,0 +1,296 @@
+package com.feedly.cassandra.dao;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import me.prettyprint.hector.api.beans.DynamicComposite;
+import me.prettyprint.hector.api.beans.HColumn;
+import me.prettyprint.hector.api.factory.HFactory;
+import me.prettyprint.hector.api.mutation.Mutator;
+
+import com.feedly.cassandra.IKeyspaceFactory;
+import com.feedly.cassandra.PersistenceManager;
+import com.feedly.cassandra.entity.EntityMetadata;
+
+/**
+ * writes updates to asynchronously maintained indexes in the background. The put writes the WAL entry and the row before queueing its
+ * index updates here, the WAL entry is only deleted once the index updates have been written. If the process dies with updates still
+ * queued, WAL recovery rewrites the indexes.
+ * <p>
+ * If a batch fails, its updates are queued again and retried on the next flush.
+ *
+ * @author kireet
+ */
+class AsyncIndexWriter<K, V> extends DaoHelperBase<K, V>
+{
+    private static final AtomicInteger _threadId = new AtomicInteger();
+    private static final int BATCH_SIZE = 500;
+
+    private final ConcurrentLinkedQueue<Entry> _queue = new ConcurrentLinkedQueue<Entry>();
+    private final AtomicInteger _size = new AtomicInteger();
+    private final AtomicBoolean _flushScheduled = new AtomicBoolean();
+    private final long _flushInterval;
+    private final int _maxSize;
+    private final WalCleanupQueue<K, V> _walCleanupQueue;
+    private final AsyncIndexMonitor _monitor;
+    private ScheduledExecutorService _executor;
+
+    /**
+     * @param walCleanupQueue the queue to hand WAL deletions to, null to delete WAL entries after each batch
+     */
+    AsyncIndexWriter(EntityMetadata<V> meta,
+                     IKeyspaceFactory factory,
+                     long flushInterval,
+                     int maxSize,
+                     WalCleanupQueue<K, V> walCleanupQueue,
+                     int statsSize)
+    {
+        super(meta, factory, statsSize);
+
+        if(flushInterval <= 0)
+            throw new IllegalArgumentException("flush interval must be positive: " + flushInterval);
+        if(maxSize <= 0)
+            throw new IllegalArgumentException("max size must be positive: " + maxSize);
+
+        _flushInterval = flushInterval;
+        _maxSize = maxSize;
+        _walCleanupQueue = walCleanupQueue;
+        _monitor = new AsyncIndexMonitor(_stats, this);
+    }
+
+    public void init()
+    {
+        _executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+                                                                {
+                                                                    public Thread newThread(Runnable r)
+                                                                    {
+                                                                        Thread t = new Thread(r, "async-index-" + _entityMeta.getFamilyName() + "-" + _threadId.incrementAndGet());
+                                                                        t.setDaemon(true);
+                                                                        return t;
+                                                                    }
+                                                                });
+
+        _executor.scheduleWithFixedDelay(new FlushTask(), _flushInterval, _flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public void destroy()
+    {
+        _executor.shutdown();
+        try
+        {
+            _executor.awaitTermination(60, TimeUnit.SECONDS);
+        }
+        catch(InterruptedException ex)
+        {
+            _logger.warn("async index writes not complete after 60 seconds, continuing system shutdown");
+            _executor.shutdownNow();
+        }
+
+        flush();
+    }
+
+    public AsyncIndexMonitor monitor()
+    {
+        return _monitor;
+    }
+
+    public int size()
+    {
+        return _size.get();
+    }
+
+    /**
+     * @return the age in millis of the oldest queued entry, 0 if the queue is empty
+     */
+    public long oldestPendingAge()
+    {
+        Entry e = _queue.peek();
+        return e == null ? 0 : System.currentTimeMillis() - e.queueTime;
+    }
+
+    /**
+     * queue index updates, the rows they belong to must already have been written.
+     * @param entries the entries
+     */
+    public void addAll(Collection<Entry> entries)
+    {
+        _queue.addAll(entries);
+
+        if(_size.addAndGet(entries.size()) >= _maxSize && _flushScheduled.compareAndSet(false, true))
+        {
+            _logger.debug("async index queue for {} full, flushing", _entityMeta.getFamilyName());
+            _executor.execute(new FlushTask());
+        }
+    }
+
+    /**
+     * write all queued index updates.
+     */
+    public synchronized void flush()
+    {
+        _flushScheduled.set(false);
+        long startTime = System.nanoTime();
+        int cnt = 0, updateCnt = 0, batches = 0;
+        long maxLag = -1;
+
+        while(true)
+        {
+            Mutator<byte[]> mutator = HFactory.createMutator(_keyspaceFactory.createKeyspace(null), SER_BYTES);
+            List<Entry> batch = new ArrayList<Entry>();
+            int batchUpdates = 0;
+            Entry e;
+            while(batchUpdates < BATCH_SIZE && (e = _queue.poll()) != null)
+            {
+                for(Update u : e.updates)
+                    u.addTo(mutator, _entityMeta.getIndexFamilyName());
+
+                batch.add(e);
+                batchUpdates += e.updates.size();
+            }
+
+            if(batch.isEmpty())
+                break;
+
+            _size.addAndGet(-batch.size());
+
+            try
+            {
+                mutator.execute();
+            }
+            catch(RuntimeException ex)
+            {
+                _logger.warn("error writing {} index updates to {}, will retry on next flush", batchUpdates, _entityMeta.getIndexFamilyName());
+                _monitor.failedBatch();
+                addAll(batch);
+                throw ex;
+            }
+
+            long now = System.currentTimeMillis();
+            List<WalCleanupQueue.Entry> walEntries = new ArrayList<WalCleanupQueue.Entry>(batch.size());
+            for(Entry applied : batch)
+            {
+                walEntries.add(applied.walEntry);
+                maxLag = Math.max(maxLag, now - applied.queueTime);
+            }
+
+            deleteWalEntries(walEntries);
+
+            cnt += batch.size();
+            updateCnt += batchUpdates;
+            batches++;
+        }
+
+        if(batches > 0)
+        {
+            _monitor.lastAppliedLag(maxLag);
+            _stats.addRecentTiming(System.nanoTime() - startTime);
+            _stats.incrNumOps(1);
+            _stats.incrNumCassandraOps(_walCleanupQueue == null ? 2 * batches : batches);
+            _stats.incrNumRows(cnt);
+            _stats.incrNumCols(updateCnt);
+            _logger.debug("wrote {} index updates for {} rows to {}", new Object[] {updateCnt, cnt, _entityMeta.getIndexFamilyName()});
+        }
+    }
+
+    /*
+     * the index updates are written, the WAL entries are no longer needed. Failures are left for WAL recovery.
+     */
+    private void deleteWalEntries(List<WalCleanupQueue.Entry> walEntries)
+    {
+        if(_walCleanupQueue != null)
+        {
+            _walCleanupQueue.addAll(walEntries);
+            return;
+        }
+
+        Mutator<byte[]> mutator = HFactory.createMutator(_keyspaceFactory.createKeyspace(null), SER_BYTES);
+        for(WalCleanupQueue.Entry e : walEntries)
+            mutator.addDeletion(e.walRowKey, PersistenceManager.CF_IDXWAL, e.colName, SER_COMPOSITE, e.clock);
+
+        try
+        {
+            mutator.execute();
+        }
+        catch(RuntimeException ex)
+        {
+            _logger.warn("error deleting " + walEntries.size() + " WAL entries for " + _entityMeta.getFamilyName() + ", entries will be removed during WAL recovery", ex);
+        }
+    }
+
+    private class FlushTask implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            try
+            {
+                flush();
+            }
+            catch(Exception ex)
+            {
+                _logger.error("error writing async index updates for " + _entityMeta.getFamilyName(), ex);
+            }
+        }
+    }
+
+    /**
+     * the index updates of a single put row.
+     */
+    static class Entry
+    {
+        final List<Update> updates;
+        final WalCleanupQueue.Entry walEntry;
+        final long queueTime = System.currentTimeMillis();
+
+        Entry(List<Update> updates, WalCleanupQueue.Entry walEntry)
+        {
+            this.updates = updates;
+            this.walEntry = walEntry;
+        }
+    }
+
+    /**
+     * an insertion or deletion of an index column.
+     */
+    static class Update
+    {
+        final byte[] rowKey;
+        final DynamicComposite colName;
+        final long clock;
+        final int ttl;
+        final boolean delete;
+
+        Update(byte[] rowKey, DynamicComposite colName, long clock, int ttl, boolean delete)
+        {
+            this.rowKey = rowKey;
+            this.colName = colName;
+            this.clock = clock;
+            this.ttl = ttl;
+            this.delete = delete;
+        }
+
+        void addTo(Mutator<byte[]> mutator, String indexFamily)
+        {
+            if(delete)
+            {
+                mutator.addDeletion(rowKey, indexFamily, colName, SER_DYNAMIC_COMPOSITE, clock);
+            }
+            else
+            {
+                HColumn<DynamicComposite, byte[]> column = HFactory.createColumn(colName, PutHelper.IDX_COL_VAL, clock, SER_DYNAMIC_COMPOSITE, SER_BYTES);
+                if(ttl > 0)
+                    column.setTtl(ttl);
+
+                mutator.addInsertion(rowKey, indexFamily, column);
+            }
+        }
+    }
+}
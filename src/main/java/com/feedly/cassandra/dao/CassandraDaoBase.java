@@ -4,11 +4,27 @@ import java.lang.management.ManagementFactory;
 import java.lang.reflect.ParameterizedType;
 import java.lang.reflect.Type;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.management.InstanceAlreadyExistsException;
 import javax.management.MBeanServer;
@@ -30,12 +46,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.feedly.cassandra.EConsistencyLevel;
+import com.feedly.cassandra.IIndexRowPartitioner;
 import com.feedly.cassandra.IKeyspaceFactory;
+import com.feedly.cassandra.IWalRecoverable;
 import com.feedly.cassandra.PersistenceManager;
 import com.feedly.cassandra.entity.EIndexType;
 import com.feedly.cassandra.entity.EntityMetadata;
 import com.feedly.cassandra.entity.IndexMetadata;
-import com.feedly.cassandra.entity.SimplePropertyMetadata;
+import com.feedly.cassandra.entity.PropertyMetadataBase;
 import com.feedly.cassandra.entity.enhance.IEnhancedEntity;
 
 /**
@@ -49,15 +67,17 @@ import com.feedly.cassandra.entity.enhance.IEnhancedEntity;
  * 
  * @see ICassandraDao
  */
-public class CassandraDaoBase<K, V> implements ICassandraDao<K, V>
+public class CassandraDaoBase<K, V> implements ICassandraDao<K, V>, IWalRecoverable
 {
     private static final Logger _logger = LoggerFactory.getLogger(CassandraDaoBase.class.getName());
     
     static final int COL_RANGE_SIZE = 100;
     static final int ROW_RANGE_SIZE = 100;
+    private static final AtomicInteger _walThreadId = new AtomicInteger();
+    private static final AtomicInteger _findThreadId = new AtomicInteger();
     private final EntityMetadata<V> _entityMeta;
     private final EConsistencyLevel _defaultConsistency;
-    private final List<SimplePropertyMetadata> _rangeIndexedProps;
+    private final List<PropertyMetadataBase> _rangeIndexedProps;
 
     private GetHelper<K, V> _getHelper;
     private FindHelper<K, V> _findHelper;
@@ -67,6 +87,38 @@ public class CassandraDaoBase<K, V> implements ICassandraDao<K, V>
     private IStaleIndexValueStrategy _staleIndexValueStrategy;
     private int _statsSize = MBeanUtils.DEFAULT_STATS_SIZE;
     private OperationStatistics _walRecoveryStats;
+    private ExecutorService _walRecoveryExecutor;
+    private int _walRecoveryThreads = 4;
+    private int _walRecoveryBatchSize = 100;
+    private int _walRecoveryRate;
+    private RateLimiter _walRecoveryLimiter;
+    private long _writeBehindInterval;
+    private int _writeBehindMaxSize = 1000;
+    private WriteBehindBuffer<K, V> _writeBehindBuffer;
+    private long _counterFlushInterval;
+    private boolean _mergePendingCounters;
+    private CounterAccumulator<K, V> _counterAccumulator;
+    private long _walCleanupInterval;
+    private int _walCleanupMaxSize = 5000;
+    private WalCleanupQueue<K, V> _walCleanupQueue;
+    private long _asyncIndexInterval = 1000;
+    private int _asyncIndexMaxSize = 5000;
+    private AsyncIndexWriter<K, V> _asyncIndexWriter;
+    private long _indexSweepInterval;
+    private int _indexSweepRate;
+    private long _indexSweepMinAge = 60000;
+    private List<IndexSweeper<K, V>> _indexSweepers = Collections.emptyList();
+    private ScheduledExecutorService _indexSweepExecutor;
+    private int _indexBackfillThreads = 4;
+    private int _indexBackfillBatchSize = 1000;
+    private int _indexBackfillRate;
+    private IndexBackfill<K, V> _indexBackfill;
+    private IndexMigration<K, V> _indexMigration;
+    private final Map<IndexMetadata, IIndexRowPartitioner> _migrationTargets = new HashMap<IndexMetadata, IIndexRowPartitioner>();
+    private boolean _costBasedIndexSelection;
+    private int _findInThreads = 4;
+    private ExecutorService _findInExecutor;
+    private Map<IndexMetadata, IndexStatistics> _indexStatistics;
     
     protected CassandraDaoBase()
     {
@@ -103,12 +155,12 @@ public class CassandraDaoBase<K, V> implements ICassandraDao<K, V>
 
 
 
-        List<SimplePropertyMetadata> props = new ArrayList<SimplePropertyMetadata>();
+        List<PropertyMetadataBase> props = new ArrayList<PropertyMetadataBase>();
         for(IndexMetadata idxMeta : _entityMeta.getIndexes())
         {
             if(idxMeta.getType() == EIndexType.RANGE)
             {
-                props.addAll(idxMeta.getIndexedProperties());
+                props.addAll(idxMeta.getSourceProperties());
             }
         }
         
@@ -131,8 +183,219 @@ public class CassandraDaoBase<K, V> implements ICassandraDao<K, V>
         _staleIndexValueStrategy = strategy;
     }
     
+    /**
+     * enable write behind puts, see {@link PutOptions#setWriteBehind(boolean)}. Buffered puts are written at least this often.
+     * @param millis the flush interval in milliseconds, 0 (the default) disables write behind.
+     */
+    public void setWriteBehindInterval(long millis)
+    {
+        _writeBehindInterval = millis;
+    }
+
+    /**
+     * set the number of buffered rows that triggers an immediate flush when using write behind puts.
+     * @param maxSize the max size
+     */
+    public void setWriteBehindMaxSize(int maxSize)
+    {
+        _writeBehindMaxSize = maxSize;
+    }
+
+    /**
+     * set the number of threads used to recover WAL entries, see {@link #checkWal(long)}.
+     * @param threads the number of threads, 1 recovers entries in the calling thread
+     */
+    public void setWalRecoveryThreads(int threads)
+    {
+        _walRecoveryThreads = threads;
+    }
+    
+    /**
+     * set the number of WAL entries read and recovered together.
+     * @param batchSize the batch size
+     */
+    public void setWalRecoveryBatchSize(int batchSize)
+    {
+        _walRecoveryBatchSize = batchSize;
+    }
+    
+    /**
+     * limit the rate of WAL recovery to avoid overloading the cluster after an outage.
+     * @param entriesPerSecond the maximum number of entries recovered per second, 0 (the default) is unlimited
+     */
+    public void setWalRecoveryRate(int entriesPerSecond)
+    {
+        _walRecoveryRate = entriesPerSecond;
+    }
+    
+    /**
+     * delete WAL entries for range indexed puts in the background rather than before the put returns. This removes a round trip from
+     * each indexed put. Note the WAL insert is still written separately before the put, cassandra batches are not atomic so combining
+     * them could leave index updates without a WAL entry.
+     * @param millis the interval queued deletions are written at, 0 (the default) deletes WAL entries synchronously.
+     */
+    public void setWalCleanupInterval(long millis)
+    {
+        _walCleanupInterval = millis;
+    }
+    
+    /**
+     * set the number of queued WAL deletions that triggers an immediate background flush.
+     * @param maxSize the max size
+     * @see #setWalCleanupInterval(long)
+     */
+    public void setWalCleanupMaxSize(int maxSize)
+    {
+        _walCleanupMaxSize = maxSize;
+    }
+    
+    /**
+     * set how often updates to asynchronously maintained indexes are written. This bounds the time finds may not reflect a put.
+     * @param millis the interval, defaults to 1 second
+     * @see com.feedly.cassandra.anno.Column#asyncRangeIndex()
+     * @see com.feedly.cassandra.anno.Index#async()
+     */
+    public void setAsyncIndexInterval(long millis)
+    {
+        _asyncIndexInterval = millis;
+    }
+    
+    /**
+     * set the number of queued asynchronous index updates that triggers an immediate background write.
+     * @param maxSize the max size
+     * @see #setAsyncIndexInterval(long)
+     */
+    public void setAsyncIndexMaxSize(int maxSize)
+    {
+        _asyncIndexMaxSize = maxSize;
+    }
+    
+    /**
+     * periodically sweep range indexes for stale entries, see {@link #sweepIndexes()}.
+     * @param millis the delay between sweeps, 0 (the default) disables background sweeps
+     */
+    public void setIndexSweepInterval(long millis)
+    {
+        _indexSweepInterval = millis;
+    }
+    
+    /**
+     * limit the rate index entries are verified at while sweeping.
+     * @param entriesPerSecond the max number of entries verified per second, 0 (the default) is unlimited
+     */
+    public void setIndexSweepRate(int entriesPerSecond)
+    {
+        _indexSweepRate = entriesPerSecond;
+    }
+    
+    /**
+     * set the minimum age of index entries verified while sweeping. Younger entries may belong to puts still in flight.
+     * @param millis the min age, defaults to 1 minute
+     */
+    public void setIndexSweepMinAge(long millis)
+    {
+        _indexSweepMinAge = millis;
+    }
+    
+    /**
+     * set the number of batches processed in parallel when backfilling an index.
+     * @param threads the thread count, defaults to 4
+     * @see #backfillIndex(String...)
+     */
+    public void setIndexBackfillThreads(int threads)
+    {
+        _indexBackfillThreads = threads;
+    }
+    
+    /**
+     * set the number of rows read and indexed at once when backfilling an index.
+     * @param batchSize the batch size, defaults to 1000
+     * @see #backfillIndex(String...)
+     */
+    public void setIndexBackfillBatchSize(int batchSize)
+    {
+        _indexBackfillBatchSize = batchSize;
+    }
+    
+    /**
+     * limit the rate rows are indexed at when backfilling an index.
+     * @param rowsPerSecond the max number of rows indexed per second, 0 (the default) is unlimited
+     * @see #backfillIndex(String...)
+     */
+    public void setIndexBackfillRate(int rowsPerSecond)
+    {
+        _indexBackfillRate = rowsPerSecond;
+    }
+    
+    /**
+     * choose the index used by finds by estimated cost rather than by the number of matching properties. Costs are estimated from
+     * statistics sampled from puts and finds since startup, until enough values have been sampled indexes are chosen as usual. Written
+     * values are only sampled when enabled.
+     * @param costBased true to enable cost based selection, defaults to false
+     * @see #indexStatistics()
+     */
+    public void setCostBasedIndexSelection(boolean costBased)
+    {
+        _costBasedIndexSelection = costBased;
+    }
+    
+    /**
+     * set the number of range index slices read in parallel by {@link #mfindIn(String, Collection, FindOptions)} and 
+     * {@link #mfindBetween(List, List, FindBetweenOptions)}.
+     * @param threads the number of threads, 1 reads slices in the calling thread. Defaults to 4.
+     */
+    public void setFindInThreads(int threads)
+    {
+        _findInThreads = threads;
+    }
+    
+    /**
+     * accumulate counter increments locally and write the summed increments periodically rather than on each put. This greatly reduces
+     * the write load for frequently incremented counters, at the cost of increments being lost if the process dies before a flush.
+     * @param millis the flush interval in milliseconds, 0 (the default) writes increments immediately.
+     */
+    public void setCounterFlushInterval(long millis)
+    {
+        _counterFlushInterval = millis;
+    }
+
+    /**
+     * when accumulating counter increments, add unwritten increments to counter values when reading. Only applies to counters that
+     * already exist in cassandra.
+     * @param merge true to merge pending increments
+     * @see #setCounterFlushInterval(long)
+     */
+    public void setMergePendingCounters(boolean merge)
+    {
+        _mergePendingCounters = merge;
+    }
+    
     public void destroy()
     {
+        if(_keyspaceFactory instanceof PersistenceManager && !_rangeIndexedProps.isEmpty())
+            ((PersistenceManager) _keyspaceFactory).unregisterDao(this);
+        
+        if(_writeBehindBuffer != null)
+            _writeBehindBuffer.destroy();
+        
+        if(_counterAccumulator != null)
+            _counterAccumulator.destroy();
+        
+        if(_asyncIndexWriter != null)
+            _asyncIndexWriter.destroy();
+        
+        if(_walCleanupQueue != null)
+            _walCleanupQueue.destroy();
+        
+        if(_walRecoveryExecutor != null)
+            _walRecoveryExecutor.shutdownNow();
+        
+        if(_indexSweepExecutor != null)
+            _indexSweepExecutor.shutdownNow(); //sweeps are checkpointed, an interrupted sweep resumes on the next run
+        
+        if(_findInExecutor != null)
+            _findInExecutor.shutdownNow();
+        
         unregisterMBeans();
     }
     
@@ -170,8 +433,160 @@ public class CassandraDaoBase<K, V> implements ICassandraDao<K, V>
         _findHelper = new FindHelper<K, V>(_entityMeta, withDefault, _staleIndexValueStrategy, _statsSize);
         _putHelper = new PutHelper<K, V>(_entityMeta, withDefault, _statsSize);
         _deleteHelper = new DeleteHelper<K, V>(_entityMeta, withDefault, _statsSize);
+        
+        _indexStatistics = new HashMap<IndexMetadata, IndexStatistics>();
+        for(IndexMetadata idxMeta : _entityMeta.getIndexes())
+            _indexStatistics.put(idxMeta, new IndexStatistics(idxMeta));
+        _putHelper.setIndexStatistics(_indexStatistics, _costBasedIndexSelection);
+        _findHelper.setIndexStatistics(_indexStatistics, _costBasedIndexSelection);
+        
         _walRecoveryStats = new OperationStatistics(_statsSize);
+        
+        if(_walRecoveryBatchSize <= 0)
+            throw new IllegalStateException("WAL recovery batch size must be positive");
+        
+        if(_walRecoveryRate > 0)
+            _walRecoveryLimiter = new RateLimiter(_walRecoveryRate);
+        
+        if(_walRecoveryThreads > 1 && !_rangeIndexedProps.isEmpty())
+        {
+            _walRecoveryExecutor = Executors.newFixedThreadPool(_walRecoveryThreads, 
+                                                                new ThreadFactory()
+                                                                {
+                                                                    public Thread newThread(Runnable r)
+                                                                    {
+                                                                        Thread t = new Thread(r, "wal-recovery-" + _entityMeta.getFamilyName() + "-" + _walThreadId.incrementAndGet());
+                                                                        t.setDaemon(true);
+                                                                        return t;
+                                                                    }
+                                                                });
+        }
+        
+        if(_findInThreads > 1 && !_rangeIndexedProps.isEmpty())
+        {
+            _findInExecutor = Executors.newFixedThreadPool(_findInThreads, 
+                                                           new ThreadFactory()
+                                                           {
+                                                               public Thread newThread(Runnable r)
+                                                               {
+                                                                   Thread t = new Thread(r, "find-in-" + _entityMeta.getFamilyName() + "-" + _findThreadId.incrementAndGet());
+                                                                   t.setDaemon(true);
+                                                                   return t;
+                                                               }
+                                                           });
+            _findHelper.setExecutor(_findInExecutor);
+        }
+        
+        if(_writeBehindInterval > 0)
+        {
+            _writeBehindBuffer = new WriteBehindBuffer<K, V>(_entityMeta, withDefault, _putHelper, _writeBehindInterval, _writeBehindMaxSize, _statsSize);
+            _writeBehindBuffer.init();
+        }
+        
+        if(_walCleanupInterval > 0)
+        {
+            _walCleanupQueue = new WalCleanupQueue<K, V>(_entityMeta, withDefault, _walCleanupInterval, _walCleanupMaxSize, _statsSize);
+            _walCleanupQueue.init();
+            _putHelper.setWalCleanupQueue(_walCleanupQueue);
+            _deleteHelper.setWalCleanupQueue(_walCleanupQueue);
+        }
+        
+        for(IndexMetadata idxMeta : _entityMeta.getIndexes())
+        {
+            if(idxMeta.isAsync())
+            {
+                _asyncIndexWriter = new AsyncIndexWriter<K, V>(_entityMeta, withDefault, _asyncIndexInterval, _asyncIndexMaxSize, _walCleanupQueue, _statsSize);
+                _asyncIndexWriter.init();
+                _putHelper.setAsyncIndexWriter(_asyncIndexWriter);
+                break;
+            }
+        }
+        
+        if(!_rangeIndexedProps.isEmpty())
+        {
+            RateLimiter limiter = _indexSweepRate > 0 ? new RateLimiter(_indexSweepRate) : null;
+            _indexSweepers = new ArrayList<IndexSweeper<K, V>>();
+            for(IndexMetadata idxMeta : _entityMeta.getIndexes())
+            {
+                if(idxMeta.getType() == EIndexType.RANGE)
+                {
+                    IndexSweeper<K, V> sweeper = 
+                            new IndexSweeper<K, V>(_entityMeta, withDefault, _getHelper, idxMeta, ROW_RANGE_SIZE, _indexSweepMinAge, limiter, _statsSize);
+                    sweeper.setIndexStatistics(_indexStatistics.get(idxMeta));
+                    _indexSweepers.add(sweeper);
+                }
+            }
+        }
+        
+        if(!_rangeIndexedProps.isEmpty())
+        {
+            _indexBackfill = new IndexBackfill<K, V>(_entityMeta, 
+                                                     withDefault, 
+                                                     _getHelper, 
+                                                     _indexBackfillThreads, 
+                                                     _indexBackfillBatchSize, 
+                                                     _indexBackfillRate > 0 ? new RateLimiter(_indexBackfillRate) : null, 
+                                                     _statsSize);
+            _findHelper.setIndexBackfill(_indexBackfill);
+            
+            _indexMigration = new IndexMigration<K, V>(_entityMeta, 
+                                                       withDefault, 
+                                                       _indexBackfillBatchSize, 
+                                                       _indexBackfillRate > 0 ? new RateLimiter(_indexBackfillRate) : null, 
+                                                       _statsSize);
+            restoreIndexMigrations();
+        }
+        
+        if(_indexSweepInterval > 0 && !_indexSweepers.isEmpty())
+        {
+            _indexSweepExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+                                                                             {
+                                                                                 public Thread newThread(Runnable r)
+                                                                                 {
+                                                                                     Thread t = new Thread(r, "index-sweep-" + _entityMeta.getFamilyName());
+                                                                                     t.setDaemon(true);
+                                                                                     return t;
+                                                                                 }
+                                                                             });
+            
+            _indexSweepExecutor.scheduleWithFixedDelay(new Runnable()
+                                                       {
+                                                           @Override
+                                                           public void run()
+                                                           {
+                                                               try
+                                                               {
+                                                                   sweepIndexes();
+                                                               }
+                                                               catch(Exception ex)
+                                                               {
+                                                                   _logger.error("error sweeping indexes of " + _entityMeta.getFamilyName(), ex);
+                                                               }
+                                                           }
+                                                       },
+                                                       _indexSweepInterval,
+                                                       _indexSweepInterval,
+                                                       TimeUnit.MILLISECONDS);
+        }
+        
+        if(_counterFlushInterval > 0)
+        {
+            _counterAccumulator = new CounterAccumulator<K, V>(_entityMeta, withDefault, _counterFlushInterval, _statsSize);
+            _counterAccumulator.init();
+            _putHelper.setCounterAccumulator(_counterAccumulator);
+            _deleteHelper.setCounterAccumulator(_counterAccumulator);
+            
+            if(_mergePendingCounters)
+            {
+                _getHelper.setPendingCounters(_counterAccumulator);
+                _findHelper.setPendingCounters(_counterAccumulator);
+            }
+        }
+        
         registerMBeans();
+        
+        if(_keyspaceFactory instanceof PersistenceManager && !_rangeIndexedProps.isEmpty())
+            ((PersistenceManager) _keyspaceFactory).registerDao(this);
     }
 
     
@@ -180,6 +595,16 @@ public class CassandraDaoBase<K, V> implements ICassandraDao<K, V>
         return MBeanUtils.mBeanName(this, _entityMeta.getType().getSimpleName(), name);
     }
     
+    private String sweepMBeanName(IndexSweeper<K, V> sweeper)
+    {
+        return "indexSweepStats_" + sweeper.index().id().replaceAll("[^A-Za-z0-9_]", "_");
+    }
+    
+    private String partitionMBeanName(IndexMetadata index)
+    {
+        return "indexPartitionStats_" + index.id().replaceAll("[^A-Za-z0-9_]", "_");
+    }
+    
     private void registerMBeans()
     {
         MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
@@ -201,6 +626,33 @@ public class CassandraDaoBase<K, V> implements ICassandraDao<K, V>
             mbs.registerMBean(new OperationStatisticsMonitor(rangeFindStats()), mBeanName("rangeFindStats"));
             mbs.registerMBean(new OperationStatisticsMonitor(rangeFindIndexStats()), mBeanName("rangeFindIdxStats"));
             
+            if(_writeBehindBuffer != null)
+                mbs.registerMBean(_writeBehindBuffer.monitor(), mBeanName("writeBehindStats"));
+            
+            if(_walCleanupQueue != null)
+                mbs.registerMBean(new OperationStatisticsMonitor(_walCleanupQueue.stats()), mBeanName("walCleanupStats"));
+            
+            if(_asyncIndexWriter != null)
+                mbs.registerMBean(_asyncIndexWriter.monitor(), mBeanName("asyncIndexStats"));
+            
+            if(_counterAccumulator != null)
+                mbs.registerMBean(new OperationStatisticsMonitor(_counterAccumulator.stats()), mBeanName("counterFlushStats"));
+            
+            for(IndexSweeper<K, V> sweeper : _indexSweepers)
+                mbs.registerMBean(sweeper.monitor(), mBeanName(sweepMBeanName(sweeper)));
+            
+            if(_indexBackfill != null)
+                mbs.registerMBean(new OperationStatisticsMonitor(_indexBackfill.stats()), mBeanName("indexBackfillStats"));
+            
+            if(_indexMigration != null)
+                mbs.registerMBean(new OperationStatisticsMonitor(_indexMigration.stats()), mBeanName("indexMigrationStats"));
+            
+            for(IndexStatistics indexStatistics : _indexStatistics.values())
+            {
+                if(indexStatistics.getIndex().getType() == EIndexType.RANGE)
+                    mbs.registerMBean(new IndexPartitionMonitor(indexStatistics.partitions()), mBeanName(partitionMBeanName(indexStatistics.getIndex())));
+            }
+            
             _logger.info("monitoring registration complete for {}", getClass().getSimpleName());
         } 
         catch(InstanceAlreadyExistsException e) 
@@ -233,6 +685,33 @@ public class CassandraDaoBase<K, V> implements ICassandraDao<K, V>
             
             mbs.unregisterMBean(mBeanName("rangeFindStats"));
             mbs.unregisterMBean(mBeanName("rangeFindIdxStats"));
+            
+            if(_writeBehindBuffer != null)
+                mbs.unregisterMBean(mBeanName("writeBehindStats"));
+            
+            if(_walCleanupQueue != null)
+                mbs.unregisterMBean(mBeanName("walCleanupStats"));
+            
+            if(_asyncIndexWriter != null)
+                mbs.unregisterMBean(mBeanName("asyncIndexStats"));
+            
+            if(_counterAccumulator != null)
+                mbs.unregisterMBean(mBeanName("counterFlushStats"));
+            
+            for(IndexSweeper<K, V> sweeper : _indexSweepers)
+                mbs.unregisterMBean(mBeanName(sweepMBeanName(sweeper)));
+            
+            if(_indexBackfill != null)
+                mbs.unregisterMBean(mBeanName("indexBackfillStats"));
+            
+            if(_indexMigration != null)
+                mbs.unregisterMBean(mBeanName("indexMigrationStats"));
+            
+            for(IndexStatistics indexStatistics : _indexStatistics.values())
+            {
+                if(indexStatistics.getIndex().getType() == EIndexType.RANGE)
+                    mbs.unregisterMBean(mBeanName(partitionMBeanName(indexStatistics.getIndex())));
+            }
 
             _logger.info("monitoring unregistration complete for {}", getClass().getSimpleName());
         } 
@@ -317,7 +796,10 @@ public class CassandraDaoBase<K, V> implements ICassandraDao<K, V>
         if(options == null)
             options = new PutOptions();
         
-        _putHelper.put(value, options);
+        if(options.isWriteBehind())
+            writeBehindBuffer().mput(Collections.singleton(value), options);
+        else
+            _putHelper.put(value, options);
     }
     
     
@@ -333,7 +815,36 @@ public class CassandraDaoBase<K, V> implements ICassandraDao<K, V>
         if(options == null)
             options = new PutOptions();
         
-        _putHelper.mput(values, options);
+        if(options.isWriteBehind())
+            writeBehindBuffer().mput(values, options);
+        else
+            _putHelper.mput(values, options);
+    }
+    
+    /**
+     * write all buffered write behind puts, accumulated counter increments, queued async index updates and queued WAL deletions.
+     */
+    public void flush()
+    {
+        if(_writeBehindBuffer != null)
+            _writeBehindBuffer.flush();
+        
+        if(_counterAccumulator != null)
+            _counterAccumulator.flush();
+        
+        if(_asyncIndexWriter != null)
+            _asyncIndexWriter.flush();
+        
+        if(_walCleanupQueue != null)
+            _walCleanupQueue.flush();
+    }
+    
+    private WriteBehindBuffer<K, V> writeBehindBuffer()
+    {
+        if(_writeBehindBuffer == null)
+            throw new IllegalStateException("write behind not enabled, see setWriteBehindInterval");
+        
+        return _writeBehindBuffer;
     }
     
     @Override
@@ -409,6 +920,20 @@ public class CassandraDaoBase<K, V> implements ICassandraDao<K, V>
         return _findHelper.mfind(template, options);
     }
 
+    @Override
+    public Collection<V> mfindIn(String property, Collection<?> values)
+    {
+        return mfindIn(property, values, null);
+    }
+
+    @Override
+    public Collection<V> mfindIn(String property, Collection<?> values, FindOptions options)
+    {
+        if(options == null)
+            options = new FindOptions();
+        return _findHelper.mfindIn(property, values, options);
+    }
+
     @Override
     public Collection<V> mfindBetween(V startTemplate, V endTemplate)
     {
@@ -424,6 +949,43 @@ public class CassandraDaoBase<K, V> implements ICassandraDao<K, V>
         return _findHelper.mfindBetween(startTemplate, endTemplate, options);
     }
 
+    @Override
+    public Collection<V> mfindBetween(List<V> startTemplates, List<V> endTemplates, FindBetweenOptions options)
+    {
+        if(options == null)
+            options = new FindBetweenOptions();
+        
+        return _findHelper.mfindBetween(startTemplates, endTemplates, options);
+    }
+
+    public FindPlan explain(V template)
+    {
+        return explain(template, null);
+    }
+    
+    @Override
+    public FindPlan explain(V template, FindOptions options)
+    {
+        if(options == null)
+            options = new FindOptions();
+        
+        return _findHelper.explain(template, options);
+    }
+    
+    public FindPlan explainBetween(V startTemplate, V endTemplate)
+    {
+        return explainBetween(startTemplate, endTemplate, null);
+    }
+    
+    @Override
+    public FindPlan explainBetween(V startTemplate, V endTemplate, FindBetweenOptions options)
+    {
+        if(options == null)
+            options = new FindBetweenOptions();
+        
+        return _findHelper.explainBetween(startTemplate, endTemplate, options);
+    }
+
     @Override
     public void delete(K key)
     {
@@ -453,76 +1015,493 @@ public class CassandraDaoBase<K, V> implements ICassandraDao<K, V>
         _deleteHelper.mdelete(keys, options);
     }
     
+    @Override
+    public int mdeleteByTemplate(V template)
+    {
+        return mdeleteByTemplate(template, null);
+    }
+    
+    @SuppressWarnings("unchecked")
+    @Override
+    public int mdeleteByTemplate(V template, DeleteOptions options)
+    {
+        if(options == null)
+            options = new DeleteOptions();
+        
+        FindOptions findOptions = new FindOptions(_deleteHelper.deleteIncludes(template), null);
+        findOptions.setConsistencyLevel(options.getConsistencyLevel());
+        
+        return _deleteHelper.mdeleteValues(_findHelper.mfind(template, findOptions), options);
+    }
+    
+    @Override
+    public int mdeleteBetween(V startTemplate, V endTemplate)
+    {
+        return mdeleteBetween(startTemplate, endTemplate, null);
+    }
+    
     @SuppressWarnings("unchecked")
+    @Override
+    public int mdeleteBetween(V startTemplate, V endTemplate, DeleteOptions options)
+    {
+        if(options == null)
+            options = new DeleteOptions();
+        
+        FindBetweenOptions findOptions = new FindBetweenOptions(_deleteHelper.deleteIncludes(startTemplate, endTemplate), null);
+        findOptions.setConsistencyLevel(options.getConsistencyLevel());
+        
+        return _deleteHelper.mdeleteValues(_findHelper.mfindBetween(startTemplate, endTemplate, findOptions), options);
+    }
+    
+    /**
+     * remove stale entries from all range indexes. Every index entry is verified against the row it references, each index sweep resumes
+     * from where the last one was interrupted, if it was.
+     * @return the number of stale entries removed
+     * @see #setIndexSweepInterval(long)
+     * @see #setIndexSweepRate(int)
+     * @see #setIndexSweepMinAge(long)
+     */
+    public int sweepIndexes()
+    {
+        int cnt = 0;
+        for(IndexSweeper<K, V> sweeper : _indexSweepers)
+            cnt += sweeper.sweep();
+        
+        return cnt;
+    }
+    
+    /**
+     * index existing rows for a range index, typically after adding the index to the entity. Until complete, the index is marked as
+     * building and finds will not use it. An interrupted backfill is resumed by calling this method again.
+     * @param props the index's properties, in index order
+     * @return the number of rows indexed
+     * @see #setIndexBackfillThreads(int)
+     * @see #setIndexBackfillBatchSize(int)
+     * @see #setIndexBackfillRate(int)
+     */
+    public int backfillIndex(String... props)
+    {
+        return _indexBackfill.backfill(rangeIndex(props));
+    }
+    
+    private IndexMetadata rangeIndex(String... props)
+    {
+        for(IndexMetadata idxMeta : _entityMeta.getIndexes())
+        {
+            if(idxMeta.getType() != EIndexType.RANGE || idxMeta.getIndexedProperties().size() != props.length)
+                continue;
+            
+            boolean matches = true;
+            for(int i = 0; i < props.length && matches; i++)
+                matches = idxMeta.getIndexedProperties().get(i).getName().equals(props[i]);
+            
+            if(matches)
+                return idxMeta;
+        }
+        
+        throw new IllegalArgumentException("no range index on " + Arrays.toString(props));
+    }
+    
+    /**
+     * start moving a range index to a new partitioner, e.g. to split up hot or overly wide index rows. From now on index entries are written
+     * to the rows of both partitioners, finds still read the current rows. A migration is completed in steps:
+     * <ol>
+     * <li>call this method in every process writing the entity</li>
+     * <li>call {@link #migrateIndexPartitioner(String...)} in one process to copy existing entries</li>
+     * <li>call {@link #switchIndexPartitioner(String...)} in the remaining processes</li>
+     * <li>call {@link #completeIndexPartitionerMigration(boolean, String...)} in every process, removing old entries in one of them</li>
+     * </ol>
+     * The partitioners and the phase reached are saved, processes (re)started during a migration restore them in {@link #init()}, others 
+     * running pick them up in {@link #refreshIndexStatus()}. The new partitioner is restored using its no-arg constructor, as if it were 
+     * set in the index annotation, which should be changed to the new partitioner once the migration is complete.
+     * @param partitioner the new partitioner
+     * @param props the index's properties, in index order
+     */
+    public synchronized void startIndexPartitionerMigration(IIndexRowPartitioner partitioner, String... props)
+    {
+        IndexMetadata index = rangeIndex(props);
+        if(_migrationTargets.containsKey(index))
+            throw new IllegalStateException("index " + index + " is already being migrated");
+        
+        try
+        {
+            partitioner.getClass().getConstructor();
+        }
+        catch(NoSuchMethodException ex)
+        {
+            throw new IllegalArgumentException("partitioner " + partitioner.getClass().getName() + " has no public no-arg constructor");
+        }
+        
+        _indexMigration.saveState(index, index.getIndexPartitioner(), partitioner, IndexMigration.EPhase.STARTED);
+        _migrationTargets.put(index, partitioner);
+        index.setIndexPartitioners(index.getIndexPartitioner(), partitioner);
+        _logger.info("writing index {} of {} using {} and {}", 
+                     new Object[] {index, _entityMeta.getFamilyName(), index.getIndexPartitioner(), partitioner});
+    }
+    
+    /**
+     * copy the existing entries of a migrating range index to the new partitioner's rows, then switch finds in this process to the new
+     * rows. Entries are still written to the old rows until the migration is completed. An interrupted copy is resumed by calling this
+     * method again.
+     * @param props the index's properties, in index order
+     * @return the number of entries copied
+     * @see #startIndexPartitionerMigration(IIndexRowPartitioner, String...)
+     * @see #setIndexBackfillBatchSize(int)
+     * @see #setIndexBackfillRate(int)
+     */
+    public int migrateIndexPartitioner(String... props)
+    {
+        IndexMetadata index = rangeIndex(props);
+        IIndexRowPartitioner from, to;
+        synchronized(this)
+        {
+            to = migrationTarget(index);
+            IndexMetadata.Partitioners partitioners = index.getPartitioners();
+            from = partitioners.getIndexPartitioner() == to ? partitioners.getMigrationPartitioner() : partitioners.getIndexPartitioner();
+        }
+        
+        int cnt = _indexMigration.copy(index, from, to);
+        switchIndexPartitioner(props);
+        return cnt;
+    }
+    
+    /**
+     * switch finds to the new partitioner's rows of a migrating range index. Entries are still written to both partitioners' rows.
+     * @param props the index's properties, in index order
+     * @see #startIndexPartitionerMigration(IIndexRowPartitioner, String...)
+     */
+    public synchronized void switchIndexPartitioner(String... props)
+    {
+        IndexMetadata index = rangeIndex(props);
+        IIndexRowPartitioner target = migrationTarget(index);
+        if(index.getIndexPartitioner() != target)
+        {
+            _indexMigration.saveState(index, index.getIndexPartitioner(), target, IndexMigration.EPhase.SWITCHED);
+            index.setIndexPartitioners(target, index.getIndexPartitioner());
+        }
+    }
+    
+    /**
+     * stop writing entries of a migrating range index to the old partitioner's rows. Old entries should only be removed once finds in all
+     * processes read the new rows.
+     * @param removeOldEntries true to delete the entries in the old partitioner's rows
+     * @param props the index's properties, in index order
+     * @return the number of old entries removed
+     * @see #startIndexPartitionerMigration(IIndexRowPartitioner, String...)
+     */
+    public int completeIndexPartitionerMigration(boolean removeOldEntries, String... props)
+    {
+        IndexMetadata index = rangeIndex(props);
+        IIndexRowPartitioner old;
+        synchronized(this)
+        {
+            IIndexRowPartitioner target = migrationTarget(index);
+            if(index.getIndexPartitioner() != target)
+                throw new IllegalStateException("finds of index " + index + " have not been switched to the new partitioner");
+            
+            old = index.getMigrationPartitioner();
+            _indexMigration.saveState(index, old, target, IndexMigration.EPhase.COMPLETE);
+            index.setIndexPartitioners(target, null);
+            _migrationTargets.remove(index);
+        }
+        
+        return removeOldEntries ? _indexMigration.cleanup(index, old) : 0;
+    }
+    
+    private IIndexRowPartitioner migrationTarget(IndexMetadata index)
+    {
+        IIndexRowPartitioner target = _migrationTargets.get(index);
+        if(target == null)
+            throw new IllegalStateException("index " + index + " is not being migrated");
+        
+        return target;
+    }
+    
+    /**
+     * re-read which indexes are being backfilled and the state of index partitioner migrations. The backfill status is read on first use, 
+     * so indexes completed by other processes are used once this method is called.
+     */
+    public void refreshIndexStatus()
+    {
+        if(_indexBackfill != null)
+            _indexBackfill.loadStatus();
+        
+        if(_indexMigration != null)
+            restoreIndexMigrations();
+    }
+    
+    /*
+     * apply the saved partitioner migrations, so this process writes and reads the same layouts as the processes performing the migration
+     */
+    private synchronized void restoreIndexMigrations()
+    {
+        Map<IndexMetadata, IndexMigration.State> states;
+        try
+        {
+            states = _indexMigration.loadState();
+        }
+        catch(RuntimeException ex)
+        {
+            _logger.warn("could not read index migrations of {}, call refreshIndexStatus() once the schema exists: {}", 
+                         _entityMeta.getFamilyName(), ex.toString());
+            return;
+        }
+        
+        for(Map.Entry<IndexMetadata, IndexMigration.State> entry : states.entrySet())
+        {
+            IndexMetadata index = entry.getKey();
+            IndexMigration.State state = entry.getValue();
+            if(state.phase == IndexMigration.EPhase.COMPLETE)
+            {
+                _migrationTargets.remove(index);
+                if(index.getIndexPartitioner().getClass() != state.to.getClass() || index.getMigrationPartitioner() != null)
+                {
+                    _logger.info("index {} of {} was migrated to {}, the index annotation should be changed", 
+                                 new Object[] {index, _entityMeta.getFamilyName(), state.to.getClass().getName()});
+                    index.setIndexPartitioners(state.to, null);
+                }
+            }
+            else
+            {
+                _migrationTargets.put(index, state.to);
+                if(state.phase == IndexMigration.EPhase.SWITCHED)
+                    index.setIndexPartitioners(state.to, state.from);
+                else
+                    index.setIndexPartitioners(state.from, state.to);
+                
+                _logger.info("index {} of {} is being migrated to {}, {}", 
+                             new Object[] {index, _entityMeta.getFamilyName(), state.to.getClass().getName(), state.phase.name().toLowerCase()});
+            }
+        }
+    }
+    
+    /**
+     * make range indexes consistent for WAL entries written before a given time. Entries are read from each WAL shard in batches, the
+     * affected rows are re-read and their indexed values re-written, then the entries are deleted. Batches are processed in parallel
+     * when multiple recovery threads are configured.
+     * @param before recover entries written before this time (in millis)
+     * @return the number of entries recovered
+     * @see #setWalRecoveryThreads(int)
+     * @see #setWalRecoveryBatchSize(int)
+     * @see #setWalRecoveryRate(int)
+     */
     public int checkWal(long before)
+    {
+        return checkWal(before, null);
+    }
+    
+    /**
+     * recover WAL entries, running the renewal before each batch is read. The renewal may throw to stop recovery.
+     * @see #checkWal(long)
+     */
+    @Override
+    public int checkWal(long before, Runnable renewal)
     {
         _walRecoveryStats.incrNumOps(1);
         long startTime = System.nanoTime();
         int cnt = 0;
         if(!_rangeIndexedProps.isEmpty())
         {
-            Keyspace keyspace = _keyspaceFactory.createKeyspace(EConsistencyLevel.ALL);
+            final Keyspace keyspace = _keyspaceFactory.createKeyspace(EConsistencyLevel.ALL);
             
-            SliceQuery<byte[],Composite,byte[]> query = HFactory.createSliceQuery(keyspace, 
-                                                                                  BytesArraySerializer.get(), CompositeSerializer.get(), BytesArraySerializer.get());
-
-            query.setKey(_entityMeta.getFamilyNameBytes());
-            query.setColumnFamily(PersistenceManager.CF_IDXWAL);
-            Composite start = null;
             Composite finish = new Composite();
             finish.addComponent(before, DaoHelperBase.SER_LONG);
             finish.setEquality(ComponentEquality.LESS_THAN_EQUAL);
+
+            List<byte[]> walRowKeys = new ArrayList<byte[]>(_entityMeta.getWalRowKeys());
+            Map<byte[], Composite> positions = new IdentityHashMap<byte[], Composite>();
+            LinkedList<Future<Integer>> pending = new LinkedList<Future<Integer>>();
             
-            while(true)
+            //read the shards round robin so that all are recovered in parallel
+            while(!walRowKeys.isEmpty())
             {
-                query.setRange(start, finish, false, 100);
-                ColumnSlice<Composite,byte[]> slice = query.execute().get();
-                _walRecoveryStats.incrNumCassandraOps(1);
-
-                List<HColumn<Composite, byte[]>> columns = slice.getColumns();
-                if(columns.isEmpty())
-                    break;
-
-                Set<String> includes = new HashSet<String>(_rangeIndexedProps.size());
-                for(SimplePropertyMetadata spm : _rangeIndexedProps)
-                    includes.add(spm.getName());
-                
-                GetOptions opts = new GetOptions(includes, null);
-
-                for(HColumn<Composite, byte[]> col : columns)
+                Iterator<byte[]> iter = walRowKeys.iterator();
+                while(iter.hasNext())
                 {
-                    cnt++;
-                    _walRecoveryStats.incrNumCols(1);
-                    K key = (K) col.getName().getComponent(1).getValue(_entityMeta.getKeyMetadata().getSerializer());
-                    V val = get(key, null, opts);
+                    final byte[] walRowKey = iter.next();
+                    if(renewal != null)
+                        renewal.run();
+                    
+                    SliceQuery<byte[],Composite,byte[]> query = HFactory.createSliceQuery(keyspace, 
+                                                                                          BytesArraySerializer.get(), CompositeSerializer.get(), BytesArraySerializer.get());
+
+                    query.setKey(walRowKey);
+                    query.setColumnFamily(PersistenceManager.CF_IDXWAL);
+                    Composite position = positions.get(walRowKey);
+                    query.setRange(position, finish, false, position == null ? _walRecoveryBatchSize : _walRecoveryBatchSize + 1);
+                    List<HColumn<Composite, byte[]>> read = query.execute().get().getColumns();
+                    _walRecoveryStats.incrNumCassandraOps(1);
+                    
+                    //the start is inclusive, skip the last entry of the previous batch, it may still be being recovered
+                    if(position != null && !read.isEmpty() 
+                            && Arrays.equals(CompositeSerializer.get().toBytes(read.get(0).getName()), CompositeSerializer.get().toBytes(position)))
+                        read = read.subList(1, read.size());
                     
-                    if(val != null)
+                    final List<HColumn<Composite, byte[]>> columns = read;
+                    if(columns.isEmpty())
                     {
-                        IEnhancedEntity e = (IEnhancedEntity) val;
-                        for(SimplePropertyMetadata spm : _rangeIndexedProps)
-                            e.getModifiedFields().set(_entityMeta.getPropertyPosition(spm));
-
-                        PutOptions popts = new PutOptions();
-                        popts.setConsistencyLevel(EConsistencyLevel.ALL);
-                        
-                        _putHelper.put(val, popts, col.getClock());
+                        iter.remove();
+                        continue;
+                    }
+                    
+                    positions.put(walRowKey, columns.get(columns.size() - 1).getName());
+                    
+                    if(_walRecoveryExecutor == null)
+                        cnt += recoverWalBatch(keyspace, walRowKey, columns);
+                    else
+                    {
+                        if(pending.size() >= _walRecoveryThreads * 2)
+                            cnt += walBatchResult(pending.removeFirst());
                         
+                        pending.add(_walRecoveryExecutor.submit(new Callable<Integer>()
+                                                                {
+                                                                    @Override
+                                                                    public Integer call()
+                                                                    {
+                                                                        return recoverWalBatch(keyspace, walRowKey, columns);
+                                                                    }
+                                                                }));
                     }
-
-                    Mutator<byte[]> mutator = HFactory.createMutator(keyspace, DaoHelperBase.SER_BYTES);
-                    mutator.addDeletion(_entityMeta.getFamilyNameBytes(), PersistenceManager.CF_IDXWAL, col.getName(), DaoHelperBase.SER_COMPOSITE);
-                    mutator.execute();
-                    _walRecoveryStats.incrNumCassandraOps(2);
                 }
-                
-                start = columns.get(columns.size() - 1).getName();
             }
+            
+            while(!pending.isEmpty())
+                cnt += walBatchResult(pending.removeFirst());
         }
         
         _walRecoveryStats.addRecentTiming(System.nanoTime() - startTime);
         return cnt;
     }
     
+    /**
+     * find the time of the oldest pending WAL entry.
+     * @return the time in millis, -1 if there are no entries
+     */
+    @Override
+    public long oldestWalEntryTime()
+    {
+        long oldest = -1;
+        if(!_rangeIndexedProps.isEmpty())
+        {
+            Keyspace keyspace = _keyspaceFactory.createKeyspace(EConsistencyLevel.ONE);
+            for(byte[] walRowKey : _entityMeta.getWalRowKeys())
+            {
+                SliceQuery<byte[],Composite,byte[]> query = HFactory.createSliceQuery(keyspace, 
+                                                                                      BytesArraySerializer.get(), CompositeSerializer.get(), BytesArraySerializer.get());
+                query.setKey(walRowKey);
+                query.setColumnFamily(PersistenceManager.CF_IDXWAL);
+                query.setRange(null, null, false, 1);
+                
+                List<HColumn<Composite, byte[]>> columns = query.execute().get().getColumns();
+                if(!columns.isEmpty())
+                {
+                    long time = columns.get(0).getName().getComponent(0).getValue(DaoHelperBase.SER_LONG);
+                    if(oldest < 0 || time < oldest)
+                        oldest = time;
+                }
+            }
+        }
+        
+        return oldest;
+    }
+    
+    private int walBatchResult(Future<Integer> f)
+    {
+        try
+        {
+            return f.get();
+        }
+        catch(ExecutionException ex)
+        {
+            if(ex.getCause() instanceof RuntimeException)
+                throw (RuntimeException) ex.getCause();
+            
+            throw new IllegalStateException("error checking WAL for " + _entityMeta.getFamilyName(), ex.getCause());
+        }
+        catch(InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while checking WAL for " + _entityMeta.getFamilyName(), ex);
+        }
+    }
+    
+    /*
+     * recover a batch of WAL entries: one read of the affected rows, one batched re-put, one batched WAL deletion
+     */
+    @SuppressWarnings("unchecked")
+    private int recoverWalBatch(Keyspace keyspace, byte[] walRowKey, List<HColumn<Composite, byte[]>> columns)
+    {
+        if(_walRecoveryLimiter != null)
+        {
+            try
+            {
+                _walRecoveryLimiter.acquire(columns.size());
+            }
+            catch(InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while checking WAL for " + _entityMeta.getFamilyName(), ex);
+            }
+        }
+        
+        //the same key may have multiple entries, use the latest clock
+        Map<K, Long> clocks = new LinkedHashMap<K, Long>();
+        for(HColumn<Composite, byte[]> col : columns)
+        {
+            K key = (K) col.getName().getComponent(1).getValue(_entityMeta.getKeyMetadata().getSerializer());
+            long colClock = col.getClock();
+            if(Arrays.equals(DeleteHelper.DELETE_WAL_COL_VAL, col.getValue()))
+                colClock++; //write after the index deletions of a failed delete
+            
+            Long clock = clocks.get(key);
+            if(clock == null || clock < colClock)
+                clocks.put(key, colClock);
+        }
+
+        Set<String> includes = new HashSet<String>(_rangeIndexedProps.size());
+        for(PropertyMetadataBase pm : _rangeIndexedProps)
+            includes.add(pm.getName());
+
+        List<K> keys = new ArrayList<K>(clocks.keySet());
+        List<V> values = mget(keys, null, new GetOptions(includes, null));
+        _walRecoveryStats.incrNumCassandraOps(1);
+        
+        List<V> found = new ArrayList<V>(values.size());
+        List<Long> foundClocks = new ArrayList<Long>(values.size());
+        for(int i = 0; i < values.size(); i++)
+        {
+            V val = values.get(i);
+            if(val != null)
+            {
+                IEnhancedEntity e = (IEnhancedEntity) val;
+                for(PropertyMetadataBase pm : _rangeIndexedProps)
+                    e.getModifiedFields().set(_entityMeta.getPropertyPosition(pm));
+                
+                found.add(val);
+                foundClocks.add(clocks.get(keys.get(i)));
+            }
+        }
+        
+        if(!found.isEmpty())
+        {
+            PutOptions popts = new PutOptions();
+            popts.setConsistencyLevel(EConsistencyLevel.ALL);
+            _putHelper.mput(found, popts, foundClocks);
+            _walRecoveryStats.incrNumCassandraOps(1);
+        }
+
+        Mutator<byte[]> mutator = HFactory.createMutator(keyspace, DaoHelperBase.SER_BYTES);
+        for(HColumn<Composite, byte[]> col : columns)
+            mutator.addDeletion(walRowKey, PersistenceManager.CF_IDXWAL, col.getName(), DaoHelperBase.SER_COMPOSITE);
+        mutator.execute();
+        
+        _walRecoveryStats.incrNumCassandraOps(1);
+        _walRecoveryStats.incrNumRows(keys.size());
+        _walRecoveryStats.incrNumCols(columns.size());
+        
+        return columns.size();
+    }
+    
     public OperationStatistics getStats()
     {
         return _getHelper.stats();
@@ -567,4 +1546,38 @@ public class CassandraDaoBase<K, V> implements ICassandraDao<K, V>
     {
         return _walRecoveryStats;
     }
+
+    public OperationStatistics writeBehindStats()
+    {
+        return _writeBehindBuffer == null ? null : _writeBehindBuffer.stats();
+    }
+
+    public OperationStatistics walCleanupStats()
+    {
+        return _walCleanupQueue == null ? null : _walCleanupQueue.stats();
+    }
+
+    public OperationStatistics asyncIndexStats()
+    {
+        return _asyncIndexWriter == null ? null : _asyncIndexWriter.stats();
+    }
+
+    public OperationStatistics counterFlushStats()
+    {
+        return _counterAccumulator == null ? null : _counterAccumulator.stats();
+    }
+
+    public OperationStatistics indexBackfillStats()
+    {
+        return _indexBackfill == null ? null : _indexBackfill.stats();
+    }
+
+    /**
+     * @return the sampled statistics of each index, used for cost based index selection
+     * @see #setCostBasedIndexSelection(boolean)
+     */
+    public Collection<IndexStatistics> indexStatistics()
+    {
+        return Collections.unmodifiableCollection(_indexStatistics.values());
+    }
 }
@@ -0,0 +1,323 @@
+package com.feedly.cassandra.dao;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import me.prettyprint.hector.api.factory.HFactory;
+import me.prettyprint.hector.api.mutation.Mutator;
+
+import com.feedly.cassandra.IKeyspaceFactory;
+import com.feedly.cassandra.entity.EntityMetadata;
+
+/**
+ * accumulates counter increments locally and periodically writes the aggregated deltas to the counter column family. Increments are
+ * summed per (row key, column) without locking, so many increments to a hot counter result in a single counter mutation per flush.
+ * <p>
+ * If a flush fails, the deltas are added back and retried on the next flush. Deleting a counter discards its pending delta.
+ *
+ * @author kireet
+ */
+class CounterAccumulator<K, V> extends DaoHelperBase<K, V>
+{
+    private static final AtomicInteger _threadId = new AtomicInteger();
+    private static final int BATCH_SIZE = 500;
+    private static final long RETIRED = Long.MIN_VALUE; //marks an idle accumulator that has been (or is being) removed
+
+    private final ConcurrentHashMap<CounterKey, AtomicLong> _deltas = new ConcurrentHashMap<CounterKey, AtomicLong>();
+    private final long _flushInterval;
+    private final Object _flushLock = new Object();
+    private ScheduledExecutorService _executor;
+
+    CounterAccumulator(EntityMetadata<V> meta, IKeyspaceFactory factory, long flushInterval, int statsSize)
+    {
+        super(meta, factory, statsSize);
+
+        if(flushInterval <= 0)
+            throw new IllegalArgumentException("flush interval must be positive: " + flushInterval);
+
+        _flushInterval = flushInterval;
+    }
+
+    public void init()
+    {
+        _executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+                                                                {
+                                                                    public Thread newThread(Runnable r)
+                                                                    {
+                                                                        Thread t = new Thread(r, "counter-accumulator-" + _entityMeta.getFamilyName() + "-" + _threadId.incrementAndGet());
+                                                                        t.setDaemon(true);
+                                                                        return t;
+                                                                    }
+                                                                });
+
+        _executor.scheduleWithFixedDelay(new Runnable()
+                                         {
+                                             @Override
+                                             public void run()
+                                             {
+                                                 try
+                                                 {
+                                                     flush();
+                                                 }
+                                                 catch(Exception ex)
+                                                 {
+                                                     _logger.error("error flushing counters for " + _entityMeta.getFamilyName(), ex);
+                                                 }
+                                             }
+                                         },
+                                         _flushInterval,
+                                         _flushInterval,
+                                         TimeUnit.MILLISECONDS);
+    }
+
+    public void destroy()
+    {
+        _executor.shutdown();
+        try
+        {
+            _executor.awaitTermination(60, TimeUnit.SECONDS);
+        }
+        catch(InterruptedException ex)
+        {
+            _logger.warn("counter flush not complete after 60 seconds, continuing system shutdown");
+            _executor.shutdownNow();
+        }
+
+        flush();
+    }
+
+    /**
+     * add an increment to a counter
+     * @param rowKey the serialized row key
+     * @param colName the serialized counter column name
+     * @param delta the increment
+     */
+    public void add(byte[] rowKey, byte[] colName, long delta)
+    {
+        if(delta == 0)
+            return;
+
+        CounterKey key = new CounterKey(rowKey, colName);
+        while(true)
+        {
+            AtomicLong counter = _deltas.get(key);
+            if(counter == null)
+            {
+                counter = new AtomicLong();
+                AtomicLong existing = _deltas.putIfAbsent(key, counter);
+                if(existing != null)
+                    counter = existing;
+            }
+
+            long current = counter.get();
+            if(current == RETIRED)
+            {
+                _deltas.remove(key, counter); //help the flusher along, then retry with a fresh accumulator
+                continue;
+            }
+
+            if(counter.compareAndSet(current, current + delta))
+                return;
+        }
+    }
+
+    /**
+     * get the increment that has not yet been flushed for a counter.
+     * @param rowKey the serialized row key
+     * @param colName the serialized counter column name
+     * @return the pending increment
+     */
+    public long pending(byte[] rowKey, byte[] colName)
+    {
+        AtomicLong counter = _deltas.get(new CounterKey(rowKey, colName));
+        if(counter == null)
+            return 0;
+
+        long current = counter.get();
+        return current == RETIRED ? 0 : current;
+    }
+
+    /**
+     * discard the pending increment of a deleted counter so it is not written or merged into later reads.
+     * @param rowKey the serialized row key
+     * @param colName the serialized counter column name
+     */
+    public void retire(byte[] rowKey, byte[] colName)
+    {
+        retire(new CounterKey(rowKey, colName));
+    }
+
+    /**
+     * discard the pending increments of all counters of a deleted row.
+     * @param rowKey the serialized row key
+     */
+    public void retireRow(byte[] rowKey)
+    {
+        ByteBuffer row = ByteBuffer.wrap(rowKey);
+        for(CounterKey key : _deltas.keySet())
+        {
+            if(key._rowKey.equals(row))
+                retire(key);
+        }
+    }
+
+    private void retire(CounterKey key)
+    {
+        AtomicLong counter = _deltas.get(key);
+        if(counter != null)
+        {
+            long discarded = counter.getAndSet(RETIRED);
+            _deltas.remove(key, counter);
+            if(discarded != RETIRED && discarded != 0)
+                _logger.trace("discarded pending increment {} of deleted counter", discarded);
+        }
+    }
+
+    public int size()
+    {
+        return _deltas.size();
+    }
+
+    /**
+     * write all accumulated deltas.
+     */
+    public void flush()
+    {
+        synchronized(_flushLock)
+        {
+            long startTime = System.nanoTime();
+            List<CounterKey> keys = new ArrayList<CounterKey>();
+            List<Long> deltas = new ArrayList<Long>();
+            int cnt = 0, batches = 0;
+
+            for(Map.Entry<CounterKey, AtomicLong> entry : _deltas.entrySet())
+            {
+                AtomicLong counter = entry.getValue();
+                long delta = takeDelta(counter);
+
+                if(delta == 0)
+                {
+                    //idle since the last flush, retire it so the map doesn't grow without bound
+                    if(counter.compareAndSet(0, RETIRED))
+                        _deltas.remove(entry.getKey(), counter);
+                }
+                else if(delta != RETIRED)
+                {
+                    keys.add(entry.getKey());
+                    deltas.add(delta);
+
+                    if(keys.size() == BATCH_SIZE)
+                    {
+                        cnt += write(keys, deltas);
+                        batches++;
+                        keys.clear();
+                        deltas.clear();
+                    }
+                }
+            }
+
+            if(!keys.isEmpty())
+            {
+                cnt += write(keys, deltas);
+                batches++;
+            }
+
+            if(batches > 0)
+            {
+                _stats.addRecentTiming(System.nanoTime() - startTime);
+                _stats.incrNumOps(1);
+                _stats.incrNumCassandraOps(batches);
+                _stats.incrNumCols(cnt);
+                _logger.debug("flushed {} counter deltas to {}", cnt, _entityMeta.getCounterFamilyName());
+            }
+        }
+    }
+
+    private long takeDelta(AtomicLong counter)
+    {
+        while(true)
+        {
+            long current = counter.get();
+            if(current == RETIRED || current == 0)
+                return current;
+
+            if(counter.compareAndSet(current, 0))
+                return current;
+        }
+    }
+
+    private int write(List<CounterKey> keys, List<Long> deltas)
+    {
+        Mutator<byte[]> mutator = HFactory.createMutator(_keyspaceFactory.createKeyspace(null), SER_BYTES);
+        int size = keys.size();
+        for(int i = 0; i < size; i++)
+        {
+            CounterKey key = keys.get(i);
+            mutator.addCounter(key.rowKey(), _entityMeta.getCounterFamilyName(), HFactory.createCounterColumn(key.colName(), deltas.get(i), SER_BYTES));
+        }
+
+        try
+        {
+            mutator.execute();
+        }
+        catch(RuntimeException ex)
+        {
+            _logger.warn("error writing {} counter deltas to {}, will retry on next flush", size, _entityMeta.getCounterFamilyName());
+            for(int i = 0; i < size; i++)
+                add(keys.get(i).rowKey(), keys.get(i).colName(), deltas.get(i));
+
+            throw ex;
+        }
+
+        return size;
+    }
+
+    private static class CounterKey
+    {
+        private final ByteBuffer _rowKey;
+        private final ByteBuffer _colName;
+
+        CounterKey(byte[] rowKey, byte[] colName)
+        {
+            _rowKey = ByteBuffer.wrap(rowKey);
+            _colName = ByteBuffer.wrap(colName);
+        }
+
+        byte[] rowKey()
+        {
+            return _rowKey.array();
+        }
+
+        byte[] colName()
+        {
+            return _colName.array();
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * _rowKey.hashCode() + _colName.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if(obj instanceof CounterKey)
+            {
+                CounterKey other = (CounterKey) obj;
+                return _rowKey.equals(other._rowKey) && _colName.equals(other._colName);
+            }
+
+            return false;
+        }
+    }
+}
@@ -1,7 +1,10 @@
 package com.feedly.cassandra.dao;
 
 import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 
 import me.prettyprint.cassandra.serializers.BytesArraySerializer;
@@ -16,11 +19,14 @@ import me.prettyprint.hector.api.beans.DynamicComposite;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.feedly.cassandra.IIndexRowPartitioner;
 import com.feedly.cassandra.IKeyspaceFactory;
 import com.feedly.cassandra.entity.EPropertyType;
 import com.feedly.cassandra.entity.EntityMetadata;
 import com.feedly.cassandra.entity.EntityUtils;
+import com.feedly.cassandra.entity.IndexMetadata;
 import com.feedly.cassandra.entity.PropertyMetadataBase;
+import com.feedly.cassandra.entity.SimplePropertyMetadata;
 import com.feedly.cassandra.entity.enhance.EntityTransformerTask;
 import com.feedly.cassandra.entity.enhance.IEnhancedEntity;
 
@@ -154,6 +160,92 @@ abstract class DaoHelperBase<K,V>
     }
     
     
+    /**
+     * get the values of an index's properties, see {@link #indexEntries(IndexMetadata, Object)} for collection indexes.
+     * @return the values, null if any value is null
+     */
+    protected List<Object> indexValues(IndexMetadata idxMeta, Object value)
+    {
+        List<Object> propVals = new ArrayList<Object>(idxMeta.getIndexedProperties().size());
+        for(SimplePropertyMetadata pm : idxMeta.getIndexedProperties())
+        {
+            Object pval = invokeGetter(pm, value);
+            if(pval == null)
+                return null;
+            
+            propVals.add(pval);
+        }
+        
+        return propVals;
+    }
+
+    /**
+     * get the index entries of a value, one per collection entry for a collection index.
+     * @return the values of each entry, empty if the value is not indexed
+     */
+    protected List<List<Object>> indexEntries(IndexMetadata idxMeta, Object value)
+    {
+        if(!idxMeta.isCollectionIndex())
+        {
+            List<Object> propVals = indexValues(idxMeta, value);
+            return propVals == null ? Collections.<List<Object>>emptyList() : Collections.singletonList(propVals);
+        }
+
+        List<List<Object>> rv = new ArrayList<List<Object>>();
+        for(Object entry : idxMeta.collectionValues(invokeGetter(idxMeta.getCollectionProperty(), value)))
+            rv.add(Collections.singletonList(entry));
+
+        return rv;
+    }
+
+    /*
+     * see PutHelper for the index column family structure
+     */
+    protected DynamicComposite indexColumnName(List<Object> propVals, Object key)
+    {
+        DynamicComposite colName = new DynamicComposite();
+        for(Object pval : propVals)
+            colName.add(pval);
+        
+        colName.add(key);
+        return colName;
+    }
+    
+    /**
+     * get the index rows an entry is written to. While an index is being migrated to a new partitioner, entries are written to the rows of
+     * both layouts.
+     * @return the row keys, the row read by finds first
+     */
+    protected List<byte[]> indexRowKeys(IndexMetadata idxMeta, List<Object> propVals)
+    {
+        IndexMetadata.Partitioners partitioners = idxMeta.getPartitioners(); //read once, a migration step may swap them
+        IIndexRowPartitioner migrationPartitioner = partitioners.getMigrationPartitioner();
+        byte[] rowKey = indexRowKey(idxMeta, partitioners.getIndexPartitioner(), propVals);
+        if(migrationPartitioner == null)
+            return Collections.singletonList(rowKey);
+        
+        byte[] migrationRowKey = indexRowKey(idxMeta, migrationPartitioner, propVals);
+        if(Arrays.equals(rowKey, migrationRowKey))
+            return Collections.singletonList(rowKey);
+        
+        return Arrays.asList(rowKey, migrationRowKey);
+    }
+    
+    protected byte[] indexRowKey(IndexMetadata idxMeta, IIndexRowPartitioner partitioner, List<Object> propVals)
+    {
+        DynamicComposite rowKey = new DynamicComposite(idxMeta.id());
+        
+        List<List<Object>> allPartitions = partitioner.partitionValue(propVals);
+        if(allPartitions.size() != 1)
+            throw new IllegalStateException("expected single partition but encountered " + allPartitions.size());
+            
+        _logger.trace("index partition {}", allPartitions.get(0));
+        for(Object partitionVal : allPartitions.get(0))
+            rowKey.add(partitionVal);
+        
+        return SER_DYNAMIC_COMPOSITE.toBytes(rowKey);
+    }
+    
     protected Object invokeGetter(PropertyMetadataBase pm, Object obj)
     {
         try
@@ -177,5 +269,17 @@ abstract class DaoHelperBase<K,V>
             throw new IllegalArgumentException("unexpected error invoking " + pm.getSetter() + " with " + propertyValue, e);
         }
     }
+
+    protected V newInstance()
+    {
+        try
+        {
+            return _entityMeta.getType().newInstance();
+        }
+        catch(Exception ex)
+        {
+            throw new IllegalArgumentException("error instantiating value object of type " + _entityMeta.getType(), ex);
+        }
+    }
     
 }
@@ -1,22 +1,80 @@
 package com.feedly.cassandra.dao;
 
+import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
 
 import me.prettyprint.hector.api.Keyspace;
+import me.prettyprint.hector.api.beans.Composite;
+import me.prettyprint.hector.api.beans.HColumn;
 import me.prettyprint.hector.api.factory.HFactory;
 import me.prettyprint.hector.api.mutation.Mutator;
 
 import com.feedly.cassandra.IKeyspaceFactory;
+import com.feedly.cassandra.PersistenceManager;
+import com.feedly.cassandra.entity.EIndexType;
 import com.feedly.cassandra.entity.EntityMetadata;
+import com.feedly.cassandra.entity.IndexMetadata;
 import com.feedly.cassandra.entity.SimplePropertyMetadata;
 
 class DeleteHelper<K, V> extends DaoHelperBase<K, V>
 {
+    private static final int PROGRESS_INTERVAL = 100 * CassandraDaoBase.ROW_RANGE_SIZE;
+    
+    /*
+     * marks WAL entries written by deletes. The index entries were removed at the entry's clock, recovery re-puts them at a later clock
+     * as a tombstone wins a timestamp tie.
+     */
+    static final byte[] DELETE_WAL_COL_VAL = new byte[] {1};
+    
+    private final GetHelper<K, V> _getHelper;
+    private final List<IndexMetadata> _rangeIndexes;
+    private final Set<String> _rangeIndexedProps;
+    private WalCleanupQueue<K, V> _walCleanupQueue;
+    private CounterAccumulator<K, V> _counterAccumulator;
 
     DeleteHelper(EntityMetadata<V> meta, IKeyspaceFactory factory, int statsSize)
     {
         super(meta, factory, statsSize);
+        _getHelper = new GetHelper<K, V>(meta, factory, statsSize);
+        
+        List<IndexMetadata> indexes = new ArrayList<IndexMetadata>();
+        Set<String> props = new HashSet<String>();
+        for(IndexMetadata idxMeta : meta.getIndexes())
+        {
+            if(idxMeta.getType() == EIndexType.RANGE)
+            {
+                indexes.add(idxMeta);
+                for(SimplePropertyMetadata pm : idxMeta.getIndexedProperties())
+                    props.add(pm.getName());
+            }
+        }
+        
+        _rangeIndexes = Collections.unmodifiableList(indexes);
+        _rangeIndexedProps = Collections.unmodifiableSet(props);
+    }
+
+    /**
+     * queue WAL deletions rather than executing them before returning from a delete.
+     * @param queue the queue, null to delete WAL entries synchronously
+     */
+    public void setWalCleanupQueue(WalCleanupQueue<K, V> queue)
+    {
+        _walCleanupQueue = queue;
+    }
+
+    /**
+     * discard the pending increments of deleted rows' counters.
+     * @param accumulator the accumulator, null if increments are written directly
+     */
+    public void setCounterAccumulator(CounterAccumulator<K, V> accumulator)
+    {
+        _counterAccumulator = accumulator;
     }
 
     public void delete(K key, DeleteOptions options)
@@ -24,32 +82,39 @@ class DeleteHelper<K, V> extends DaoHelperBase<K, V>
         mdelete(Collections.singleton(key), options);
     }
 
-    //for now, not cleaning up indexes, it's assumed subsequent finds will eventually clean up stale entries
+    /*
+     * by default, not cleaning up indexes, it's assumed subsequent finds will eventually clean up stale entries. If requested, index 
+     * entries are deleted in the same batch as the rows.
+     */
     public void mdelete(Collection<K> keys, DeleteOptions options)
     {
         long startTime = System.nanoTime();
-        SimplePropertyMetadata keyMeta = _entityMeta.getKeyMetadata();
         Keyspace keyspace = _keyspaceFactory.createKeyspace(options.getConsistencyLevel());
-        Mutator<byte[]> mutator = HFactory.createMutator(keyspace, SER_BYTES);
         
-        for(K key : keys)
+        if(options.isRemoveIndexValues() && !_rangeIndexes.isEmpty())
         {
-            byte[] keyBytes = serialize(key, false, keyMeta.getSerializer());
-            
-            _logger.debug("deleting {}[{}]", _entityMeta.getType().getSimpleName(), key);
-
-            if(_entityMeta.hasNormalColumns())
-                mutator.addDeletion(keyBytes, _entityMeta.getFamilyName());
+            GetOptions getOptions = new GetOptions(_rangeIndexedProps, null);
+            getOptions.setConsistencyLevel(options.getConsistencyLevel());
+            List<K> keyList = new ArrayList<K>(keys);
+            for(int i = 0; i < keyList.size(); i += CassandraDaoBase.ROW_RANGE_SIZE)
+            {
+                List<K> batch = keyList.subList(i, Math.min(keyList.size(), i + CassandraDaoBase.ROW_RANGE_SIZE));
+                List<V> values = _getHelper.mget(batch, null, getOptions);
+                _stats.incrNumCassandraOps(1);
+                deleteWithIndexes(keyspace, batch, values);
+            }
+        }
+        else
+        {
+            Mutator<byte[]> mutator = HFactory.createMutator(keyspace, SER_BYTES);
+            addRowDeletions(keys, mutator);
             
-            if(_entityMeta.hasCounterColumns())
-                mutator.addDeletion(keyBytes, _entityMeta.getCounterFamilyName());
+            /*
+             * execute the deletions
+             */
+            mutator.execute();
         }
 
-        /*
-         * execute the deletions
-         */
-        mutator.execute();
-
         int size = keys.size();
         _stats.addRecentTiming(System.nanoTime() - startTime);
         _stats.incrNumOps(1);
@@ -64,4 +129,167 @@ class DeleteHelper<K, V> extends DaoHelperBase<K, V>
         _logger.debug("deleted up to {} values from {}", size, _entityMeta.getType().getSimpleName());
     }
     
+    /**
+     * get the properties that must be loaded to delete values found using templates, the range indexed properties and any properties
+     * set on the templates.
+     * @param templates the templates
+     * @return the property names
+     */
+    public Set<String> deleteIncludes(V... templates)
+    {
+        Set<String> rv = new HashSet<String>(_rangeIndexedProps);
+        for(V template : templates)
+        {
+            BitSet dirty = asEntity(template).getModifiedFields();
+            for(int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1))
+                rv.add(_entityMeta.getProperties().get(i).getName());
+        }
+        
+        return rv;
+    }
+    
+    /**
+     * delete found values along with their range index entries. Values are consumed and deleted in batches, so lazy loaded find results
+     * are never fully read into memory. The remove index values option is not consulted: the indexed values were already read by the
+     * find, so removing their entries costs no extra reads, and leaving them would only make later finds clean them up.
+     * @param values the values, at least the range indexed properties must be loaded
+     * @param options the delete options, only the consistency level applies
+     * @return the number of deleted rows
+     */
+    @SuppressWarnings("unchecked")
+    public int mdeleteValues(Iterable<V> values, DeleteOptions options)
+    {
+        Keyspace keyspace = _keyspaceFactory.createKeyspace(options.getConsistencyLevel());
+        SimplePropertyMetadata keyMeta = _entityMeta.getKeyMetadata();
+        List<K> keys = new ArrayList<K>(CassandraDaoBase.ROW_RANGE_SIZE);
+        List<V> batch = new ArrayList<V>(CassandraDaoBase.ROW_RANGE_SIZE);
+        int cnt = 0;
+        
+        Iterator<V> iter = values.iterator();
+        while(iter.hasNext())
+        {
+            V value = iter.next();
+            keys.add((K) invokeGetter(keyMeta, value));
+            batch.add(value);
+            
+            if(batch.size() == CassandraDaoBase.ROW_RANGE_SIZE || !iter.hasNext())
+            {
+                long startTime = System.nanoTime();
+                deleteWithIndexes(keyspace, keys, batch);
+                cnt += keys.size();
+
+                //stats are updated per batch so progress of large deletes can be monitored
+                _stats.addRecentTiming(System.nanoTime() - startTime);
+                _stats.incrNumOps(1);
+                _stats.incrNumRows(keys.size());
+                _stats.incrNumCassandraOps(keys.size() * ((_entityMeta.hasNormalColumns() ? 1 : 0) + (_entityMeta.hasCounterColumns() ? 1 : 0)));
+                if(cnt % PROGRESS_INTERVAL == 0)
+                    _logger.info("deleted {} values from {}", cnt, _entityMeta.getType().getSimpleName());
+                
+                keys.clear();
+                batch.clear();
+            }
+        }
+        
+        _logger.debug("deleted {} values from {}", cnt, _entityMeta.getType().getSimpleName());
+        return cnt;
+    }
+    
+    private void addRowDeletions(Collection<K> keys, Mutator<byte[]> mutator)
+    {
+        SimplePropertyMetadata keyMeta = _entityMeta.getKeyMetadata();
+        for(K key : keys)
+        {
+            byte[] keyBytes = serialize(key, false, keyMeta.getSerializer());
+            
+            _logger.debug("deleting {}[{}]", _entityMeta.getType().getSimpleName(), key);
+
+            if(_entityMeta.hasNormalColumns())
+                mutator.addDeletion(keyBytes, _entityMeta.getFamilyName());
+            
+            if(_entityMeta.hasCounterColumns())
+            {
+                mutator.addDeletion(keyBytes, _entityMeta.getCounterFamilyName());
+                if(_counterAccumulator != null)
+                    _counterAccumulator.retireRow(keyBytes);
+            }
+        }
+    }
+    
+    /*
+     * delete the index entries of the indexed values along with the rows. Similar to puts, a WAL entry is written for each row
+     * first. Should the batch partially fail leaving a row with its index entries removed, WAL recovery rewrites them. Index entries of
+     * rows that were deleted are left to be cleaned up by finds.
+     */
+    private void deleteWithIndexes(Keyspace keyspace, List<K> keys, List<V> values)
+    {
+        SimplePropertyMetadata keyMeta = _entityMeta.getKeyMetadata();
+        long clock = keyspace.createClock();
+        long msec = PutHelper.WAL_CLOCK.createClock(); //must be millis
+        Mutator<byte[]> mutator = HFactory.createMutator(keyspace, SER_BYTES);
+        Mutator<byte[]> walMutator = HFactory.createMutator(keyspace, SER_BYTES);
+        List<WalCleanupQueue.Entry> walCleanups = new ArrayList<WalCleanupQueue.Entry>();
+        int idxCnt = 0;
+        
+        for(int i = 0; i < keys.size(); i++)
+        {
+            V value = values.get(i);
+            if(value == null)
+                continue;
+            
+            K key = keys.get(i);
+            boolean indexed = false;
+            for(IndexMetadata idxMeta : _rangeIndexes)
+            {
+                for(List<Object> propVals : indexEntries(idxMeta, value))
+                {
+                    for(byte[] rowKey : indexRowKeys(idxMeta, propVals))
+                        mutator.addDeletion(rowKey, _entityMeta.getIndexFamilyName(), indexColumnName(propVals, key), SER_DYNAMIC_COMPOSITE, clock);
+                    indexed = true;
+                    idxCnt++;
+                }
+            }
+            
+            if(indexed)
+            {
+                byte[] keyBytes = serialize(key, false, keyMeta.getSerializer());
+                Composite walColName = new Composite(msec, keyBytes);
+                HColumn<Composite, byte[]> column = HFactory.createColumn(walColName, DELETE_WAL_COL_VAL, clock, SER_COMPOSITE, SER_BYTES);
+                byte[] walRowKey = _entityMeta.getWalRowKey(keyBytes);
+                walMutator.addInsertion(walRowKey, PersistenceManager.CF_IDXWAL, column);
+                walCleanups.add(new WalCleanupQueue.Entry(walRowKey, walColName, clock));
+            }
+        }
+        
+        addRowDeletions(keys, mutator);
+
+        if(!walCleanups.isEmpty())
+        {
+            walMutator.execute();
+            _stats.incrNumCassandraOps(1);
+        }
+        
+        mutator.execute();
+        
+        if(!walCleanups.isEmpty())
+        {
+            if(_walCleanupQueue != null)
+            {
+                _walCleanupQueue.addAll(walCleanups);
+            }
+            else
+            {
+                Mutator<byte[]> walCleanupMutator = HFactory.createMutator(keyspace, SER_BYTES);
+                for(WalCleanupQueue.Entry e : walCleanups)
+                    walCleanupMutator.addDeletion(e.walRowKey, PersistenceManager.CF_IDXWAL, e.colName, SER_COMPOSITE, e.clock);
+                
+                walCleanupMutator.execute();
+                _stats.incrNumCassandraOps(1);
+            }
+        }
+        
+        _stats.incrNumCassandraOps(idxCnt);
+        _stats.incrNumCols(idxCnt);
+        _logger.debug("deleted {} index entries for {} rows", idxCnt, keys.size());
+    }
 }
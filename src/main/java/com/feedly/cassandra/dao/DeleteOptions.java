@@ -2,5 +2,26 @@ package com.feedly.cassandra.dao;
 
 public class DeleteOptions extends OptionsBase
 {
+    private boolean _removeIndexValues;
 
+    /**
+     * should range index entries of the deleted rows be removed as part of the delete.
+     * @return the remove index values flag
+     */
+    public boolean isRemoveIndexValues()
+    {
+        return _removeIndexValues;
+    }
+
+    /**
+     * read the range indexed properties of the rows being deleted and remove their index entries along with the rows. Otherwise index
+     * entries remain until encountered by a find. Rows are read and deleted in batches. Only applies to deletes by key, deletes by
+     * template or range always remove index entries as the indexed values are already read to find the rows.
+     * @param removeIndexValues the remove index values flag
+     * @see IStaleIndexValueStrategy
+     */
+    public void setRemoveIndexValues(boolean removeIndexValues)
+    {
+        _removeIndexValues = removeIndexValues;
+    }
 }
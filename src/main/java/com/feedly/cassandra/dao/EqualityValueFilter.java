@@ -1,6 +1,7 @@
 package com.feedly.cassandra.dao;
 
 import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Map;
@@ -23,8 +24,23 @@ class EqualityValueFilter<V> implements IValueFilter<V>
 {
     private final EntityMetadata<V> _entityMeta;
     private final Map<PropertyMetadataBase, Object> _propsFilter = new HashMap<PropertyMetadataBase, Object>();
+    private final Map<IndexMetadata, Set<Object>> _collectionsFilter = new HashMap<IndexMetadata, Set<Object>>();
+    private RawValueFilter _rawFilter;
     
     public EqualityValueFilter(EntityMetadata<V> meta, V template, IndexMetadata index)
+    {
+        this(meta, template);
+
+        for(SimplePropertyMetadata pm : index.getIndexedProperties())
+        {
+            _propsFilter.remove(pm);
+        }
+    }
+    
+    /**
+     * check all properties set in the template, including indexed ones. Indexed collections are checked to hold the template's entries.
+     */
+    public EqualityValueFilter(EntityMetadata<V> meta, V template)
     {
         _entityMeta = meta;
         BitSet dirty = ((IEnhancedEntity)template).getModifiedFields();
@@ -33,16 +49,13 @@ class EqualityValueFilter<V> implements IValueFilter<V>
         for(int i = dirty.nextSetBit (0); i>= 0; i = dirty.nextSetBit(i+1)) 
         {
             PropertyMetadataBase p = _entityMeta.getProperties().get(i);
+            IndexMetadata collectionIndex = _entityMeta.getCollectionIndex(p);
             
-            if(!indexedProps.contains(p))
+            if(collectionIndex != null)
+                _collectionsFilter.put(collectionIndex, collectionIndex.collectionValues(invokeGetter(p, template)));
+            else if(!indexedProps.contains(p))
                 _propsFilter.put(p, invokeGetter(p, template));
         }
-        
-
-        for(SimplePropertyMetadata pm : index.getIndexedProperties())
-        {
-            _propsFilter.remove(pm);
-        }
     }
     
     public EFilterResult isFiltered(IndexedValue<V> value)
@@ -54,10 +67,28 @@ class EqualityValueFilter<V> implements IValueFilter<V>
             if(!entry.getValue().equals(pval))
                 return EFilterResult.FAIL;
         }
+        
+        for(Map.Entry<IndexMetadata, Set<Object>> entry : _collectionsFilter.entrySet())
+        {
+            Object collection = invokeGetter(entry.getKey().getCollectionProperty(), value.getValue());
+            if(!entry.getKey().collectionValues(collection).containsAll(entry.getValue()))
+                return EFilterResult.FAIL;
+        }
 
         return EFilterResult.PASS;
     }
     
+    public RawValueFilter rawFilter()
+    {
+        if(_rawFilter == null)
+        {
+            Map<PropertyMetadataBase, Object> none = Collections.emptyMap();
+            _rawFilter = new RawValueFilter(_entityMeta, _propsFilter, none, none);
+        }
+        
+        return _rawFilter.isEmpty() ? null : _rawFilter;
+    }
+    
     protected Object invokeGetter(PropertyMetadataBase pm, V obj)
     {
         try
@@ -3,7 +3,15 @@ package com.feedly.cassandra.dao;
 import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
 
 import com.feedly.cassandra.IKeyspaceFactory;
 import com.feedly.cassandra.entity.EIndexType;
@@ -19,8 +27,14 @@ import com.feedly.cassandra.entity.SimplePropertyMetadata;
 @SuppressWarnings("unchecked")
 class FindHelper<K, V> extends LoadHelper<K, V>
 {
+    static final int ROUND_TRIP_COST = 100; //in rows
+    static final double RANGE_SELECTIVITY = 1 / 3.0;
+    
     private final HashIndexFindHelper<K, V> _hashIndexFinder;
     private final RangeIndexFindHelper<K, V> _rangeIndexFinder;
+    private IndexBackfill<K, V> _indexBackfill;
+    private Map<IndexMetadata, IndexStatistics> _indexStatistics = Collections.emptyMap();
+    private boolean _costBasedSelection;
     
     FindHelper(EntityMetadata<V> meta, IKeyspaceFactory factory, IStaleIndexValueStrategy staleValueStrategy, int statsSize)
     {
@@ -35,6 +49,45 @@ class FindHelper<K, V> extends LoadHelper<K, V>
         throw new UnsupportedOperationException("use hash or range specific stats");
     }
 
+    @Override
+    public void setPendingCounters(CounterAccumulator<K, V> accumulator)
+    {
+        super.setPendingCounters(accumulator);
+        _hashIndexFinder.setPendingCounters(accumulator);
+        _rangeIndexFinder.setPendingCounters(accumulator);
+    }
+
+    /**
+     * avoid indexes that are still being built.
+     * @param backfill the backfill tracking index status, null if no indexes are built
+     */
+    public void setIndexBackfill(IndexBackfill<K, V> backfill)
+    {
+        _indexBackfill = backfill;
+    }
+
+    /**
+     * maintain index statistics during finds and optionally use them to choose indexes.
+     * @param indexStatistics statistics by index
+     * @param costBasedSelection if true, choose the index with the lowest estimated cost once all candidates have statistics
+     */
+    public void setIndexStatistics(Map<IndexMetadata, IndexStatistics> indexStatistics, boolean costBasedSelection)
+    {
+        _indexStatistics = indexStatistics;
+        _costBasedSelection = costBasedSelection;
+        _rangeIndexFinder.setIndexStatistics(indexStatistics);
+    }
+
+    /**
+     * read index slices in parallel when finding multiple values.
+     * @param executor the executor, null to read slices sequentially
+     * @see #mfindIn(String, Collection, FindOptions)
+     */
+    public void setExecutor(ExecutorService executor)
+    {
+        _rangeIndexFinder.setExecutor(executor);
+    }
+
     public OperationStatistics rangeFindStats()
     {
         return _rangeIndexFinder.stats();
@@ -55,7 +108,7 @@ class FindHelper<K, V> extends LoadHelper<K, V>
         return _hashIndexFinder.indexStats();
     }
 
-    private IndexMetadata chooseIndex(boolean rangeOnly, V... templates) 
+    private List<SimplePropertyMetadata> templateProperties(V... templates)
     {
         List<SimplePropertyMetadata> props = new ArrayList<SimplePropertyMetadata>();
         BitSet dirty = asEntity(templates[0]).getModifiedFields();
@@ -69,38 +122,127 @@ class FindHelper<K, V> extends LoadHelper<K, V>
             
         for(int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1))
         {
-            PropertyMetadataBase pmb = _entityMeta.getProperties().get(i); 
-            if(pmb.getPropertyType() == EPropertyType.SIMPLE) //only simple props can be indexed
+            PropertyMetadataBase pmb = _entityMeta.getProperties().get(i);
+            IndexMetadata collectionIndex = _entityMeta.getCollectionIndex(pmb);
+            if(pmb.getPropertyType() == EPropertyType.SIMPLE) //only simple props and collection entries can be indexed
                 props.add((SimplePropertyMetadata) pmb);
+            else if(collectionIndex != null)
+                props.add(collectionIndex.getIndexedProperties().get(0));
         }
         
         if(props.isEmpty())
             throw new IllegalArgumentException("no properties set");
         
+        return props;
+    }
+    
+    /*
+     * choose range indexes to intersect, each must cover a template property not covered by the indexes already chosen. Indexes are
+     * ordered most selective first.
+     */
+    private List<IndexMetadata> chooseIntersection(V template)
+    {
+        List<SimplePropertyMetadata> props = templateProperties(template);
+        List<IndexMetadata> candidates = new ArrayList<IndexMetadata>();
+        final Map<IndexMetadata, Integer> matchCnts = new HashMap<IndexMetadata, Integer>();
+        for(IndexMetadata im : _entityMeta.getIndexes())
+        {
+            if(im.getType() != EIndexType.RANGE || (_indexBackfill != null && _indexBackfill.isBuilding(im)))
+                continue;
+            
+            int cnt = matchCount(im, props);
+            if(cnt > 0)
+            {
+                candidates.add(im);
+                matchCnts.put(im, cnt);
+            }
+        }
+        
+        //fewest estimated entries first, without statistics prefer indexes matching more properties
+        final Map<IndexMetadata, Double> estimates = new HashMap<IndexMetadata, Double>();
+        for(IndexMetadata im : candidates)
+        {
+            IndexStatistics indexStatistics = _indexStatistics.get(im);
+            double estimate = indexStatistics == null ? -1 : indexStatistics.estimateEntriesPerValue(matchCnts.get(im));
+            if(estimate < 0)
+            {
+                estimates.clear();
+                break;
+            }
+            estimates.put(im, estimate);
+        }
+        
+        Collections.sort(candidates, new Comparator<IndexMetadata>()
+        {
+            public int compare(IndexMetadata im1, IndexMetadata im2)
+            {
+                if(!estimates.isEmpty())
+                {
+                    int cmp = estimates.get(im1).compareTo(estimates.get(im2));
+                    if(cmp != 0)
+                        return cmp;
+                }
+                
+                return matchCnts.get(im2) - matchCnts.get(im1);
+            }
+        });
+        
+        List<IndexMetadata> rv = new ArrayList<IndexMetadata>();
+        Set<SimplePropertyMetadata> covered = new HashSet<SimplePropertyMetadata>();
+        for(IndexMetadata im : candidates)
+        {
+            List<SimplePropertyMetadata> matched = im.getIndexedProperties().subList(0, matchCnts.get(im));
+            if(!covered.containsAll(matched))
+            {
+                covered.addAll(matched);
+                rv.add(im);
+            }
+        }
+        
+        _logger.debug("intersecting indexes {}", rv);
+        return rv;
+    }
+    
+    private IndexMetadata chooseIndex(boolean rangeOnly, V... templates) 
+    {
+        List<SimplePropertyMetadata> props = templateProperties(templates);
         IndexMetadata matching = null;
         int matchCnt = 0;
+        boolean skipped = false, exact = false;
+        List<IndexMetadata> candidates = new ArrayList<IndexMetadata>();
+        List<Integer> candidateCnts = new ArrayList<Integer>();
         for(IndexMetadata im : _entityMeta.getIndexes())
         {
             if(rangeOnly && im.getType() != EIndexType.RANGE)
                 continue;
             
-            if(props.equals(im.getIndexedProperties()))
+            if(_indexBackfill != null && im.getType() == EIndexType.RANGE && _indexBackfill.isBuilding(im))
             {
-                matching = im;
-                matchCnt = im.getIndexedProperties().size();
-                break;
+                _logger.debug("skipping index {}, backfill incomplete", im);
+                skipped = true;
+                continue;
             }
+            
+            List<SimplePropertyMetadata> indexedProps = im.getIndexedProperties();
+            int cnt = matchCount(im, props);
 
-            int cnt = 0;
-            for(SimplePropertyMetadata indexedProp : im.getIndexedProperties())
+            //a later set property isn't used to read the index, only consider indexes where set properties form a prefix
+            if(cnt > 0 && Collections.disjoint(props, indexedProps.subList(cnt, indexedProps.size())))
             {
-                if(props.contains(indexedProp))
-                    cnt++;
-                else
-                    break;
+                candidates.add(im);
+                candidateCnts.add(cnt);
             }
-
-            if(cnt > matchCnt)
+            
+            if(exact)
+                continue;
+            
+            if(props.equals(im.getIndexedProperties()))
+            {
+                matching = im;
+                matchCnt = im.getIndexedProperties().size();
+                exact = true;
+            }
+            else if(cnt > matchCnt)
             {
                 matchCnt = cnt;
                 matching = im;
@@ -114,16 +256,184 @@ class FindHelper<K, V> extends LoadHelper<K, V>
         
         if(matching != null)
         {
+            if(_costBasedSelection && candidates.size() > 1)
+            {
+                IndexMetadata cheapest = chooseCheapest(candidates, candidateCnts, rangeOnly);
+                if(cheapest != null)
+                    return cheapest;
+            }
+            
             _logger.debug("selected index {} [{} of {} col(s)]", new Object[] {matching, matchCnt, matching.getIndexedProperties().size()});
             return matching;
         }
         
+        if(skipped)
+            throw new IllegalStateException("no applicable index for properties " + props + ", some indexes are being backfilled");
+        
         throw new IllegalStateException("no applicable index for properties " + props);
     }
     
+    /*
+     * pick the index with the lowest estimated cost, null if any candidate lacks statistics. Cost is measured in rows read, each round
+     * trip to cassandra is charged as a fixed number of rows. Between finds are assumed to select a fixed fraction of the values of the
+     * last matched property, there are no statistics on value distribution.
+     */
+    private IndexMetadata chooseCheapest(List<IndexMetadata> candidates, List<Integer> candidateCnts, boolean between)
+    {
+        IndexMetadata cheapest = null;
+        double minCost = Double.MAX_VALUE;
+        for(int i = 0; i < candidates.size(); i++)
+        {
+            IndexMetadata im = candidates.get(i);
+            double cost = estimateCost(im, candidateCnts.get(i), between);
+            if(cost < 0)
+            {
+                _logger.debug("no statistics for index {}, using heuristic index selection", im);
+                return null;
+            }
+            
+            _logger.trace("index {} [{} of {} col(s)]: estimated cost {}", 
+                          new Object[] {im, candidateCnts.get(i), im.getIndexedProperties().size(), cost});
+            if(cost < minCost)
+            {
+                minCost = cost;
+                cheapest = im;
+            }
+        }
+        
+        _logger.debug("selected index {} [estimated cost {}]", cheapest, minCost);
+        return cheapest;
+    }
+    
+    /*
+     * -1 if unknown
+     */
+    private double estimateCost(IndexMetadata index, int matchCnt, boolean between)
+    {
+        double[] estimate = estimate(index, matchCnt, between);
+        return estimate == null ? -1 : estimate[0] * ROUND_TRIP_COST + estimate[1];
+    }
+    
+    /*
+     * {round trips, rows read}, null if unknown
+     */
+    private double[] estimate(IndexMetadata index, int matchCnt, boolean between)
+    {
+        IndexStatistics indexStatistics = _indexStatistics.get(index);
+        if(indexStatistics == null)
+            return null;
+        
+        double rows;
+        if(between)
+        {
+            rows = indexStatistics.estimateEntriesPerValue(matchCnt - 1);
+            if(rows < 0)
+                return null;
+            
+            rows *= RANGE_SELECTIVITY;
+        }
+        else
+        {
+            rows = indexStatistics.estimateEntriesPerValue(matchCnt);
+            if(rows < 0)
+                return null;
+        }
+        
+        if(index.getType() == EIndexType.HASH)
+            return new double[] {Math.max(1, Math.ceil(rows / CassandraDaoBase.ROW_RANGE_SIZE)), rows};
+
+        //stale entries are read and then discarded
+        double read = rows / Math.max(0.01, 1 - indexStatistics.getStaleRatio()); 
+        double trips = Math.max(1, Math.ceil(read / CassandraDaoBase.COL_RANGE_SIZE)) + Math.ceil(read / CassandraDaoBase.ROW_RANGE_SIZE);
+        
+        return new double[] {trips, read};
+    }
+    
+    private int matchCount(IndexMetadata index, List<SimplePropertyMetadata> props)
+    {
+        List<SimplePropertyMetadata> indexedProps = index.getIndexedProperties();
+        int cnt = 0;
+        while(cnt < indexedProps.size() && props.contains(indexedProps.get(cnt)))
+            cnt++;
+        
+        return cnt;
+    }
+    
+    public FindPlan explain(V template, FindOptions options)
+    {
+        if(options.isIndexIntersection())
+        {
+            List<IndexMetadata> indexes = chooseIntersection(template);
+            if(indexes.size() > 1)
+            {
+                FindPlan plan = explain(template, template, options, indexes.get(0), false);
+                for(IndexMetadata index : indexes.subList(1, indexes.size()))
+                    plan.addIntersectedPlan(explain(template, template, options, index, false));
+                
+                return plan;
+            }
+        }
+        
+        return explain(template, template, options, chooseIndex(false, template), false);
+    }
+    
+    public FindPlan explainBetween(V startTemplate, V endTemplate, FindBetweenOptions options)
+    {
+        if(options == null)
+            options = new FindBetweenOptions();
+        
+        IndexMetadata index = chooseIndex(true, startTemplate, endTemplate);
+        FindPlan plan = explain(startTemplate, endTemplate, options, index, true);
+        
+        int partitions = plan.getPartitionKeys().size();
+        if(plan.getEstimatedRows() >= 0 && (options.getRowOrder() != EFindOrder.NONE || partitions > CassandraDaoBase.COL_RANGE_SIZE))
+            plan.setEstimates(Math.max(partitions, plan.getEstimatedRoundTrips()), plan.getEstimatedRows()); //partitions read one at a time
+        
+        return plan;
+    }
+    
+    private FindPlan explain(V startTemplate, V endTemplate, FindOptions options, IndexMetadata index, boolean between)
+    {
+        FindPlan plan;
+        if(index.getType() == EIndexType.RANGE)
+            plan = _rangeIndexFinder.plan(startTemplate, endTemplate, index);
+        else
+            plan = new FindPlan(index);
+        
+        if(options.getColumnFilterStrategy() == EColumnFilterStrategy.INCLUDES)
+        {
+            Set<Object> projection = new HashSet<Object>(partialProperties(options.getIncludes(), options.getExcludes()));
+            if(index.getType() == EIndexType.RANGE) //needed to filter stale values
+            {
+                for(SimplePropertyMetadata pm : index.getIndexedProperties())
+                    projection.add(pm.getName());
+            }
+            plan.setProjection(projection);
+        }
+        
+        double[] estimate = estimate(index, matchCount(index, templateProperties(startTemplate, endTemplate)), between);
+        if(estimate != null)
+            plan.setEstimates(estimate[0], estimate[1]);
+        
+        _logger.debug("plan: {}", plan);
+        return plan;
+    }
     
     public V find(V template, FindOptions options)
     {
+        if(options.isIndexIntersection())
+        {
+            List<IndexMetadata> indexes = chooseIntersection(template);
+            if(indexes.size() > 1)
+            {
+                Collection<V> values = _rangeIndexFinder.mfindIntersection(template, options, indexes);
+                if(values.size() > 1)
+                    throw new IllegalStateException("non-unique value");
+                
+                return values.isEmpty() ? null : values.iterator().next();
+            }
+        }
+        
         IndexMetadata index = chooseIndex(false, template);
         if(index.getType() == EIndexType.HASH)
         {
@@ -137,6 +447,13 @@ class FindHelper<K, V> extends LoadHelper<K, V>
     
     public Collection<V> mfind(V template, FindOptions options)
     {
+        if(options.isIndexIntersection())
+        {
+            List<IndexMetadata> indexes = chooseIntersection(template);
+            if(indexes.size() > 1)
+                return _rangeIndexFinder.mfindIntersection(template, options, indexes);
+        }
+        
         IndexMetadata index = chooseIndex(false, template);
         if(index.getType() == EIndexType.HASH)
         {
@@ -148,6 +465,72 @@ class FindHelper<K, V> extends LoadHelper<K, V>
         }
     }
 
+    public Collection<V> mfindIn(String property, Collection<?> propValues, FindOptions options)
+    {
+        PropertyMetadataBase pmb = _entityMeta.getProperty(property);
+        if(pmb == null || pmb.getPropertyType() != EPropertyType.SIMPLE)
+            throw new IllegalArgumentException("no such simple property " + property);
+        
+        if(propValues.isEmpty())
+            return Collections.emptyList();
+        
+        SimplePropertyMetadata pm = (SimplePropertyMetadata) pmb;
+        IndexMetadata range = null, hash = null;
+        for(IndexMetadata im : _entityMeta.getIndexes(pm))
+        {
+            if(!im.getIndexedProperties().get(0).equals(pm))
+                continue;
+            
+            if(im.getType() == EIndexType.HASH)
+                hash = im;
+            else if(_indexBackfill != null && _indexBackfill.isBuilding(im))
+                _logger.debug("skipping index {}, backfill incomplete", im);
+            else if(range == null || im.getIndexedProperties().size() < range.getIndexedProperties().size())
+                range = im;
+        }
+        
+        if(range != null)
+        {
+            _logger.debug("selected index {} for {} values", range, propValues.size());
+            return _rangeIndexFinder.mfindIn(pm, propValues, options, range);
+        }
+        
+        if(hash == null)
+            throw new IllegalStateException("no applicable index for property " + property);
+
+        //hash indexes can only be queried for a single value
+        List<V> rv = new ArrayList<V>();
+        for(Object propValue : new LinkedHashSet<Object>(propValues))
+        {
+            V template = newInstance();
+            invokeSetter(pm, template, propValue);
+            for(V value : _hashIndexFinder.mfind(template, options, hash))
+            {
+                if(rv.size() == options.getMaxRows())
+                    return rv;
+                
+                rv.add(value);
+            }
+        }
+        
+        return rv;
+    }
+    
+    public Collection<V> mfindBetween(List<V> startTemplates, List<V> endTemplates, FindBetweenOptions options)
+    {
+        if(startTemplates.size() != endTemplates.size())
+            throw new IllegalArgumentException("start and end template counts differ: " + startTemplates.size() + " != " + endTemplates.size());
+        
+        if(startTemplates.isEmpty())
+            throw new IllegalArgumentException("no ranges specified");
+        
+        List<V> all = new ArrayList<V>(startTemplates);
+        all.addAll(endTemplates);
+        IndexMetadata index = chooseIndex(true, (V[]) all.toArray());
+
+        return _rangeIndexFinder.mfindBetween(startTemplates, endTemplates, options, index);
+    }
+    
     public Collection<V> mfindBetween(V startTemplate, V endTemplate)
     {
         return mfindBetween(startTemplate, endTemplate, null);
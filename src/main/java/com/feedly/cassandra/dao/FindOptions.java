@@ -12,6 +12,7 @@ public class FindOptions extends GetOptions implements Cloneable
     private static final int SIZE_UNLIMITED = Integer.MAX_VALUE;
     
     private int _maxRows = SIZE_UNLIMITED;
+    private boolean _indexIntersection;
     
     /**
      * create options using default values.
@@ -75,6 +76,26 @@ public class FindOptions extends GetOptions implements Cloneable
         _maxRows = SIZE_UNLIMITED;
     }
     
+    /**
+     * check if finds may read multiple range indexes and intersect the matching keys.
+     * @return true if index intersection is enabled
+     */
+    public boolean isIndexIntersection()
+    {
+        return _indexIntersection;
+    }
+    
+    /**
+     * when the template sets properties covered by different range indexes, read the keys matching each index and only load the rows 
+     * found in all of them, rather than loading every row matching a single index and filtering. Useful when each property alone 
+     * matches many rows but together they match few. All matching rows are loaded at once, rows are not lazily loaded.
+     * @param indexIntersection true to enable index intersection, defaults to false
+     */
+    public void setIndexIntersection(boolean indexIntersection)
+    {
+        _indexIntersection = indexIntersection;
+    }
+    
     @Override
     public Object clone() throws CloneNotSupportedException
     {
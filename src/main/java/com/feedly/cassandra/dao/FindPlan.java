@@ -0,0 +1,150 @@
+package com.feedly.cassandra.dao;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+import me.prettyprint.hector.api.beans.DynamicComposite;
+
+import com.feedly.cassandra.entity.EIndexType;
+import com.feedly.cassandra.entity.IndexMetadata;
+
+/**
+ * describes how a find would be executed, without executing it.
+ *
+ * @author kireet
+ * @see CassandraDaoBase#explain(Object)
+ */
+public class FindPlan
+{
+    private final IndexMetadata _index;
+    private List<DynamicComposite> _partitionKeys = Collections.emptyList();
+    private DynamicComposite _startColumn;
+    private DynamicComposite _endColumn;
+    private Set<? extends Object> _projection;
+    private double _estimatedRoundTrips = -1;
+    private double _estimatedRows = -1;
+    private final List<FindPlan> _intersectedPlans = new ArrayList<FindPlan>();
+
+    FindPlan(IndexMetadata index)
+    {
+        _index = index;
+    }
+
+    /**
+     * @return the index used
+     */
+    public IndexMetadata getIndex()
+    {
+        return _index;
+    }
+
+    /**
+     * @return the index row keys read, one per index partition. Empty for hash indexes.
+     */
+    public List<DynamicComposite> getPartitionKeys()
+    {
+        return _partitionKeys;
+    }
+
+    void setPartitionKeys(List<DynamicComposite> partitionKeys)
+    {
+        _partitionKeys = partitionKeys;
+    }
+
+    /**
+     * @return the first index column read from each partition, null for hash indexes
+     */
+    public DynamicComposite getStartColumn()
+    {
+        return _startColumn;
+    }
+
+    void setStartColumn(DynamicComposite startColumn)
+    {
+        _startColumn = startColumn;
+    }
+
+    /**
+     * @return the last index column read from each partition, null for hash indexes
+     */
+    public DynamicComposite getEndColumn()
+    {
+        return _endColumn;
+    }
+
+    void setEndColumn(DynamicComposite endColumn)
+    {
+        _endColumn = endColumn;
+    }
+
+    /**
+     * @return the properties loaded, null if all properties or a column range are loaded
+     */
+    public Set<? extends Object> getProjection()
+    {
+        return _projection;
+    }
+
+    void setProjection(Set<? extends Object> projection)
+    {
+        _projection = projection;
+    }
+
+    /**
+     * @return the estimated number of requests made to cassandra, -1 if there are not enough index statistics to estimate
+     */
+    public double getEstimatedRoundTrips()
+    {
+        return _estimatedRoundTrips;
+    }
+
+    /**
+     * @return the estimated number of index entries and rows read, -1 if there are not enough index statistics to estimate
+     */
+    public double getEstimatedRows()
+    {
+        return _estimatedRows;
+    }
+
+    void setEstimates(double roundTrips, double rows)
+    {
+        _estimatedRoundTrips = roundTrips;
+        _estimatedRows = rows;
+    }
+
+    /**
+     * @return the plans of the other indexes intersected, most selective first. Empty unless the find intersects indexes. Later
+     * indexes may be skipped once few enough keys remain.
+     */
+    public List<FindPlan> getIntersectedPlans()
+    {
+        return Collections.unmodifiableList(_intersectedPlans);
+    }
+
+    void addIntersectedPlan(FindPlan plan)
+    {
+        _intersectedPlans.add(plan);
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder b = new StringBuilder();
+        b.append(_index.getType() == EIndexType.HASH ? "hash index " : "range index ").append(_index);
+        if(_index.getType() == EIndexType.RANGE)
+            b.append(", ").append(_partitionKeys.size()).append(" partition(s), ").append(_startColumn).append(" - ").append(_endColumn);
+
+        if(_projection != null)
+            b.append(", projection ").append(_projection);
+
+        if(_estimatedRows >= 0)
+            b.append(", estimated ").append(Math.round(_estimatedRoundTrips)).append(" trip(s), ").append(Math.round(_estimatedRows)).append(" row(s)");
+
+        for(FindPlan plan : _intersectedPlans)
+            b.append("; intersect ").append(plan);
+
+        return b.toString();
+    }
+}
@@ -148,6 +148,15 @@ class GetHelper<K, V> extends LoadHelper<K, V>
     }
 
     public List<V> mget(List<K> allKeys, List<V> allValues, GetOptions options)
+    {
+        return mget(allKeys, allValues, options, null);
+    }
+    
+    /**
+     * get values, checking unfiltered rows against a raw filter before loading them. Rejected rows are returned as nulls.
+     * @param rawFilter the filter, may be null. Only used when all columns of rows without counters are fetched.
+     */
+    public List<V> mget(List<K> allKeys, List<V> allValues, GetOptions options, RawValueFilter rawFilter)
     {
         long startTime = System.nanoTime();
 
@@ -177,8 +186,12 @@ class GetHelper<K, V> extends LoadHelper<K, V>
                         end = propertyName(options.getEndColumn(), ComponentEquality.GREATER_THAN_EQUAL); 
                     }
                     
+                    RawValueFilter f = null;
+                    if(options.getColumnFilterStrategy() == EColumnFilterStrategy.UNFILTERED && !_entityMeta.hasCounterColumns() && values == null)
+                        f = rawFilter;
+                    
                     if(_entityMeta.hasNormalColumns())
-                        values = bulkLoadFromMultiGet(keys, values, null, start, end, true, c);
+                        values = bulkLoadFromMultiGet(keys, values, null, start, end, true, f, c);
                     
                     if(_entityMeta.hasCounterColumns())
                         values = bulkLoadFromMultiCounterGet(keys, values, null, start, end, true, c);
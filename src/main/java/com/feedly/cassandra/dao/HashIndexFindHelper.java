@@ -2,6 +2,7 @@ package com.feedly.cassandra.dao;
 
 import java.util.AbstractCollection;
 import java.util.ArrayList;
+import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Iterator;
@@ -17,8 +18,10 @@ import me.prettyprint.hector.api.factory.HFactory;
 
 import com.feedly.cassandra.EConsistencyLevel;
 import com.feedly.cassandra.IKeyspaceFactory;
+import com.feedly.cassandra.entity.EPropertyType;
 import com.feedly.cassandra.entity.EntityMetadata;
 import com.feedly.cassandra.entity.IndexMetadata;
+import com.feedly.cassandra.entity.PropertyMetadataBase;
 import com.feedly.cassandra.entity.SimplePropertyMetadata;
 
 /*
@@ -117,6 +120,7 @@ class HashIndexFindHelper<K, V> extends LoadHelper<K, V>
         query.setColumnFamily(_entityMeta.getFamilyName());
         query.setRowCount(CassandraDaoBase.ROW_RANGE_SIZE);
         query.addEqualsExpression(pm.getPhysicalNameBytes(), serialize(propVal, false, pm.getSerializer()));
+        addFilterExpressions(query, template, pm);
 
         if(colNames != null)
             query.setColumnNames(colNames);
@@ -134,6 +138,33 @@ class HashIndexFindHelper<K, V> extends LoadHelper<K, V>
                                         level);
     }
     
+    /*
+     * push equality checks on the other properties set in the template to cassandra so non matching rows aren't returned. Rows are still
+     * checked by the value filter. Only equality is pushed, columns have no validators so cassandra compares other expressions as raw 
+     * bytes, which doesn't match the value order of e.g. negative numbers.
+     */
+    private void addFilterExpressions(IndexedSlicesQuery<byte[], byte[], byte[]> query, V template, SimplePropertyMetadata indexedProp)
+    {
+        if(_entityMeta.useCompositeColumns())
+            return;
+        
+        BitSet dirty = asEntity(template).getModifiedFields();
+        for(int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1))
+        {
+            PropertyMetadataBase pmb = _entityMeta.getProperties().get(i);
+            if(pmb.equals(indexedProp) || pmb.getPropertyType() != EPropertyType.SIMPLE || ((SimplePropertyMetadata) pmb).hasCounter())
+                continue;
+            
+            SimplePropertyMetadata pm = (SimplePropertyMetadata) pmb;
+            Object propVal = invokeGetter(pm, template);
+            if(propVal != null)
+            {
+                _logger.trace("filtering on {} = {}", pm.getName(), propVal);
+                query.addEqualsExpression(pm.getPhysicalNameBytes(), serialize(propVal, false, pm.getSerializer()));
+            }
+        }
+    }
+    
     @SuppressWarnings("unchecked")
     private byte[] fetchBatch(IndexedSlicesQuery<byte[],byte[],byte[]> query, 
                               byte[] startRowKey, 
@@ -133,6 +133,27 @@ public interface ICassandraDao<K, V>
      */
     public Collection<V> mfind(V template, FindOptions options); 
     
+    /**
+     * Find entities whose property matches any of a set of values. The property must be the first property of a range or hash index. With
+     * a range index, the index is read for all values before rows are loaded, so each row is loaded once and rows are loaded in batches.
+     * 
+     * @param property the property name
+     * @param values the values to match
+     * @return the matching values. All values are loaded, the collection is not lazy loaded.
+     */
+    public Collection<V> mfindIn(String property, Collection<?> values);
+    
+    /**
+     * Find entities whose property matches any of a set of values, using the specified options.
+     * 
+     * @param property the property name
+     * @param values the values to match
+     * @param options the options
+     * @return the matching values. All values are loaded, the collection is not lazy loaded.
+     * @see #mfindIn(String, Collection)
+     */
+    public Collection<V> mfindIn(String property, Collection<?> values, FindOptions options);
+    
     /**
      * Find entities using a range of secondary index values. The start and end templates should generally have the same properties set so
      * an index can be chosen for retrieval. When calculating the range, the index columns are considered together, while non-indexed columns
@@ -160,6 +181,35 @@ public interface ICassandraDao<K, V>
      */
     public Collection<V> mfindBetween(V startTemplate, V endTemplate, FindBetweenOptions options); 
     
+    /**
+     * Find entities within any of several ranges of secondary index values. All ranges must use the same index. The index is read for
+     * all ranges before rows are loaded, so rows within overlapping ranges are loaded and returned once.
+     * 
+     * @param startTemplates the start template of each range
+     * @param endTemplates the end template of each range, in the same order as the start templates
+     * @param options the options. The row order applies to all returned values.
+     * @return the values within any of the ranges. All values are loaded, the collection is not lazy loaded.
+     * @see #mfindBetween(Object, Object, FindBetweenOptions)
+     */
+    public Collection<V> mfindBetween(List<V> startTemplates, List<V> endTemplates, FindBetweenOptions options);
+    
+    /**
+     * Describe how {@link #mfind(Object, FindOptions)} would retrieve values, without reading any values.
+     * @param template the find template
+     * @param options the find options
+     * @return the plan, including the index used and estimated cost. Intersected finds include a plan per additional index.
+     */
+    public FindPlan explain(V template, FindOptions options);
+    
+    /**
+     * Describe how {@link #mfindBetween(Object, Object, FindBetweenOptions)} would retrieve values, without reading any values.
+     * @param startTemplate the start template
+     * @param endTemplate the end template
+     * @param options the find options
+     * @return the plan, including the index partitions and columns read and estimated cost
+     */
+    public FindPlan explainBetween(V startTemplate, V endTemplate, FindBetweenOptions options);
+    
     
     /**
      * Delete an entity.
@@ -190,4 +240,45 @@ public interface ICassandraDao<K, V>
      * @param options the delete options.
      */
     public void mdelete(Collection<K> keys, DeleteOptions options);
+
+    /**
+     * Delete entities matching a template. Matching rows are found using a secondary index and deleted in batches along with their range
+     * index entries. Only the indexed properties and properties set on the template are read, not the entire row.
+     * 
+     * @param template entity that deleted rows should match. The template should set values such that a single index can be chosen.
+     * @return the number of deleted entities.
+     */
+    public int mdeleteByTemplate(V template);
+    
+    /**
+     * Delete entities matching a template, using the specified options.
+     * 
+     * @param template entity that deleted rows should match. The template should set values such that a single index can be chosen.
+     * @param options the delete options. Range index entries are always removed, the remove index values flag does not apply.
+     * @return the number of deleted entities.
+     * @see #mdeleteByTemplate(Object)
+     */
+    public int mdeleteByTemplate(V template, DeleteOptions options);
+    
+    /**
+     * Delete entities within a range of secondary index values. Matching rows are found using a range index and deleted in batches along 
+     * with their range index entries. Only the indexed properties and properties set on the templates are read, not the entire row.
+     * 
+     * @param startTemplate entity that deleted rows should match. The template should set values such that a single index can be chosen.
+     * @param endTemplate entity that deleted rows should match. The template should set values such that a single index can be chosen.
+     * @return the number of deleted entities.
+     * @see #mfindBetween(Object, Object)
+     */
+    public int mdeleteBetween(V startTemplate, V endTemplate);
+    
+    /**
+     * Delete entities within a range of secondary index values, using the specified options.
+     * 
+     * @param startTemplate entity that deleted rows should match. The template should set values such that a single index can be chosen.
+     * @param endTemplate entity that deleted rows should match. The template should set values such that a single index can be chosen.
+     * @param options the delete options. Range index entries are always removed, the remove index values flag does not apply.
+     * @return the number of deleted entities.
+     * @see #mdeleteBetween(Object, Object)
+     */
+    public int mdeleteBetween(V startTemplate, V endTemplate, DeleteOptions options);
 }
@@ -17,4 +17,10 @@ interface IValueFilter<V>
      * @return the filter result
      */
     public EFilterResult isFiltered(IndexedValue<V> value);
+    
+    /**
+     * get a filter that can check rows before they are converted to entities.
+     * @return the filter, null if rows can only be checked after loading
+     */
+    public RawValueFilter rawFilter();
 }
\ No newline at end of file
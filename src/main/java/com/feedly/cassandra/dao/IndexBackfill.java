@@ -0,0 +1,362 @@
+package com.feedly.cassandra.dao;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import me.prettyprint.hector.api.Keyspace;
+import me.prettyprint.hector.api.beans.Composite;
+import me.prettyprint.hector.api.beans.DynamicComposite;
+import me.prettyprint.hector.api.beans.HColumn;
+import me.prettyprint.hector.api.beans.OrderedRows;
+import me.prettyprint.hector.api.beans.Row;
+import me.prettyprint.hector.api.factory.HFactory;
+import me.prettyprint.hector.api.mutation.Mutator;
+import me.prettyprint.hector.api.query.RangeSlicesQuery;
+import me.prettyprint.hector.api.query.SliceQuery;
+
+import com.feedly.cassandra.IKeyspaceFactory;
+import com.feedly.cassandra.PersistenceManager;
+import com.feedly.cassandra.entity.EntityMetadata;
+import com.feedly.cassandra.entity.IndexMetadata;
+import com.feedly.cassandra.entity.SimplePropertyMetadata;
+
+/**
+ * builds a range index for existing rows, e.g. after the index was added to the entity. Rows are scanned in batches of keys, each batch
+ * is handed to a worker that reads only the indexed properties and writes the index columns in a single mutation.
+ * <p>
+ * While building, the index is marked as such in a status row of the WAL column family, see {@link #isBuilding(IndexMetadata)}. Finds
+ * do not use building indexes, nor indexes declared as requiring a backfill until one has completed. The scan position is saved as batches complete (in scan order), so an interrupted backfill resumes where it left off.
+ *
+ * @author kireet
+ */
+class IndexBackfill<K, V> extends DaoHelperBase<K, V>
+{
+    private static final AtomicInteger _threadId = new AtomicInteger();
+    private static final long STATUS = 0;
+    private static final long POSITION = 1;
+    private static final long READY = 2;
+    private static final byte[] BUILDING = SER_STRING.toBytes("building");
+    private static final byte[] READY_VAL = SER_STRING.toBytes("ready");
+
+    private final GetHelper<K, V> _getHelper;
+    private final byte[] _statusKey;
+    private final int _threads;
+    private final int _batchSize;
+    private final RateLimiter _limiter;
+    private final Set<IndexMetadata> _building = Collections.newSetFromMap(new ConcurrentHashMap<IndexMetadata, Boolean>());
+    private volatile boolean _statusLoaded;
+
+    /**
+     * @param threads the number of batches processed in parallel
+     * @param batchSize the number of rows per batch
+     * @param limiter limits the number of rows indexed per second, may be null
+     */
+    IndexBackfill(EntityMetadata<V> meta, IKeyspaceFactory factory, GetHelper<K, V> getHelper, int threads, int batchSize, RateLimiter limiter, int statsSize)
+    {
+        super(meta, factory, statsSize);
+
+        if(threads <= 0)
+            throw new IllegalArgumentException("thread count must be positive: " + threads);
+        if(batchSize <= 0)
+            throw new IllegalArgumentException("batch size must be positive: " + batchSize);
+
+        _getHelper = getHelper;
+        _threads = threads;
+        _batchSize = batchSize;
+        _limiter = limiter;
+        _statusKey = SER_STRING.toBytes("fc_index_status:" + meta.getIndexFamilyName());
+    }
+
+    /**
+     * check if an index is being built (or a build was interrupted), or requires a backfill that has not yet completed. The status is
+     * read on first use, see {@link #loadStatus()}.
+     * @param index the index
+     * @return true if the index is incomplete
+     */
+    public boolean isBuilding(IndexMetadata index)
+    {
+        if(!_statusLoaded)
+            loadStatus();
+
+        return _building.contains(index);
+    }
+
+    /**
+     * read which indexes are being built. Indexes built by other processes are only seen as complete after reloading.
+     */
+    public synchronized void loadStatus()
+    {
+        Set<IndexMetadata> building = new HashSet<IndexMetadata>();
+        Set<String> ready = new HashSet<String>();
+        SliceQuery<byte[], Composite, byte[]> query = HFactory.createSliceQuery(_keyspaceFactory.createKeyspace(null), SER_BYTES, SER_COMPOSITE, SER_BYTES);
+        query.setKey(_statusKey);
+        query.setColumnFamily(PersistenceManager.CF_IDXWAL);
+        query.setRange(null, null, false, CassandraDaoBase.COL_RANGE_SIZE);
+
+        for(HColumn<Composite, byte[]> col : query.execute().get().getColumns())
+        {
+            long type = col.getName().getComponent(0).getValue(SER_LONG);
+            String id = SER_STRING.fromBytes((byte[]) col.getName().getComponent(1).getValue(SER_BYTES));
+            if(type == READY)
+                ready.add(id);
+            
+            if(type != STATUS)
+                continue;
+
+            for(IndexMetadata idxMeta : _entityMeta.getIndexes())
+            {
+                if(idxMeta.id().equals(id))
+                {
+                    _logger.warn("index {} of {} is incomplete and will not be used by finds until backfilled", idxMeta, _entityMeta.getFamilyName());
+                    building.add(idxMeta);
+                }
+            }
+        }
+
+        for(IndexMetadata idxMeta : _entityMeta.getIndexes())
+        {
+            if(idxMeta.isBackfillRequired() && !ready.contains(idxMeta.id()) && building.add(idxMeta))
+                _logger.warn("index {} of {} has not been backfilled and will not be used by finds", idxMeta, _entityMeta.getFamilyName());
+        }
+
+        _building.retainAll(building);
+        _building.addAll(building);
+        _statusLoaded = true;
+    }
+
+    /**
+     * build an index, resuming a previous backfill if one was interrupted.
+     * @param index the index
+     * @return the number of rows indexed
+     */
+    public int backfill(final IndexMetadata index)
+    {
+        long startTime = System.nanoTime();
+        final Keyspace keyspace = _keyspaceFactory.createKeyspace(null);
+
+        Mutator<byte[]> mutator = HFactory.createMutator(keyspace, SER_BYTES);
+        mutator.addInsertion(_statusKey, PersistenceManager.CF_IDXWAL, statusColumn(STATUS, index, BUILDING));
+        mutator.execute();
+        _building.add(index);
+
+        byte[] startKey = position(keyspace, index);
+        if(startKey == null)
+            startKey = new byte[0];
+        else
+            _logger.info("resuming backfill of index {} of {}", index, _entityMeta.getFamilyName());
+
+        final Set<String> includes = new HashSet<String>();
+        for(SimplePropertyMetadata pm : index.getIndexedProperties())
+            includes.add(pm.getName());
+
+        ExecutorService executor = Executors.newFixedThreadPool(_threads, new ThreadFactory()
+                                                                {
+                                                                    public Thread newThread(Runnable r)
+                                                                    {
+                                                                        Thread t = new Thread(r, "index-backfill-" + _entityMeta.getFamilyName() + "-" + _threadId.incrementAndGet());
+                                                                        t.setDaemon(true);
+                                                                        return t;
+                                                                    }
+                                                                });
+
+        LinkedList<Future<Integer>> pending = new LinkedList<Future<Integer>>();
+        LinkedList<byte[]> pendingLastKeys = new LinkedList<byte[]>();
+        int cnt = 0;
+        try
+        {
+            boolean first = true;
+            while(true)
+            {
+                RangeSlicesQuery<byte[], byte[], byte[]> query = HFactory.createRangeSlicesQuery(keyspace, SER_BYTES, SER_BYTES, SER_BYTES);
+                query.setColumnFamily(_entityMeta.getFamilyName());
+                query.setKeys(startKey, new byte[0]);
+                query.setRowCount(_batchSize);
+                query.setReturnKeysOnly();
+                OrderedRows<byte[], byte[], byte[]> rows = query.execute().get();
+                _stats.incrNumCassandraOps(1);
+
+                final List<K> keys = new ArrayList<K>(rows.getCount());
+                for(Row<byte[], byte[], byte[]> row : rows)
+                {
+                    if(!first && Arrays.equals(row.getKey(), startKey)) //last key of previous batch
+                        continue;
+
+                    keys.add(keyFromBytes(row.getKey()));
+                }
+
+                if(!keys.isEmpty())
+                {
+                    if(pending.size() >= _threads * 2)
+                        cnt += completeBatch(keyspace, index, pending, pendingLastKeys);
+
+                    pending.add(executor.submit(new Callable<Integer>()
+                                                {
+                                                    @Override
+                                                    public Integer call()
+                                                    {
+                                                        return indexBatch(keyspace, index, keys, includes);
+                                                    }
+                                                }));
+                    pendingLastKeys.add(rows.peekLast().getKey());
+                }
+
+                if(rows.getCount() < _batchSize)
+                    break;
+
+                startKey = rows.peekLast().getKey();
+                first = false;
+            }
+
+            while(!pending.isEmpty())
+                cnt += completeBatch(keyspace, index, pending, pendingLastKeys);
+        }
+        finally
+        {
+            executor.shutdownNow();
+        }
+
+        mutator = HFactory.createMutator(keyspace, SER_BYTES);
+        mutator.addDeletion(_statusKey, PersistenceManager.CF_IDXWAL, statusColumnName(STATUS, index), SER_COMPOSITE);
+        mutator.addDeletion(_statusKey, PersistenceManager.CF_IDXWAL, statusColumnName(POSITION, index), SER_COMPOSITE);
+        mutator.addInsertion(_statusKey, PersistenceManager.CF_IDXWAL, statusColumn(READY, index, READY_VAL));
+        mutator.execute();
+        _building.remove(index);
+
+        _stats.addRecentTiming(System.nanoTime() - startTime);
+        _stats.incrNumOps(1);
+        _logger.info("backfilled index {} of {} for {} rows", new Object[] {index, _entityMeta.getFamilyName(), cnt});
+
+        return cnt;
+    }
+
+    /*
+     * wait for the oldest batch, then save its last key as the position. Batches complete in scan order, so all rows before the
+     * position are indexed.
+     */
+    private int completeBatch(Keyspace keyspace, IndexMetadata index, LinkedList<Future<Integer>> pending, LinkedList<byte[]> pendingLastKeys)
+    {
+        int cnt;
+        try
+        {
+            cnt = pending.removeFirst().get();
+        }
+        catch(ExecutionException ex)
+        {
+            if(ex.getCause() instanceof RuntimeException)
+                throw (RuntimeException) ex.getCause();
+
+            throw new IllegalStateException("error backfilling index " + index + " of " + _entityMeta.getFamilyName(), ex.getCause());
+        }
+        catch(InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while backfilling index " + index + " of " + _entityMeta.getFamilyName(), ex);
+        }
+
+        Mutator<byte[]> mutator = HFactory.createMutator(keyspace, SER_BYTES);
+        mutator.addInsertion(_statusKey, PersistenceManager.CF_IDXWAL, statusColumn(POSITION, index, pendingLastKeys.removeFirst()));
+        mutator.execute();
+        _stats.incrNumCassandraOps(1);
+
+        return cnt;
+    }
+
+    private int indexBatch(Keyspace keyspace, IndexMetadata index, List<K> keys, Set<String> includes)
+    {
+        if(_limiter != null)
+        {
+            try
+            {
+                _limiter.acquire(keys.size());
+            }
+            catch(InterruptedException ex)
+            {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("interrupted while backfilling index " + index + " of " + _entityMeta.getFamilyName(), ex);
+            }
+        }
+
+        List<V> values = _getHelper.mget(keys, null, new GetOptions(includes, null));
+        long clock = keyspace.createClock();
+        Mutator<byte[]> mutator = HFactory.createMutator(keyspace, SER_BYTES);
+        int cnt = 0, colCnt = 0;
+        for(int i = 0; i < keys.size(); i++)
+        {
+            V value = values.get(i);
+            if(value == null)
+                continue;
+
+            int ttl = -1;
+            for(SimplePropertyMetadata pm : index.getIndexedProperties())
+            {
+                if(pm.isTtlSet() && (ttl < 0 || pm.ttl() < ttl)) //same as a put, min ttl of the indexed properties
+                    ttl = pm.ttl();
+            }
+
+            List<List<Object>> entries = indexEntries(index, value);
+            for(List<Object> propVals : entries) //collection indexes have an entry per collection entry
+            {
+                colCnt++;
+                HColumn<DynamicComposite, byte[]> column = HFactory.createColumn(indexColumnName(propVals, keys.get(i)), PutHelper.IDX_COL_VAL, clock, SER_DYNAMIC_COMPOSITE, SER_BYTES);
+                if(ttl > 0)
+                    column.setTtl(ttl);
+                
+                for(byte[] rowKey : indexRowKeys(index, propVals))
+                    mutator.addInsertion(rowKey, _entityMeta.getIndexFamilyName(), column);
+            }
+            
+            if(!entries.isEmpty())
+                cnt++;
+        }
+
+        if(cnt > 0)
+            mutator.execute();
+
+        _stats.incrNumCassandraOps(cnt > 0 ? 2 : 1);
+        _stats.incrNumRows(keys.size());
+        _stats.incrNumCols(colCnt);
+        _logger.debug("indexed {} of {} rows for index {}", new Object[] {cnt, keys.size(), index});
+
+        return cnt;
+    }
+
+    @SuppressWarnings("unchecked")
+    private K keyFromBytes(byte[] key)
+    {
+        return (K) _entityMeta.getKeyMetadata().getSerializer().fromBytes(key);
+    }
+
+    private byte[] position(Keyspace keyspace, IndexMetadata index)
+    {
+        SliceQuery<byte[], Composite, byte[]> query = HFactory.createSliceQuery(keyspace, SER_BYTES, SER_COMPOSITE, SER_BYTES);
+        query.setKey(_statusKey);
+        query.setColumnFamily(PersistenceManager.CF_IDXWAL);
+        query.setColumnNames(statusColumnName(POSITION, index));
+
+        List<HColumn<Composite, byte[]>> columns = query.execute().get().getColumns();
+        return columns.isEmpty() ? null : columns.get(0).getValue();
+    }
+
+    private Composite statusColumnName(long type, IndexMetadata index)
+    {
+        return new Composite(type, SER_STRING.toBytes(index.id()));
+    }
+
+    private HColumn<Composite, byte[]> statusColumn(long type, IndexMetadata index, byte[] value)
+    {
+        return HFactory.createColumn(statusColumnName(type, index), value, SER_COMPOSITE, SER_BYTES);
+    }
+}
@@ -0,0 +1,346 @@
+package com.feedly.cassandra.dao;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import me.prettyprint.hector.api.Keyspace;
+import me.prettyprint.hector.api.beans.AbstractComposite.ComponentEquality;
+import me.prettyprint.hector.api.beans.Composite;
+import me.prettyprint.hector.api.beans.DynamicComposite;
+import me.prettyprint.hector.api.beans.HColumn;
+import me.prettyprint.hector.api.beans.OrderedRows;
+import me.prettyprint.hector.api.beans.Row;
+import me.prettyprint.hector.api.factory.HFactory;
+import me.prettyprint.hector.api.mutation.Mutator;
+import me.prettyprint.hector.api.query.RangeSlicesQuery;
+import me.prettyprint.hector.api.query.SliceQuery;
+
+import com.feedly.cassandra.IIndexRowPartitioner;
+import com.feedly.cassandra.IKeyspaceFactory;
+import com.feedly.cassandra.PersistenceManager;
+import com.feedly.cassandra.entity.EntityMetadata;
+import com.feedly.cassandra.entity.IndexMetadata;
+
+/**
+ * moves the entries of a range index from one partitioner's layout to another's. While migrating, puts write index entries to both layouts
+ * (see {@link IndexMetadata#getMigrationPartitioner()}), existing entries are copied by walking every partition of the index. Once finds
+ * read the new layout, the entries of the old layout are deleted the same way.
+ * <p>
+ * Copies and deletions use the clock of the original entry, so entries updated or removed in the meantime are not resurrected. Copying is
+ * idempotent, an interrupted migration is resumed by starting over.
+ * <p>
+ * The partitioners and phase of a migration are saved in a status row of the WAL column family, see {@link #loadState()}, so processes
+ * (re)started during a migration write and read the same layouts as the others. Partitioners are restored using their no-arg constructor.
+ *
+ * @author kireet
+ */
+class IndexMigration<K, V> extends DaoHelperBase<K, V>
+{
+    private static final int PARTITION_PAGE_SIZE = 100;
+    private static final int FROM = 0;
+    private static final int TO = 1;
+    private static final int PHASE = 2;
+
+    /**
+     * the phases of a migration.
+     */
+    enum EPhase
+    {
+        STARTED, //entries written to both layouts, finds read the old layout
+        SWITCHED, //existing entries copied, finds read the new layout
+        COMPLETE //entries only written to the new layout
+    }
+
+    private final int _batchSize;
+    private final RateLimiter _limiter;
+    private final byte[] _statusKey;
+
+    /**
+     * @param batchSize the number of index entries read at once
+     * @param limiter limits the number of entries processed per second, may be null
+     */
+    IndexMigration(EntityMetadata<V> meta, IKeyspaceFactory factory, int batchSize, RateLimiter limiter, int statsSize)
+    {
+        super(meta, factory, statsSize);
+
+        if(batchSize <= 0)
+            throw new IllegalArgumentException("batch size must be positive: " + batchSize);
+
+        _batchSize = batchSize;
+        _limiter = limiter;
+        _statusKey = SER_STRING.toBytes("fc_index_migration:" + meta.getIndexFamilyName());
+    }
+
+    /**
+     * save the state of a migration.
+     * @param index the index
+     * @param from the partitioner of the old layout
+     * @param to the partitioner of the new layout
+     * @param phase the phase reached
+     */
+    public void saveState(IndexMetadata index, IIndexRowPartitioner from, IIndexRowPartitioner to, EPhase phase)
+    {
+        Mutator<byte[]> mutator = HFactory.createMutator(_keyspaceFactory.createKeyspace(null), SER_BYTES);
+        mutator.addInsertion(_statusKey, PersistenceManager.CF_IDXWAL, statusColumn(FROM, index, from.getClass().getName()));
+        mutator.addInsertion(_statusKey, PersistenceManager.CF_IDXWAL, statusColumn(TO, index, to.getClass().getName()));
+        mutator.addInsertion(_statusKey, PersistenceManager.CF_IDXWAL, statusColumn(PHASE, index, phase.name()));
+        mutator.execute();
+        _stats.incrNumCassandraOps(1);
+        _logger.info("index {} of {} migration {}", new Object[] {index, _entityMeta.getFamilyName(), phase.name().toLowerCase()});
+    }
+
+    /**
+     * read the saved migrations. Partitioners matching the index's current ones are reused, others are created using their no-arg 
+     * constructor.
+     * @return the migration state by index, completed migrations are included
+     */
+    public Map<IndexMetadata, State> loadState()
+    {
+        SliceQuery<byte[], Composite, String> query = 
+                HFactory.createSliceQuery(_keyspaceFactory.createKeyspace(null), SER_BYTES, SER_COMPOSITE, SER_STRING);
+        query.setKey(_statusKey);
+        query.setColumnFamily(PersistenceManager.CF_IDXWAL);
+        query.setRange(null, null, false, CassandraDaoBase.COL_RANGE_SIZE);
+        _stats.incrNumCassandraOps(1);
+
+        Map<String, String[]> saved = new HashMap<String, String[]>();
+        for(HColumn<Composite, String> col : query.execute().get().getColumns())
+        {
+            int type = col.getName().getComponent(0).getValue(SER_LONG).intValue();
+            String id = SER_STRING.fromBytes((byte[]) col.getName().getComponent(1).getValue(SER_BYTES));
+            String[] vals = saved.get(id);
+            if(vals == null)
+            {
+                vals = new String[3];
+                saved.put(id, vals);
+            }
+            
+            vals[type] = col.getValue();
+        }
+
+        Map<IndexMetadata, State> rv = new HashMap<IndexMetadata, State>();
+        for(IndexMetadata index : _entityMeta.getIndexes())
+        {
+            String[] vals = saved.get(index.id());
+            if(vals == null || vals[FROM] == null || vals[TO] == null || vals[PHASE] == null)
+                continue;
+            
+            rv.put(index, new State(partitioner(index, vals[FROM]), partitioner(index, vals[TO]), EPhase.valueOf(vals[PHASE])));
+        }
+        
+        return rv;
+    }
+
+    private IIndexRowPartitioner partitioner(IndexMetadata index, String className)
+    {
+        IndexMetadata.Partitioners current = index.getPartitioners();
+        if(current.getIndexPartitioner().getClass().getName().equals(className))
+            return current.getIndexPartitioner();
+        if(current.getMigrationPartitioner() != null && current.getMigrationPartitioner().getClass().getName().equals(className))
+            return current.getMigrationPartitioner();
+        
+        try
+        {
+            return (IIndexRowPartitioner) Class.forName(className).newInstance();
+        }
+        catch(Exception ex)
+        {
+            throw new IllegalStateException("cannot restore partitioner " + className + " of index " + index + " of " + 
+                                                    _entityMeta.getFamilyName(), ex);
+        }
+    }
+
+    private HColumn<Composite, String> statusColumn(int type, IndexMetadata index, String value)
+    {
+        return HFactory.createColumn(new Composite((long) type, SER_STRING.toBytes(index.id())), value, SER_COMPOSITE, SER_STRING);
+    }
+
+    /**
+     * copy the entries of the old layout to the new layout.
+     * @param index the index
+     * @param from the partitioner of the old layout
+     * @param to the partitioner of the new layout
+     * @return the number of entries copied
+     */
+    public int copy(IndexMetadata index, IIndexRowPartitioner from, IIndexRowPartitioner to)
+    {
+        return process(index, from, to, true);
+    }
+
+    /**
+     * delete the entries of a layout no longer read by finds. Entries whose partition is the same in both layouts are retained.
+     * @param index the index
+     * @param from the partitioner of the old layout
+     * @return the number of entries deleted
+     */
+    public int cleanup(IndexMetadata index, IIndexRowPartitioner from)
+    {
+        return process(index, from, index.getIndexPartitioner(), false);
+    }
+
+    private int process(IndexMetadata index, IIndexRowPartitioner from, IIndexRowPartitioner to, boolean copy)
+    {
+        long startTime = System.nanoTime();
+        Keyspace keyspace = _keyspaceFactory.createKeyspace(null);
+        byte[] startKey = new byte[0];
+        boolean first = true;
+        int cnt = 0;
+        while(true)
+        {
+            RangeSlicesQuery<byte[], DynamicComposite, byte[]> query =
+                    HFactory.createRangeSlicesQuery(keyspace, SER_BYTES, SER_DYNAMIC_COMPOSITE, SER_BYTES);
+            query.setColumnFamily(_entityMeta.getIndexFamilyName());
+            query.setKeys(startKey, new byte[0]);
+            query.setRowCount(PARTITION_PAGE_SIZE);
+            query.setReturnKeysOnly();
+            OrderedRows<byte[], DynamicComposite, byte[]> rows = query.execute().get();
+            _stats.incrNumCassandraOps(1);
+
+            for(Row<byte[], DynamicComposite, byte[]> row : rows)
+            {
+                if(!first && Arrays.equals(row.getKey(), startKey)) //already processed as last row of previous page
+                    continue;
+
+                if(index.id().equals(SER_DYNAMIC_COMPOSITE.fromBytes(row.getKey()).get(0)))
+                    cnt += processPartition(keyspace, index, row.getKey(), from, to, copy);
+            }
+
+            if(rows.getCount() < PARTITION_PAGE_SIZE)
+                break;
+
+            startKey = rows.peekLast().getKey();
+            first = false;
+        }
+
+        _stats.addRecentTiming(System.nanoTime() - startTime);
+        _stats.incrNumOps(1);
+        _logger.info("{} {} entries of index {} of {}", new Object[] {copy ? "copied" : "deleted", cnt, index, _entityMeta.getFamilyName()});
+
+        return cnt;
+    }
+
+    /*
+     * process the entries of a partition that belong to the from layout, and to a different partition in the to layout
+     */
+    private int processPartition(Keyspace keyspace,
+                                 IndexMetadata index,
+                                 byte[] partition,
+                                 IIndexRowPartitioner from,
+                                 IIndexRowPartitioner to,
+                                 boolean copy)
+    {
+        int cnt = 0;
+        DynamicComposite startCol = null;
+        while(true)
+        {
+            SliceQuery<byte[], DynamicComposite, byte[]> query =
+                    HFactory.createSliceQuery(keyspace, SER_BYTES, SER_DYNAMIC_COMPOSITE, SER_BYTES);
+            query.setKey(partition);
+            query.setColumnFamily(_entityMeta.getIndexFamilyName());
+            query.setRange(startCol, null, false, _batchSize);
+            List<HColumn<DynamicComposite, byte[]>> columns = query.execute().get().getColumns();
+            _stats.incrNumCassandraOps(1);
+
+            int size = columns.size();
+            DynamicComposite lastCol = columns.isEmpty() ? null : columns.get(size - 1).getName();
+            if(startCol != null && !columns.isEmpty()
+                    && Arrays.equals(SER_DYNAMIC_COMPOSITE.toBytes(columns.get(0).getName()), SER_DYNAMIC_COMPOSITE.toBytes(startCol)))
+                columns = columns.subList(1, columns.size()); //processed with the previous batch, unless deleted
+
+            acquire(index, columns.size());
+            Mutator<byte[]> mutator = HFactory.createMutator(keyspace, SER_BYTES);
+            int batchCnt = 0;
+            for(HColumn<DynamicComposite, byte[]> col : columns)
+            {
+                List<Object> propVals = propertyValues(index, col.getName());
+                byte[] fromKey = indexRowKey(index, from, propVals);
+                if(!Arrays.equals(fromKey, partition))
+                    continue;
+
+                byte[] toKey = indexRowKey(index, to, propVals);
+                if(Arrays.equals(fromKey, toKey))
+                    continue;
+
+                if(copy)
+                {
+                    HColumn<DynamicComposite, byte[]> column =
+                            HFactory.createColumn(col.getName(), col.getValue(), col.getClock(), SER_DYNAMIC_COMPOSITE, SER_BYTES);
+                    if(col.getTtl() > 0)
+                        column.setTtl(col.getTtl());
+
+                    mutator.addInsertion(toKey, _entityMeta.getIndexFamilyName(), column);
+                }
+                else
+                    mutator.addDeletion(partition, _entityMeta.getIndexFamilyName(), col.getName(), SER_DYNAMIC_COMPOSITE, col.getClock());
+
+                batchCnt++;
+            }
+
+            if(batchCnt > 0)
+            {
+                mutator.execute();
+                _stats.incrNumCassandraOps(1);
+                _stats.incrNumCols(batchCnt);
+                cnt += batchCnt;
+            }
+
+            if(size < _batchSize)
+                return cnt;
+
+            startCol = lastCol;
+            startCol.setEquality(ComponentEquality.EQUAL);
+        }
+    }
+
+    private List<Object> propertyValues(IndexMetadata index, DynamicComposite colName)
+    {
+        List<Object> rv = new ArrayList<Object>(colName.size() - 1);
+        for(int i = 0; i < colName.size() - 1; i++) //last value of index column is row key
+        {
+            Object idxVal = colName.get(i);
+            if(idxVal instanceof ByteBuffer)
+                idxVal = index.getIndexedProperties().get(i).getSerializer().fromByteBuffer((ByteBuffer) idxVal);
+
+            rv.add(idxVal);
+        }
+
+        return rv;
+    }
+
+    private void acquire(IndexMetadata index, int permits)
+    {
+        if(_limiter == null || permits == 0)
+            return;
+
+        try
+        {
+            _limiter.acquire(permits);
+        }
+        catch(InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while migrating index " + index + " of " + _entityMeta.getFamilyName(), ex);
+        }
+    }
+
+    /**
+     * a saved migration.
+     */
+    static class State
+    {
+        final IIndexRowPartitioner from;
+        final IIndexRowPartitioner to;
+        final EPhase phase;
+
+        State(IIndexRowPartitioner from, IIndexRowPartitioner to, EPhase phase)
+        {
+            this.from = from;
+            this.to = to;
+            this.phase = phase;
+        }
+    }
+}
@@ -0,0 +1,47 @@
+package com.feedly.cassandra.dao;
+
+import java.util.List;
+
+public class IndexPartitionMonitor implements IndexPartitionMonitorMBean
+{
+    private static final int NUM_REPORTED = 10;
+    
+    private final IndexPartitionStatistics _stats;
+
+    IndexPartitionMonitor(IndexPartitionStatistics stats)
+    {
+        _stats = stats;
+    }
+
+    @Override
+    public String[] getHottestWrittenPartitions()
+    {
+        return toArray(_stats.hottestWritten(NUM_REPORTED));
+    }
+
+    @Override
+    public String[] getHottestReadPartitions()
+    {
+        return toArray(_stats.hottestRead(NUM_REPORTED));
+    }
+
+    /**
+     * @return the widest partitions, as found by index sweeps
+     */
+    @Override
+    public String[] getWidestPartitions()
+    {
+        return toArray(_stats.widest(NUM_REPORTED));
+    }
+
+    @Override
+    public void reset()
+    {
+        _stats.reset();
+    }
+    
+    private String[] toArray(List<String> l)
+    {
+        return l.toArray(new String[l.size()]);
+    }
+}
@@ -0,0 +1,10 @@
+package com.feedly.cassandra.dao;
+
+public interface IndexPartitionMonitorMBean
+{
+    public String[] getHottestWrittenPartitions();
+    public String[] getHottestReadPartitions();
+    public String[] getWidestPartitions();
+    
+    public void reset();
+}
@@ -0,0 +1,190 @@
+package com.feedly.cassandra.dao;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import me.prettyprint.cassandra.serializers.DynamicCompositeSerializer;
+import me.prettyprint.hector.api.beans.DynamicComposite;
+
+/**
+ * tracks the busiest and widest partitions (rows) of a range index. Entries written and read per partition are counted using the space
+ * saving algorithm: a fixed number of counters is kept, a partition without a counter takes over the lowest counter and its count. Frequently
+ * used partitions are always retained, counts are overestimated by at most the taken over count. Widths are column counts found by index
+ * sweeps.
+ * <p>
+ * Writes are on the put path, only one in {@link #WRITE_SAMPLE_RATE} is recorded (weighted accordingly), so write counts are approximate.
+ *
+ * @author kireet
+ */
+class IndexPartitionStatistics
+{
+    static final int CAPACITY = 64;
+    static final int WRITE_SAMPLE_RATE = 16;
+    private static final DynamicCompositeSerializer SER_DYNAMIC_COMPOSITE = new DynamicCompositeSerializer();
+
+    private final TopCounts _writes = new TopCounts();
+    private final TopCounts _reads = new TopCounts();
+    private final TopCounts _widths = new TopCounts();
+    private final AtomicInteger _numWritten = new AtomicInteger();
+
+    /**
+     * record an entry written to a partition.
+     * @param rowKey the partition's row key
+     */
+    public void written(byte[] rowKey)
+    {
+        if(_numWritten.getAndIncrement() % WRITE_SAMPLE_RATE == 0)
+            _writes.add(ByteBuffer.wrap(rowKey), WRITE_SAMPLE_RATE);
+    }
+
+    /**
+     * record entries read from a partition by a find.
+     * @param rowKey the partition's row key
+     * @param cnt the number of entries read
+     */
+    public void read(byte[] rowKey, int cnt)
+    {
+        if(cnt > 0)
+            _reads.add(ByteBuffer.wrap(rowKey), cnt);
+    }
+
+    /**
+     * record the number of entries of a partition, found by a sweep.
+     * @param rowKey the partition's row key
+     * @param width the number of entries
+     */
+    public void swept(byte[] rowKey, long width)
+    {
+        _widths.set(ByteBuffer.wrap(rowKey), width);
+    }
+
+    /**
+     * @param n the max number of partitions to list
+     * @return the most written partitions and their approximate write counts, in descending order
+     */
+    public List<String> hottestWritten(int n)
+    {
+        return _writes.top(n, "writes");
+    }
+
+    /**
+     * @param n the max number of partitions to list
+     * @return the most read partitions and their approximate read entry counts, in descending order
+     */
+    public List<String> hottestRead(int n)
+    {
+        return _reads.top(n, "entries read");
+    }
+
+    /**
+     * @param n the max number of partitions to list
+     * @return the widest partitions found by the last sweeps and their entry counts, in descending order
+     */
+    public List<String> widest(int n)
+    {
+        return _widths.top(n, "entries");
+    }
+
+    public void reset()
+    {
+        _writes.clear();
+        _reads.clear();
+        _widths.clear();
+    }
+
+    /*
+     * describe a partition by its row key without the leading index id
+     */
+    static String describe(ByteBuffer rowKey)
+    {
+        try
+        {
+            DynamicComposite dc = SER_DYNAMIC_COMPOSITE.fromByteBuffer(rowKey.duplicate());
+            List<Object> partition = new ArrayList<Object>();
+            for(int i = 1; i < dc.size(); i++)
+                partition.add(dc.get(i));
+
+            return partition.toString();
+        }
+        catch(Exception ex)
+        {
+            return "[?]";
+        }
+    }
+
+    private static class TopCounts
+    {
+        private final Map<ByteBuffer, Long> _counts = new HashMap<ByteBuffer, Long>();
+
+        synchronized void add(ByteBuffer key, long cnt)
+        {
+            Long current = _counts.get(key);
+            if(current == null && _counts.size() >= CAPACITY)
+            {
+                ByteBuffer minKey = null;
+                for(Map.Entry<ByteBuffer, Long> entry : _counts.entrySet())
+                {
+                    if(minKey == null || entry.getValue() < current)
+                    {
+                        minKey = entry.getKey();
+                        current = entry.getValue();
+                    }
+                }
+
+                _counts.remove(minKey);
+            }
+
+            _counts.put(key, current == null ? cnt : current + cnt);
+        }
+
+        synchronized void set(ByteBuffer key, long cnt)
+        {
+            if(!_counts.containsKey(key) && _counts.size() >= CAPACITY)
+            {
+                Map.Entry<ByteBuffer, Long> min = null;
+                for(Map.Entry<ByteBuffer, Long> entry : _counts.entrySet())
+                {
+                    if(min == null || entry.getValue() < min.getValue())
+                        min = entry;
+                }
+
+                if(min.getValue() >= cnt)
+                    return;
+
+                _counts.remove(min.getKey());
+            }
+
+            _counts.put(key, cnt);
+        }
+
+        synchronized List<String> top(int n, String label)
+        {
+            List<Map.Entry<ByteBuffer, Long>> entries = new ArrayList<Map.Entry<ByteBuffer, Long>>(_counts.entrySet());
+            Collections.sort(entries, new Comparator<Map.Entry<ByteBuffer, Long>>()
+                             {
+                                 @Override
+                                 public int compare(Map.Entry<ByteBuffer, Long> o1, Map.Entry<ByteBuffer, Long> o2)
+                                 {
+                                     return o2.getValue().compareTo(o1.getValue());
+                                 }
+                             });
+
+            List<String> rv = new ArrayList<String>();
+            for(Map.Entry<ByteBuffer, Long> entry : entries.subList(0, Math.min(n, entries.size())))
+                rv.add(describe(entry.getKey()) + ": " + entry.getValue() + " " + label);
+
+            return rv;
+        }
+
+        synchronized void clear()
+        {
+            _counts.clear();
+        }
+    }
+}
@@ -0,0 +1,196 @@
+package com.feedly.cassandra.dao;
+
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.feedly.cassandra.entity.IndexMetadata;
+
+/**
+ * selectivity statistics for an index, sampled from write and read traffic. The number of distinct values of each leading subset of the
+ * indexed properties is estimated using a k minimum values sketch, so memory use is fixed regardless of the number of values.
+ * <p>
+ * Counts start at zero when the process starts, estimates are only made once enough values have been written.
+ *
+ * @author kireet
+ */
+class IndexStatistics
+{
+    static final int MIN_SAMPLES = 100;
+    private static final int SKETCH_SIZE = 256;
+
+    private final IndexMetadata _index;
+    private final DistinctSketch[] _distinct;
+    private final AtomicLong _numWritten = new AtomicLong();
+    private final AtomicLong _numRead = new AtomicLong();
+    private final AtomicLong _numStaleRead = new AtomicLong();
+    private volatile double _sweptStaleRatio = -1;
+    private volatile double _sweptColumnsPerPartition = -1;
+    private final IndexPartitionStatistics _partitions = new IndexPartitionStatistics();
+
+    IndexStatistics(IndexMetadata index)
+    {
+        _index = index;
+        _distinct = new DistinctSketch[index.getIndexedProperties().size()];
+        for(int i = 0; i < _distinct.length; i++)
+            _distinct[i] = new DistinctSketch();
+    }
+
+    public IndexMetadata getIndex()
+    {
+        return _index;
+    }
+
+    /**
+     * @return the per partition statistics, only collected for range indexes
+     */
+    public IndexPartitionStatistics partitions()
+    {
+        return _partitions;
+    }
+
+    /**
+     * record a written index value.
+     * @param propVals the indexed property values
+     */
+    public void entryWritten(List<Object> propVals)
+    {
+        _numWritten.incrementAndGet();
+        long h = 1;
+        for(int i = 0; i < _distinct.length && i < propVals.size(); i++)
+        {
+            h = 31 * h + propVals.get(i).hashCode();
+            _distinct[i].add(h);
+        }
+    }
+
+    /**
+     * record index entries read by a find.
+     * @param read the number of entries read
+     * @param stale the number of those found to be stale
+     */
+    public void entriesRead(int read, int stale)
+    {
+        _numRead.addAndGet(read);
+        _numStaleRead.addAndGet(stale);
+    }
+
+    /**
+     * record the result of a full sweep of the index.
+     */
+    public void sweepComplete(int partitions, int scanned, int stale)
+    {
+        _sweptStaleRatio = scanned == 0 ? 0 : (double) stale / scanned;
+        _sweptColumnsPerPartition = partitions == 0 ? 0 : (double) scanned / partitions;
+    }
+
+    public long getNumEntriesWritten()
+    {
+        return _numWritten.get();
+    }
+
+    /**
+     * estimate the number of distinct values of the leading index properties.
+     * @param prefixLen the number of leading properties
+     * @return the estimate, 1 if prefixLen is 0
+     */
+    public long estimateDistinct(int prefixLen)
+    {
+        if(prefixLen <= 0)
+            return 1;
+
+        return _distinct[Math.min(prefixLen, _distinct.length) - 1].estimate();
+    }
+
+    /**
+     * estimate the number of entries matching a value of the leading index properties, i.e. the rows read by an equality find.
+     * @param prefixLen the number of leading properties
+     * @return the estimate, -1 if not enough values have been sampled
+     */
+    public double estimateEntriesPerValue(int prefixLen)
+    {
+        long written = _numWritten.get();
+        if(written < MIN_SAMPLES)
+            return -1;
+
+        return (double) written / Math.max(1, estimateDistinct(prefixLen));
+    }
+
+    /**
+     * @return the fraction of entries found stale, by the last sweep if there was one, otherwise by finds. 0 if unknown.
+     */
+    public double getStaleRatio()
+    {
+        if(_sweptStaleRatio >= 0)
+            return _sweptStaleRatio;
+
+        long read = _numRead.get();
+        return read == 0 ? 0 : (double) _numStaleRead.get() / read;
+    }
+
+    /**
+     * @return the average number of columns per index partition found by the last sweep, -1 if the index has not been swept
+     */
+    public double getAvgColumnsPerPartition()
+    {
+        return _sweptColumnsPerPartition;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder b = new StringBuilder();
+        b.append(_index).append(": written=").append(_numWritten.get()).append(", distinct=[");
+        for(int i = 0; i < _distinct.length; i++)
+        {
+            if(i > 0)
+                b.append(", ");
+            b.append(_distinct[i].estimate());
+        }
+
+        return b.append("], stale ratio=").append(getStaleRatio()).toString();
+    }
+
+    /*
+     * retains the k smallest hashes seen. If h(k) is the kth smallest normalized hash, the number of distinct values is about (k-1)/h(k).
+     * Once full, most hashes are above the kth smallest and are rejected without locking.
+     */
+    private static class DistinctSketch
+    {
+        private final TreeSet<Long> _min = new TreeSet<Long>();
+        private volatile long _threshold = Long.MAX_VALUE; //the largest retained hash once full
+
+        void add(long h)
+        {
+            //finalizer step of murmur3, spreads poorly distributed hash codes (e.g. of small longs)
+            h ^= h >>> 33;
+            h *= 0xff51afd7ed558ccdL;
+            h ^= h >>> 33;
+            h *= 0xc4ceb9fe1a85ec53L;
+            h ^= h >>> 33;
+            h >>>= 1; //non negative
+
+            if(h >= _threshold)
+                return;
+
+            synchronized(this)
+            {
+                if(_min.size() < SKETCH_SIZE)
+                    _min.add(h);
+                else if(h < _min.last() && _min.add(h))
+                    _min.pollLast();
+
+                if(_min.size() == SKETCH_SIZE)
+                    _threshold = _min.last();
+            }
+        }
+
+        synchronized long estimate()
+        {
+            if(_min.size() < SKETCH_SIZE)
+                return _min.size();
+
+            return (long) ((SKETCH_SIZE - 1) / (_min.last() / (double) Long.MAX_VALUE));
+        }
+    }
+}
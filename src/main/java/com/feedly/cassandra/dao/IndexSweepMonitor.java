@@ -0,0 +1,69 @@
+package com.feedly.cassandra.dao;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class IndexSweepMonitor extends OperationStatisticsMonitor implements IndexSweepMonitorMBean
+{
+    private final AtomicLong _numScanned = new AtomicLong();
+    private final AtomicLong _numStale = new AtomicLong();
+    private final AtomicLong _numSweeps = new AtomicLong();
+    private volatile double _lastStaleRatio;
+
+    IndexSweepMonitor(OperationStatistics stats)
+    {
+        super(stats);
+    }
+
+    @Override
+    public long getNumScannedEntries()
+    {
+        return _numScanned.get();
+    }
+
+    @Override
+    public long getNumStaleEntries()
+    {
+        return _numStale.get();
+    }
+
+    /**
+     * @return the fraction of entries found stale by the last completed sweep
+     */
+    @Override
+    public double getLastStaleRatio()
+    {
+        return _lastStaleRatio;
+    }
+
+    @Override
+    public long getNumCompletedSweeps()
+    {
+        return _numSweeps.get();
+    }
+
+    @Override
+    public void reset()
+    {
+        super.reset();
+        _numScanned.set(0);
+        _numStale.set(0);
+        _numSweeps.set(0);
+        _lastStaleRatio = 0;
+    }
+
+    void scanned(int cnt)
+    {
+        _numScanned.addAndGet(cnt);
+    }
+
+    void stale(int cnt)
+    {
+        _numStale.addAndGet(cnt);
+    }
+
+    void sweepComplete(int scanned, int stale)
+    {
+        _lastStaleRatio = scanned == 0 ? 0 : (double) stale / scanned;
+        _numSweeps.incrementAndGet();
+    }
+}
@@ -0,0 +1,9 @@
+package com.feedly.cassandra.dao;
+
+public interface IndexSweepMonitorMBean extends OperationStatisticsMonitorMBean
+{
+    public long getNumScannedEntries();
+    public long getNumStaleEntries();
+    public double getLastStaleRatio();
+    public long getNumCompletedSweeps();
+}
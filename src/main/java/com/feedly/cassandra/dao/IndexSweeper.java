@@ -0,0 +1,340 @@
+package com.feedly.cassandra.dao;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import me.prettyprint.hector.api.Keyspace;
+import me.prettyprint.hector.api.beans.AbstractComposite.ComponentEquality;
+import me.prettyprint.hector.api.beans.Composite;
+import me.prettyprint.hector.api.beans.DynamicComposite;
+import me.prettyprint.hector.api.beans.HColumn;
+import me.prettyprint.hector.api.beans.OrderedRows;
+import me.prettyprint.hector.api.beans.Row;
+import me.prettyprint.hector.api.factory.HFactory;
+import me.prettyprint.hector.api.mutation.Mutator;
+import me.prettyprint.hector.api.query.RangeSlicesQuery;
+import me.prettyprint.hector.api.query.SliceQuery;
+
+import com.feedly.cassandra.IKeyspaceFactory;
+import com.feedly.cassandra.PersistenceManager;
+import com.feedly.cassandra.entity.EntityMetadata;
+import com.feedly.cassandra.entity.IndexMetadata;
+import com.feedly.cassandra.entity.SimplePropertyMetadata;
+
+/**
+ * removes stale entries from a range index in the background. Finds only discover stale entries in the ranges they read, the sweeper
+ * walks every partition of the index, reads the indexed properties of the referenced rows and deletes entries that no longer match.
+ * <p>
+ * The position is checkpointed in the WAL column family after each batch, so an interrupted sweep resumes where it left off. Entries
+ * younger than a configurable minimum age (one minute by default) are skipped, their row write may still be in flight.
+ *
+ * @author kireet
+ */
+class IndexSweeper<K, V> extends DaoHelperBase<K, V>
+{
+    private static final int PARTITION_PAGE_SIZE = 100;
+    private static final byte[] CP_PARTITION = SER_STRING.toBytes("partition");
+    private static final byte[] CP_COLUMN = SER_STRING.toBytes("column");
+
+    private final IndexMetadata _index;
+    private final GetHelper<K, V> _getHelper;
+    private final Set<String> _includes;
+    private final int _batchSize;
+    private final long _minAge;
+    private final RateLimiter _limiter;
+    private final byte[] _checkpointKey;
+    private final IndexSweepMonitor _monitor;
+    private IndexStatistics _indexStatistics;
+
+    /**
+     * @param batchSize the number of index entries verified at once
+     * @param minAge only entries written at least this many millis ago are verified
+     * @param limiter limits the number of entries verified per second, may be null
+     */
+    IndexSweeper(EntityMetadata<V> meta,
+                 IKeyspaceFactory factory,
+                 GetHelper<K, V> getHelper,
+                 IndexMetadata index,
+                 int batchSize,
+                 long minAge,
+                 RateLimiter limiter,
+                 int statsSize)
+    {
+        super(meta, factory, statsSize);
+
+        if(batchSize <= 0)
+            throw new IllegalArgumentException("batch size must be positive: " + batchSize);
+
+        _index = index;
+        _getHelper = getHelper;
+        _batchSize = batchSize;
+        _minAge = minAge;
+        _limiter = limiter;
+        _checkpointKey = SER_STRING.toBytes("fc_index_sweep:" + meta.getIndexFamilyName() + ":" + index.id());
+        _monitor = new IndexSweepMonitor(_stats);
+
+        _includes = new HashSet<String>();
+        for(SimplePropertyMetadata pm : index.getIndexedProperties())
+            _includes.add(pm.getName());
+    }
+
+    public IndexMetadata index()
+    {
+        return _index;
+    }
+
+    public IndexSweepMonitor monitor()
+    {
+        return _monitor;
+    }
+
+    /**
+     * report the stale ratio and partition sizes found by each complete sweep.
+     * @param indexStatistics the statistics of the swept index, may be null
+     */
+    public void setIndexStatistics(IndexStatistics indexStatistics)
+    {
+        _indexStatistics = indexStatistics;
+    }
+
+    /**
+     * sweep the index, starting from the last checkpoint.
+     * @return the number of stale entries removed
+     */
+    public synchronized int sweep()
+    {
+        long startTime = System.nanoTime();
+        Keyspace keyspace = _keyspaceFactory.createKeyspace(null);
+        long cutoff = (System.currentTimeMillis() - _minAge) * 1000; //clocks are in micros
+        Map<String, byte[]> checkpoint = loadCheckpoint(keyspace);
+        byte[] startKey = checkpoint.get("partition");
+        DynamicComposite startCol = checkpoint.containsKey("column") ? SER_DYNAMIC_COMPOSITE.fromBytes(checkpoint.get("column")) : null;
+        boolean resumed = startKey != null;
+        if(!resumed)
+            startKey = new byte[0];
+        else
+            _logger.info("resuming sweep of index {} of {}", _index, _entityMeta.getFamilyName());
+
+        int scanned = 0, stale = 0, partitions = 0;
+        boolean first = true;
+        while(true)
+        {
+            RangeSlicesQuery<byte[], DynamicComposite, byte[]> query =
+                    HFactory.createRangeSlicesQuery(keyspace, SER_BYTES, SER_DYNAMIC_COMPOSITE, SER_BYTES);
+            query.setColumnFamily(_entityMeta.getIndexFamilyName());
+            query.setKeys(startKey, new byte[0]);
+            query.setRowCount(PARTITION_PAGE_SIZE);
+            query.setReturnKeysOnly();
+            OrderedRows<byte[], DynamicComposite, byte[]> rows = query.execute().get();
+            _stats.incrNumCassandraOps(1);
+
+            for(Row<byte[], DynamicComposite, byte[]> row : rows)
+            {
+                if(!first && Arrays.equals(row.getKey(), startKey)) //already swept as last row of previous page
+                    continue;
+
+                if(_index.id().equals(SER_DYNAMIC_COMPOSITE.fromBytes(row.getKey()).get(0)))
+                {
+                    DynamicComposite partitionStart = first ? startCol : null;
+                    int[] result = sweepPartition(keyspace, row.getKey(), partitionStart, cutoff);
+                    if(_indexStatistics != null && partitionStart == null) //width is only known if swept from the start
+                        _indexStatistics.partitions().swept(row.getKey(), result[0] - result[1]);
+                    scanned += result[0];
+                    stale += result[1];
+                    partitions++;
+                }
+            }
+
+            if(rows.getCount() < PARTITION_PAGE_SIZE)
+                break;
+
+            startKey = rows.peekLast().getKey();
+            first = false;
+        }
+
+        deleteCheckpoint(keyspace);
+        _monitor.sweepComplete(scanned, stale);
+        if(_indexStatistics != null && !resumed) //partition sizes are only accurate for a sweep that wasn't resumed
+            _indexStatistics.sweepComplete(partitions, scanned, stale);
+
+        _stats.addRecentTiming(System.nanoTime() - startTime);
+        _stats.incrNumOps(1);
+        _logger.info("swept index {} of {}: {} entries, {} stale", new Object[] {_index, _entityMeta.getFamilyName(), scanned, stale});
+
+        return stale;
+    }
+
+    /*
+     * returns {scanned, stale}
+     */
+    private int[] sweepPartition(Keyspace keyspace, byte[] partition, DynamicComposite startCol, long cutoff)
+    {
+        int[] rv = new int[2];
+        while(true)
+        {
+            SliceQuery<byte[], DynamicComposite, byte[]> query =
+                    HFactory.createSliceQuery(keyspace, SER_BYTES, SER_DYNAMIC_COMPOSITE, SER_BYTES);
+            query.setKey(partition);
+            query.setColumnFamily(_entityMeta.getIndexFamilyName());
+            query.setRange(startCol, null, false, _batchSize);
+            List<HColumn<DynamicComposite, byte[]>> columns = query.execute().get().getColumns();
+            _stats.incrNumCassandraOps(1);
+
+            int size = columns.size();
+            if(startCol != null && !columns.isEmpty()
+                    && Arrays.equals(SER_DYNAMIC_COMPOSITE.toBytes(columns.get(0).getName()), SER_DYNAMIC_COMPOSITE.toBytes(startCol)))
+                columns = columns.subList(1, columns.size());
+
+            if(!columns.isEmpty())
+            {
+                acquire(columns.size());
+                rv[0] += columns.size();
+                rv[1] += verify(keyspace, partition, columns, cutoff);
+                _monitor.scanned(columns.size());
+
+                startCol = columns.get(columns.size() - 1).getName();
+                startCol.setEquality(ComponentEquality.EQUAL);
+                saveCheckpoint(keyspace, partition, startCol);
+            }
+
+            if(size < _batchSize)
+                return rv;
+        }
+    }
+
+    /*
+     * same checks as a find, see RangeIndexFindHelper.filterValues
+     */
+    @SuppressWarnings("unchecked")
+    private int verify(Keyspace keyspace, byte[] partition, List<HColumn<DynamicComposite, byte[]>> columns, long cutoff)
+    {
+        Set<K> keySet = new LinkedHashSet<K>();
+        for(HColumn<DynamicComposite, byte[]> col : columns)
+            keySet.add((K) col.getName().get(col.getName().size() - 1));
+
+        List<K> keys = new ArrayList<K>(keySet);
+        List<V> values = _getHelper.mget(keys, null, new GetOptions(_includes, null));
+        _stats.incrNumCassandraOps(1);
+        _stats.incrNumRows(keys.size());
+
+        Map<K, V> valueMap = new HashMap<K, V>();
+        for(int i = 0; i < keys.size(); i++)
+            valueMap.put(keys.get(i), values.get(i));
+
+        Mutator<byte[]> mutator = HFactory.createMutator(keyspace, SER_BYTES);
+        int stale = 0;
+        for(HColumn<DynamicComposite, byte[]> col : columns)
+        {
+            if(col.getClock() > cutoff)
+                continue;
+
+            V value = valueMap.get(col.getName().get(col.getName().size() - 1));
+            if(value == null || !matchesAny(col.getName(), indexEntries(_index, value)))
+            {
+                //use the column's clock so an entry rewritten in the meantime is retained
+                mutator.addDeletion(partition, _entityMeta.getIndexFamilyName(), col.getName(), SER_DYNAMIC_COMPOSITE, col.getClock());
+                stale++;
+            }
+        }
+
+        if(stale > 0)
+        {
+            mutator.execute();
+            _stats.incrNumCassandraOps(1);
+            _stats.incrNumCols(stale);
+            _monitor.stale(stale);
+            _logger.debug("removed {} stale entries from index {}", stale, _index);
+        }
+
+        return stale;
+    }
+
+    private boolean matchesAny(DynamicComposite colName, List<List<Object>> rowEntries)
+    {
+        for(List<Object> rowVals : rowEntries)
+        {
+            if(matches(colName, rowVals))
+                return true;
+        }
+
+        return false;
+    }
+
+    private boolean matches(DynamicComposite colName, List<Object> rowVals)
+    {
+        if(rowVals == null || rowVals.size() != colName.size() - 1) //last value of index column is row key
+            return false;
+
+        for(int i = rowVals.size() - 1; i >= 0; i--)
+        {
+            Object idxVal = colName.get(i);
+            if(idxVal instanceof ByteBuffer)
+                idxVal = _index.getIndexedProperties().get(i).getSerializer().fromByteBuffer((ByteBuffer) idxVal);
+
+            if(!idxVal.equals(rowVals.get(i)))
+                return false;
+        }
+
+        return true;
+    }
+
+    private void acquire(int permits)
+    {
+        if(_limiter == null)
+            return;
+
+        try
+        {
+            _limiter.acquire(permits);
+        }
+        catch(InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while sweeping index " + _index + " of " + _entityMeta.getFamilyName(), ex);
+        }
+    }
+
+    private Map<String, byte[]> loadCheckpoint(Keyspace keyspace)
+    {
+        SliceQuery<byte[], Composite, byte[]> query = HFactory.createSliceQuery(keyspace, SER_BYTES, SER_COMPOSITE, SER_BYTES);
+        query.setKey(_checkpointKey);
+        query.setColumnFamily(PersistenceManager.CF_IDXWAL);
+        query.setRange(null, null, false, 2);
+
+        Map<String, byte[]> rv = new HashMap<String, byte[]>();
+        for(HColumn<Composite, byte[]> col : query.execute().get().getColumns())
+            rv.put(SER_STRING.fromBytes((byte[]) col.getName().getComponent(1).getValue(SER_BYTES)), col.getValue());
+
+        _stats.incrNumCassandraOps(1);
+        return rv;
+    }
+
+    private void saveCheckpoint(Keyspace keyspace, byte[] partition, DynamicComposite column)
+    {
+        Mutator<byte[]> mutator = HFactory.createMutator(keyspace, SER_BYTES);
+        mutator.addInsertion(_checkpointKey,
+                             PersistenceManager.CF_IDXWAL,
+                             HFactory.createColumn(new Composite(0L, CP_PARTITION), partition, SER_COMPOSITE, SER_BYTES));
+        mutator.addInsertion(_checkpointKey,
+                             PersistenceManager.CF_IDXWAL,
+                             HFactory.createColumn(new Composite(0L, CP_COLUMN), SER_DYNAMIC_COMPOSITE.toBytes(column), SER_COMPOSITE, SER_BYTES));
+        mutator.execute();
+        _stats.incrNumCassandraOps(1);
+    }
+
+    private void deleteCheckpoint(Keyspace keyspace)
+    {
+        Mutator<byte[]> mutator = HFactory.createMutator(keyspace, SER_BYTES);
+        mutator.addDeletion(_checkpointKey, PersistenceManager.CF_IDXWAL, new Composite(0L, CP_PARTITION), SER_COMPOSITE);
+        mutator.addDeletion(_checkpointKey, PersistenceManager.CF_IDXWAL, new Composite(0L, CP_COLUMN), SER_COMPOSITE);
+        mutator.execute();
+        _stats.incrNumCassandraOps(1);
+    }
+}
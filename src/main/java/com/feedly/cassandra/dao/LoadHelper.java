@@ -41,11 +41,22 @@ import com.feedly.cassandra.entity.SimplePropertyMetadata;
 
 abstract class LoadHelper<K,V> extends DaoHelperBase<K, V>
 {
+    private CounterAccumulator<K, V> _pendingCounters;
 
     LoadHelper(EntityMetadata<V> meta, IKeyspaceFactory factory, int statsSize)
     {
         super(meta, factory, statsSize);
     }
+
+    /**
+     * merge increments that have been accumulated locally but not yet written into loaded counter values. Only counters that exist in
+     * cassandra are merged.
+     * @param accumulator the accumulator, null to load stored values only
+     */
+    public void setPendingCounters(CounterAccumulator<K, V> accumulator)
+    {
+        _pendingCounters = accumulator;
+    }
     
     @SuppressWarnings("unchecked")
     private Map<String, Object> createUmappedHandlerMap(MapPropertyMetadata pm, Object entity)
@@ -163,13 +174,35 @@ abstract class LoadHelper<K,V> extends DaoHelperBase<K, V>
             descriptor.append("[").append(key).append("]");
         }
         
+        byte[] keyBytes = _pendingCounters != null ? serialize(key, false, keyMeta.getSerializer()) : null;
+        Map<SimplePropertyMetadata, Long> shardSums = null;
         Set<Object> entities = new HashSet<Object>();
         for(int i = 0; i < size; i++)
         {
             HCounterColumn<byte[]> col = columns.get(i);
             Object colName= _entityMeta.useCompositeColumns() ? SER_DYNAMIC_COMPOSITE.fromBytes(col.getName()) : SER_STRING.fromBytes(col.getName());
+            Long colVal = col.getValue();
+            if(keyBytes != null)
+                colVal += _pendingCounters.pending(keyBytes, col.getName());
+            
+            SimplePropertyMetadata sharded = shardedCounter(colName);
+            if(sharded != null)
+            {
+                if(shardSums == null)
+                    shardSums = new HashMap<SimplePropertyMetadata, Long>();
+                
+                Long sum = shardSums.get(sharded);
+                shardSums.put(sharded, sum == null ? colVal : sum + colVal);
+                continue;
+            }
             
-            loadValueProperty(descriptor, value, _entityMeta, 0, colName, col.getValue(), entities, null, containers);
+            loadValueProperty(descriptor, value, _entityMeta, 0, colName, colVal, entities, null, containers);
+        }
+        
+        if(shardSums != null)
+        {
+            for(Map.Entry<SimplePropertyMetadata, Long> sum : shardSums.entrySet())
+                loadValueProperty(descriptor, value, _entityMeta, 0, sum.getKey().getPhysicalName(), sum.getValue(), entities, null, containers);
         }
         
         invokeSetter(keyMeta, value, key);
@@ -181,6 +214,39 @@ abstract class LoadHelper<K,V> extends DaoHelperBase<K, V>
         return value;
     }
     
+    /*
+     * if the column is a shard of a sharded counter, return the counter's metadata
+     */
+    private SimplePropertyMetadata shardedCounter(Object colName)
+    {
+        String pname;
+        if(colName instanceof DynamicComposite)
+        {
+            DynamicComposite dc = (DynamicComposite) colName;
+            if(dc.size() != 1)
+                return null; //embedded or collection column
+
+            pname = (String) dc.get(0);
+        }
+        else
+            pname = (String) colName;
+
+        PropertyMetadataBase pm = _entityMeta.getPropertyByPhysicalName(pname);
+        if(pm == null)
+        {
+            int idx = pname.lastIndexOf(SimplePropertyMetadata.COUNTER_SHARD_SEPARATOR);
+            if(idx <= 0)
+                return null;
+
+            pm = _entityMeta.getPropertyByPhysicalName(pname.substring(0, idx));
+        }
+
+        if(pm != null && pm.getPropertyType() == EPropertyType.SIMPLE && ((SimplePropertyMetadata) pm).getCounterShards() > 1)
+            return (SimplePropertyMetadata) pm;
+
+        return null;
+    }
+
     @SuppressWarnings("unchecked")
     private void loadValueProperty(StringBuilder descriptor,
                                    Object value,
@@ -696,6 +762,12 @@ abstract class LoadHelper<K,V> extends DaoHelperBase<K, V>
                 colNameBytes = pm != null ? pm.getPhysicalNameBytes() : serialize(property, true, null);
                 isCounter = pm != null && pm.hasCounter();
                 isSimple = !isCounter;
+                
+                if(isCounter && ((SimplePropertyMetadata) pm).getCounterShards() > 1)
+                {
+                    counterColNames.addAll(((SimplePropertyMetadata) pm).getCounterShardNameBytes());
+                    continue;
+                }
             }
             else
             {
@@ -754,6 +826,22 @@ abstract class LoadHelper<K,V> extends DaoHelperBase<K, V>
      * @param maintainOrder ensure the value list matches the key list by index
      * @return the updated values
      */
+    protected List<V> bulkLoadFromMultiGet(Collection<K> keys, 
+                                           List<V> values, 
+                                           List<byte[]> colNames, 
+                                           byte[] first, 
+                                           byte[] last, 
+                                           boolean maintainOrder, 
+                                           EConsistencyLevel level)
+    {
+        return bulkLoadFromMultiGet(keys, values, colNames, first, last, maintainOrder, null, level);
+    }
+    
+    /**
+     * bulk load values using a multi get slice query, skipping rows rejected by a raw filter. Rejected rows are left null.
+     * @param rawFilter the filter to check rows with before they are loaded, may be null
+     * @see #bulkLoadFromMultiGet(Collection, List, List, byte[], byte[], boolean, EConsistencyLevel)
+     */
     @SuppressWarnings({ "rawtypes", "unchecked" })
     protected List<V> bulkLoadFromMultiGet(Collection<K> keys, 
                                            List<V> values, 
@@ -761,6 +849,7 @@ abstract class LoadHelper<K,V> extends DaoHelperBase<K, V>
                                            byte[] first, 
                                            byte[] last, 
                                            boolean maintainOrder, 
+                                           RawValueFilter rawFilter,
                                            EConsistencyLevel level)
     {
         if(!(keys instanceof Set))
@@ -826,6 +915,12 @@ abstract class LoadHelper<K,V> extends DaoHelperBase<K, V>
                 value = values.get(pos.get(key));
             }
 
+            if(rawFilter != null && !rawFilter.accept(key, row.getColumnSlice().getColumns()))
+            {
+                _logger.trace("{} rejected by raw filter", key);
+                continue;
+            }
+            
             value = fromColumnSlice(key, value, keyMeta, row.getKey(), null, row.getColumnSlice(), last, level);
 
             if(value != null)
@@ -1,80 +1,124 @@
 package com.feedly.cassandra.dao;
 
+import java.io.File;
+import java.io.IOException;
 import java.lang.management.ManagementFactory;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
 import java.util.Collection;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
 import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.ThreadFactory;
-import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import javax.management.MBeanServer;
 
+import me.prettyprint.cassandra.serializers.DynamicCompositeSerializer;
 import me.prettyprint.hector.api.Keyspace;
+import me.prettyprint.hector.api.beans.DynamicComposite;
+import me.prettyprint.hector.api.factory.HFactory;
+import me.prettyprint.hector.api.mutation.Mutator;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.feedly.cassandra.EConsistencyLevel;
+import com.feedly.cassandra.IKeyspaceFactory;
 import com.feedly.cassandra.entity.EntityMetadata;
 import com.feedly.cassandra.entity.IndexMetadata;
 
 /**
- * corrects index "offline", i.e. asynchronously. A thread pool is configured to handle the updates. If the thread pool gets overwhelmed,
- * updates are simply dropped.
- * 
+ * corrects index "offline", i.e. asynchronously. Stale values are accumulated in a set, so a value encountered by many finds is only
+ * deleted once, and written in large batches by a background thread. If too many values are pending, new values are simply dropped.
+ * <p>
+ * Optionally, pending values can be kept in a local journal (see {@link #setJournalFile(File)}). Journaled values survive restarts and
+ * failed batches are retried rather than dropped.
+ *
  * @author kireet
  */
 public class OfflineRepairStrategy implements IStaleIndexValueStrategy
 {
     private static final Logger _logger = LoggerFactory.getLogger(OfflineRepairStrategy.class.getName());
     private static final AtomicInteger _threadId = new AtomicInteger();
-    private InlineRepairStrategy _strategy;
-    private int _threadCount = 1;
-    private int _maxQueueSize = 1000;
-    private ThreadPoolExecutor _executor;
-    
-    
+    private static final DynamicCompositeSerializer SER_COMPOSITE = new DynamicCompositeSerializer();
+
+    private final ConcurrentHashMap<RepairKey, Repair> _pending = new ConcurrentHashMap<RepairKey, Repair>();
+    private final AtomicBoolean _flushScheduled = new AtomicBoolean();
+    private int _maxQueueSize = 50000;
+    private int _batchSize = 500;
+    private long _flushInterval = 1000;
+    private int _rate;
+    private int _statsSize = MBeanUtils.DEFAULT_STATS_SIZE;
+    private RateLimiter _limiter;
+    private OperationStatistics _stats;
+    private OfflineRepairStrategyMonitor _monitor;
+    private ScheduledExecutorService _executor;
+    private File _journalFile;
+    private int _journalSize = 16 * 1024 * 1024;
+    private IKeyspaceFactory _keyspaceFactory;
+    private RepairJournal _journal;
+
     public void init()
     {
-        LinkedBlockingQueue<Runnable> queue = new LinkedBlockingQueue<Runnable>(_maxQueueSize);
-        _strategy = new InlineRepairStrategy();
-        _strategy.init();
-        
-        final OfflineRepairStrategyMonitor monitor = new OfflineRepairStrategyMonitor(_strategy.stats(), queue);
-        _executor = new ThreadPoolExecutor(1, _threadCount, 10, TimeUnit.SECONDS,
-                                           queue,
-                                           new ThreadFactory()
-                                           {
-                                               public Thread newThread(Runnable r)
-                                               {
-                                                   return new Thread(r, "offline-repair-strategy-" + _threadId.incrementAndGet());
-                                               }
-                                           },
-                                           new RejectedExecutionHandler()
-                                           {
-                                               public void rejectedExecution(Runnable r, ThreadPoolExecutor executor)
-                                               {
-                                                   _logger.warn("repair queue full, dropping update");
-                                                   monitor.rejectedExecution();
-                                               }
-                                           });
-        
-
-        try 
+        if(_batchSize <= 0)
+            throw new IllegalStateException("batch size must be positive: " + _batchSize);
+        if(_flushInterval <= 0)
+            throw new IllegalStateException("flush interval must be positive: " + _flushInterval);
+
+        if(_rate > 0)
+            _limiter = new RateLimiter(_rate);
+
+        _stats = new OperationStatistics(_statsSize);
+        _monitor = new OfflineRepairStrategyMonitor(_stats, this);
+
+        if(_journalFile != null)
+        {
+            if(_keyspaceFactory == null)
+                throw new IllegalStateException("keyspace factory must be set when using a repair journal");
+
+            _journal = new RepairJournal(_journalFile, _journalSize);
+            try
+            {
+                replay(_journal.open());
+            }
+            catch(IOException ex)
+            {
+                throw new IllegalStateException("could not open repair journal " + _journalFile, ex);
+            }
+        }
+
+        _executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+                                                                {
+                                                                    public Thread newThread(Runnable r)
+                                                                    {
+                                                                        Thread t = new Thread(r, "offline-repair-strategy-" + _threadId.incrementAndGet());
+                                                                        t.setDaemon(true);
+                                                                        return t;
+                                                                    }
+                                                                });
+
+        _executor.scheduleWithFixedDelay(new FlushTask(), _flushInterval, _flushInterval, TimeUnit.MILLISECONDS);
+
+        try
         {
             MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
-            mbs.registerMBean(monitor, MBeanUtils.mBeanName(this, null, "repairStats"));
+            mbs.registerMBean(_monitor, MBeanUtils.mBeanName(this, null, "repairStats"));
             _logger.info("monitoring registration complete for {}", getClass().getSimpleName());
-        } 
-        catch(Exception e) 
+        }
+        catch(Exception e)
         {
             _logger.warn("error registering mbeans", e);
         }
 
     }
-    
+
     public void destroy()
     {
         _executor.shutdown();
@@ -87,30 +131,42 @@ public class OfflineRepairStrategy implements IStaleIndexValueStrategy
             _logger.warn("repair queue not emptied after 60 seconds, continuing system shutdown");
             _executor.shutdownNow();
         }
-        
-        try 
+
+        flush();
+
+        if(_journal != null)
+        {
+            if(!_pending.isEmpty())
+                _logger.warn("{} repair updates not written, they will be replayed from {} on restart", _pending.size(), _journalFile);
+
+            _journal.close();
+        }
+
+        try
         {
             MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
             mbs.unregisterMBean(MBeanUtils.mBeanName(this, null, "repairStats"));
             _logger.info("monitoring unregistration complete for {}", getClass().getSimpleName());
-        } 
-        catch(Exception e) 
+        }
+        catch(Exception e)
         {
             _logger.warn("error unregistering mbeans", e);
         }
     }
 
     /**
-     * set the thread pool size.
+     * no longer used, repairs are written by a single background thread in batches.
      * @param threadCount
+     * @deprecated see {@link #setBatchSize(int)} and {@link #setRate(int)}
      */
+    @Deprecated
     public void setThreadCount(int threadCount)
     {
-        _threadCount = threadCount;
+
     }
 
     /**
-     * set the thread pool queue size. If the queue is full, repair operations are dropped.
+     * set the maximum number of pending stale values. If the limit is reached, new stale values are dropped.
      * @param queueSize
      */
     public void setMaxQueueSize(int queueSize)
@@ -118,25 +174,404 @@ public class OfflineRepairStrategy implements IStaleIndexValueStrategy
         _maxQueueSize = queueSize;
     }
 
+    /**
+     * set the number of stale values deleted in a single batch. Reaching this number of pending values also triggers a flush.
+     * @param batchSize the batch size
+     */
+    public void setBatchSize(int batchSize)
+    {
+        _batchSize = batchSize;
+    }
+
+    /**
+     * set how often pending stale values are deleted.
+     * @param millis the interval
+     */
+    public void setFlushInterval(long millis)
+    {
+        _flushInterval = millis;
+    }
+
+    /**
+     * limit the rate stale values are deleted at, to keep repairs from competing with regular traffic. Values exceeding the rate remain
+     * pending (or are dropped if the queue fills).
+     * @param valuesPerSecond the maximum number of values deleted per second, 0 (the default) is unlimited
+     */
+    public void setRate(int valuesPerSecond)
+    {
+        _rate = valuesPerSecond;
+    }
+
+    /**
+     * keep pending stale values in a local, memory mapped journal. The journal is read on {@link #init()}, so values pending when the
+     * process stopped are still deleted. Requires a keyspace factory, see {@link #setKeyspaceFactory(IKeyspaceFactory)}.
+     * @param file the journal file, null (the default) disables journaling
+     */
+    public void setJournalFile(File file)
+    {
+        _journalFile = file;
+    }
+
+    /**
+     * set the size of the journal file. Values that don't fit are not journaled.
+     * @param bytes the size in bytes
+     */
+    public void setJournalSize(int bytes)
+    {
+        _journalSize = bytes;
+    }
+
+    /**
+     * set the keyspace factory used to write values read from the journal.
+     * @param keyspaceFactory the factory
+     */
+    public void setKeyspaceFactory(IKeyspaceFactory keyspaceFactory)
+    {
+        _keyspaceFactory = keyspaceFactory;
+    }
+
+    public void setStatsSize(int s)
+    {
+        _statsSize = s;
+    }
+
+    public OperationStatistics stats()
+    {
+        return _stats;
+    }
+
+    public OfflineRepairStrategyMonitor monitor()
+    {
+        return _monitor;
+    }
+
+    public int size()
+    {
+        return _pending.size();
+    }
 
     @Override
-    public void handle(final EntityMetadata<?> entity, final IndexMetadata index, final Keyspace keyspace, final Collection<StaleIndexValue> values)
+    public void handle(EntityMetadata<?> entity, IndexMetadata index, Keyspace keyspace, Collection<StaleIndexValue> values)
+    {
+        int dropped = 0;
+        for(StaleIndexValue value : values)
+        {
+            RepairKey key = new RepairKey(entity.getIndexFamilyName(), value);
+            Repair repair = _pending.get(key);
+            if(repair == null)
+            {
+                if(_pending.size() >= _maxQueueSize)
+                {
+                    dropped++;
+                    continue;
+                }
+
+                Repair added = new Repair(entity.getIndexFamilyName(), value, keyspace);
+                repair = _pending.putIfAbsent(key, added);
+                if(repair == null && _journal != null && !journal(key, added))
+                {
+                    dropped++;
+                    continue;
+                }
+            }
+
+            if(repair != null)
+            {
+                //the replayed clock must cover the newest stale value, replay keeps the highest clock of duplicate records
+                if(repair.merge(value, keyspace) && _journal != null && !append(repair))
+                    _logger.warn("repair journal {} full, raised clock not journaled", _journalFile);
+                _monitor.coalescedRepairs(1);
+            }
+        }
+
+        if(dropped > 0)
+        {
+            _logger.warn("repair queue full, dropping {} updates", dropped);
+            _monitor.droppedRepairs(dropped);
+        }
+
+        if(_pending.size() >= _batchSize && _flushScheduled.compareAndSet(false, true))
+        {
+            try
+            {
+                _executor.execute(new FlushTask());
+            }
+            catch(RejectedExecutionException ree)
+            {
+                _logger.warn("system shutting down, repair updates will be written on destroy");
+            }
+        }
+    }
+
+    /**
+     * delete all pending stale values.
+     */
+    public synchronized void flush()
+    {
+        _flushScheduled.set(false);
+        Map<Keyspace, Mutator<DynamicComposite>> mutators = new IdentityHashMap<Keyspace, Mutator<DynamicComposite>>();
+        List<Map.Entry<RepairKey, Repair>> batch = new ArrayList<Map.Entry<RepairKey, Repair>>();
+        boolean ok = true;
+
+        for(Map.Entry<RepairKey, Repair> entry : _pending.entrySet())
+        {
+            Repair repair = entry.getValue();
+            if(!_pending.remove(entry.getKey(), repair))
+                continue;
+
+            Keyspace keyspace;
+            long clock;
+            synchronized(repair)
+            {
+                keyspace = repair.keyspace;
+                clock = repair.clock;
+            }
+
+            Mutator<DynamicComposite> mutator = mutators.get(keyspace);
+            if(mutator == null)
+            {
+                mutator = HFactory.createMutator(keyspace, SER_COMPOSITE);
+                mutators.put(keyspace, mutator);
+            }
+
+            mutator.addDeletion(repair.rowKey, repair.family, repair.colName, SER_COMPOSITE, clock);
+            _logger.trace("deleting stale value {}{}:{} ({})", new Object[] { repair.family, repair.rowKey, repair.colName, clock });
+            batch.add(entry);
+
+            if(batch.size() == _batchSize)
+            {
+                ok = write(mutators, batch);
+                mutators.clear();
+                batch.clear();
+
+                if(!ok)
+                    break;
+            }
+        }
+
+        if(ok && !batch.isEmpty())
+            write(mutators, batch);
+
+        if(_journal != null)
+            compact();
+    }
+
+    /*
+     * returns false if the batch was not written. If journaling, the batch is put back to be retried on the next flush, otherwise it is
+     * dropped.
+     */
+    private boolean write(Map<Keyspace, Mutator<DynamicComposite>> mutators, List<Map.Entry<RepairKey, Repair>> batch)
     {
+        int size = batch.size();
         try
         {
-            _executor.submit(
-                             new Runnable()
-                             {
-                                 @Override
-                                 public void run()
-                                 {
-                                     _strategy.handle(entity, index, keyspace, values);
-                                 }
-                             });
+            if(_limiter != null)
+                _limiter.acquire(size);
+
+            long startTime = System.nanoTime();
+            for(Mutator<DynamicComposite> mutator : mutators.values())
+                mutator.execute();
+
+            _stats.addRecentTiming(System.nanoTime() - startTime);
+            _stats.incrNumOps(1);
+            _stats.incrNumCassandraOps(mutators.size());
+            _stats.incrNumCols(size);
+            _stats.incrNumRows(size);
+            _monitor.appliedRepairs(size);
+            _logger.debug("deleted {} stale values", size);
+            return true;
+        }
+        catch(InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            _logger.warn("interrupted, {} {} repair updates", _journal == null ? "dropping" : "retaining", size);
+            requeue(batch);
+            return false;
+        }
+        catch(Exception ex)
+        {
+            _logger.error("Problem encountered while deleting stale index values, functionality should not be impacted", ex);
+            requeue(batch);
+            return false;
+        }
+    }
+
+    private void requeue(List<Map.Entry<RepairKey, Repair>> batch)
+    {
+        if(_journal == null)
+        {
+            _monitor.droppedRepairs(batch.size());
+            return;
+        }
+
+        for(Map.Entry<RepairKey, Repair> entry : batch)
+        {
+            Repair existing = _pending.putIfAbsent(entry.getKey(), entry.getValue());
+            if(existing != null)
+                existing.merge(entry.getValue());
+        }
+    }
+
+    /*
+     * append a newly pending value to the journal. If the journal is full, compact it and try again.
+     */
+    private boolean journal(RepairKey key, Repair repair)
+    {
+        if(append(repair))
+            return true;
+
+        _pending.remove(key, repair);
+        return false;
+    }
+
+    private boolean append(Repair repair)
+    {
+        if(_journal.append(repair.record()))
+            return true;
+
+        compact();
+        return _journal.append(repair.record());
+    }
+
+    /*
+     * rewrite the journal with the values still pending. Holding the journal lock while reading the pending values ensures values added
+     * concurrently are either part of the rewrite or appended after it.
+     */
+    private void compact()
+    {
+        synchronized(_journal)
+        {
+            List<RepairJournal.Record> records = new ArrayList<RepairJournal.Record>(_pending.size());
+            for(Repair repair : _pending.values())
+                records.add(repair.record());
+
+            int cnt = _journal.rewrite(records);
+            if(cnt < records.size())
+                _logger.warn("repair journal {} full, {} pending values not journaled", _journalFile, records.size() - cnt);
+        }
+    }
+
+    private void replay(List<RepairJournal.Record> records)
+    {
+        Keyspace keyspace = _keyspaceFactory.createKeyspace(EConsistencyLevel.QUOROM);
+        for(RepairJournal.Record record : records)
+        {
+            Repair repair = new Repair(record, keyspace);
+            Repair existing = _pending.putIfAbsent(new RepairKey(repair), repair);
+            if(existing != null)
+                existing.merge(repair);
+        }
+
+        _monitor.replayedRepairs(records.size());
+        if(!records.isEmpty())
+            _logger.info("replaying {} repair updates from {}", _pending.size(), _journalFile);
+    }
+
+    private class FlushTask implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            try
+            {
+                flush();
+            }
+            catch(Exception ex)
+            {
+                _logger.error("error deleting stale index values", ex);
+            }
+        }
+    }
+
+    private static class RepairKey
+    {
+        private final String _family;
+        private final ByteBuffer _rowKey;
+        private final ByteBuffer _colName;
+
+        RepairKey(String family, StaleIndexValue value)
+        {
+            _family = family;
+            _rowKey = SER_COMPOSITE.toByteBuffer(value.getRowKey());
+            _colName = SER_COMPOSITE.toByteBuffer(value.getColumnName());
+        }
+
+        RepairKey(Repair repair)
+        {
+            _family = repair.family;
+            _rowKey = SER_COMPOSITE.toByteBuffer(repair.rowKey);
+            _colName = SER_COMPOSITE.toByteBuffer(repair.colName);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return 31 * (31 * _family.hashCode() + _rowKey.hashCode()) + _colName.hashCode();
         }
-        catch(RejectedExecutionException ree)
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if(obj instanceof RepairKey)
+            {
+                RepairKey other = (RepairKey) obj;
+                return _family.equals(other._family) && _rowKey.equals(other._rowKey) && _colName.equals(other._colName);
+            }
+
+            return false;
+        }
+    }
+
+    private static class Repair
+    {
+        final String family;
+        final DynamicComposite rowKey;
+        final DynamicComposite colName;
+        long clock;
+        Keyspace keyspace;
+
+        Repair(String family, StaleIndexValue value, Keyspace keyspace)
+        {
+            this.family = family;
+            this.rowKey = value.getRowKey();
+            this.colName = value.getColumnName();
+            this.clock = value.getClock();
+            this.keyspace = keyspace;
+        }
+
+        Repair(RepairJournal.Record record, Keyspace keyspace)
+        {
+            this.family = record.family;
+            this.rowKey = SER_COMPOSITE.fromBytes(record.rowKey);
+            this.colName = SER_COMPOSITE.fromBytes(record.colName);
+            this.clock = record.clock;
+            this.keyspace = keyspace;
+        }
+
+        /*
+         * returns true if the clock was raised
+         */
+        synchronized boolean merge(StaleIndexValue value, Keyspace keyspace)
+        {
+            this.keyspace = keyspace;
+            if(value.getClock() > clock)
+            {
+                clock = value.getClock();
+                return true;
+            }
+
+            return false;
+        }
+
+        synchronized void merge(Repair other)
+        {
+            if(other.clock > clock)
+                clock = other.clock;
+        }
+
+        synchronized RepairJournal.Record record()
         {
-            _logger.warn("system shutting down, dropping repair update");
+            return new RepairJournal.Record(family, SER_COMPOSITE.toBytes(rowKey), SER_COMPOSITE.toBytes(colName), clock);
         }
     }
 }
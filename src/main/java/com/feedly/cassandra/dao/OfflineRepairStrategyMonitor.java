@@ -1,23 +1,25 @@
 package com.feedly.cassandra.dao;
 
-import java.util.Queue;
 import java.util.concurrent.atomic.AtomicLong;
 
 public class OfflineRepairStrategyMonitor extends OperationStatisticsMonitor implements OfflineRepairStrategyMonitorMBean 
 {
     private final AtomicLong _numDropped = new AtomicLong(); 
-    private final Queue<?> _executionQueue;
+    private final AtomicLong _numApplied = new AtomicLong(); 
+    private final AtomicLong _numCoalesced = new AtomicLong(); 
+    private final AtomicLong _numReplayed = new AtomicLong(); 
+    private final OfflineRepairStrategy _strategy;
     
-    public OfflineRepairStrategyMonitor(OperationStatistics stats, Queue<?> executionQueue)
+    public OfflineRepairStrategyMonitor(OperationStatistics stats, OfflineRepairStrategy strategy)
     {
         super(stats);
-        _executionQueue = executionQueue;
+        _strategy = strategy;
     }
 
     @Override
     public int getQueueSize()
     {
-        return _executionQueue.size();
+        return _strategy.size();
     }
 
     @Override
@@ -26,16 +28,57 @@ public class OfflineRepairStrategyMonitor extends OperationStatisticsMonitor imp
         return _numDropped.get();
     }
 
+    @Override
+    public long getNumAppliedRepairs()
+    {
+        return _numApplied.get();
+    }
+
+    /**
+     * @return the number of stale values merged with an already pending value
+     */
+    @Override
+    public long getNumCoalescedRepairs()
+    {
+        return _numCoalesced.get();
+    }
+
+    /**
+     * @return the number of stale values read from the repair journal on startup
+     */
+    @Override
+    public long getNumReplayedRepairs()
+    {
+        return _numReplayed.get();
+    }
+
     @Override
     public void reset()
     {
         super.reset();
         _numDropped.set(0);
+        _numApplied.set(0);
+        _numCoalesced.set(0);
+        _numReplayed.set(0);
     }
     
-    public void rejectedExecution()
+    public void droppedRepairs(int cnt)
+    {
+        _numDropped.addAndGet(cnt);
+    }
+
+    public void appliedRepairs(int cnt)
     {
-        _numDropped.incrementAndGet();
+        _numApplied.addAndGet(cnt);
     }
 
+    public void coalescedRepairs(int cnt)
+    {
+        _numCoalesced.addAndGet(cnt);
+    }
+
+    public void replayedRepairs(int cnt)
+    {
+        _numReplayed.addAndGet(cnt);
+    }
 }
@@ -4,4 +4,7 @@ public interface OfflineRepairStrategyMonitorMBean extends OperationStatisticsMo
 {
     public int getQueueSize();
     public long getNumDroppedRepairs();
+    public long getNumAppliedRepairs();
+    public long getNumCoalescedRepairs();
+    public long getNumReplayedRepairs();
 }
@@ -4,6 +4,7 @@ import java.util.ArrayList;
 import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
@@ -24,6 +25,7 @@ import com.feedly.cassandra.EConsistencyLevel;
 import com.feedly.cassandra.IKeyspaceFactory;
 import com.feedly.cassandra.PersistenceManager;
 import com.feedly.cassandra.entity.ByteIndicatorSerializer;
+import com.feedly.cassandra.entity.ECollectionIndexType;
 import com.feedly.cassandra.entity.EIndexType;
 import com.feedly.cassandra.entity.EPropertyType;
 import com.feedly.cassandra.entity.EmbeddedEntityMetadata;
@@ -38,23 +40,77 @@ import com.feedly.cassandra.entity.enhance.IEnhancedEntity;
 
 class PutHelper<K, V> extends DaoHelperBase<K, V>
 {
-    private static final MillisecondsClockResolution WAL_CLOCK = new MillisecondsClockResolution();
+    static final MillisecondsClockResolution WAL_CLOCK = new MillisecondsClockResolution();
     
     static final byte[] WAL_COL_NAME = StringSerializer.get().toBytes("rowkey"); 
     static final byte[] IDX_COL_VAL = new byte[] {0}; 
 
     private final OperationStatistics _indexStats;
+    private final GetHelper<K, V> _getHelper;
+    private final Set<PropertyMetadataBase> _rangeIndexedProps;
+    private CounterAccumulator<K, V> _counterAccumulator;
+    private WalCleanupQueue<K, V> _walCleanupQueue;
+    private AsyncIndexWriter<K, V> _asyncIndexWriter;
+    private Map<IndexMetadata, IndexStatistics> _indexStatistics = Collections.emptyMap();
+    private boolean _sampleValues;
     
     PutHelper(EntityMetadata<V> meta, IKeyspaceFactory factory, int statsSize)
     {
         super(meta, factory, statsSize);
         _indexStats = new OperationStatistics(0);
+        _getHelper = new GetHelper<K, V>(meta, factory, statsSize);
+        
+        Set<PropertyMetadataBase> props = new HashSet<PropertyMetadataBase>();
+        for(IndexMetadata idxMeta : meta.getIndexes())
+        {
+            if(idxMeta.getType() == EIndexType.RANGE)
+                props.addAll(idxMeta.getSourceProperties());
+        }
+        _rangeIndexedProps = Collections.unmodifiableSet(props);
     }
 
     public OperationStatistics indexStats()
     {
         return _indexStats;
     }
+
+    /**
+     * route counter increments through an accumulator rather than writing them directly.
+     * @param accumulator the accumulator, null to write increments directly
+     */
+    public void setCounterAccumulator(CounterAccumulator<K, V> accumulator)
+    {
+        _counterAccumulator = accumulator;
+    }
+
+    /**
+     * queue WAL deletions rather than executing them before returning from a put.
+     * @param queue the queue, null to delete WAL entries synchronously
+     */
+    public void setWalCleanupQueue(WalCleanupQueue<K, V> queue)
+    {
+        _walCleanupQueue = queue;
+    }
+
+    /**
+     * write updates to asynchronously maintained indexes in the background.
+     * @param writer the writer, null to write all index updates synchronously
+     */
+    public void setAsyncIndexWriter(AsyncIndexWriter<K, V> writer)
+    {
+        _asyncIndexWriter = writer;
+    }
+
+    /**
+     * sample written index values and partitions.
+     * @param indexStatistics statistics by index
+     * @param sampleValues true to sample written values, only needed for cost based index selection
+     */
+    public void setIndexStatistics(Map<IndexMetadata, IndexStatistics> indexStatistics, boolean sampleValues)
+    {
+        _indexStatistics = indexStatistics;
+        _sampleValues = sampleValues;
+    }
     
     public void put(V value, PutOptions options)
     {
@@ -72,6 +128,36 @@ class PutHelper<K, V> extends DaoHelperBase<K, V>
     }
 
     public void mput(Collection<V> values, PutOptions options, long clock)
+    {
+        mput(values, options, clock, null, null);
+    }
+
+    /**
+     * put values, recording how far the put got. Lets callers retrying a failed put tell whether it may already have been applied.
+     * @param values the values
+     * @param options the put options
+     * @param progress updated as the put proceeds
+     */
+    public void mput(Collection<V> values, PutOptions options, Progress progress)
+    {
+        mput(values, options, -1, null, progress);
+    }
+
+    /**
+     * put values, each using its own clock
+     * @param values the values
+     * @param options the put options
+     * @param clocks the clock of each value, by position
+     */
+    public void mput(List<V> values, PutOptions options, List<Long> clocks)
+    {
+        if(values.size() != clocks.size())
+            throw new IllegalArgumentException("value and clock list must be same size");
+        
+        mput(values, options, -1, clocks, null);
+    }
+    
+    private void mput(Collection<V> values, PutOptions options, long clock, List<Long> clocks, Progress progress)
     {
         long startTime = System.nanoTime();
         SimplePropertyMetadata keyMeta = _entityMeta.getKeyMetadata();
@@ -79,6 +165,8 @@ class PutHelper<K, V> extends DaoHelperBase<K, V>
         Mutator<byte[]> mutator = HFactory.createMutator(keyspace, SER_BYTES);
         Mutator<byte[]> walMutator = null;
         Mutator<byte[]> walCleanupMutator = null;
+        List<WalCleanupQueue.Entry> walCleanups = null;
+        List<AsyncIndexWriter.Entry> asyncIndexUpdates = null;
         boolean indexesUpdated = false;
         if(clock < 0)
             clock = keyspace.createClock();
@@ -87,9 +175,18 @@ class PutHelper<K, V> extends DaoHelperBase<K, V>
                 
         SaveStatus overallStatus = new SaveStatus();
         
+        Map<Object, V> previousValues = null;
+        if(options.isRemoveStaleIndexValues() && !_rangeIndexedProps.isEmpty())
+            previousValues = loadPreviousIndexValues(values, options);
+        
+        if(progress != null && _counterAccumulator != null) //increments are handed to the accumulator while preparing
+            progress.countersApplied = true;
+        
         //prepare the operations...
+        int pos = 0;
         for(V value : values)
         {
+            long valueClock = clocks != null ? clocks.get(pos++) : clock;
             Object key = invokeGetter(keyMeta, value);
             byte[] keyBytes = serialize(key, false, keyMeta.getSerializer());
 
@@ -110,7 +207,8 @@ class PutHelper<K, V> extends DaoHelperBase<K, V>
                                                 key, 
                                                 keyBytes, 
                                                 value, 
-                                                clock, 
+                                                previousValues == null ? null : previousValues.get(key),
+                                                valueClock, 
                                                 mutator, 
                                                 null, 
                                                 false,
@@ -119,7 +217,7 @@ class PutHelper<K, V> extends DaoHelperBase<K, V>
             if(status.updateCnt == 0)
                 _logger.info("no updates for {}[{}]", _entityMeta.getType().getSimpleName(), key);
             
-            _logger.debug("updated {} values for {}[{}] w/clock {}", new Object[] { status.updateCnt, _entityMeta.getType().getSimpleName(), key, clock });
+            _logger.debug("updated {} values for {}[{}] w/clock {}", new Object[] { status.updateCnt, _entityMeta.getType().getSimpleName(), key, valueClock });
             
             if(status.indexUpdateCnt > 0)
             {
@@ -127,13 +225,28 @@ class PutHelper<K, V> extends DaoHelperBase<K, V>
                 if(walMutator == null)
                 {
                     walMutator = HFactory.createMutator(keyspace, SER_BYTES);
-                    walCleanupMutator = HFactory.createMutator(keyspace, SER_BYTES);
+                    if(_walCleanupQueue != null)
+                        walCleanups = new ArrayList<WalCleanupQueue.Entry>();
+                    else
+                        walCleanupMutator = HFactory.createMutator(keyspace, SER_BYTES);
                 }
                 indexesUpdated = true;
                 Composite walColName = new Composite(msec, keyBytes);
-                HColumn<Composite, byte[]> column = HFactory.createColumn(walColName, IDX_COL_VAL, clock, SER_COMPOSITE, SER_BYTES);
-                walMutator.addInsertion(_entityMeta.getFamilyNameBytes(), PersistenceManager.CF_IDXWAL, column);
-                walCleanupMutator.addDeletion(_entityMeta.getFamilyNameBytes(), PersistenceManager.CF_IDXWAL, walColName, SER_COMPOSITE, clock);
+                HColumn<Composite, byte[]> column = HFactory.createColumn(walColName, IDX_COL_VAL, valueClock, SER_COMPOSITE, SER_BYTES);
+                byte[] walRowKey = _entityMeta.getWalRowKey(keyBytes);
+                walMutator.addInsertion(walRowKey, PersistenceManager.CF_IDXWAL, column);
+                if(status.asyncIndexUpdates != null) //WAL entry is deleted once the async updates are written
+                {
+                    if(asyncIndexUpdates == null)
+                        asyncIndexUpdates = new ArrayList<AsyncIndexWriter.Entry>();
+                    
+                    asyncIndexUpdates.add(new AsyncIndexWriter.Entry(status.asyncIndexUpdates, 
+                                                                     new WalCleanupQueue.Entry(walRowKey, walColName, valueClock)));
+                }
+                else if(walCleanups != null)
+                    walCleanups.add(new WalCleanupQueue.Entry(walRowKey, walColName, valueClock));
+                else
+                    walCleanupMutator.addDeletion(walRowKey, PersistenceManager.CF_IDXWAL, walColName, SER_COMPOSITE, valueClock);
             }
         }
         
@@ -148,12 +261,21 @@ class PutHelper<K, V> extends DaoHelperBase<K, V>
         /*
          * execute the index and table updates
          */
+        if(progress != null) //the outcome of a failed mutation is unknown, increments may have been applied
+            progress.countersApplied = true;
         mutator.execute();
+        if(progress != null)
+            progress.rowsWritten = true;
+        
+        if(asyncIndexUpdates != null)
+            _asyncIndexWriter.addAll(asyncIndexUpdates);
         
         /*
          * finally delete the WAL entries, no longer needed as mutation was successful
          */
-        if(indexesUpdated)
+        if(walCleanups != null)
+            _walCleanupQueue.addAll(walCleanups);
+        else if(indexesUpdated)
             walCleanupMutator.execute();
         
         
@@ -178,7 +300,7 @@ class PutHelper<K, V> extends DaoHelperBase<K, V>
 
         if(overallStatus.indexUpdateCnt > 0)
         {
-            _indexStats.incrNumCassandraOps(overallStatus.indexUpdateCnt+2); //+2 for wal writes
+            _indexStats.incrNumCassandraOps(overallStatus.indexUpdateCnt + (walCleanups != null ? 1 : 2)); //+ wal writes
             _indexStats.incrNumRows(overallStatus.indexEntityCnt);
             _indexStats.incrNumCols(overallStatus.indexUpdateCnt);
             _indexStats.incrNumOps(1);
@@ -187,6 +309,48 @@ class PutHelper<K, V> extends DaoHelperBase<K, V>
         _logger.debug("inserted {} values into {}", values.size(), _entityMeta.getType().getSimpleName());
     }
 
+    /*
+     * read the currently stored range indexed properties of values updating them, so the index entries they are replaced by can be
+     * deleted. Concurrent updates to the same row may still leave stale entries behind, these are handled when read.
+     */
+    @SuppressWarnings("unchecked")
+    private Map<Object, V> loadPreviousIndexValues(Collection<V> values, PutOptions options)
+    {
+        SimplePropertyMetadata keyMeta = _entityMeta.getKeyMetadata();
+        BitSet indexedPositions = new BitSet();
+        Set<String> includes = new HashSet<String>();
+        for(PropertyMetadataBase pm : _rangeIndexedProps)
+        {
+            indexedPositions.set(_entityMeta.getPropertyPosition(pm));
+            includes.add(pm.getName());
+        }
+        
+        Set<K> keys = new HashSet<K>();
+        for(V value : values)
+        {
+            if(asEntity(value).getModifiedFields().intersects(indexedPositions))
+                keys.add((K) invokeGetter(keyMeta, value));
+        }
+        
+        Map<Object, V> rv = new HashMap<Object, V>();
+        if(keys.isEmpty())
+            return rv;
+        
+        GetOptions getOptions = new GetOptions(includes, null);
+        getOptions.setConsistencyLevel(options.getConsistencyLevel());
+        List<K> keyList = new ArrayList<K>(keys);
+        List<V> previous = _getHelper.mget(keyList, null, getOptions);
+        _indexStats.incrNumCassandraOps(1);
+        
+        for(int i = 0; i < keyList.size(); i++)
+        {
+            if(previous.get(i) != null)
+                rv.put(keyList.get(i), previous.get(i));
+        }
+        
+        return rv;
+    }
+
 
     //rv[0] = total col cnt, rv[1] = range index update count
     @SuppressWarnings({ "rawtypes", "unchecked" })
@@ -196,6 +360,7 @@ class PutHelper<K, V> extends DaoHelperBase<K, V>
                                        Object key,
                                        byte[] keyBytes, 
                                        Object entityValue, 
+                                       Object previousValue,
                                        long clock,
                                        Mutator<byte[]> mutator,
                                        DynamicComposite colBase,
@@ -236,8 +401,13 @@ class PutHelper<K, V> extends DaoHelperBase<K, V>
                                 if(cc.dirty())
                                 {
                                     _logger.trace("{} = {}", new Object[] {descriptor, cc.getIncrement()});
-                                    HCounterColumn<DynamicComposite> counterColumn = HFactory.createCounterColumn(colBase, cc.getIncrement(), SER_DYNAMIC_COMPOSITE);
-                                    mutator.addCounter(keyBytes, _entityMeta.getCounterFamilyName(), counterColumn);
+                                    if(_counterAccumulator != null)
+                                        _counterAccumulator.add(keyBytes, SER_DYNAMIC_COMPOSITE.toBytes(colBase), cc.getIncrement());
+                                    else
+                                    {
+                                        HCounterColumn<DynamicComposite> counterColumn = HFactory.createCounterColumn(colBase, cc.getIncrement(), SER_DYNAMIC_COMPOSITE);
+                                        mutator.addCounter(keyBytes, _entityMeta.getCounterFamilyName(), counterColumn);
+                                    }
                                     rv.addCounter(cc);
                                 }
                                 else
@@ -258,7 +428,11 @@ class PutHelper<K, V> extends DaoHelperBase<K, V>
                             _logger.trace("{} = {}", new Object[] {descriptor, propVal});
 
                             if(spm.hasCounter())
+                            {
                                 mutator.addCounterDeletion(keyBytes, _entityMeta.getCounterFamilyName(), colBase, SER_DYNAMIC_COMPOSITE);
+                                if(_counterAccumulator != null)
+                                    _counterAccumulator.retire(keyBytes, SER_DYNAMIC_COMPOSITE.toBytes(colBase));
+                            }
                             else
                                 mutator.addDeletion(keyBytes, _entityMeta.getFamilyName(), colBase, SER_DYNAMIC_COMPOSITE, clock);
                         }
@@ -276,8 +450,14 @@ class PutHelper<K, V> extends DaoHelperBase<K, V>
                                 {
                                     _logger.trace("{} = {}", new Object[] {descriptor, cc.getIncrement()});
 
-                                    HCounterColumn<byte[]> counterColumn = HFactory.createCounterColumn(colMeta.getPhysicalNameBytes(), cc.getIncrement(), SER_BYTES);
-                                    mutator.addCounter(keyBytes, _entityMeta.getCounterFamilyName(), counterColumn);
+                                    byte[] shardName = spm.nextCounterShardNameBytes();
+                                    if(_counterAccumulator != null)
+                                        _counterAccumulator.add(keyBytes, shardName, cc.getIncrement());
+                                    else
+                                    {
+                                        HCounterColumn<byte[]> counterColumn = HFactory.createCounterColumn(shardName, cc.getIncrement(), SER_BYTES);
+                                        mutator.addCounter(keyBytes, _entityMeta.getCounterFamilyName(), counterColumn);
+                                    }
                                     rv.addCounter(cc);
                                 }
                                 else
@@ -299,7 +479,14 @@ class PutHelper<K, V> extends DaoHelperBase<K, V>
                             _logger.trace("{} = {}", new Object[] {descriptor, propVal});
 
                             if(spm.hasCounter())
-                                mutator.addCounterDeletion(keyBytes, _entityMeta.getCounterFamilyName(), colMeta.getPhysicalNameBytes(), SER_BYTES);
+                            {
+                                for(byte[] shardName : spm.getCounterShardNameBytes())
+                                {
+                                    mutator.addCounterDeletion(keyBytes, _entityMeta.getCounterFamilyName(), shardName, SER_BYTES);
+                                    if(_counterAccumulator != null)
+                                        _counterAccumulator.retire(keyBytes, shardName);
+                                }
+                            }
                             else
                                 mutator.addDeletion(keyBytes, _entityMeta.getFamilyName(), colMeta.getPhysicalNameBytes(), SER_BYTES, clock);
                         }
@@ -309,10 +496,12 @@ class PutHelper<K, V> extends DaoHelperBase<K, V>
                         {
                             if(idxMeta.getType() == EIndexType.RANGE && affectedIndexes.add(idxMeta))
                             {
-                                addIndexWrite(key, entityValue, dirty, idxMeta, clock, mutator, level);
+                                addIndexWrite(key, entityValue, previousValue, dirty, idxMeta, clock, mutator, rv, level);
                                 rv.indexUpdateCnt++;
                                 indexed = true;
                             }
+                            else if(idxMeta.getType() == EIndexType.HASH && propVal != null)
+                                sampleIndexWrite(idxMeta, Collections.singletonList(propVal));
                         }
                         
                         if(indexed)
@@ -331,7 +520,7 @@ class PutHelper<K, V> extends DaoHelperBase<K, V>
                     if(t == EPropertyType.OBJECT)
                     {
                         EmbeddedEntityMetadata<?> subMeta = ((ObjectPropertyMetadata) colMeta).getObjectMetadata();
-                        rv.merge(saveDirtyFields(descriptor, subMeta.getUnmappedHandler(), subMeta.getProperties(), key, keyBytes, propVal, clock, mutator, colBase, true, level));
+                        rv.merge(saveDirtyFields(descriptor, subMeta.getUnmappedHandler(), subMeta.getProperties(), key, keyBytes, propVal, null, clock, mutator, colBase, true, level));
                         rv.addEntity(propVal);
                     }
                     else if(t == EPropertyType.LIST)
@@ -345,6 +534,13 @@ class PutHelper<K, V> extends DaoHelperBase<K, V>
                         rv.merge(saveMapFields(descriptor, key, keyBytes, colBase, (MapPropertyMetadata) colMeta, map, clock, mutator, level));
                     }
                     
+                    IndexMetadata idxMeta = isEmbedded ? null : _entityMeta.getCollectionIndex(colMeta);
+                    if(idxMeta != null && addCollectionIndexWrite(key, propVal, previousValue, idxMeta, clock, mutator, rv))
+                    {
+                        rv.indexUpdateCnt++;
+                        rv.indexEntityCnt++;
+                    }
+                    
                     colBase.remove(colBase.size()-1);
                 }
                 
@@ -368,10 +564,17 @@ class PutHelper<K, V> extends DaoHelperBase<K, V>
      * column:    index value:rowkey
      * value:     meaningless
      */
-    private void addIndexWrite(Object key, Object value, BitSet dirty, IndexMetadata idxMeta, long clock, Mutator<byte[]> mutator, EConsistencyLevel level)
+    private void addIndexWrite(Object key, 
+                               Object value, 
+                               Object previousValue, 
+                               BitSet dirty, 
+                               IndexMetadata idxMeta, 
+                               long clock, 
+                               Mutator<byte[]> mutator, 
+                               SaveStatus status,
+                               EConsistencyLevel level)
     {
         List<Object> propVals = null;
-        DynamicComposite colName = new DynamicComposite();
         boolean propertyNotSet = false;
         int ttl = -1;
         for(SimplePropertyMetadata pm : idxMeta.getIndexedProperties())
@@ -389,41 +592,188 @@ class PutHelper<K, V> extends DaoHelperBase<K, V>
                         ttl = colTtl;
                 }
                 propVals.add(pval);
-                colName.add(pval);
             }
             else if(!dirty.get(_entityMeta.getPropertyPosition(pm))) //prop value is null and not set
                 propertyNotSet = true;
         }
 
-        if(propVals == null) //no index property updated
-            return;
-        
-        if(propertyNotSet) //must update none or all of a multi column index
+        if(propVals != null && propertyNotSet) //must update none or all of a multi column index
             throw new IllegalArgumentException("cannot write a subset of columns to multi-column index: " + idxMeta);
         
-        if(propVals.size() < idxMeta.getIndexedProperties().size()) //some index properties set to null -> entry is removed from index
+        //some index properties set to null -> entry is removed from index
+        boolean complete = propVals != null && propVals.size() == idxMeta.getIndexedProperties().size();
+        
+        if(previousValue != null)
+            addStaleIndexDelete(key, previousValue, complete ? propVals : null, idxMeta, clock, mutator, status);
+        
+        if(!complete)
+            return;
+        
+        List<byte[]> rowKeys = indexRowKeys(idxMeta, propVals);
+        sampleIndexWrite(idxMeta, propVals);
+        samplePartitionWrite(idxMeta, rowKeys.get(0));
+        if(isAsync(idxMeta))
+        {
+            for(byte[] rowKey : rowKeys)
+                status.addAsyncIndexUpdate(new AsyncIndexWriter.Update(rowKey, indexColumnName(propVals, key), clock, ttl, false));
             return;
+        }
         
-        colName.add(key);
+        HColumn<DynamicComposite, byte[]> column = HFactory.createColumn(indexColumnName(propVals, key), IDX_COL_VAL, clock, SER_DYNAMIC_COMPOSITE, SER_BYTES);
+        if(ttl > 0)
+            column.setTtl(ttl);
         
-        HColumn<DynamicComposite, byte[]> column = HFactory.createColumn(colName, IDX_COL_VAL, clock, SER_DYNAMIC_COMPOSITE, SER_BYTES);
+        for(byte[] rowKey : rowKeys)
+            mutator.addInsertion(rowKey, _entityMeta.getIndexFamilyName(), column);
+    }
+    
+    /*
+     * write an index entry for each entry of a saved collection. Collections are merged with the stored entries, so entries are only
+     * known to be removed for map keys set to null or, if the previous value was loaded, for entries no longer held after the merge.
+     * @return true if any index entries were written or deleted
+     */
+    private boolean addCollectionIndexWrite(Object key, 
+                                            Object collection, 
+                                            Object previousValue, 
+                                            IndexMetadata idxMeta, 
+                                            long clock, 
+                                            Mutator<byte[]> mutator, 
+                                            SaveStatus status)
+    {
+        if(collection == null) //null collections are ignored
+            return false;
         
-        DynamicComposite rowKey = new DynamicComposite(idxMeta.id());
+        Set<Object> written = idxMeta.collectionValues(collection);
+        Set<Object> removed = new HashSet<Object>();
+        if(collection instanceof Map && idxMeta.getCollectionIndexType() == ECollectionIndexType.KEYS)
+        {
+            for(Map.Entry<?, ?> entry : ((Map<?, ?>) collection).entrySet())
+            {
+                if(entry.getValue() == null)
+                    removed.add(entry.getKey());
+            }
+        }
         
-        List<List<Object>> allPartitions = idxMeta.getIndexPartitioner().partitionValue(propVals);
-        if(allPartitions.size() != 1)
-            throw new IllegalStateException("expected single partition but encountered " + allPartitions.size());
+        if(previousValue != null)
+        {
+            Object previous = invokeGetter(idxMeta.getCollectionProperty(), previousValue);
+            Set<Object> current = written;
+            if(collection instanceof Map && previous != null)
+            {
+                Map<Object, Object> merged = new HashMap<Object, Object>((Map<?, ?>) previous);
+                merged.putAll((Map<?, ?>) collection);
+                current = idxMeta.collectionValues(merged);
+            }
+            else if(previous != null) //list elements are written by position, a longer stored list retains its trailing elements
+            {
+                List<Object> merged = new ArrayList<Object>();
+                for(Object element : (List<?>) collection)
+                {
+                    if(element != null)
+                        merged.add(element);
+                }
+
+                //nulls are compacted away and the positions they free up to the new size are deleted, so the tail starts at the new size
+                List<?> list = (List<?>) collection;
+                List<?> previousList = (List<?>) previous;
+                merged.addAll(previousList.subList(Math.min(list.size(), previousList.size()), previousList.size()));
+                current = idxMeta.collectionValues(merged);
+            }
+
+            for(Object entry : idxMeta.collectionValues(previous))
+            {
+                if(!current.contains(entry))
+                    removed.add(entry);
+            }
+        }
+        
+        int ttl = idxMeta.getIndexedProperties().get(0).ttl();
+        for(Object entry : written)
+        {
+            List<Object> propVals = Collections.singletonList(entry);
+            List<byte[]> rowKeys = indexRowKeys(idxMeta, propVals);
+            sampleIndexWrite(idxMeta, propVals);
+            samplePartitionWrite(idxMeta, rowKeys.get(0));
             
-        _logger.trace("writing to partition {}", allPartitions.get(0));
-        for(Object partitionVal : allPartitions.get(0))
-            rowKey.add(partitionVal);
+            for(byte[] rowKey : rowKeys)
+            {
+                if(isAsync(idxMeta))
+                    status.addAsyncIndexUpdate(new AsyncIndexWriter.Update(rowKey, indexColumnName(propVals, key), clock, ttl, false));
+                else
+                {
+                    HColumn<DynamicComposite, byte[]> column = HFactory.createColumn(indexColumnName(propVals, key), IDX_COL_VAL, clock, SER_DYNAMIC_COMPOSITE, SER_BYTES);
+                    if(ttl > 0)
+                        column.setTtl(ttl);
+                    
+                    mutator.addInsertion(rowKey, _entityMeta.getIndexFamilyName(), column);
+                }
+            }
+        }
         
-        if(ttl > 0)
-            column.setTtl(ttl);
+        for(Object entry : removed)
+        {
+            _logger.trace("removing index entry {}", entry);
+            List<Object> propVals = Collections.singletonList(entry);
+            for(byte[] rowKey : indexRowKeys(idxMeta, propVals))
+            {
+                if(isAsync(idxMeta))
+                    status.addAsyncIndexUpdate(new AsyncIndexWriter.Update(rowKey, indexColumnName(propVals, key), clock, -1, true));
+                else
+                    mutator.addDeletion(rowKey, _entityMeta.getIndexFamilyName(), indexColumnName(propVals, key), SER_DYNAMIC_COMPOSITE, clock);
+            }
+        }
+        
+        return !written.isEmpty() || !removed.isEmpty();
+    }
+    
+    private void sampleIndexWrite(IndexMetadata idxMeta, List<Object> propVals)
+    {
+        if(!_sampleValues)
+            return;
         
-        mutator.addInsertion(SER_DYNAMIC_COMPOSITE.toBytes(rowKey), _entityMeta.getIndexFamilyName(), column);
+        IndexStatistics indexStatistics = _indexStatistics.get(idxMeta);
+        if(indexStatistics != null)
+            indexStatistics.entryWritten(propVals);
+    }
+    
+    private void samplePartitionWrite(IndexMetadata idxMeta, byte[] rowKey)
+    {
+        IndexStatistics indexStatistics = _indexStatistics.get(idxMeta);
+        if(indexStatistics != null)
+            indexStatistics.partitions().written(rowKey);
     }
 
+    private boolean isAsync(IndexMetadata idxMeta)
+    {
+        return _asyncIndexWriter != null && idxMeta.isAsync();
+    }
+
+    /*
+     * delete the index entry for the previously stored values if they are being replaced. Equal values are left alone, the deletion
+     * would otherwise win the timestamp tie with the insertion.
+     */
+    private void addStaleIndexDelete(Object key, 
+                                     Object previousValue, 
+                                     List<Object> propVals, 
+                                     IndexMetadata idxMeta, 
+                                     long clock, 
+                                     Mutator<byte[]> mutator, 
+                                     SaveStatus status)
+    {
+        List<Object> previousVals = indexValues(idxMeta, previousValue);
+        if(previousVals == null || previousVals.equals(propVals)) //wasn't indexed or is unchanged
+            return;
+        
+        _logger.trace("removing stale index entry {}", previousVals);
+        for(byte[] rowKey : indexRowKeys(idxMeta, previousVals))
+        {
+            if(isAsync(idxMeta))
+                status.addAsyncIndexUpdate(new AsyncIndexWriter.Update(rowKey, indexColumnName(previousVals, key), clock, -1, true));
+            else
+                mutator.addDeletion(rowKey, _entityMeta.getIndexFamilyName(), indexColumnName(previousVals, key), SER_DYNAMIC_COMPOSITE, clock);
+        }
+    }
+    
     @SuppressWarnings({ "unchecked", "rawtypes" })
     private SaveStatus saveMapFields(StringBuilder descriptor,
                                      Object key,
@@ -501,6 +851,7 @@ class PutHelper<K, V> extends DaoHelperBase<K, V>
                                        null,
                                        keyBytes, 
                                        entry.getValue(), 
+                                       null,
                                        clock,
                                        mutator,
                                        colName,
@@ -604,6 +955,7 @@ class PutHelper<K, V> extends DaoHelperBase<K, V>
                                            null,
                                            keyBytes, 
                                            listVal, 
+                                           null,
                                            clock,
                                            mutator,
                                            colName,
@@ -773,6 +1125,15 @@ class PutHelper<K, V> extends DaoHelperBase<K, V>
         return unmapped.size();
     }
 
+    /**
+     * how far a put got before failing.
+     */
+    static class Progress
+    {
+        boolean countersApplied; //counter increments may have been applied, retrying them may count them twice
+        boolean rowsWritten; //the row and index mutation executed, only follow up work (e.g. WAL cleanup) failed
+    }
+    
     private class SaveStatus
     {
         int updateCnt;
@@ -780,6 +1141,7 @@ class PutHelper<K, V> extends DaoHelperBase<K, V>
         int indexEntityCnt;
         List<Object> savedEntities;
         List<CounterColumn> savedCounters;
+        List<AsyncIndexWriter.Update> asyncIndexUpdates; //only written at the top level, not merged
         
         SaveStatus merge(SaveStatus other)
         {
@@ -812,5 +1174,12 @@ class PutHelper<K, V> extends DaoHelperBase<K, V>
                 savedCounters = new ArrayList<CounterColumn>();
             savedCounters.add(c);
         }
+
+        void addAsyncIndexUpdate(AsyncIndexWriter.Update u)
+        {
+            if(asyncIndexUpdates == null)
+                asyncIndexUpdates = new ArrayList<AsyncIndexWriter.Update>();
+            asyncIndexUpdates.add(u);
+        }
     }
 }
@@ -1,6 +1,53 @@
 package com.feedly.cassandra.dao;
 
+/**
+ * Options when doing a put.
+ * @author kireet
+ */
 public class PutOptions extends OptionsBase
 {
+    private boolean _writeBehind;
+    private boolean _removeStaleIndexValues;
 
+    /**
+     * should the put be buffered and written in the background.
+     * @return the write behind flag
+     * @see CassandraDaoBase#setWriteBehindInterval(long)
+     */
+    public boolean isWriteBehind()
+    {
+        return _writeBehind;
+    }
+
+    /**
+     * buffer the put and write it in the background, coalescing it with other buffered puts to the same row. Write behind must be 
+     * enabled on the dao.
+     * @param writeBehind the write behind flag
+     * @see CassandraDaoBase#setWriteBehindInterval(long)
+     */
+    public void setWriteBehind(boolean writeBehind)
+    {
+        _writeBehind = writeBehind;
+    }
+
+    /**
+     * should old range index entries be removed as part of the put.
+     * @return the remove stale index values flag
+     */
+    public boolean isRemoveStaleIndexValues()
+    {
+        return _removeStaleIndexValues;
+    }
+
+    /**
+     * read the current values of updated range indexed properties before the put and delete the index entries they are replaced by in
+     * the same batch. This costs an extra read per put but keeps frequently updated indexes free of stale entries, which otherwise
+     * remain until encountered by a find.
+     * @param removeStaleIndexValues the remove stale index values flag
+     * @see IStaleIndexValueStrategy
+     */
+    public void setRemoveStaleIndexValues(boolean removeStaleIndexValues)
+    {
+        _removeStaleIndexValues = removeStaleIndexValues;
+    }
 }
@@ -8,10 +8,15 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.NoSuchElementException;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import me.prettyprint.hector.api.beans.AbstractComposite.ComponentEquality;
 import me.prettyprint.hector.api.beans.DynamicComposite;
@@ -30,6 +35,7 @@ import com.feedly.cassandra.EConsistencyLevel;
 import com.feedly.cassandra.IKeyspaceFactory;
 import com.feedly.cassandra.entity.EntityMetadata;
 import com.feedly.cassandra.entity.IndexMetadata;
+import com.feedly.cassandra.entity.PropertyMetadataBase;
 import com.feedly.cassandra.entity.SimplePropertyMetadata;
 
 /*
@@ -44,6 +50,8 @@ class RangeIndexFindHelper<K, V> extends LoadHelper<K, V>
     
     private final GetHelper<K, V> _getHelper;
     private final IStaleIndexValueStrategy _staleValueStrategy;
+    private Map<IndexMetadata, IndexStatistics> _indexStatistics = Collections.emptyMap();
+    private ExecutorService _executor;
     RangeIndexFindHelper(EntityMetadata<V> meta, IKeyspaceFactory factory, IStaleIndexValueStrategy staleValueStrategy, int statsSize)
     {
         super(meta, factory, statsSize);
@@ -56,11 +64,36 @@ class RangeIndexFindHelper<K, V> extends LoadHelper<K, V>
     {
         return _getHelper.stats();
     }
+
+    @Override
+    public void setPendingCounters(CounterAccumulator<K, V> accumulator)
+    {
+        super.setPendingCounters(accumulator);
+        _getHelper.setPendingCounters(accumulator);
+    }
     
     public OperationStatistics indexStats()
     {
         return _stats;
     }
+
+    /**
+     * record the entries read and found stale by finds.
+     * @param indexStatistics statistics by index
+     */
+    public void setIndexStatistics(Map<IndexMetadata, IndexStatistics> indexStatistics)
+    {
+        _indexStatistics = indexStatistics;
+    }
+
+    /**
+     * read index slices in parallel when finding multiple values.
+     * @param executor the executor, null to read slices sequentially
+     */
+    public void setExecutor(ExecutorService executor)
+    {
+        _executor = executor;
+    }
     
     private V uniqueValue(Collection<V> values)
     {
@@ -101,6 +134,300 @@ class RangeIndexFindHelper<K, V> extends LoadHelper<K, V>
     }
 
 
+    /**
+     * find values whose leading index property matches any of the given values. The index is sliced once per value, in parallel if an 
+     * executor is set. Keys found for multiple values are loaded once, and rows are loaded in shared batches.
+     */
+    public Collection<V> mfindIn(SimplePropertyMetadata property, Collection<?> propValues, FindOptions options, final IndexMetadata index)
+    {
+        final EConsistencyLevel level = options.getConsistencyLevel();
+        RangeIndexQueryResult<K> all = new RangeIndexQueryResult<K>();
+        List<Future<RangeIndexQueryResult<K>>> pending = new ArrayList<Future<RangeIndexQueryResult<K>>>();
+        for(Object propValue : new LinkedHashSet<Object>(propValues))
+        {
+            if(propValue == null)
+                throw new IllegalArgumentException("null values not supported");
+            
+            final V template = newInstance();
+            invokeSetter(property, template, propValue);
+            if(_executor == null)
+                merge(all, findAllKeys(template, template, index, level));
+            else
+            {
+                pending.add(_executor.submit(new Callable<RangeIndexQueryResult<K>>()
+                                             {
+                                                 @Override
+                                                 public RangeIndexQueryResult<K> call()
+                                                 {
+                                                     return findAllKeys(template, template, index, level);
+                                                 }
+                                             }));
+            }
+        }
+        
+        for(Future<RangeIndexQueryResult<K>> f : pending)
+            merge(all, result(f));
+        
+        _stats.incrNumOps(1);
+        
+        IValueFilter<V> filter = new IValueFilter<V>()
+        {
+            @Override
+            public EFilterResult isFiltered(IndexedValue<V> value)
+            {
+                return EFilterResult.PASS; //index values are checked for staleness, there is nothing else to check
+            }
+            
+            @Override
+            public RawValueFilter rawFilter()
+            {
+                return null;
+            }
+        };
+        
+        List<K> keys = new ArrayList<K>(all.getCurrentKeys());
+        List<V> rv = new ArrayList<V>();
+        for(int i = 0; i < keys.size() && rv.size() < options.getMaxRows(); i += CassandraDaoBase.ROW_RANGE_SIZE)
+        {
+            RangeIndexQueryResult<K> batch = new RangeIndexQueryResult<K>();
+            for(K key : keys.subList(i, Math.min(keys.size(), i + CassandraDaoBase.ROW_RANGE_SIZE)))
+            {
+                for(StaleIndexValue v : all.getCurrentValues().get(key))
+                    batch.add(key, v);
+            }
+            
+            rv.addAll(toRows(batch, options, EFindOrder.NONE, filter, index, level, null));
+        }
+        
+        _logger.debug("found {} keys for {} values of {}, retained {}", new Object[] {keys.size(), propValues.size(), property, rv.size()});
+        return rv.size() > options.getMaxRows() ? new ArrayList<V>(rv.subList(0, options.getMaxRows())) : rv;
+    }
+    
+    /**
+     * find values within any of several ranges of index values. The ranges are read in parallel if an executor is set, and the rows are 
+     * loaded in shared batches. Rows within multiple ranges are returned once.
+     */
+    public Collection<V> mfindBetween(List<V> startTemplates, List<V> endTemplates, FindBetweenOptions options, final IndexMetadata index)
+    {
+        final EConsistencyLevel level = options.getConsistencyLevel();
+        RangeIndexQueryResult<K> all = new RangeIndexQueryResult<K>();
+        List<Future<RangeIndexQueryResult<K>>> pending = new ArrayList<Future<RangeIndexQueryResult<K>>>();
+        final List<IValueFilter<V>> filters = new ArrayList<IValueFilter<V>>();
+        Set<DynamicComposite> partitions = new HashSet<DynamicComposite>();
+        for(int i = 0; i < startTemplates.size(); i++)
+        {
+            final V start = startTemplates.get(i), end = endTemplates.get(i);
+            filters.add(new RangeValueFilter<V>(_entityMeta, start, end, index));
+            partitions.addAll(plan(start, end, index).getPartitionKeys());
+            
+            if(_executor == null)
+                merge(all, findAllKeys(start, end, index, level));
+            else
+            {
+                pending.add(_executor.submit(new Callable<RangeIndexQueryResult<K>>()
+                                             {
+                                                 @Override
+                                                 public RangeIndexQueryResult<K> call()
+                                                 {
+                                                     return findAllKeys(start, end, index, level);
+                                                 }
+                                             }));
+            }
+        }
+        
+        for(Future<RangeIndexQueryResult<K>> f : pending)
+            merge(all, result(f));
+        
+        _stats.incrNumOps(1);
+        
+        IValueFilter<V> filter = new IValueFilter<V>()
+        {
+            @Override
+            public EFilterResult isFiltered(IndexedValue<V> value)
+            {
+                for(IValueFilter<V> f : filters)
+                {
+                    if(f.isFiltered(value) == EFilterResult.PASS)
+                        return EFilterResult.PASS;
+                }
+                
+                return EFilterResult.FAIL;
+            }
+            
+            @Override
+            public RawValueFilter rawFilter()
+            {
+                return null; //a row may match any of the ranges
+            }
+        };
+        
+        List<K> keys = new ArrayList<K>(all.getCurrentKeys());
+        Set<Object> loaded = new HashSet<Object>();
+        List<IndexedValue<V>> values = new ArrayList<IndexedValue<V>>();
+        for(int i = 0; i < keys.size(); i += CassandraDaoBase.ROW_RANGE_SIZE)
+        {
+            RangeIndexQueryResult<K> batch = new RangeIndexQueryResult<K>();
+            for(K key : keys.subList(i, Math.min(keys.size(), i + CassandraDaoBase.ROW_RANGE_SIZE)))
+            {
+                for(StaleIndexValue v : all.getCurrentValues().get(key))
+                    batch.add(key, v);
+            }
+            
+            for(IndexedValue<V> value : toIndexedValues(batch, options, EFindOrder.NONE, filter, index, level))
+            {
+                if(loaded.add(invokeGetter(_entityMeta.getKeyMetadata(), value.getValue()))) //ranges may overlap
+                    values.add(value);
+            }
+        }
+        
+        if(options.getRowOrder() == EFindOrder.ASCENDING)
+            Collections.sort(values, SORT_ASC);
+        else if(options.getRowOrder() == EFindOrder.DESCENDING)
+            Collections.sort(values, SORT_DESC);
+        
+        List<V> rv = new ArrayList<V>();
+        for(IndexedValue<V> v : values)
+        {
+            if(rv.size() == options.getMaxRows())
+                break;
+            
+            rv.add(v.getValue());
+        }
+        
+        _logger.debug("{} ranges read from {} partitions, found {} keys, retained {}", 
+                      new Object[] {startTemplates.size(), partitions.size(), keys.size(), rv.size()});
+        return rv;
+    }
+    
+    private RangeIndexQueryResult<K> findAllKeys(V startTemplate, V endTemplate, IndexMetadata index, EConsistencyLevel level)
+    {
+        RangeIndexQueryResult<K> all = new RangeIndexQueryResult<K>();
+        RangeIndexQueryResult<K> result = findKeys(startTemplate, endTemplate, EFindOrder.NONE, Integer.MAX_VALUE, index, level);
+        while(true)
+        {
+            merge(all, result);
+            if(!result.hasMore())
+                return all;
+            
+            fetchBatch(result, Integer.MAX_VALUE, EFindOrder.NONE, index, level);
+        }
+    }
+    
+    private void merge(RangeIndexQueryResult<K> all, RangeIndexQueryResult<K> result)
+    {
+        for(Map.Entry<K, List<StaleIndexValue>> entry : result.getCurrentValues().entrySet())
+        {
+            for(StaleIndexValue v : entry.getValue())
+                all.add(entry.getKey(), v);
+        }
+    }
+    
+    private RangeIndexQueryResult<K> result(Future<RangeIndexQueryResult<K>> f)
+    {
+        try
+        {
+            return f.get();
+        }
+        catch(InterruptedException ex)
+        {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("interrupted while reading index", ex);
+        }
+        catch(ExecutionException ex)
+        {
+            if(ex.getCause() instanceof RuntimeException)
+                throw (RuntimeException) ex.getCause();
+            
+            throw new IllegalStateException("error reading index", ex.getCause());
+        }
+    }
+    
+    /**
+     * find values matching the template by intersecting the keys read from multiple indexes. Indexes are read in order, the keys of the 
+     * first index are retained in memory and each subsequent index is streamed, retaining only the keys also found in it. Once few 
+     * enough keys remain, the remaining indexes are skipped. Only the remaining rows are loaded, and are checked against all template
+     * properties.
+     * <p>
+     * Stale index entries simply fail to match, they are not passed to the stale value strategy.
+     * 
+     * @param indexes the indexes to read, most selective first
+     */
+    public Collection<V> mfindIntersection(V template, FindOptions options, List<IndexMetadata> indexes)
+    {
+        EConsistencyLevel level = options.getConsistencyLevel();
+        Set<K> keys = null;
+        for(IndexMetadata index : indexes)
+        {
+            if(keys != null && keys.size() <= CassandraDaoBase.ROW_RANGE_SIZE)
+            {
+                _logger.debug("{} keys remaining, skipping index [{}]", keys.size(), index);
+                continue;
+            }
+            
+            Set<K> matching = new HashSet<K>();
+            int read = 0;
+            RangeIndexQueryResult<K> result = findKeys(template, template, EFindOrder.NONE, Integer.MAX_VALUE, index, level);
+            while(true)
+            {
+                for(K key : result.getCurrentKeys())
+                {
+                    if(keys == null || keys.contains(key))
+                        matching.add(key);
+                }
+                
+                read += result.getCurrentKeys().size();
+                if(!result.hasMore())
+                    break;
+
+                fetchBatch(result, Integer.MAX_VALUE, EFindOrder.NONE, index, level);
+            }
+
+            _logger.debug("index [{}]: read {} keys, {} remaining", new Object[] {index, read, matching.size()});
+            keys = matching;
+            if(keys.isEmpty())
+                break;
+        }
+        _stats.incrNumOps(1);
+        
+        if(keys.isEmpty())
+            return Collections.emptyList();
+        
+        if(options.getColumnFilterStrategy() == EColumnFilterStrategy.INCLUDES)
+        {
+            Set<Object> partialProperties = new HashSet<Object>(partialProperties(options.getIncludes(), options.getExcludes()));
+            BitSet dirty = asEntity(template).getModifiedFields();
+            for(int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1))
+                partialProperties.add(_entityMeta.getProperties().get(i).getName());
+            
+            try
+            {
+                options = (FindOptions) options.clone();
+                options.setIncludes(partialProperties);
+                options.setExcludes(null);
+            }
+            catch(CloneNotSupportedException ex)
+            {
+                throw new RuntimeException(ex);
+            }
+        }
+
+        IValueFilter<V> filter = new EqualityValueFilter<V>(_entityMeta, template);
+        List<V> rv = new ArrayList<V>();
+        List<K> allKeys = new ArrayList<K>(keys);
+        for(int i = 0; i < allKeys.size() && rv.size() < options.getMaxRows(); i += CassandraDaoBase.ROW_RANGE_SIZE)
+        {
+            List<K> batch = allKeys.subList(i, Math.min(allKeys.size(), i + CassandraDaoBase.ROW_RANGE_SIZE));
+            for(V value : _getHelper.mget(batch, null, options))
+            {
+                if(value != null && rv.size() < options.getMaxRows() && filter.isFiltered(new IndexedValue<V>(Collections.emptyList(), value)) == EFilterResult.PASS)
+                    rv.add(value);
+            }
+        }
+        
+        _logger.debug("loaded {} intersecting keys, retained {}", keys.size(), rv.size());
+        return rv;
+    }
+    
     private List<IndexedValue<V>> filterValues(RangeIndexQueryResult<K> queryResult, 
                                                List<K> orderedKeys,
                                                List<V> values, 
@@ -110,17 +437,25 @@ class RangeIndexFindHelper<K, V> extends LoadHelper<K, V>
     {
         List<StaleIndexValue> filtered = null;
         List<IndexedValue<V>> rv = new ArrayList<IndexedValue<V>>();
-        int excludedCnt = 0;
+        int excludedCnt = 0, readCnt = 0;
         Map<K, List<StaleIndexValue>> staleValues = queryResult.getCurrentValues();
 
         for(int i = values.size() - 1; i >= 0; i--)
         {
             K key = orderedKeys.get(i);
             V value = values.get(i);
+            boolean passed = false; //a row may have several passing entries, see toRows for entries in different batches
             
             for(StaleIndexValue staleValue : staleValues.get(key))
             {
-                if(value == null)
+                readCnt++;
+                RawValueFilter rawFilter = filter.rawFilter();
+                if(value == null && rawFilter != null && rawFilter.isRejected(key))
+                {
+                    _logger.trace("{} rejected before loading", key);
+                    excludedCnt++;
+                }
+                else if(value == null)
                 {
                     if(filtered == null)
                         filtered = new ArrayList<StaleIndexValue>();
@@ -128,6 +463,36 @@ class RangeIndexFindHelper<K, V> extends LoadHelper<K, V>
                     _logger.trace("{} no value found", key);
                     filtered.add(staleValue);
                 }
+                else if(index.isCollectionIndex())
+                {
+                    List<Object> entryVals = indexColumnValues(staleValue, index);
+                    IndexedValue<V> idxValue = new IndexedValue<V>(entryVals, value);
+                    EFilterResult result;
+                    
+                    if(!indexEntries(index, value).contains(entryVals))
+                    {
+                        result = EFilterResult.FAIL_STALE;
+                        _logger.trace("{} collection entry not found {}", key, entryVals);
+                    }
+                    else
+                        result = filter.isFiltered(idxValue);
+                    
+                    if(result == EFilterResult.FAIL_STALE)
+                    {
+                        if(filtered == null)
+                            filtered = new ArrayList<StaleIndexValue>();
+                        
+                        filtered.add(staleValue);
+                    }
+                    else if(result == EFilterResult.PASS)
+                    {
+                        if(!passed)
+                            rv.add(idxValue);
+                        passed = true;
+                    }
+                    else
+                        excludedCnt++;
+                }
                 else
                 {
                     IndexedValue<V> idxValue = indexedValue(value, index);
@@ -171,13 +536,21 @@ class RangeIndexFindHelper<K, V> extends LoadHelper<K, V>
                         filtered.add(staleValue);
                     }
                     else if(result == EFilterResult.PASS)
-                        rv.add(idxValue);
+                    {
+                        if(!passed)
+                            rv.add(idxValue);
+                        passed = true;
+                    }
                     else
                         excludedCnt++;
                 }
             }
         }
         
+        IndexStatistics indexStatistics = _indexStatistics.get(index);
+        if(indexStatistics != null)
+            indexStatistics.entriesRead(readCnt, filtered == null ? 0 : filtered.size());
+        
         if(filtered != null)
         {
             _getHelper.stats().incrNumRows(-excludedCnt);
@@ -193,6 +566,25 @@ class RangeIndexFindHelper<K, V> extends LoadHelper<K, V>
         return rv;
     }
 
+    /*
+     * the indexed values of an index column, without the trailing row key
+     */
+    private List<Object> indexColumnValues(StaleIndexValue staleValue, IndexMetadata index)
+    {
+        List<Object> idxPropVals = staleValue.getColumnName();
+        List<Object> rv = new ArrayList<Object>(idxPropVals.size() - 1);
+        for(int j = 0; j < idxPropVals.size() - 1; j++)
+        {
+            Object idxPropVal = idxPropVals.get(j);
+            if(idxPropVal instanceof ByteBuffer)
+                idxPropVal = index.getIndexedProperties().get(j).getSerializer().fromByteBuffer((ByteBuffer) idxPropVal);
+            
+            rv.add(idxPropVal);
+        }
+        
+        return rv;
+    }
+
     private IndexedValue<V> indexedValue(V v, IndexMetadata index)
     {
         List<SimplePropertyMetadata> indexedProperties = index.getIndexedProperties();
@@ -212,10 +604,24 @@ class RangeIndexFindHelper<K, V> extends LoadHelper<K, V>
     private List<Object> indexValues(V template, IndexMetadata index) 
     {
         BitSet dirty = asEntity(template).getModifiedFields();
-        Set<SimplePropertyMetadata> modified = new HashSet<SimplePropertyMetadata>();
+        Set<PropertyMetadataBase> modified = new HashSet<PropertyMetadataBase>();
         List<Object> propValues = new ArrayList<Object>();
         for(int i = dirty.nextSetBit(0); i>= 0; i = dirty.nextSetBit(i+1))
-            modified.add((SimplePropertyMetadata) _entityMeta.getProperties().get(i));
+            modified.add(_entityMeta.getProperties().get(i));
+        
+        if(index.isCollectionIndex())
+        {
+            if(!modified.contains(index.getCollectionProperty()))
+                return propValues;
+            
+            Set<Object> entries = index.collectionValues(invokeGetter(index.getCollectionProperty(), template));
+            if(entries.size() != 1)
+                throw new IllegalArgumentException(index.getCollectionProperty().getName() + 
+                                                   ": templates must hold a single collection entry, found " + entries.size());
+            
+            propValues.add(entries.iterator().next());
+            return propValues;
+        }
         
         for(SimplePropertyMetadata pm : index.getIndexedProperties())
         {
@@ -235,6 +641,17 @@ class RangeIndexFindHelper<K, V> extends LoadHelper<K, V>
      * value:     meaningless
      */
     private RangeIndexQueryResult<K> findKeys(V startTemplate, V endTemplate, EFindOrder rowOrder, int maxKeys, IndexMetadata index, EConsistencyLevel level)
+    {
+        FindPlan plan = plan(startTemplate, endTemplate, index);
+        List<DynamicComposite> rowKeys = plan.getPartitionKeys();
+        
+        return fetchInitialBatch(rowKeys.toArray(new DynamicComposite[rowKeys.size()]), plan.getStartColumn(), plan.getEndColumn(), rowOrder, index, level);
+    }
+    
+    /**
+     * determine the index partitions and column range read by a find.
+     */
+    public FindPlan plan(V startTemplate, V endTemplate, IndexMetadata index)
     {
         List<Object> startPropVals = indexValues(startTemplate, index);
         List<Object> endPropVals;
@@ -266,7 +683,11 @@ class RangeIndexFindHelper<K, V> extends LoadHelper<K, V>
         DynamicComposite endCol = new DynamicComposite(endPropVals);
         endCol.setEquality(ComponentEquality.GREATER_THAN_EQUAL);
         
-        return fetchInitialBatch(rowKeys.toArray(new DynamicComposite[rowKeys.size()]), startCol, endCol, rowOrder, index, level);
+        FindPlan plan = new FindPlan(index);
+        plan.setPartitionKeys(rowKeys);
+        plan.setStartColumn(startCol);
+        plan.setEndColumn(endCol);
+        return plan;
     }
     
     @SuppressWarnings("unchecked")
@@ -303,6 +724,7 @@ class RangeIndexFindHelper<K, V> extends LoadHelper<K, V>
                 partitionResult.setPartitionKey(row.getKey());
 
                 List<HColumn<DynamicComposite,byte[]>> columns = row.getColumnSlice().getColumns();
+                samplePartitionRead(index, row.getKey(), columns.size());
                 for(HColumn<DynamicComposite, byte[]> col : columns)
                 {
                     K k = (K) col.getName().get(col.getName().size()-1);
@@ -370,7 +792,7 @@ class RangeIndexFindHelper<K, V> extends LoadHelper<K, V>
                     pr.setStartCol(startCol);
                     pr.setEndCol(endCol);
                     
-                    int fetchCnt = fetchFromPartition(rv, pr, colOrder, 0, level);
+                    int fetchCnt = fetchFromPartition(rv, pr, colOrder, 0, index, level);
                     foundResults = fetchCnt > 0;
                     
                     if(foundResults)
@@ -409,7 +831,7 @@ class RangeIndexFindHelper<K, V> extends LoadHelper<K, V>
             RangeIndexQueryPartitionResult p = partitionResults.get(i);
             if(p.hasMore())
             {
-                fetchCnt = fetchFromPartition(result, p, order, i, level);
+                fetchCnt = fetchFromPartition(result, p, order, i, index, level);
                 
                 if(fetchCnt > 0)
                     break;
@@ -453,6 +875,7 @@ class RangeIndexFindHelper<K, V> extends LoadHelper<K, V>
                                    RangeIndexQueryPartitionResult p, 
                                    EFindOrder order,
                                    int pos,
+                                   IndexMetadata index,
                                    EConsistencyLevel level)
     {
         long startTime = System.nanoTime();
@@ -495,6 +918,8 @@ class RangeIndexFindHelper<K, V> extends LoadHelper<K, V>
             result.setPartitionPos(hasMore ? pos : pos+1);
         }
     
+        samplePartitionRead(index, p.getPartitionKey(), size);
+        
         _stats.addRecentTiming(System.nanoTime() - startTime);
         _stats.incrNumCassandraOps(1);
         _stats.incrNumCols(size);
@@ -503,12 +928,42 @@ class RangeIndexFindHelper<K, V> extends LoadHelper<K, V>
         return size;
     }
 
+    private void samplePartitionRead(IndexMetadata index, DynamicComposite partitionKey, int cnt)
+    {
+        IndexStatistics indexStatistics = _indexStatistics.get(index);
+        if(indexStatistics != null && cnt > 0)
+            indexStatistics.partitions().read(SER_DYNAMIC_COMPOSITE.toBytes(partitionKey), cnt);
+    }
+
+    /*
+     * load a batch of rows. A row can have several index entries in range (collection entries, or entries in both layouts of an index being
+     * migrated) which may be read in different batches, returned holds the keys of rows returned by earlier batches of the same find.
+     */
     private List<V> toRows(RangeIndexQueryResult<K> result, 
                            FindOptions options, 
                            EFindOrder order, 
                            IValueFilter<V> filter, 
                            IndexMetadata index,
-                           EConsistencyLevel level)
+                           EConsistencyLevel level,
+                           Set<Object> returned)
+    {
+        List<IndexedValue<V>> values = toIndexedValues(result, options, order, filter, index, level);
+        List<V> rows = new ArrayList<V>(values.size());
+        for(IndexedValue<V> v : values)
+        {
+            if(returned == null || returned.add(invokeGetter(_entityMeta.getKeyMetadata(), v.getValue())))
+                rows.add(v.getValue());
+        }
+        
+        return rows;
+    }
+    
+    private List<IndexedValue<V>> toIndexedValues(RangeIndexQueryResult<K> result, 
+                                                  FindOptions options, 
+                                                  EFindOrder order, 
+                                                  IValueFilter<V> filter, 
+                                                  IndexMetadata index,
+                                                  EConsistencyLevel level)
     {
         if(result.getCurrentKeys().isEmpty())
         {
@@ -534,23 +989,20 @@ class RangeIndexFindHelper<K, V> extends LoadHelper<K, V>
         }
 
         List<K> currentKeys = new ArrayList<K>(result.getCurrentKeys());
-        List<V> rows = _getHelper.mget(currentKeys, null, options);
+        RawValueFilter rawFilter = filter.rawFilter();
+        if(rawFilter != null)
+            rawFilter.clearRejected();
+        
+        List<V> rows = _getHelper.mget(currentKeys, null, options, rawFilter);
         
         List<IndexedValue<V>> values = filterValues(result, currentKeys, rows, filter, index, level);
-        rows.clear();
         
-        if(!values.isEmpty())
-        {
-            if(order == EFindOrder.ASCENDING)
-                Collections.sort(values, SORT_ASC);
-            else if(order == EFindOrder.DESCENDING)
-                Collections.sort(values, SORT_DESC);
-
-            for(IndexedValue<V> v : values)
-                rows.add(v.getValue());
-        }
+        if(order == EFindOrder.ASCENDING)
+            Collections.sort(values, SORT_ASC);
+        else if(order == EFindOrder.DESCENDING)
+            Collections.sort(values, SORT_DESC);
         
-        return rows;
+        return values;
     }
     
     private class LazyLoadedIterator implements Iterator<V>
@@ -567,10 +1019,12 @@ class RangeIndexFindHelper<K, V> extends LoadHelper<K, V>
         private final IValueFilter<V> _filter;
         private final LazyLoadedCollection _parent;
         private final EConsistencyLevel _level;
+        private final Set<Object> _returned;
         
         @SuppressWarnings("unchecked")
         public LazyLoadedIterator(LazyLoadedCollection parent, 
                                   List<V> first,
+                                  Set<Object> firstKeys,
                                   RangeIndexQueryResult<K> result,
                                   IValueFilter<V> filter,
                                   FindOptions options,
@@ -587,6 +1041,7 @@ class RangeIndexFindHelper<K, V> extends LoadHelper<K, V>
             _order = order;
             _index = index;
             _level = level;
+            _returned = new HashSet<Object>(firstKeys);
             try
             {
                 _result = (RangeIndexQueryResult<K>) result.clone();
@@ -629,7 +1084,7 @@ class RangeIndexFindHelper<K, V> extends LoadHelper<K, V>
                 while(rows.isEmpty() && _result.hasMore())
                 {
                     fetchBatch(_result, _options.getMaxRows(), _order, _index, _level);
-                    rows = toRows(_result, _options, _order, _filter, _index, _level);
+                    rows = toRows(_result, _options, _order, _filter, _index, _level, _returned);
                 }
                 
                 if(rows.size() >= _remRows)
@@ -682,6 +1137,7 @@ class RangeIndexFindHelper<K, V> extends LoadHelper<K, V>
         private final IndexMetadata _index;
         private List<V> _all = null; //if it is known all rows have been fetched, this field is set
         private List<V> _first;
+        private final Set<Object> _firstKeys = new HashSet<Object>();
         private int _size = -1;
         private final EConsistencyLevel _level;
         
@@ -701,12 +1157,12 @@ class RangeIndexFindHelper<K, V> extends LoadHelper<K, V>
             
             int maxRows = _options.getMaxRows();
             
-            List<V> rows = toRows(result, options, order, filter, index, level);
+            List<V> rows = toRows(result, options, order, filter, index, level, _firstKeys);
 
             while(rows.isEmpty() && result.hasMore())
             {
                 fetchBatch(result, options.getMaxRows(), order, index, _level);
-                rows = toRows(result, options, order, filter, index, level);
+                rows = toRows(result, options, order, filter, index, level, _firstKeys);
             }
             
             if(!result.hasMore() || result.getCurrentValues().size() >= maxRows)
@@ -758,7 +1214,7 @@ class RangeIndexFindHelper<K, V> extends LoadHelper<K, V>
             if(_all != null)
                 return _all.iterator();
             
-            return new LazyLoadedIterator(this, _first, _result, _filter, _options, _order, _index, _level);
+            return new LazyLoadedIterator(this, _first, _firstKeys, _result, _filter, _options, _order, _index, _level);
         }
         
         void setSize(int size)
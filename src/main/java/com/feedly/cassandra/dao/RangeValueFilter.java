@@ -1,8 +1,11 @@
 package com.feedly.cassandra.dao;
 
 import java.util.BitSet;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Map;
+import java.util.Set;
 
 import com.feedly.cassandra.entity.EntityMetadata;
 import com.feedly.cassandra.entity.IndexMetadata;
@@ -22,16 +25,23 @@ class RangeValueFilter<V> implements IValueFilter<V>
     private final EntityMetadata<V> _entityMeta;
     private final Map<PropertyMetadataBase, Object> _startProps = new HashMap<PropertyMetadataBase, Object>();
     private final Map<PropertyMetadataBase, Object> _endProps = new HashMap<PropertyMetadataBase, Object>();
+    private final Map<IndexMetadata, Object> _startEntries = new HashMap<IndexMetadata, Object>();
+    private final Map<IndexMetadata, Object> _endEntries = new HashMap<IndexMetadata, Object>();
+    private RawValueFilter _rawFilter;
     
     public RangeValueFilter(EntityMetadata<V> meta, V startTemplate, V endTemplate, IndexMetadata idx)
     {
         _entityMeta = meta;
-        toMap(startTemplate, _startProps, idx);
-        toMap(endTemplate, _endProps, idx);
+        toMap(startTemplate, _startProps, _startEntries, idx);
+        toMap(endTemplate, _endProps, _endEntries, idx);
     }
 
+    /*
+     * indexed collections are checked to hold an entry within the range, except for the collection read by the index.
+     */
     private void toMap(V template, 
                        Map<PropertyMetadataBase, Object> props, 
+                       Map<IndexMetadata, Object> entries,
                        IndexMetadata idx)
     {
         BitSet dirty = ((IEnhancedEntity)template).getModifiedFields();
@@ -39,7 +49,17 @@ class RangeValueFilter<V> implements IValueFilter<V>
         for(int i = dirty.nextSetBit (0); i>= 0; i = dirty.nextSetBit(i+1)) 
         {
             PropertyMetadataBase p = _entityMeta.getProperties().get(i);
-            props.put(p, invokeGetter(p, template));
+            IndexMetadata collectionIndex = _entityMeta.getCollectionIndex(p);
+            if(collectionIndex == null)
+                props.put(p, invokeGetter(p, template));
+            else if(!collectionIndex.equals(idx))
+            {
+                Set<Object> vals = collectionIndex.collectionValues(invokeGetter(p, template));
+                if(vals.size() != 1)
+                    throw new IllegalArgumentException(p.getName() + ": range templates must hold a single collection entry, found " + vals.size());
+                
+                entries.put(collectionIndex, vals.iterator().next());
+            }
         }      
         
         for(SimplePropertyMetadata pm : idx.getIndexedProperties())
@@ -71,10 +91,41 @@ class RangeValueFilter<V> implements IValueFilter<V>
             if(tVal.compareTo(vVal) < 0)
                 return EFilterResult.FAIL;
         }
+        
+        Set<IndexMetadata> collectionIndexes = new HashSet<IndexMetadata>(_startEntries.keySet());
+        collectionIndexes.addAll(_endEntries.keySet());
+        for(IndexMetadata collectionIndex : collectionIndexes)
+        {
+            Comparable start = (Comparable) _startEntries.get(collectionIndex);
+            Comparable end = (Comparable) _endEntries.get(collectionIndex);
+            boolean found = false;
+            for(Object entry : collectionIndex.collectionValues(invokeGetter(collectionIndex.getCollectionProperty(), value.getValue())))
+            {
+                if((start == null || start.compareTo(entry) <= 0) && (end == null || end.compareTo(entry) >= 0))
+                {
+                    found = true;
+                    break;
+                }
+            }
+            
+            if(!found)
+                return EFilterResult.FAIL;
+        }
 
         return EFilterResult.PASS;
     }
     
+    public RawValueFilter rawFilter()
+    {
+        if(_rawFilter == null)
+        {
+            Map<PropertyMetadataBase, Object> none = Collections.emptyMap();
+            _rawFilter = new RawValueFilter(_entityMeta, none, _startProps, _endProps);
+        }
+        
+        return _rawFilter.isEmpty() ? null : _rawFilter;
+    }
+    
     protected Object invokeGetter(PropertyMetadataBase pm, V obj)
     {
         try
@@ -0,0 +1,49 @@
+package com.feedly.cassandra.dao;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * limits the rate of an operation to a number of permits per second. Callers block until enough permits are available. The limiter is
+ * shared by all threads.
+ *
+ * @author kireet
+ */
+class RateLimiter
+{
+    private final long _nanosPerPermit;
+    private long _nextFree;
+
+    /**
+     * @param permitsPerSecond the permitted rate, must be positive
+     */
+    RateLimiter(int permitsPerSecond)
+    {
+        if(permitsPerSecond <= 0)
+            throw new IllegalArgumentException("rate must be positive: " + permitsPerSecond);
+
+        _nanosPerPermit = TimeUnit.SECONDS.toNanos(1) / permitsPerSecond;
+        _nextFree = System.nanoTime();
+    }
+
+    /**
+     * acquire permits, blocking until they are available.
+     * @param permits the number of permits
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public void acquire(int permits) throws InterruptedException
+    {
+        long wait;
+        synchronized(this)
+        {
+            long now = System.nanoTime();
+            if(_nextFree < now) //don't accumulate unused permits while idle
+                _nextFree = now;
+
+            wait = _nextFree - now;
+            _nextFree += permits * _nanosPerPermit;
+        }
+
+        if(wait > 0)
+            TimeUnit.NANOSECONDS.sleep(wait);
+    }
+}
@@ -0,0 +1,175 @@
+package com.feedly.cassandra.dao;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import me.prettyprint.hector.api.Serializer;
+import me.prettyprint.hector.api.beans.HColumn;
+
+import com.feedly.cassandra.entity.EPropertyType;
+import com.feedly.cassandra.entity.EntityMetadata;
+import com.feedly.cassandra.entity.PropertyMetadataBase;
+import com.feedly.cassandra.entity.SimplePropertyMetadata;
+
+/**
+ * used to perform filter-on-read logic on the raw columns of a row, before an entity is created. Equality checks compare serialized bytes,
+ * range checks deserialize only the checked column. Rows are checked again after loading, this filter only discards rows early. Rows
+ * missing a checked column are left to the object filter, the loaded entity may hold a primitive or initializer default that matches.
+ * <p>
+ * Only simple, non counter properties of families using plain column names can be checked. Rejected keys are recorded so they can be
+ * distinguished from missing rows. Note a rejected row is not checked against its index entry, stale entries for such rows are left to the
+ * {@link IndexSweeper}.
+ *
+ * @author kireet
+ */
+class RawValueFilter
+{
+    private final Map<ByteBuffer, byte[]> _equals = new HashMap<ByteBuffer, byte[]>();
+    private final Map<ByteBuffer, Bound> _bounds = new HashMap<ByteBuffer, Bound>();
+    private final Set<Object> _rejected = new HashSet<Object>();
+
+    /**
+     * @param meta the entity metadata
+     * @param equals the property values rows must equal
+     * @param starts the property values rows must be greater than or equal to
+     * @param ends the property values rows must be less than or equal to
+     */
+    RawValueFilter(EntityMetadata<?> meta,
+                   Map<PropertyMetadataBase, Object> equals,
+                   Map<PropertyMetadataBase, Object> starts,
+                   Map<PropertyMetadataBase, Object> ends)
+    {
+        if(meta.useCompositeColumns())
+            return;
+
+        for(Map.Entry<PropertyMetadataBase, Object> entry : equals.entrySet())
+        {
+            SimplePropertyMetadata pm = checkable(entry.getKey(), entry.getValue());
+            if(pm != null)
+                _equals.put(ByteBuffer.wrap(pm.getPhysicalNameBytes()), serialize(pm, entry.getValue()));
+        }
+
+        addBounds(starts, true);
+        addBounds(ends, false);
+    }
+
+    private void addBounds(Map<PropertyMetadataBase, Object> props, boolean start)
+    {
+        for(Map.Entry<PropertyMetadataBase, Object> entry : props.entrySet())
+        {
+            SimplePropertyMetadata pm = checkable(entry.getKey(), entry.getValue());
+            if(pm == null || !(entry.getValue() instanceof Comparable))
+                continue;
+
+            ByteBuffer name = ByteBuffer.wrap(pm.getPhysicalNameBytes());
+            Bound b = _bounds.get(name);
+            if(b == null)
+            {
+                b = new Bound(pm.getSerializer());
+                _bounds.put(name, b);
+            }
+
+            if(start)
+                b.start = (Comparable<?>) entry.getValue();
+            else
+                b.end = (Comparable<?>) entry.getValue();
+        }
+    }
+
+    private SimplePropertyMetadata checkable(PropertyMetadataBase pmb, Object value)
+    {
+        if(value == null || pmb.getPropertyType() != EPropertyType.SIMPLE)
+            return null;
+
+        SimplePropertyMetadata pm = (SimplePropertyMetadata) pmb;
+        return pm.hasCounter() ? null : pm;
+    }
+
+    @SuppressWarnings({ "rawtypes", "unchecked" })
+    private byte[] serialize(SimplePropertyMetadata pm, Object value)
+    {
+        return ((Serializer) pm.getSerializer()).toBytes(value);
+    }
+
+    /**
+     * @return true if no properties can be checked
+     */
+    public boolean isEmpty()
+    {
+        return _equals.isEmpty() && _bounds.isEmpty();
+    }
+
+    /**
+     * check the columns of a row.
+     * @param key the row key
+     * @param columns the row's columns
+     * @return true if the row may match, false if it does not and should not be loaded
+     */
+    public boolean accept(Object key, List<HColumn<byte[], byte[]>> columns)
+    {
+        if(columns.isEmpty()) //deleted row, leave for stale value handling
+            return true;
+        
+        for(HColumn<byte[], byte[]> col : columns)
+        {
+            ByteBuffer name = ByteBuffer.wrap(col.getName());
+            byte[] expected = _equals.get(name);
+            if(expected != null)
+            {
+                if(!Arrays.equals(expected, col.getValue()))
+                    return reject(key);
+            }
+
+            Bound b = _bounds.get(name);
+            if(b != null)
+            {
+                if(!b.contains(col.getValue()))
+                    return reject(key);
+            }
+        }
+
+        return true;
+    }
+
+    private boolean reject(Object key)
+    {
+        _rejected.add(key);
+        return false;
+    }
+
+    public boolean isRejected(Object key)
+    {
+        return _rejected.contains(key);
+    }
+
+    public void clearRejected()
+    {
+        _rejected.clear();
+    }
+
+    private static class Bound
+    {
+        final Serializer<?> serializer;
+        Comparable<?> start, end;
+
+        Bound(Serializer<?> serializer)
+        {
+            this.serializer = serializer;
+        }
+
+        @SuppressWarnings({ "rawtypes", "unchecked" })
+        boolean contains(byte[] bytes)
+        {
+            Object val = serializer.fromBytes(bytes);
+            if(start != null && ((Comparable) start).compareTo(val) > 0)
+                return false;
+
+            return end == null || ((Comparable) end).compareTo(val) >= 0;
+        }
+    }
+}
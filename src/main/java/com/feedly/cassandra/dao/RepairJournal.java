@@ -0,0 +1,187 @@
+package com.feedly.cassandra.dao;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * an append only, memory mapped journal of pending index repairs. Records survive a process crash (but not necessarily an OS crash) and
+ * are read back on startup. The journal is fixed size, once full it must be rewritten with the records still pending.
+ * <p>
+ * record layout: int length | short family length | family | int row key length | row key | int column length | column | long clock.
+ * A zero length marks the end of the journal.
+ *
+ * @author kireet
+ */
+class RepairJournal
+{
+    private static final Logger _logger = LoggerFactory.getLogger(RepairJournal.class.getName());
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+    private static final int END = 0;
+
+    private final File _file;
+    private final int _capacity;
+    private RandomAccessFile _raf;
+    private MappedByteBuffer _buffer;
+
+    /**
+     * @param file the journal file, created if it doesn't exist
+     * @param capacity the journal size in bytes
+     */
+    RepairJournal(File file, int capacity)
+    {
+        if(capacity <= 4)
+            throw new IllegalArgumentException("capacity too small: " + capacity);
+
+        _file = file;
+        _capacity = capacity;
+    }
+
+    /**
+     * open the journal and read the records it contains. Subsequent appends follow the existing records.
+     * @return the records
+     * @throws IOException if the journal can't be opened
+     */
+    public synchronized List<Record> open() throws IOException
+    {
+        _raf = new RandomAccessFile(_file, "rw");
+        _buffer = _raf.getChannel().map(MapMode.READ_WRITE, 0, _capacity);
+
+        List<Record> rv = new ArrayList<Record>();
+        try
+        {
+            while(_buffer.remaining() >= 4)
+            {
+                int start = _buffer.position();
+                int len = _buffer.getInt();
+                if(len <= 0 || len > _buffer.remaining())
+                {
+                    _buffer.position(start);
+                    break;
+                }
+
+                byte[] family = new byte[_buffer.getShort()];
+                _buffer.get(family);
+                byte[] rowKey = new byte[_buffer.getInt()];
+                _buffer.get(rowKey);
+                byte[] colName = new byte[_buffer.getInt()];
+                _buffer.get(colName);
+                long clock = _buffer.getLong();
+
+                rv.add(new Record(new String(family, UTF8), rowKey, colName, clock));
+            }
+        }
+        catch(RuntimeException ex) //BufferUnderflowException, NegativeArraySizeException...
+        {
+            _logger.warn("corrupt record in repair journal {} at record {}, ignoring remainder", _file, rv.size());
+            _buffer.position(0);
+            for(Record r : rv)
+                write(r);
+
+            if(_buffer.remaining() >= 4)
+                _buffer.putInt(_buffer.position(), END);
+        }
+
+        _logger.info("read {} records from repair journal {}", rv.size(), _file);
+        return rv;
+    }
+
+    /**
+     * append a record.
+     * @return true if the record was appended, false if the journal is full
+     */
+    public synchronized boolean append(Record record)
+    {
+        return write(record);
+    }
+
+    /**
+     * replace the contents of the journal.
+     * @param records the records to retain
+     * @return the number of records that fit in the journal
+     */
+    public synchronized int rewrite(Collection<Record> records)
+    {
+        _buffer.position(0);
+        int cnt = 0;
+        for(Record r : records)
+        {
+            if(!write(r))
+                break;
+
+            cnt++;
+        }
+
+        if(_buffer.remaining() >= 4)
+            _buffer.putInt(_buffer.position(), END);
+
+        _buffer.force();
+        return cnt;
+    }
+
+    public synchronized void close()
+    {
+        try
+        {
+            _buffer.force();
+            _raf.close();
+        }
+        catch(IOException ex)
+        {
+            _logger.warn("error closing repair journal " + _file, ex);
+        }
+    }
+
+    /*
+     * the end marker following the record is written first and the length last, so a partially written record is never read back
+     */
+    private boolean write(Record record)
+    {
+        byte[] family = record.family.getBytes(UTF8);
+        int len = 2 + family.length + 4 + record.rowKey.length + 4 + record.colName.length + 8;
+        int start = _buffer.position();
+
+        if(_buffer.remaining() < 4 + len)
+            return false;
+
+        if(_buffer.remaining() >= 4 + len + 4)
+            _buffer.putInt(start + 4 + len, END);
+
+        _buffer.position(start + 4);
+        _buffer.putShort((short) family.length);
+        _buffer.put(family);
+        _buffer.putInt(record.rowKey.length);
+        _buffer.put(record.rowKey);
+        _buffer.putInt(record.colName.length);
+        _buffer.put(record.colName);
+        _buffer.putLong(record.clock);
+        _buffer.putInt(start, len);
+
+        return true;
+    }
+
+    static class Record
+    {
+        final String family;
+        final byte[] rowKey;
+        final byte[] colName;
+        final long clock;
+
+        Record(String family, byte[] rowKey, byte[] colName, long clock)
+        {
+            this.family = family;
+            this.rowKey = rowKey;
+            this.colName = colName;
+            this.clock = clock;
+        }
+    }
+}
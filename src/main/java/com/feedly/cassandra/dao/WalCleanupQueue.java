@@ -0,0 +1,194 @@
+package com.feedly.cassandra.dao;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import me.prettyprint.hector.api.beans.Composite;
+import me.prettyprint.hector.api.factory.HFactory;
+import me.prettyprint.hector.api.mutation.Mutator;
+
+import com.feedly.cassandra.IKeyspaceFactory;
+import com.feedly.cassandra.PersistenceManager;
+import com.feedly.cassandra.entity.EntityMetadata;
+
+/**
+ * queues deletions of WAL entries for successful indexed puts and writes them in the background in large batches. This saves a round trip
+ * per put at the cost of WAL entries living slightly longer.
+ * <p>
+ * Failed deletions are not retried, the remaining WAL entries are harmless and are removed by WAL recovery.
+ *
+ * @author kireet
+ */
+class WalCleanupQueue<K, V> extends DaoHelperBase<K, V>
+{
+    private static final AtomicInteger _threadId = new AtomicInteger();
+    private static final int BATCH_SIZE = 500;
+
+    private final ConcurrentLinkedQueue<Entry> _queue = new ConcurrentLinkedQueue<Entry>();
+    private final AtomicInteger _size = new AtomicInteger();
+    private final AtomicBoolean _flushScheduled = new AtomicBoolean();
+    private final long _flushInterval;
+    private final int _maxSize;
+    private ScheduledExecutorService _executor;
+
+    WalCleanupQueue(EntityMetadata<V> meta, IKeyspaceFactory factory, long flushInterval, int maxSize, int statsSize)
+    {
+        super(meta, factory, statsSize);
+
+        if(flushInterval <= 0)
+            throw new IllegalArgumentException("flush interval must be positive: " + flushInterval);
+        if(maxSize <= 0)
+            throw new IllegalArgumentException("max size must be positive: " + maxSize);
+
+        _flushInterval = flushInterval;
+        _maxSize = maxSize;
+    }
+
+    public void init()
+    {
+        _executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+                                                                {
+                                                                    public Thread newThread(Runnable r)
+                                                                    {
+                                                                        Thread t = new Thread(r, "wal-cleanup-" + _entityMeta.getFamilyName() + "-" + _threadId.incrementAndGet());
+                                                                        t.setDaemon(true);
+                                                                        return t;
+                                                                    }
+                                                                });
+
+        _executor.scheduleWithFixedDelay(new FlushTask(), _flushInterval, _flushInterval, TimeUnit.MILLISECONDS);
+    }
+
+    public void destroy()
+    {
+        _executor.shutdown();
+        try
+        {
+            _executor.awaitTermination(60, TimeUnit.SECONDS);
+        }
+        catch(InterruptedException ex)
+        {
+            _logger.warn("WAL cleanup not complete after 60 seconds, continuing system shutdown");
+            _executor.shutdownNow();
+        }
+
+        flush();
+    }
+
+    public int size()
+    {
+        return _size.get();
+    }
+
+    /**
+     * queue WAL entries for deletion. Once the queue is destroyed, entries are deleted inline instead.
+     * @param entries the entries
+     */
+    public void addAll(Collection<Entry> entries)
+    {
+        _queue.addAll(entries);
+        int size = _size.addAndGet(entries.size());
+
+        if(_executor.isShutdown())
+        {
+            _logger.debug("WAL cleanup queue for {} destroyed, flushing inline", _entityMeta.getFamilyName());
+            flush();
+        }
+        else if(size >= _maxSize && _flushScheduled.compareAndSet(false, true))
+        {
+            _logger.debug("WAL cleanup queue for {} full, flushing", _entityMeta.getFamilyName());
+            try
+            {
+                _executor.execute(new FlushTask());
+            }
+            catch(RejectedExecutionException ex) //destroyed concurrently
+            {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * delete all queued WAL entries.
+     */
+    public synchronized void flush()
+    {
+        _flushScheduled.set(false);
+        long startTime = System.nanoTime();
+        int cnt = 0, batches = 0;
+
+        while(true)
+        {
+            Mutator<byte[]> mutator = HFactory.createMutator(_keyspaceFactory.createKeyspace(null), SER_BYTES);
+            int batchCnt = 0;
+            Entry e;
+            while(batchCnt < BATCH_SIZE && (e = _queue.poll()) != null)
+            {
+                mutator.addDeletion(e.walRowKey, PersistenceManager.CF_IDXWAL, e.colName, SER_COMPOSITE, e.clock);
+                batchCnt++;
+            }
+
+            if(batchCnt == 0)
+                break;
+
+            _size.addAndGet(-batchCnt);
+            cnt += batchCnt;
+            batches++;
+
+            try
+            {
+                mutator.execute();
+            }
+            catch(RuntimeException ex)
+            {
+                _logger.warn("error deleting " + batchCnt + " WAL entries for " + _entityMeta.getFamilyName() + ", entries will be removed during WAL recovery", ex);
+            }
+        }
+
+        if(batches > 0)
+        {
+            _stats.addRecentTiming(System.nanoTime() - startTime);
+            _stats.incrNumOps(1);
+            _stats.incrNumCassandraOps(batches);
+            _stats.incrNumCols(cnt);
+            _logger.debug("deleted {} WAL entries for {}", cnt, _entityMeta.getFamilyName());
+        }
+    }
+
+    private class FlushTask implements Runnable
+    {
+        @Override
+        public void run()
+        {
+            try
+            {
+                flush();
+            }
+            catch(Exception ex)
+            {
+                _logger.error("error flushing WAL cleanup queue for " + _entityMeta.getFamilyName(), ex);
+            }
+        }
+    }
+
+    static class Entry
+    {
+        final byte[] walRowKey;
+        final Composite colName;
+        final long clock;
+
+        Entry(byte[] walRowKey, Composite colName, long clock)
+        {
+            this.walRowKey = walRowKey;
+            this.colName = colName;
+            this.clock = clock;
+        }
+    }
+}
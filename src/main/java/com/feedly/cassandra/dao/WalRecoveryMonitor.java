@@ -0,0 +1,49 @@
+package com.feedly.cassandra.dao;
+
+public class WalRecoveryMonitor extends OperationStatisticsMonitor implements WalRecoveryMonitorMBean
+{
+    private volatile long _oldestPendingAge;
+    private volatile int _lastRecoveredCount;
+    private volatile boolean _leaseHeld;
+
+    WalRecoveryMonitor(OperationStatistics stats)
+    {
+        super(stats);
+    }
+
+    /**
+     * @return the age in millis of the oldest WAL entry found by the last recovery run, 0 if there were none
+     */
+    @Override
+    public long getOldestPendingAge()
+    {
+        return _oldestPendingAge;
+    }
+
+    @Override
+    public int getLastRecoveredCount()
+    {
+        return _lastRecoveredCount;
+    }
+
+    @Override
+    public boolean isLeaseHeld()
+    {
+        return _leaseHeld;
+    }
+
+    void oldestPendingAge(long age)
+    {
+        _oldestPendingAge = age;
+    }
+
+    void lastRecoveredCount(int cnt)
+    {
+        _lastRecoveredCount = cnt;
+    }
+
+    void leaseHeld(boolean held)
+    {
+        _leaseHeld = held;
+    }
+}
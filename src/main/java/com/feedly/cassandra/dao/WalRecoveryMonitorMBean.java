@@ -0,0 +1,8 @@
+package com.feedly.cassandra.dao;
+
+public interface WalRecoveryMonitorMBean extends OperationStatisticsMonitorMBean
+{
+    public long getOldestPendingAge();
+    public int getLastRecoveredCount();
+    public boolean isLeaseHeld();
+}
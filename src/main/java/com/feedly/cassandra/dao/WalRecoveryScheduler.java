@@ -0,0 +1,286 @@
+package com.feedly.cassandra.dao;
+
+import java.lang.management.ManagementFactory;
+import java.util.Collection;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadFactory;
+
+import javax.management.MBeanServer;
+
+import me.prettyprint.cassandra.serializers.BytesArraySerializer;
+import me.prettyprint.cassandra.serializers.CompositeSerializer;
+import me.prettyprint.cassandra.serializers.StringSerializer;
+import me.prettyprint.hector.api.Keyspace;
+import me.prettyprint.hector.api.beans.Composite;
+import me.prettyprint.hector.api.beans.HColumn;
+import me.prettyprint.hector.api.factory.HFactory;
+import me.prettyprint.hector.api.mutation.Mutator;
+import me.prettyprint.hector.api.query.SliceQuery;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.feedly.cassandra.EConsistencyLevel;
+import com.feedly.cassandra.IKeyspaceFactory;
+import com.feedly.cassandra.IWalRecoverable;
+import com.feedly.cassandra.PersistenceManager;
+
+/**
+ * periodically runs WAL recovery for a set of DAOs, see {@link CassandraDaoBase#checkWal(long)}. To avoid every process recovering the
+ * same entries, a lease column is maintained in the WAL column family and only the lease holder runs recovery. The lease expires if the
+ * holder stops renewing it, at which point another process takes over. The holder renews the lease between recovery batches, recovery
+ * stops should the lease be lost. The age of the oldest pending entry is reported by every process.
+ * <p>
+ * The lease is best effort, cassandra provides no compare and set. Should two processes recover concurrently, the work is duplicated but
+ * the result is still correct.
+ * <p>
+ * Typically one scheduler is created per {@link PersistenceManager}, recovering the DAOs registered with it. It is initialized after the
+ * manager and destroyed before it.
+ *
+ * @author kireet
+ */
+public class WalRecoveryScheduler
+{
+    private static final Logger _logger = LoggerFactory.getLogger(WalRecoveryScheduler.class.getName());
+    private static final byte[] LEASE_ROW_KEY = StringSerializer.get().toBytes("fc_wal_recovery_lease");
+
+    private final IKeyspaceFactory _keyspaceFactory;
+    private final Collection<? extends IWalRecoverable> _daos;
+    private final long _interval;
+    private final long _delay;
+    private final byte[] _owner;
+    private final OperationStatistics _stats = new OperationStatistics(MBeanUtils.DEFAULT_STATS_SIZE);
+    private final WalRecoveryMonitor _monitor = new WalRecoveryMonitor(_stats);
+    private ScheduledExecutorService _executor;
+    private long _leaseTime; //when the lease was last written, only accessed by the recovering thread
+
+    /**
+     * recover the DAOs registered with a persistence manager.
+     * @param pm the persistence manager
+     * @param interval how often to run recovery, in millis
+     * @param delay only entries older than this many millis are recovered, leaving in flight writes alone
+     */
+    public WalRecoveryScheduler(PersistenceManager pm, long interval, long delay)
+    {
+        this(pm, pm.getRegisteredDaos(), interval, delay);
+    }
+
+    /**
+     * @param keyspaceFactory the keyspace factory
+     * @param daos the DAOs to recover, may change while the scheduler is running
+     * @param interval how often to run recovery, in millis
+     * @param delay only entries older than this many millis are recovered, leaving in flight writes alone
+     */
+    public WalRecoveryScheduler(IKeyspaceFactory keyspaceFactory, Collection<? extends IWalRecoverable> daos, long interval, long delay)
+    {
+        if(interval <= 0)
+            throw new IllegalArgumentException("interval must be positive: " + interval);
+
+        _keyspaceFactory = keyspaceFactory;
+        _daos = daos;
+        _interval = interval;
+        _delay = delay;
+        _owner = StringSerializer.get().toBytes(ManagementFactory.getRuntimeMXBean().getName() + "-" + UUID.randomUUID());
+    }
+
+    public void init()
+    {
+        _executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+                                                                {
+                                                                    public Thread newThread(Runnable r)
+                                                                    {
+                                                                        Thread t = new Thread(r, "wal-recovery-scheduler");
+                                                                        t.setDaemon(true);
+                                                                        return t;
+                                                                    }
+                                                                });
+
+        _executor.scheduleWithFixedDelay(new Runnable()
+                                         {
+                                             @Override
+                                             public void run()
+                                             {
+                                                 try
+                                                 {
+                                                     recover();
+                                                 }
+                                                 catch(Exception ex)
+                                                 {
+                                                     _logger.error("error recovering WAL entries", ex);
+                                                 }
+                                             }
+                                         },
+                                         _interval,
+                                         _interval,
+                                         TimeUnit.MILLISECONDS);
+
+        try
+        {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            mbs.registerMBean(_monitor, MBeanUtils.mBeanName(this, null, "walRecovery"));
+        }
+        catch(Exception ex)
+        {
+            _logger.warn("error registering mbean", ex);
+        }
+    }
+
+    public void destroy()
+    {
+        _executor.shutdownNow();
+
+        try
+        {
+            MBeanServer mbs = ManagementFactory.getPlatformMBeanServer();
+            mbs.unregisterMBean(MBeanUtils.mBeanName(this, null, "walRecovery"));
+        }
+        catch(Exception ex)
+        {
+            _logger.warn("error unregistering mbean", ex);
+        }
+    }
+
+    public WalRecoveryMonitor monitor()
+    {
+        return _monitor;
+    }
+
+    /**
+     * run recovery for all DAOs if this process holds the lease.
+     * @return the number of entries recovered
+     */
+    public int recover()
+    {
+        long now = System.currentTimeMillis();
+        long oldest = -1;
+        for(IWalRecoverable dao : _daos)
+        {
+            try
+            {
+                long daoOldest = dao.oldestWalEntryTime();
+                if(daoOldest >= 0 && (oldest < 0 || daoOldest < oldest))
+                    oldest = daoOldest;
+            }
+            catch(Exception ex)
+            {
+                _logger.error("error reading oldest WAL entry for " + dao.getClass().getSimpleName(), ex);
+            }
+        }
+        _monitor.oldestPendingAge(oldest < 0 ? 0 : now - oldest);
+
+        if(!acquireLease())
+        {
+            _logger.debug("WAL recovery lease held by another process, skipping");
+            _monitor.leaseHeld(false);
+            return 0;
+        }
+
+        _monitor.leaseHeld(true);
+        long startTime = System.nanoTime();
+        final boolean[] leaseLost = new boolean[1];
+        Runnable renewal = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                if(System.currentTimeMillis() - _leaseTime >= leaseTtl() * 1000L / 3 && !acquireLease())
+                {
+                    leaseLost[0] = true;
+                    throw new IllegalStateException("WAL recovery lease lost");
+                }
+            }
+        };
+        int cnt = 0;
+
+        for(IWalRecoverable dao : _daos)
+        {
+            try
+            {
+                cnt += dao.checkWal(now - _delay, renewal);
+            }
+            catch(Exception ex)
+            {
+                if(leaseLost[0])
+                {
+                    _logger.warn("WAL recovery lease taken by another process, stopping recovery");
+                    _monitor.leaseHeld(false);
+                    break;
+                }
+                
+                _logger.error("error recovering WAL entries for " + dao.getClass().getSimpleName(), ex);
+            }
+        }
+
+        _monitor.lastRecoveredCount(cnt);
+
+        _stats.addRecentTiming(System.nanoTime() - startTime);
+        _stats.incrNumOps(1);
+        _stats.incrNumCols(cnt);
+
+        if(cnt > 0)
+            _logger.info("recovered {} WAL entries", cnt);
+
+        return cnt;
+    }
+
+    /*
+     * the holder is the live lease column with the smallest owner. Only attempt to take the lease when no other owner holds it, if two
+     * processes race the smaller owner wins and the other backs off.
+     */
+    private boolean acquireLease()
+    {
+        Keyspace keyspace = _keyspaceFactory.createKeyspace(EConsistencyLevel.QUOROM);
+        Composite leaseCol = new Composite(0L, _owner);
+
+        String holder = leaseHolder(keyspace);
+        if(holder != null && !holder.equals(StringSerializer.get().fromBytes(_owner)))
+            return false;
+
+        long leaseTime = System.currentTimeMillis();
+        HColumn<Composite, byte[]> column = HFactory.createColumn(leaseCol, PutHelper.IDX_COL_VAL, DaoHelperBase.SER_COMPOSITE, DaoHelperBase.SER_BYTES);
+        column.setTtl(leaseTtl());
+
+        Mutator<byte[]> mutator = HFactory.createMutator(keyspace, DaoHelperBase.SER_BYTES);
+        mutator.addInsertion(LEASE_ROW_KEY, PersistenceManager.CF_IDXWAL, column);
+        mutator.execute();
+
+        if(holder == null)
+        {
+            holder = leaseHolder(keyspace);
+            if(!StringSerializer.get().fromBytes(_owner).equals(holder))
+            {
+                mutator.addDeletion(LEASE_ROW_KEY, PersistenceManager.CF_IDXWAL, leaseCol, DaoHelperBase.SER_COMPOSITE);
+                mutator.execute();
+                return false;
+            }
+        }
+
+        _leaseTime = leaseTime;
+        return true;
+    }
+    
+    //seconds
+    private int leaseTtl()
+    {
+        return (int) Math.max(1, TimeUnit.MILLISECONDS.toSeconds(_interval * 3));
+    }
+
+    private String leaseHolder(Keyspace keyspace)
+    {
+        SliceQuery<byte[],Composite,byte[]> query = HFactory.createSliceQuery(keyspace,
+                                                                              BytesArraySerializer.get(), CompositeSerializer.get(), BytesArraySerializer.get());
+        query.setKey(LEASE_ROW_KEY);
+        query.setColumnFamily(PersistenceManager.CF_IDXWAL);
+        query.setRange(null, null, false, 1);
+
+        List<HColumn<Composite, byte[]>> columns = query.execute().get().getColumns();
+        if(columns.isEmpty())
+            return null;
+
+        return StringSerializer.get().fromBytes((byte[]) columns.get(0).getName().getComponent(1).getValue(BytesArraySerializer.get()));
+    }
+}
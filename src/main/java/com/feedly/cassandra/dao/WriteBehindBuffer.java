@@ -0,0 +1,368 @@
+package com.feedly.cassandra.dao;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.feedly.cassandra.EConsistencyLevel;
+import com.feedly.cassandra.IKeyspaceFactory;
+import com.feedly.cassandra.entity.EPropertyType;
+import com.feedly.cassandra.entity.EntityMetadata;
+import com.feedly.cassandra.entity.MapPropertyMetadata;
+import com.feedly.cassandra.entity.PropertyMetadataBase;
+import com.feedly.cassandra.entity.SimplePropertyMetadata;
+import com.feedly.cassandra.entity.enhance.IEnhancedEntity;
+
+/**
+ * buffers puts and writes them in the background. Successive puts to the same row key are merged into a single pending entity: the last
+ * write wins for each column, map entries are merged and counter increments are summed. Pending entities are written in batched mutations
+ * when the flush interval elapses or the buffer reaches its maximum size, whichever comes first.
+ * If a flush fails, the entities not yet written are returned to the buffer and retried by the next flush. Entities whose row mutation
+ * executed are not retried, and counter increments that may have been applied are dropped from retried entities rather than risk counting
+ * them twice.
+ * <p>
+ * Note property values are captured by reference, changes made to collections or embedded objects after the put may be written.
+ *
+ * @author kireet
+ */
+class WriteBehindBuffer<K, V> extends DaoHelperBase<K, V>
+{
+    private static final AtomicInteger _threadId = new AtomicInteger();
+
+    private final PutHelper<K, V> _putHelper;
+    private final long _flushInterval;
+    private final int _maxSize;
+    private final Object _flushLock = new Object();
+    private final WriteBehindMonitor _monitor;
+    private Map<Object, PendingPut> _pending = new LinkedHashMap<Object, PendingPut>();
+    private ScheduledExecutorService _executor;
+
+    WriteBehindBuffer(EntityMetadata<V> meta, IKeyspaceFactory factory, PutHelper<K, V> putHelper, long flushInterval, int maxSize, int statsSize)
+    {
+        super(meta, factory, statsSize);
+
+        if(flushInterval <= 0)
+            throw new IllegalArgumentException("flush interval must be positive: " + flushInterval);
+        if(maxSize <= 0)
+            throw new IllegalArgumentException("max size must be positive: " + maxSize);
+
+        _putHelper = putHelper;
+        _flushInterval = flushInterval;
+        _maxSize = maxSize;
+        _monitor = new WriteBehindMonitor(_stats, this);
+    }
+
+    public void init()
+    {
+        _executor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory()
+                                                                {
+                                                                    public Thread newThread(Runnable r)
+                                                                    {
+                                                                        Thread t = new Thread(r, "write-behind-" + _entityMeta.getFamilyName() + "-" + _threadId.incrementAndGet());
+                                                                        t.setDaemon(true);
+                                                                        return t;
+                                                                    }
+                                                                });
+
+        _executor.scheduleWithFixedDelay(new Runnable()
+                                         {
+                                             @Override
+                                             public void run()
+                                             {
+                                                 try
+                                                 {
+                                                     flush();
+                                                 }
+                                                 catch(Exception ex)
+                                                 {
+                                                     _logger.error("error flushing write behind buffer for " + _entityMeta.getFamilyName(), ex);
+                                                 }
+                                             }
+                                         },
+                                         _flushInterval,
+                                         _flushInterval,
+                                         TimeUnit.MILLISECONDS);
+    }
+
+    public void destroy()
+    {
+        _executor.shutdown();
+        try
+        {
+            _executor.awaitTermination(60, TimeUnit.SECONDS);
+        }
+        catch(InterruptedException ex)
+        {
+            _logger.warn("write behind flush not complete after 60 seconds, continuing system shutdown");
+            _executor.shutdownNow();
+        }
+
+        flush();
+    }
+
+    public WriteBehindMonitor monitor()
+    {
+        return _monitor;
+    }
+
+    public synchronized int size()
+    {
+        return _pending.size();
+    }
+
+    public void mput(Collection<V> values, PutOptions options)
+    {
+        SimplePropertyMetadata keyMeta = _entityMeta.getKeyMetadata();
+        boolean full;
+
+        synchronized(this)
+        {
+            for(V value : values)
+            {
+                Object key = invokeGetter(keyMeta, value);
+                if(key == null)
+                    throw new IllegalArgumentException("row key not set for " + value);
+
+                PendingPut pending = _pending.get(key);
+                if(pending == null)
+                {
+                    pending = new PendingPut(key, newInstance());
+                    invokeSetter(keyMeta, pending.value, key);
+                    _pending.put(key, pending);
+                }
+                else
+                    _monitor.coalescedPut();
+
+                merge(value, pending.value);
+                pending.level = options.getConsistencyLevel();
+                _monitor.bufferedPut();
+            }
+
+            full = _pending.size() >= _maxSize;
+        }
+
+        /*
+         * the pending entities now own the dirty state, reset the callers' entities as if they were written
+         */
+        for(V value : values)
+            resetCounters(value);
+        resetEntities(values);
+
+        if(full)
+        {
+            _logger.debug("write behind buffer for {} full, flushing", _entityMeta.getFamilyName());
+            flush();
+        }
+    }
+
+    /**
+     * write all pending entities.
+     */
+    public void flush()
+    {
+        synchronized(_flushLock) //keep flushes ordered so a newer write to a key is never overtaken by an older one
+        {
+            Map<Object, PendingPut> pending;
+            synchronized(this)
+            {
+                if(_pending.isEmpty())
+                    return;
+
+                pending = _pending;
+                _pending = new LinkedHashMap<Object, PendingPut>();
+            }
+
+            long startTime = System.nanoTime();
+            Map<EConsistencyLevel, List<PendingPut>> byLevel = new HashMap<EConsistencyLevel, List<PendingPut>>();
+            for(PendingPut p : pending.values())
+            {
+                List<PendingPut> puts = byLevel.get(p.level);
+                if(puts == null)
+                {
+                    puts = new ArrayList<PendingPut>();
+                    byLevel.put(p.level, puts);
+                }
+
+                puts.add(p);
+            }
+
+            int batches = 0;
+            Map<Object, PendingPut> unwritten = new LinkedHashMap<Object, PendingPut>(pending);
+            for(Map.Entry<EConsistencyLevel, List<PendingPut>> entry : byLevel.entrySet())
+            {
+                PutOptions options = new PutOptions();
+                options.setConsistencyLevel(entry.getKey());
+                List<PendingPut> puts = entry.getValue();
+
+                for(int i = 0; i < puts.size(); i += CassandraDaoBase.ROW_RANGE_SIZE)
+                {
+                    List<PendingPut> batch = puts.subList(i, Math.min(puts.size(), i + CassandraDaoBase.ROW_RANGE_SIZE));
+                    List<V> values = new ArrayList<V>(batch.size());
+                    for(PendingPut p : batch)
+                        values.add(p.value);
+                    
+                    PutHelper.Progress progress = new PutHelper.Progress();
+                    try
+                    {
+                        _putHelper.mput(values, options, progress);
+                        batches++;
+                    }
+                    catch(RuntimeException ex)
+                    {
+                        for(PendingPut p : batch)
+                        {
+                            if(progress.rowsWritten)
+                                unwritten.remove(p.key);
+                            else if(progress.countersApplied)
+                                resetCounters(p.value);
+                        }
+                        
+                        _monitor.failedPuts(unwritten.size());
+                        requeue(unwritten);
+                        throw ex;
+                    }
+                    
+                    for(PendingPut p : batch)
+                        unwritten.remove(p.key);
+                }
+            }
+
+            _stats.addRecentTiming(System.nanoTime() - startTime);
+            _stats.incrNumOps(1);
+            _stats.incrNumCassandraOps(batches);
+            _stats.incrNumRows(pending.size());
+            _logger.debug("flushed {} pending entities to {}", pending.size(), _entityMeta.getFamilyName());
+        }
+    }
+
+    /*
+     * return the entities of a failed flush to the buffer, ahead of entities buffered since the flush started. Newer puts to the same key
+     * are merged over the unwritten ones.
+     */
+    private synchronized void requeue(Map<Object, PendingPut> unwritten)
+    {
+        int cnt = unwritten.size();
+        Map<Object, PendingPut> newer = _pending;
+        _pending = unwritten;
+        for(PendingPut p : newer.values())
+        {
+            PendingPut older = _pending.get(p.key);
+            if(older == null)
+                _pending.put(p.key, p);
+            else
+            {
+                merge(p.value, older.value);
+                older.level = p.level;
+            }
+        }
+        
+        _logger.warn("flush of {} failed, {} entities requeued", _entityMeta.getFamilyName(), cnt);
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private void merge(V from, V to)
+    {
+        IEnhancedEntity entity = asEntity(from);
+        IEnhancedEntity target = asEntity(to);
+        BitSet dirty = entity.getModifiedFields();
+        List<PropertyMetadataBase> properties = _entityMeta.getProperties();
+
+        for(int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1))
+        {
+            PropertyMetadataBase pm = properties.get(i);
+            Object propVal = invokeGetter(pm, from);
+            boolean pendingDirty = target.getModifiedFields().get(i);
+
+            if(pm.getPropertyType() == EPropertyType.SIMPLE && ((SimplePropertyMetadata) pm).hasCounter())
+            {
+                CounterColumn cc = (CounterColumn) propVal;
+                if(cc != null)
+                {
+                    if(!cc.dirty())
+                        continue;
+
+                    long incr = cc.getIncrement();
+                    CounterColumn pendingCc = pendingDirty ? (CounterColumn) invokeGetter(pm, to) : null;
+                    if(pendingCc != null)
+                        incr += pendingCc.getIncrement();
+
+                    propVal = new CounterColumn(null, incr);
+                }
+            }
+            else if(pendingDirty && propVal != null && (pm.getPropertyType() == EPropertyType.MAP || pm.getPropertyType() == EPropertyType.SORTED_MAP))
+            {
+                Map pendingMap = (Map) invokeGetter(pm, to);
+                if(pendingMap != null)
+                    propVal = mergeMaps(pm.getPropertyType() == EPropertyType.SORTED_MAP, pendingMap, (Map) propVal);
+            }
+
+            invokeSetter(pm, to, propVal);
+        }
+
+        MapPropertyMetadata unmappedMeta = _entityMeta.getUnmappedHandler();
+        if(unmappedMeta != null && entity.getUnmappedFieldsModified())
+        {
+            boolean pendingDirty = target.getUnmappedFieldsModified();
+            Map unmapped = (Map) invokeGetter(unmappedMeta, from);
+
+            if(pendingDirty && unmapped != null)
+            {
+                Map pendingMap = (Map) invokeGetter(unmappedMeta, to);
+                if(pendingMap != null)
+                    unmapped = mergeMaps(unmappedMeta.getPropertyType() == EPropertyType.SORTED_MAP, pendingMap, unmapped);
+            }
+
+            invokeSetter(unmappedMeta, to, unmapped);
+            target.setUnmappedFieldsModified(true);
+        }
+    }
+
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    private Map mergeMaps(boolean sorted, Map older, Map newer)
+    {
+        Map merged = sorted ? new TreeMap(((SortedMap) older).comparator()) : new HashMap();
+        merged.putAll(older);
+        merged.putAll(newer);
+        return merged;
+    }
+
+    private void resetCounters(V value)
+    {
+        List<PropertyMetadataBase> properties = _entityMeta.getProperties();
+        BitSet dirty = asEntity(value).getModifiedFields();
+        for(int i = dirty.nextSetBit(0); i >= 0; i = dirty.nextSetBit(i + 1))
+        {
+            PropertyMetadataBase pm = properties.get(i);
+            if(pm.getPropertyType() == EPropertyType.SIMPLE && ((SimplePropertyMetadata) pm).hasCounter())
+            {
+                CounterColumn cc = (CounterColumn) invokeGetter(pm, value);
+                if(cc != null)
+                    cc.reset();
+            }
+        }
+    }
+
+    private class PendingPut
+    {
+        final Object key;
+        final V value;
+        EConsistencyLevel level;
+
+        PendingPut(Object key, V value)
+        {
+            this.key = key;
+            this.value = value;
+        }
+    }
+}
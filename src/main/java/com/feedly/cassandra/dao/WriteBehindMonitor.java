@@ -0,0 +1,65 @@
+package com.feedly.cassandra.dao;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+public class WriteBehindMonitor extends OperationStatisticsMonitor implements WriteBehindMonitorMBean
+{
+    private final AtomicLong _numBuffered = new AtomicLong();
+    private final AtomicLong _numCoalesced = new AtomicLong();
+    private final AtomicLong _numFailed = new AtomicLong();
+    private final WriteBehindBuffer<?, ?> _buffer;
+
+    WriteBehindMonitor(OperationStatistics stats, WriteBehindBuffer<?, ?> buffer)
+    {
+        super(stats);
+        _buffer = buffer;
+    }
+
+    @Override
+    public int getQueueSize()
+    {
+        return _buffer.size();
+    }
+
+    @Override
+    public long getNumBufferedPuts()
+    {
+        return _numBuffered.get();
+    }
+
+    @Override
+    public long getNumCoalescedPuts()
+    {
+        return _numCoalesced.get();
+    }
+
+    @Override
+    public long getNumFailedPuts()
+    {
+        return _numFailed.get();
+    }
+
+    @Override
+    public void reset()
+    {
+        super.reset();
+        _numBuffered.set(0);
+        _numCoalesced.set(0);
+        _numFailed.set(0);
+    }
+
+    void bufferedPut()
+    {
+        _numBuffered.incrementAndGet();
+    }
+
+    void coalescedPut()
+    {
+        _numCoalesced.incrementAndGet();
+    }
+
+    void failedPuts(int cnt)
+    {
+        _numFailed.addAndGet(cnt);
+    }
+}
@@ -0,0 +1,9 @@
+package com.feedly.cassandra.dao;
+
+public interface WriteBehindMonitorMBean extends OperationStatisticsMonitorMBean
+{
+    public int getQueueSize();
+    public long getNumBufferedPuts();
+    public long getNumCoalescedPuts();
+    public long getNumFailedPuts();
+}
@@ -0,0 +1,20 @@
+package com.feedly.cassandra.entity;
+
+/**
+ * what is indexed by a range indexed map.
+ *
+ * @author kireet
+ * @see com.feedly.cassandra.anno.Column#collectionIndex()
+ */
+public enum ECollectionIndexType
+{
+    /**
+     * index the keys of the map
+     */
+    KEYS,
+
+    /**
+     * index the values of the map, list elements are always indexed as values
+     */
+    VALUES;
+}
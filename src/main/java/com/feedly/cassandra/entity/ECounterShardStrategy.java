@@ -0,0 +1,20 @@
+package com.feedly.cassandra.entity;
+
+/**
+ * how the shard of a sharded counter is selected when incrementing.
+ * 
+ * @author kireet
+ * @see com.feedly.cassandra.anno.Column#counterShards()
+ */
+public enum ECounterShardStrategy
+{
+    /**
+     * pick a random shard on each write
+     */
+    RANDOM, 
+    
+    /**
+     * each thread always writes to the same shard
+     */
+    THREAD;
+}
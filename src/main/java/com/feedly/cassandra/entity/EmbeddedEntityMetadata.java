@@ -6,5 +6,11 @@ public class EmbeddedEntityMetadata<V> extends EntityMetadataBase<V>
     public EmbeddedEntityMetadata(Class<V> clazz, int ttl)
     {
         super(clazz, true, ttl, true);
+        
+        for(PropertyMetadataBase pm : getProperties())
+        {
+            if(pm.getPropertyType() == EPropertyType.SIMPLE && ((SimplePropertyMetadata) pm).getCounterShards() > 1)
+                throw new IllegalArgumentException(pm.getName() + ": counters within embedded entities may not be sharded");
+        }
     }
 }
@@ -4,6 +4,7 @@ import java.lang.annotation.Annotation;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -43,10 +44,12 @@ public class EntityMetadata<V> extends EntityMetadataBase<V>
     private final SimplePropertyMetadata _keyMeta;
     private final String _familyName;
     private final byte[] _familyNameBytes;
+    private final List<byte[]> _walRowKeys;
     private final String _idxFamilyName;
     private final String _counterFamilyName;
     private final List<IndexMetadata> _indexes;
     private final Map<SimplePropertyMetadata, List<IndexMetadata>> _indexesByProp;
+    private final Map<PropertyMetadataBase, IndexMetadata> _collectionIndexes;
 
     @SuppressWarnings("unchecked")
     public EntityMetadata(Class<V> clazz)
@@ -60,6 +63,16 @@ public class EntityMetadata<V> extends EntityMetadataBase<V>
 
         _familyName = familyAnno.name();
         _familyNameBytes = StringSerializer.get().toBytes(_familyName);
+        
+        if(familyAnno.walShards() < 1)
+            throw new IllegalArgumentException(clazz.getSimpleName() + ": WAL shards must be positive");
+        
+        List<byte[]> walRowKeys = new ArrayList<byte[]>(familyAnno.walShards());
+        walRowKeys.add(_familyNameBytes);
+        for(int i = 1; i < familyAnno.walShards(); i++)
+            walRowKeys.add(StringSerializer.get().toBytes(_familyName + "#" + i));
+        _walRowKeys = Collections.unmodifiableList(walRowKeys);
+        
         _idxFamilyName = familyAnno.name() + "_idx";
         _counterFamilyName = familyAnno.name() + "_cntr";
         
@@ -71,6 +84,7 @@ public class EntityMetadata<V> extends EntityMetadataBase<V>
         
         List<IndexMetadata> indexes = new ArrayList<IndexMetadata>();
         Map<SimplePropertyMetadata, List<IndexMetadata>> indexesByProp = new HashMap<SimplePropertyMetadata, List<IndexMetadata>>();
+        Map<PropertyMetadataBase, IndexMetadata> collectionIndexes = new HashMap<PropertyMetadataBase, IndexMetadata>();
         SimplePropertyMetadata keyMeta = null;
         
         for(Field f : clazz.getDeclaredFields())
@@ -102,8 +116,25 @@ public class EntityMetadata<V> extends EntityMetadataBase<V>
                 if(anno.hashIndexed() && anno.rangeIndexed())
                     throw new IllegalStateException(f.getName() + ": property can be range or hash indexed, not both");
 
+                if(anno.asyncRangeIndex() && !anno.rangeIndexed())
+                    throw new IllegalStateException(f.getName() + ": only range indexes may be maintained asynchronously");
+
+                if(anno.rangeIndexBackfill() && !anno.rangeIndexed())
+                    throw new IllegalStateException(f.getName() + ": only range indexes may be backfilled");
+
                 PropertyMetadataBase pm = getProperty(f.getName());
-                if(anno.hashIndexed() || anno.rangeIndexed())
+                if(anno.rangeIndexed() && pm.getPropertyType() != EPropertyType.SIMPLE && pm.getPropertyType() != EPropertyType.OBJECT)
+                {
+                    IndexMetadata idxMeta = new IndexMetadata(pm, 
+                                                              anno.collectionIndex(), 
+                                                              collectionEntryProperty(pm, anno.collectionIndex()), 
+                                                              createPartitioner(anno.rangeIndexPartitioner()), 
+                                                              anno.asyncRangeIndex());
+                    idxMeta.setBackfillRequired(anno.rangeIndexBackfill());
+                    indexes.add(idxMeta);
+                    collectionIndexes.put(pm, idxMeta);
+                }
+                else if(anno.hashIndexed() || anno.rangeIndexed())
                 {
                     if(pm.getPropertyType() != EPropertyType.SIMPLE)
                         throw new IllegalStateException(f.getName() + ": property cannot be indexed, not a simple type: " + pm.getPropertyType());
@@ -115,7 +146,9 @@ public class EntityMetadata<V> extends EntityMetadataBase<V>
                     IndexMetadata idxMeta = new IndexMetadata(familyAnno.name(),
                                                 Collections.singletonList( (SimplePropertyMetadata) pm), 
                                                 createPartitioner(anno.rangeIndexPartitioner()), 
-                                                anno.hashIndexed() ? EIndexType.HASH : EIndexType.RANGE);
+                                                anno.hashIndexed() ? EIndexType.HASH : EIndexType.RANGE,
+                                                anno.asyncRangeIndex());
+                    idxMeta.setBackfillRequired(anno.rangeIndexBackfill());
                     indexes.add(idxMeta);
                     List<IndexMetadata> l = indexesByProp.get(pm);
                     if(l == null)
@@ -185,7 +218,8 @@ public class EntityMetadata<V> extends EntityMetadataBase<V>
                 l.add((SimplePropertyMetadata) p);
             }
             
-            IndexMetadata im = new IndexMetadata(familyAnno.name(), l, createPartitioner(anno.partitioner()), EIndexType.RANGE);
+            IndexMetadata im = new IndexMetadata(familyAnno.name(), l, createPartitioner(anno.partitioner()), EIndexType.RANGE, anno.async());
+            im.setBackfillRequired(anno.backfill());
             indexes.add(im);
             for(SimplePropertyMetadata p : l)
             {
@@ -212,6 +246,27 @@ public class EntityMetadata<V> extends EntityMetadataBase<V>
             entry.setValue(Collections.unmodifiableList(entry.getValue()));
         
         _indexesByProp = indexesByProp;
+        _collectionIndexes = Collections.unmodifiableMap(collectionIndexes);
+    }
+
+    /*
+     * describe the indexed entries of a collection. The property is named after the collection so it can be referenced by name, e.g. to
+     * load the collection, but it has no getter or setter.
+     */
+    private SimplePropertyMetadata collectionEntryProperty(PropertyMetadataBase pm, ECollectionIndexType type)
+    {
+        PropertyMetadataBase entryMeta;
+        if(pm.getPropertyType() == EPropertyType.LIST)
+            entryMeta = ((ListPropertyMetadata) pm).getElementPropertyMetadata();
+        else if(type == ECollectionIndexType.KEYS)
+            entryMeta = ((MapPropertyMetadata) pm).getKeyPropertyMetadata();
+        else
+            entryMeta = ((MapPropertyMetadata) pm).getValuePropertyMetadata();
+        
+        if(entryMeta.getPropertyType() != EPropertyType.SIMPLE || entryMeta.hasCounter())
+            throw new IllegalStateException(pm.getName() + ": collection cannot be indexed, entries are not a simple type: " + entryMeta.getPropertyType());
+        
+        return new SimplePropertyMetadata(pm.getName(), entryMeta.getFieldType(), null, pm.getPhysicalName(), pm.ttl(), null, null, null, false);
     }
 
     private static int ttlValue(Class<?> clazz)
@@ -285,6 +340,16 @@ public class EntityMetadata<V> extends EntityMetadataBase<V>
         return l == null ? Collections.<IndexMetadata>emptyList() : l;
     }
     
+    /**
+     * get the range index on the entries of a map or list property.
+     * @param pm the collection property
+     * @return the index, null if the collection is not indexed
+     */
+    public IndexMetadata getCollectionIndex(PropertyMetadataBase pm)
+    {
+        return _collectionIndexes.get(pm);
+    }
+    
     public SimplePropertyMetadata getKeyMetadata()
     {
         return _keyMeta;
@@ -300,6 +365,27 @@ public class EntityMetadata<V> extends EntityMetadataBase<V>
         return _familyNameBytes;
     }
     
+    /**
+     * @return the row keys of all WAL shards
+     */
+    public List<byte[]> getWalRowKeys()
+    {
+        return _walRowKeys;
+    }
+    
+    /**
+     * get the WAL row used for a row key.
+     * @param keyBytes the serialized row key
+     * @return the WAL row key
+     */
+    public byte[] getWalRowKey(byte[] keyBytes)
+    {
+        if(_walRowKeys.size() == 1)
+            return _familyNameBytes;
+        
+        return _walRowKeys.get((Arrays.hashCode(keyBytes) & Integer.MAX_VALUE) % _walRowKeys.size());
+    }
+    
     public String getIndexFamilyName()
     {
         return _idxFamilyName;
@@ -192,7 +192,7 @@ public class EntityMetadataBase<V>
         return _propsByName.get(name);
     }
 
-    public final int getPropertyPosition(SimplePropertyMetadata pm)
+    public final int getPropertyPosition(PropertyMetadataBase pm)
     {
         return _propPositions.get(pm);
     }
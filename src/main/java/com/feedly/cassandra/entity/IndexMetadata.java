@@ -2,7 +2,10 @@ package com.feedly.cassandra.entity;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import com.feedly.cassandra.IIndexRowPartitioner;
 
@@ -14,18 +17,37 @@ import com.feedly.cassandra.IIndexRowPartitioner;
 public class IndexMetadata
 {
     private final EIndexType _type;
-    private final IIndexRowPartitioner _indexPartitioner;
+    private volatile Partitioners _partitioners; //replaced as a whole so readers never see a mix of two migration states
     private final List<SimplePropertyMetadata> _indexedProps;
+    private final PropertyMetadataBase _collectionProp;
+    private final ECollectionIndexType _collectionIndexType;
     private final String _id;
+    private final boolean _async;
+    private boolean _backfillRequired;
     
     public IndexMetadata(String cfName,
                          List<SimplePropertyMetadata> indexedProps,
                          IIndexRowPartitioner indexPartitioner,
                          EIndexType idxType) 
     {
+        this(cfName, indexedProps, indexPartitioner, idxType, false);
+    }
+    
+    public IndexMetadata(String cfName,
+                         List<SimplePropertyMetadata> indexedProps,
+                         IIndexRowPartitioner indexPartitioner,
+                         EIndexType idxType,
+                         boolean async) 
+    {
+        if(async && idxType != EIndexType.RANGE)
+            throw new IllegalArgumentException("only range indexes may be maintained asynchronously");
+        
         _type = idxType;
+        _async = async;
         _indexedProps = Collections.unmodifiableList(new ArrayList<SimplePropertyMetadata>(indexedProps));
-        _indexPartitioner = indexPartitioner;
+        _partitioners = new Partitioners(indexPartitioner, null);
+        _collectionProp = null;
+        _collectionIndexType = null;
         
         StringBuilder id = new StringBuilder();
         boolean first = true;
@@ -42,11 +64,58 @@ public class IndexMetadata
         _id = id.toString();
     }
     
+    /**
+     * create a range index on the entries of a map or list.
+     * @param collectionProp the map or list property
+     * @param collectionIndexType the indexed part of a map, lists always index their elements
+     * @param entryProp describes the indexed entries, named after the collection property
+     * @param indexPartitioner the partitioner
+     * @param async true if index updates are written in the background
+     */
+    public IndexMetadata(PropertyMetadataBase collectionProp,
+                         ECollectionIndexType collectionIndexType,
+                         SimplePropertyMetadata entryProp,
+                         IIndexRowPartitioner indexPartitioner,
+                         boolean async)
+    {
+        if(collectionProp.getPropertyType() == EPropertyType.SIMPLE || collectionProp.getPropertyType() == EPropertyType.OBJECT)
+            throw new IllegalArgumentException(collectionProp.getName() + ": not a collection");
+        
+        _type = EIndexType.RANGE;
+        _async = async;
+        _indexedProps = Collections.singletonList(entryProp);
+        _partitioners = new Partitioners(indexPartitioner, null);
+        _collectionProp = collectionProp;
+        _collectionIndexType = collectionProp.getPropertyType() == EPropertyType.LIST ? ECollectionIndexType.VALUES : collectionIndexType;
+        _id = collectionProp.getPhysicalName() + "." + _collectionIndexType.name().toLowerCase();
+    }
+    
     public EIndexType getType()
     {
         return _type;
     }
 
+    /**
+     * @return true if index updates are written in the background
+     */
+    public boolean isAsync()
+    {
+        return _async;
+    }
+
+    /**
+     * @return true if finds may not use the index until a backfill has completed
+     */
+    public boolean isBackfillRequired()
+    {
+        return _backfillRequired;
+    }
+    
+    void setBackfillRequired(boolean backfillRequired)
+    {
+        _backfillRequired = backfillRequired;
+    }
+
     
     @Override
     public boolean equals(Object obj)
@@ -75,13 +144,138 @@ public class IndexMetadata
         return _id.hashCode();
     }
 
+    /**
+     * @return the partitioner used to read and write index entries
+     */
     public IIndexRowPartitioner getIndexPartitioner()
     {
-        return _indexPartitioner;
+        return _partitioners.getIndexPartitioner();
+    }
+
+    /**
+     * @return the partitioner of the other layout while the index is migrated to a new partitioner, null otherwise. Index entries are
+     * written to both layouts during a migration.
+     */
+    public IIndexRowPartitioner getMigrationPartitioner()
+    {
+        return _partitioners.getMigrationPartitioner();
     }
 
+    /**
+     * get both partitioners at once, use when both are needed as they may change between separate get calls.
+     * @return the current partitioners
+     */
+    public Partitioners getPartitioners()
+    {
+        return _partitioners;
+    }
+
+    /**
+     * change the index partitioners, used when migrating an index to a new partitioner.
+     * @param indexPartitioner the partitioner used to read and write index entries
+     * @param migrationPartitioner the partitioner of the layout also written to, may be null
+     */
+    public synchronized void setIndexPartitioners(IIndexRowPartitioner indexPartitioner, IIndexRowPartitioner migrationPartitioner)
+    {
+        if(indexPartitioner == null)
+            throw new IllegalArgumentException("index partitioner is null");
+
+        _partitioners = new Partitioners(indexPartitioner, migrationPartitioner);
+    }
+
+    /**
+     * @return the indexed properties. A collection index has a single property describing its entries, it is not an entity property.
+     */
     public List<SimplePropertyMetadata> getIndexedProperties()
     {
         return _indexedProps;
     }
+    
+    /**
+     * @return the entity properties index values are read from, the collection for collection indexes
+     */
+    public List<? extends PropertyMetadataBase> getSourceProperties()
+    {
+        return _collectionProp == null ? _indexedProps : Collections.singletonList(_collectionProp);
+    }
+    
+    /**
+     * @return the indexed map or list property, null if this is not a collection index
+     */
+    public PropertyMetadataBase getCollectionProperty()
+    {
+        return _collectionProp;
+    }
+    
+    /**
+     * @return the indexed part of the collection, null if this is not a collection index
+     */
+    public ECollectionIndexType getCollectionIndexType()
+    {
+        return _collectionIndexType;
+    }
+    
+    public boolean isCollectionIndex()
+    {
+        return _collectionProp != null;
+    }
+    
+    /**
+     * get the values indexed for a collection. Map entries with null values are not indexed, puts remove them from the map.
+     * @param collection the map or list, may be null
+     * @return the distinct indexed values
+     */
+    public Set<Object> collectionValues(Object collection)
+    {
+        Set<Object> rv = new LinkedHashSet<Object>();
+        if(collection instanceof Map)
+        {
+            for(Map.Entry<?, ?> entry : ((Map<?, ?>) collection).entrySet())
+            {
+                if(entry.getValue() != null)
+                    rv.add(_collectionIndexType == ECollectionIndexType.KEYS ? entry.getKey() : entry.getValue());
+            }
+        }
+        else if(collection != null)
+        {
+            for(Object element : (List<?>) collection)
+            {
+                if(element != null)
+                    rv.add(element);
+            }
+        }
+        
+        return rv;
+    }
+
+    /**
+     * an immutable pair of the index and migration partitioners.
+     */
+    public static final class Partitioners
+    {
+        private final IIndexRowPartitioner _indexPartitioner;
+        private final IIndexRowPartitioner _migrationPartitioner;
+
+        private Partitioners(IIndexRowPartitioner indexPartitioner, IIndexRowPartitioner migrationPartitioner)
+        {
+            _indexPartitioner = indexPartitioner;
+            _migrationPartitioner = migrationPartitioner;
+        }
+
+        /**
+         * @return the partitioner used to read and write index entries
+         */
+        public IIndexRowPartitioner getIndexPartitioner()
+        {
+            return _indexPartitioner;
+        }
+
+        /**
+         * @return the partitioner of the other layout during a migration, null otherwise
+         */
+        public IIndexRowPartitioner getMigrationPartitioner()
+        {
+            return _migrationPartitioner;
+        }
+    }
 }
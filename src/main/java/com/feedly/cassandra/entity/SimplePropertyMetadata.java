@@ -3,9 +3,17 @@ package com.feedly.cassandra.entity;
 import java.lang.annotation.Annotation;
 import java.lang.reflect.Method;
 import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
 
+import me.prettyprint.cassandra.serializers.DynamicCompositeSerializer;
+import me.prettyprint.cassandra.serializers.StringSerializer;
 import me.prettyprint.hector.api.Serializer;
+import me.prettyprint.hector.api.beans.DynamicComposite;
 
+import com.feedly.cassandra.anno.Column;
 import com.feedly.cassandra.dao.CounterColumn;
 
 /**
@@ -15,8 +23,13 @@ import com.feedly.cassandra.dao.CounterColumn;
  */
 public class SimplePropertyMetadata extends PropertyMetadataBase
 {
+    public static final char COUNTER_SHARD_SEPARATOR = '#';
+    private static final Random _shardRandom = new Random();
+    
     private final Serializer<?> _serializer;
     private final boolean _isCounter;
+    private final ECounterShardStrategy _shardStrategy;
+    private final List<byte[]> _shardNameBytes;
     
     @SuppressWarnings("unchecked")
     public SimplePropertyMetadata(String name,
@@ -48,6 +61,48 @@ public class SimplePropertyMetadata extends PropertyMetadataBase
         {
             throw new IllegalArgumentException(name + ": invalid type. cannot serialize " + fieldClass.getName());
         }
+        
+        int shards = 1;
+        ECounterShardStrategy strategy = ECounterShardStrategy.RANDOM;
+        for(Annotation a : getAnnotations())
+        {
+            if(a instanceof Column)
+            {
+                shards = ((Column) a).counterShards();
+                strategy = ((Column) a).counterShardStrategy();
+            }
+        }
+        
+        if(shards < 1)
+            throw new IllegalArgumentException(name + ": counter shards must be positive");
+        
+        if(shards > 1 && !_isCounter)
+            throw new IllegalArgumentException(name + ": only counter columns may be sharded");
+
+        _shardStrategy = strategy;
+        if(shards > 1)
+        {
+            List<byte[]> shardNames = new ArrayList<byte[]>(shards);
+            shardNames.add(getPhysicalNameBytes());
+            for(int i = 1; i < shards; i++)
+                shardNames.add(shardNameBytes(physicalName + COUNTER_SHARD_SEPARATOR + i, useCompositeKeySerializer));
+            
+            _shardNameBytes = Collections.unmodifiableList(shardNames);
+        }
+        else
+            _shardNameBytes = Collections.singletonList(getPhysicalNameBytes());
+    }
+
+    private byte[] shardNameBytes(String name, boolean useCompositeKeySerializer)
+    {
+        if(useCompositeKeySerializer)
+        {
+            DynamicComposite dc = new DynamicComposite();
+            dc.add(name);
+            return new DynamicCompositeSerializer().toBytes(dc);
+        }
+
+        return StringSerializer.get().toBytes(name);
     }
 
  
@@ -98,4 +153,36 @@ public class SimplePropertyMetadata extends PropertyMetadataBase
         return !_isCounter;
     }
 
+    /**
+     * @return the number of physical columns a counter value is spread across
+     */
+    public int getCounterShards()
+    {
+        return _shardNameBytes.size();
+    }
+    
+    /**
+     * @return the physical column names of all counter shards, the first shard uses the unsharded column name
+     */
+    public List<byte[]> getCounterShardNameBytes()
+    {
+        return _shardNameBytes;
+    }
+    
+    /**
+     * select the counter shard to increment using the configured strategy.
+     * @return the physical column name of the shard
+     */
+    public byte[] nextCounterShardNameBytes()
+    {
+        int size = _shardNameBytes.size();
+        if(size == 1)
+            return _shardNameBytes.get(0);
+        
+        if(_shardStrategy == ECounterShardStrategy.THREAD)
+            return _shardNameBytes.get((int) (Thread.currentThread().getId() % size));
+        
+        return _shardNameBytes.get(_shardRandom.nextInt(size));
+    }
+
 }
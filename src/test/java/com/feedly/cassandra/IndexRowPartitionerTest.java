@@ -0,0 +1,170 @@
+package com.feedly.cassandra;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class IndexRowPartitionerTest
+{
+    @Test
+    public void testTimeBucket()
+    {
+        TimeBucketIndexRowPartitioner partitioner = new TimeBucketIndexRowPartitioner(100);
+
+        assertEquals(partitions(0L), partitioner.partitionValue(values(0L, "a")));
+        assertEquals(partitions(0L), partitioner.partitionValue(values(99L)));
+        assertEquals(partitions(100L), partitioner.partitionValue(values(new Date(150))));
+        assertEquals(partitions(-100L), partitioner.partitionValue(values(-1L)));
+        assertEquals(partitions(-100L), partitioner.partitionValue(values(-100L)));
+
+        //only overlapping buckets are read
+        assertEquals(partitions(100L), partitioner.partitionRange(values(100L), values(199L)));
+        assertEquals(partitions(-100L, 0L, 100L, 200L), partitioner.partitionRange(values(-50L), values(new Date(250))));
+
+        assertEquals(partitions(0L), new TimeBucketIndexRowPartitioner().partitionValue(values(1000L)));
+        assertEquals(TimeBucketIndexRowPartitioner.MAX_RANGE_PARTITIONS, 
+                     partitioner.partitionRange(values(0L), values(TimeBucketIndexRowPartitioner.MAX_RANGE_PARTITIONS * 100L - 1)).size());
+
+        try
+        {
+            partitioner.partitionRange(values(0L), values(TimeBucketIndexRowPartitioner.MAX_RANGE_PARTITIONS * 100L));
+            fail("too many buckets");
+        }
+        catch(IllegalArgumentException ex)
+        {
+            //success
+        }
+
+        try
+        {
+            new TimeBucketIndexRowPartitioner(1).partitionRange(values(Long.MIN_VALUE), values(Long.MAX_VALUE));
+            fail("overflowing bucket count");
+        }
+        catch(IllegalArgumentException ex)
+        {
+            //success
+        }
+
+        try
+        {
+            partitioner.partitionValue(values("a"));
+            fail("non time value");
+        }
+        catch(IllegalArgumentException ex)
+        {
+            //success
+        }
+
+        try
+        {
+            partitioner.partitionRange(Collections.emptyList(), values(100L));
+            fail("no leading value");
+        }
+        catch(IllegalArgumentException ex)
+        {
+            //success
+        }
+    }
+
+    @Test
+    public void testHashMod()
+    {
+        HashModIndexRowPartitioner partitioner = new HashModIndexRowPartitioner(8);
+
+        Set<Object> used = new HashSet<Object>();
+        for(long i = 0; i < 100; i++)
+        {
+            List<List<Object>> p = partitioner.partitionValue(values(i, "a"));
+            assertEquals(1, p.size());
+            assertEquals(p, partitioner.partitionValue(values(i))); //only the leading value is used
+            assertEquals(p, partitioner.partitionRange(values(i, "a"), values(i, "z")));
+
+            long partition = (Long) p.get(0).get(0);
+            assertTrue(partition >= 0 && partition < 8);
+            used.add(partition);
+        }
+        assertEquals(8, used.size());
+
+        assertEquals(partitioner.partitionValue(values("abc")), partitioner.partitionValue(values("abc")));
+        assertEquals(partitioner.partitionValue(values(EConsistencyLevel.ONE)),
+                     partitioner.partitionValue(values(EConsistencyLevel.ONE)));
+
+        assertEquals(8, partitioner.partitionValue(Collections.emptyList()).size());
+        assertEquals(8, partitioner.partitionRange(values(1L), values(2L)).size());
+        assertEquals(16, new HashModIndexRowPartitioner().getNumPartitions());
+    }
+
+    @Test
+    public void testPrefix()
+    {
+        PrefixIndexRowPartitioner partitioner = new PrefixIndexRowPartitioner();
+
+        assertEquals(partitions("a"), partitioner.partitionValue(values("abc")));
+        assertEquals(partitions(""), partitioner.partitionValue(values("")));
+        assertEquals(partitions("a"), partitioner.partitionRange(values("aa"), values("az")));
+        assertEquals(partitions("a", "b", "c"), partitioner.partitionRange(values("abc"), values("cab")));
+
+        partitioner = new PrefixIndexRowPartitioner(2);
+        assertEquals(partitions("ab"), partitioner.partitionValue(values("abc")));
+        assertEquals(partitions("a"), partitioner.partitionValue(values("a")));
+        assertEquals(partitions("ab", "ac", "ad"), partitioner.partitionRange(values("abc"), values("adz")));
+
+        List<List<Object>> range = partitioner.partitionRange(values("a"), values("ab"));
+        assertEquals(Arrays.<Object>asList("a"), range.get(0));
+        assertEquals(Arrays.<Object>asList("a" + Character.MIN_VALUE), range.get(1));
+        assertEquals(Arrays.<Object>asList("ab"), range.get(range.size() - 1));
+        assertEquals('b' + 2, range.size());
+
+        try
+        {
+            partitioner.partitionRange(values("a"), values("a" + Character.MAX_VALUE));
+            fail("short start spans too many partitions");
+        }
+        catch(IllegalArgumentException ex)
+        {
+            //success
+        }
+
+        try
+        {
+            partitioner.partitionRange(values("abc"), values("bcd"));
+            fail("range too wide");
+        }
+        catch(IllegalArgumentException ex)
+        {
+            //success
+        }
+
+        try
+        {
+            partitioner.partitionValue(values(1L));
+            fail("non string value");
+        }
+        catch(IllegalArgumentException ex)
+        {
+            //success
+        }
+    }
+
+    private List<Object> values(Object... values)
+    {
+        return Arrays.asList(values);
+    }
+
+    private List<List<Object>> partitions(Object... values)
+    {
+        List<List<Object>> rv = new ArrayList<List<Object>>();
+        for(Object v : values)
+            rv.add(Collections.singletonList(v));
+
+        return rv;
+    }
+}
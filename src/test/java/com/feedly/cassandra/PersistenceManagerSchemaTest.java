@@ -16,11 +16,13 @@ import org.apache.cassandra.io.compress.SnappyCompressor;
 import org.junit.Test;
 
 import com.feedly.cassandra.anno.ColumnFamily;
+import com.feedly.cassandra.entity.enhance.AsyncIndexedBean;
 import com.feedly.cassandra.entity.enhance.CompositeIndexedBean;
 import com.feedly.cassandra.entity.enhance.CounterBean;
 import com.feedly.cassandra.entity.enhance.IndexedBean;
 import com.feedly.cassandra.entity.enhance.ListBean;
 import com.feedly.cassandra.entity.enhance.ParentCounterBean;
+import com.feedly.cassandra.entity.enhance.ShardedCounterBean;
 import com.feedly.cassandra.entity.enhance.PartitionedIndexBean;
 import com.feedly.cassandra.entity.enhance.SampleBean;
 import com.feedly.cassandra.entity.enhance.SampleBean2;
@@ -73,6 +75,7 @@ public class PersistenceManagerSchemaTest extends CassandraServiceTestBase
         
         expected.add(CounterBean.class.getAnnotation(ColumnFamily.class).name() + "_cntr");
         expected.add(ParentCounterBean.class.getAnnotation(ColumnFamily.class).name() + "_cntr");
+        expected.add(ShardedCounterBean.class.getAnnotation(ColumnFamily.class).name() + "_cntr");
 
         assertEquals(expected, counterTables);
     }
@@ -164,8 +167,10 @@ public class PersistenceManagerSchemaTest extends CassandraServiceTestBase
         String ttlBeanName = TtlBean.class.getAnnotation(ColumnFamily.class).name();
         String compositeIndexBeanName = CompositeIndexedBean.class.getAnnotation(ColumnFamily.class).name();
         String partitionedIndexBeanName = PartitionedIndexBean.class.getAnnotation(ColumnFamily.class).name();
+        String asyncIndexBeanName = AsyncIndexedBean.class.getAnnotation(ColumnFamily.class).name();
         
         boolean foundIndexBeanIdx = false, foundTtlBeanIdx = false, foundCompositeIndexBeanIdx = false, foundPartitionedIndexBeanIdx = false;
+        boolean foundAsyncIndexBeanIdx = false;
         boolean foundWal = false;
         
         for(ColumnFamilyDefinition cfdef : cluster.describeKeyspace(KEYSPACE).getCfDefs())
@@ -181,6 +186,8 @@ public class PersistenceManagerSchemaTest extends CassandraServiceTestBase
                     foundPartitionedIndexBeanIdx = true;
                 else if(name.equals(ttlBeanName + "_idx"))
                     foundTtlBeanIdx = true;
+                else if(name.equals(asyncIndexBeanName + "_idx"))
+                    foundAsyncIndexBeanIdx = true;
                 else
                     fail("unrecognized index table " + name);
             }
@@ -195,6 +202,7 @@ public class PersistenceManagerSchemaTest extends CassandraServiceTestBase
         assertTrue(foundCompositeIndexBeanIdx);
         assertTrue(foundIndexBeanIdx);
         assertTrue(foundTtlBeanIdx);
+        assertTrue(foundAsyncIndexBeanIdx);
         assertTrue(foundWal);
         assertTrue(foundPartitionedIndexBeanIdx);
     }
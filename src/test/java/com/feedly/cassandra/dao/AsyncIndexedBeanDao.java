@@ -0,0 +1,8 @@
+package com.feedly.cassandra.dao;
+
+import com.feedly.cassandra.entity.enhance.AsyncIndexedBean;
+
+public class AsyncIndexedBeanDao extends CassandraDaoBase<Long, AsyncIndexedBean>
+{
+
+}
@@ -0,0 +1,8 @@
+package com.feedly.cassandra.dao;
+
+import com.feedly.cassandra.entity.enhance.BackfillIndexedBean;
+
+public class BackfillIndexedBeanDao extends CassandraDaoBase<Long, BackfillIndexedBean>
+{
+
+}
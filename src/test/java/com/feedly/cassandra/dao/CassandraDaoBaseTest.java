@@ -17,6 +17,7 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.TreeMap;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import me.prettyprint.cassandra.serializers.AsciiSerializer;
 import me.prettyprint.cassandra.serializers.BytesArraySerializer;
@@ -34,6 +35,7 @@ import me.prettyprint.hector.api.beans.HColumn;
 import me.prettyprint.hector.api.beans.HCounterColumn;
 import me.prettyprint.hector.api.beans.Row;
 import me.prettyprint.hector.api.factory.HFactory;
+import me.prettyprint.hector.api.mutation.Mutator;
 import me.prettyprint.hector.api.query.RangeSlicesQuery;
 import me.prettyprint.hector.api.query.SliceCounterQuery;
 import me.prettyprint.hector.api.query.SliceQuery;
@@ -42,13 +44,20 @@ import org.junit.Before;
 import org.junit.Test;
 
 import com.feedly.cassandra.EConsistencyLevel;
+import com.feedly.cassandra.HashModIndexRowPartitioner;
+import com.feedly.cassandra.IIndexRowPartitioner;
+import com.feedly.cassandra.IKeyspaceFactory;
 import com.feedly.cassandra.PersistenceManager;
 import com.feedly.cassandra.entity.ByteIndicatorSerializer;
+import com.feedly.cassandra.entity.EIndexType;
 import com.feedly.cassandra.entity.EntityMetadata;
 import com.feedly.cassandra.entity.EntityUtils;
 import com.feedly.cassandra.entity.EnumSerializer;
 import com.feedly.cassandra.entity.IndexMetadata;
 import com.feedly.cassandra.entity.TestPartitioner;
+import com.feedly.cassandra.entity.enhance.AsyncIndexedBean;
+import com.feedly.cassandra.entity.enhance.BackfillIndexedBean;
+import com.feedly.cassandra.entity.enhance.CollectionIndexedBean;
 import com.feedly.cassandra.entity.enhance.CompositeIndexedBean;
 import com.feedly.cassandra.entity.enhance.CounterBean;
 import com.feedly.cassandra.entity.enhance.ESampleEnum;
@@ -63,6 +72,7 @@ import com.feedly.cassandra.entity.enhance.ParentBean;
 import com.feedly.cassandra.entity.enhance.ParentCounterBean;
 import com.feedly.cassandra.entity.enhance.PartitionedIndexBean;
 import com.feedly.cassandra.entity.enhance.SampleBean;
+import com.feedly.cassandra.entity.enhance.ShardedCounterBean;
 import com.feedly.cassandra.entity.enhance.SortedMapBean;
 import com.feedly.cassandra.entity.enhance.TtlBean;
 import com.feedly.cassandra.test.CassandraServiceTestBase;
@@ -365,6 +375,239 @@ public class CassandraDaoBaseTest extends CassandraServiceTestBase
         }
     }
     
+    @Test
+    public void testWriteBehindPut()
+    {
+        CounterBeanDao dao = new CounterBeanDao();
+        dao.setKeyspaceFactory(_pm);
+        dao.setWriteBehindInterval(60000);
+        dao.init();
+        
+        try
+        {
+            PutOptions options = new PutOptions();
+            options.setWriteBehind(true);
+            
+            CounterBean bean = new CounterBean();
+            bean.setRowKey(1L);
+            bean.setCounterVal(new CounterColumn(5));
+            dao.put(bean, options);
+            assertTrue(((IEnhancedEntity) bean).getModifiedFields().isEmpty());
+            
+            bean.getCounterVal().setIncrement(7);
+            dao.put(bean, options);
+            
+            //nothing written until flushed
+            assertNull(dao.get(1L));
+            assertEquals(0, dao.writeBehindStats().getNumOps());
+            
+            dao.flush();
+            assertEquals(12, dao.get(1L).getCounterVal().value());
+            assertEquals(1, dao.writeBehindStats().getNumOps());
+            assertEquals(1, dao.writeBehindStats().getNumRows());
+            
+            //write behind must be enabled
+            try
+            {
+                _counterDao.put(bean, options);
+                fail("write behind not enabled");
+            }
+            catch(IllegalStateException ex)
+            {
+                //success
+            }
+        }
+        finally
+        {
+            dao.destroy();
+        }
+    }
+    
+    @Test
+    public void testWriteBehindRetry()
+    {
+        IKeyspaceFactory factory = new IKeyspaceFactory()
+        {
+            @Override
+            public Keyspace createKeyspace(EConsistencyLevel level)
+            {
+                return _pm.createKeyspace(level == null ? EConsistencyLevel.ONE : level);
+            }
+        };
+        
+        final AtomicBoolean failBefore = new AtomicBoolean(), failAfter = new AtomicBoolean();
+        EntityMetadata<CounterBean> meta = new EntityMetadata<CounterBean>(CounterBean.class);
+        PutHelper<Long, CounterBean> putHelper = new PutHelper<Long, CounterBean>(meta, factory, 0)
+        {
+            @Override
+            public void mput(Collection<CounterBean> values, PutOptions options, Progress progress)
+            {
+                if(failBefore.getAndSet(false))
+                    throw new IllegalStateException("failed before row write");
+                
+                super.mput(values, options, progress);
+                
+                if(failAfter.getAndSet(false)) //e.g. WAL cleanup
+                    throw new IllegalStateException("failed after row write");
+            }
+        };
+        
+        WriteBehindBuffer<Long, CounterBean> buffer = new WriteBehindBuffer<Long, CounterBean>(meta, factory, putHelper, 60000, 1000, 0);
+        buffer.init();
+        
+        try
+        {
+            CounterBean bean = new CounterBean();
+            bean.setRowKey(1L);
+            bean.setCounterVal(new CounterColumn(5));
+            buffer.mput(Collections.singleton(bean), new PutOptions());
+            
+            //the row was written, it must not be written again
+            failAfter.set(true);
+            try
+            {
+                buffer.flush();
+                fail("flush failed");
+            }
+            catch(IllegalStateException ex)
+            {
+                //success
+            }
+            assertEquals(0, buffer.size());
+            buffer.flush();
+            assertEquals(5, _counterDao.get(1L).getCounterVal().value());
+            
+            //nothing was written, the increment is retried
+            bean.getCounterVal().setIncrement(3);
+            buffer.mput(Collections.singleton(bean), new PutOptions());
+            failBefore.set(true);
+            try
+            {
+                buffer.flush();
+                fail("flush failed");
+            }
+            catch(IllegalStateException ex)
+            {
+                //success
+            }
+            assertEquals(1, buffer.size());
+            
+            bean.getCounterVal().setIncrement(2); //merged with the requeued increment
+            buffer.mput(Collections.singleton(bean), new PutOptions());
+            buffer.flush();
+            assertEquals(0, buffer.size());
+            assertEquals(10, _counterDao.get(1L).getCounterVal().value());
+        }
+        finally
+        {
+            buffer.destroy();
+        }
+    }
+    
+    @Test
+    public void testCounterAccumulation()
+    {
+        CounterBeanDao dao = new CounterBeanDao();
+        dao.setKeyspaceFactory(_pm);
+        dao.setCounterFlushInterval(60000);
+        dao.setMergePendingCounters(true);
+        dao.init();
+
+        try
+        {
+            CounterBean bean = new CounterBean();
+            bean.setRowKey(1L);
+            bean.setCounterVal(new CounterColumn(5));
+            dao.put(bean);
+            assertTrue(((IEnhancedEntity) bean).getModifiedFields().isEmpty());
+
+            //nothing written until flushed
+            assertNull(dao.get(1L));
+
+            dao.flush();
+            assertEquals(5, dao.get(1L).getCounterVal().value());
+            assertEquals(1, dao.counterFlushStats().getNumCassandraOps());
+
+            bean.getCounterVal().setIncrement(3);
+            dao.put(bean);
+            bean.getCounterVal().setIncrement(4);
+            dao.put(bean);
+
+            //pending increments are merged on read
+            assertEquals(12, dao.get(1L).getCounterVal().value());
+            assertEquals(1, dao.counterFlushStats().getNumCassandraOps());
+
+            dao.flush();
+            assertEquals(2, dao.counterFlushStats().getNumCassandraOps());
+            assertEquals(2, dao.counterFlushStats().getNumCols());
+            assertEquals(12, _counterDao.get(1L).getCounterVal().value());
+            
+            //deleting a counter discards its pending increments
+            bean.getCounterVal().setIncrement(2);
+            dao.put(bean);
+            CounterBean deleted = new CounterBean();
+            deleted.setRowKey(1L);
+            deleted.setCounterVal(null);
+            dao.put(deleted);
+            assertNull(dao.get(1L));
+            dao.flush();
+            assertNull(_counterDao.get(1L));
+            
+            bean = new CounterBean();
+            bean.setRowKey(1L);
+            bean.setCounterVal(new CounterColumn(7));
+            dao.put(bean);
+            dao.delete(1L);
+            assertNull(dao.get(1L));
+            dao.flush();
+            assertNull(_counterDao.get(1L));
+        }
+        finally
+        {
+            dao.destroy();
+        }
+    }
+
+    @Test
+    public void testShardedCounter()
+    {
+        ShardedCounterBeanDao dao = new ShardedCounterBeanDao();
+        dao.setKeyspaceFactory(_pm);
+        dao.init();
+
+        try
+        {
+            for(int i = 0; i < 20; i++)
+            {
+                ShardedCounterBean bean = new ShardedCounterBean();
+                bean.setRowKey(1L);
+                bean.setCounterVal(new CounterColumn(i));
+                bean.setThreadCounterVal(new CounterColumn(1));
+                dao.put(bean);
+            }
+
+            //shards are summed on read
+            ShardedCounterBean actual = dao.get(1L);
+            assertEquals(190, actual.getCounterVal().value());
+            assertEquals(20, actual.getThreadCounterVal().value());
+            
+            actual = dao.get(1L, null, new GetOptions(Collections.singleton("counterVal"), null));
+            assertEquals(190, actual.getCounterVal().value());
+            assertNull(actual.getThreadCounterVal());
+
+            //deletes remove all shards
+            actual.setCounterVal(null);
+            dao.put(actual);
+            actual = dao.get(1L);
+            assertNull(actual.getCounterVal());
+            assertEquals(20, actual.getThreadCounterVal().value());
+        }
+        finally
+        {
+            dao.destroy();
+        }
+    }
+    
     @Test
     public void testColumnFamilyTtl() throws InterruptedException
     {
@@ -2544,6 +2787,34 @@ public class CassandraDaoBaseTest extends CassandraServiceTestBase
         assertBeansEqual(expecteds, idxActuals);
     }
     
+    @Test
+    public void testHashFindFilterPushdown() throws Exception
+    {
+        List<IndexedBean> beans = new ArrayList<IndexedBean>();
+        for(long i = 0; i < 100; i++)
+        {
+            IndexedBean idxBean = new IndexedBean();
+            idxBean.setRowKey(i);
+            idxBean.setIntVal((int) i % 2);
+            idxBean.setStrVal2("v" + i % 10);
+            beans.add(idxBean);
+        }
+        _indexedDao.mput(beans);
+        
+        IndexedBean template = new IndexedBean();
+        template.setIntVal(1);
+        template.setStrVal2("v3");
+        
+        long rows = _indexedDao.hashFindStats().getNumRows();
+        List<IndexedBean> found = new ArrayList<IndexedBean>(_indexedDao.mfind(template));
+        assertEquals(10, found.size());
+        for(IndexedBean bean : found)
+            assertEquals(3, bean.getRowKey() % 10);
+        
+        //non matching rows are filtered by cassandra, not transferred
+        assertEquals(10, _indexedDao.hashFindStats().getNumRows() - rows);
+    }
+    
     @Test
     public void testHashFindPartialColRange() throws Exception
     {
@@ -2958,116 +3229,985 @@ public class CassandraDaoBaseTest extends CassandraServiceTestBase
     }
     
     @Test
-    public void testRangeIndexFind() throws Exception
+    public void testRangeIndexUpdateRemoveStale() throws Exception
     {
-        int numBeans = CassandraDaoBase.ROW_RANGE_SIZE;
-        List<IndexedBean> idxBeans = new ArrayList<IndexedBean>();
-        List<CompositeIndexedBean> cIdxBeans = new ArrayList<CompositeIndexedBean>();
-        for(int i = 0; i < numBeans; i++)
-        {
-            IndexedBean idxBean = new IndexedBean();
-            idxBean.setRowKey(new Long(i));
-            idxBean.setCharVal('c');
-            idxBean.setIntVal(i);
-            idxBean.setIntVal2(i);
-            idxBean.setLongVal(i/10L);
-            idxBean.setStrVal("strval");
-            idxBean.setStrVal2(null);
-
-            idxBeans.add(idxBean);
-
-            CompositeIndexedBean cIdxBean = new CompositeIndexedBean();
-            cIdxBean.setCharVal('c');
-            cIdxBean.setRowKey(new Long(i));
-            cIdxBean.setIntVal(i);
-            cIdxBean.setLongVal(i/10);
-            cIdxBean.setStrVal("strval");
-            
-            cIdxBeans.add(cIdxBean);
-        }
+        PutOptions options = new PutOptions();
+        options.setRemoveStaleIndexValues(true);
         
-        _indexedDao.mput(idxBeans);
-        _compositeIndexedDao.mput(cIdxBeans);
+        IndexedBean idxBean = new IndexedBean();
+        idxBean.setRowKey(0L);
+        idxBean.setLongVal(100L);
+        idxBean.setStrVal("sv");
+        idxBean.setStrVal2("sv2");
+        _indexedDao.put(idxBean, options);
         
-        assertEquals(1, _indexedDao.putIndexStats().getNumOps());
-        assertEquals(3*numBeans, _indexedDao.putIndexStats().getNumCols());
-        assertEquals(3*numBeans+2, _indexedDao.putIndexStats().getNumCassandraOps());
-        assertEquals(numBeans, _indexedDao.putIndexStats().getNumRows());
+        idxBean.setLongVal(200L);
+        _indexedDao.put(idxBean, options);
 
+        IndexedBean start = new IndexedBean(), end = new IndexedBean();
+        start.setLongVal(0L);
+        end.setLongVal(500L);
         
-        IndexedBean idxTmpl = new IndexedBean();
-        idxTmpl.setLongVal(5L);
-        List<IndexedBean> idxActuals = new ArrayList<IndexedBean>(_indexedDao.mfind(idxTmpl));
-
-        Collections.sort(idxActuals);
-        assertBeansEqual(idxBeans.subList(50, 60), idxActuals);
-        for(IndexedBean idxBean : idxActuals)
-            assertTrue(((IEnhancedEntity) idxBean).getModifiedFields().isEmpty());
+        //old entry was removed on write, nothing stale to encounter
+        Collection<IndexedBean> actuals = _indexedDao.mfindBetween(start, end);
+        assertEquals(1, actuals.size());
+        assertEquals(200L, actuals.iterator().next().getLongVal());
+        assertEquals(0, _indexedStrategy.records.size());
 
-        idxTmpl = new IndexedBean();
-        idxTmpl.setLongVal(5L);
-        idxTmpl.setIntVal2(55); //add post fetch filter...
-        idxActuals = new ArrayList<IndexedBean>(_indexedDao.mfind(idxTmpl));
-        assertBeansEqual(Collections.singletonList(idxBeans.get(55)), idxActuals);
+        //rewriting the same value must not remove the entry
+        idxBean.setLongVal(200L);
+        _indexedDao.put(idxBean, options);
+        assertEquals(1, _indexedDao.mfindBetween(start, end).size());
         
-        CompositeIndexedBean cIdxTmpl = new CompositeIndexedBean();
-        cIdxTmpl.setLongVal(5);
-        List<CompositeIndexedBean> cIdxActuals = new ArrayList<CompositeIndexedBean>(_compositeIndexedDao.mfind(cIdxTmpl));
-
-        Collections.sort(cIdxActuals);
-        assertBeansEqual(cIdxBeans.subList(50, 60), cIdxActuals);
-        for(CompositeIndexedBean cIdxBean : cIdxActuals)
-            assertTrue(((IEnhancedEntity) cIdxBean).getModifiedFields().isEmpty());
+        //nulling the value removes the entry
+        idxBean.setLongVal(null);
+        _indexedDao.put(idxBean, options);
+        assertEquals(0, _indexedDao.mfindBetween(start, end).size());
+        assertEquals(0, _indexedStrategy.records.size());
+    }
+    
+    @Test
+    public void testRangeIndexDeleteRemoveIndexValues() throws Exception
+    {
+        for(long i = 0; i < 3; i++)
+        {
+            IndexedBean idxBean = new IndexedBean();
+            idxBean.setRowKey(i);
+            idxBean.setLongVal(100L);
+            idxBean.setStrVal("sv");
+            idxBean.setStrVal2("sv2");
+            _indexedDao.put(idxBean);
+        }
 
+        IndexedBean start = new IndexedBean(), end = new IndexedBean();
+        start.setLongVal(0L);
+        end.setLongVal(500L);
+        
+        DeleteOptions options = new DeleteOptions();
+        options.setRemoveIndexValues(true);
+        _indexedDao.mdelete(Arrays.asList(0L, 5L), options); //includes a non existent row
         
+        assertEquals(2, _indexedDao.mfindBetween(start, end).size());
         assertEquals(0, _indexedStrategy.records.size());
-        assertEquals(0, _compositeStrategy.records.size());
         
-        int idx = 50;
-        for(IndexedBean bean : idxBeans.subList(50, 55))
+        //by default entries are left behind
+        _indexedDao.delete(1L);
+        assertEquals(1, _indexedDao.mfindBetween(start, end).size());
+        assertEquals(1, _indexedStrategy.records.size());
+    }
+    
+    @Test
+    public void testDeleteBetween() throws Exception
+    {
+        int numBeans = CassandraDaoBase.ROW_RANGE_SIZE * 2 + 50;
+        List<IndexedBean> beans = new ArrayList<IndexedBean>();
+        for(long i = 0; i < numBeans; i++)
         {
-            bean.setStrVal2(null);
-            bean.setLongVal(idx++ % 2 == 0 ? -1L : null);
+            IndexedBean idxBean = new IndexedBean();
+            idxBean.setRowKey(i);
+            idxBean.setLongVal(i);
+            idxBean.setStrVal2("sv2");
+            beans.add(idxBean);
         }
+        _indexedDao.mput(beans);
+
+        IndexedBean start = new IndexedBean(), end = new IndexedBean();
+        start.setLongVal(50L);
+        end.setLongVal(199L);
+        assertEquals(150, _indexedDao.mdeleteBetween(start, end));
         
-        _indexedDao.mput(idxBeans.subList(50, 55));
-        idxTmpl = new IndexedBean();
-        idxTmpl.setLongVal(5L);
-        idxActuals = new ArrayList<IndexedBean>(_indexedDao.mfind(idxTmpl));
-        Collections.sort(idxActuals);
-        assertBeansEqual(idxBeans.subList(55, 60), idxActuals);
-        assertEquals(1, _indexedStrategy.records.size());
-        
-        StaleIndexUpdateRecord record = _indexedStrategy.records.get(0);
-        DynamicCompositeSerializer compositeSer = new DynamicCompositeSerializer();
+        assertNull(_indexedDao.get(50L));
+        assertNull(_indexedDao.get(199L));
+        assertEquals(beans.get(49), _indexedDao.get(49L));
+        assertEquals(beans.get(200), _indexedDao.get(200L));
 
-        Set<Long> actualStaleRowKeys = new HashSet<Long>();
-        Set<Long> expectedStaleRowKeys = new HashSet<Long>();
-        /*
-         * validate the clock values
-         */
-        for(StaleIndexValue stale : record.values)
+        //entries of both indexes were removed
+        start.setLongVal(0L);
+        end.setLongVal((long) numBeans);
+        assertEquals(numBeans - 150, _indexedDao.mfindBetween(start, end).size());
+        
+        IndexedBean tmpl = new IndexedBean();
+        tmpl.setStrVal2("sv2");
+        assertEquals(numBeans - 150, _indexedDao.mfind(tmpl).size());
+        assertEquals(0, _indexedStrategy.records.size());
+        
+        tmpl = new IndexedBean();
+        tmpl.setLongVal(10L);
+        assertEquals(1, _indexedDao.mdeleteByTemplate(tmpl));
+        assertNull(_indexedDao.get(10L));
+        assertEquals(0, _indexedDao.mfind(tmpl).size());
+        assertEquals(0, _indexedStrategy.records.size());
+    }
+    
+    @Test
+    public void testIndexSweep() throws Exception
+    {
+        IndexedBeanDao dao = new IndexedBeanDao();
+        dao.setKeyspaceFactory(_pm);
+        dao.setStaleValueIndexStrategy(_indexedStrategy);
+        dao.setIndexSweepMinAge(0);
+        dao.init();
+        
+        try
         {
-            actualStaleRowKeys.add((Long) stale.getColumnName().get(1));
+            IndexedBean idxBean = new IndexedBean();
+            idxBean.setRowKey(0L);
+            idxBean.setLongVal(100L);
+            idxBean.setStrVal("sv");
+            idxBean.setStrVal2("sv2");
+            dao.put(idxBean);
             
-            SliceQuery<DynamicComposite,DynamicComposite,byte[]> query = 
-                    HFactory.createSliceQuery(keyspace, compositeSer, compositeSer, BytesArraySerializer.get());
-
-            query.setKey(stale.getRowKey());
-            query.setColumnNames(stale.getColumnName());
-            query.setColumnFamily("indexedbean_idx");
-            List<HColumn<DynamicComposite,byte[]>> columns = query.execute().get().getColumns();
-            assertEquals(1, columns.size());
-            assertEquals(stale.getClock(), columns.get(0).getClock());
+            idxBean.setLongVal(200L);
+            dao.put(idxBean);
+            
+            IndexedBean deleted = new IndexedBean();
+            deleted.setRowKey(1L);
+            deleted.setLongVal(50L);
+            deleted.setStrVal("sv");
+            deleted.setStrVal2("sv2");
+            dao.put(deleted);
+            dao.delete(1L);
+            
+            //one stale entry per range index for the update, one per index for the delete
+            assertEquals(6, dao.sweepIndexes());
+            assertEquals(0, dao.sweepIndexes());
+            
+            IndexedBean start = new IndexedBean(), end = new IndexedBean();
+            start.setLongVal(0L);
+            end.setLongVal(500L);
+            Collection<IndexedBean> actuals = dao.mfindBetween(start, end);
+            assertEquals(1, actuals.size());
+            assertEquals(200L, actuals.iterator().next().getLongVal());
+            assertEquals(0, _indexedStrategy.records.size());
         }
-        assertEquals(5, record.values.size());
-        for(IndexedBean i : idxBeans.subList(50, 55))
-            expectedStaleRowKeys.add(i.getRowKey());
-        
-        assertEquals(expectedStaleRowKeys, actualStaleRowKeys);
-        
-        /*
-         * do a between find
+        finally
+        {
+            dao.destroy();
+        }
+    }
+    
+    @Test
+    public void testIndexBackfill() throws Exception
+    {
+        int numBeans = 250;
+        List<IndexedBean> beans = new ArrayList<IndexedBean>();
+        for(long i = 0; i < numBeans; i++)
+        {
+            IndexedBean idxBean = new IndexedBean();
+            idxBean.setRowKey(i);
+            idxBean.setLongVal(i);
+            idxBean.setStrVal2("sv2");
+            beans.add(idxBean);
+        }
+        _indexedDao.mput(beans);
+        
+        //simulate a newly added index by removing its entries
+        DynamicComposite idxRowKey = new DynamicComposite();
+        idxRowKey.add("longVal");
+        idxRowKey.add(Byte.valueOf((byte) 0));
+        Mutator<DynamicComposite> mutator = HFactory.createMutator(keyspace, new DynamicCompositeSerializer());
+        mutator.addDeletion(idxRowKey, "indexedbean_idx");
+        mutator.execute();
+        
+        IndexedBean start = new IndexedBean(), end = new IndexedBean();
+        start.setLongVal(0L);
+        end.setLongVal((long) numBeans);
+        assertEquals(0, _indexedDao.mfindBetween(start, end).size());
+        
+        IndexedBeanDao dao = new IndexedBeanDao();
+        dao.setKeyspaceFactory(_pm);
+        dao.setStaleValueIndexStrategy(_indexedStrategy);
+        dao.setIndexBackfillBatchSize(100);
+        dao.setIndexBackfillThreads(2);
+        dao.init();
+        
+        try
+        {
+            assertEquals(numBeans, dao.backfillIndex("longVal"));
+            assertEquals(numBeans, dao.mfindBetween(start, end).size());
+            assertEquals(1, dao.indexBackfillStats().getNumOps());
+            assertEquals(numBeans, dao.indexBackfillStats().getNumCols());
+            
+            try
+            {
+                dao.backfillIndex("strVal");
+                fail("not a range index");
+            }
+            catch(IllegalArgumentException ex)
+            {
+                //success
+            }
+        }
+        finally
+        {
+            dao.destroy();
+        }
+    }
+    
+    @Test
+    public void testIndexRequiringBackfill() throws Exception
+    {
+        BackfillIndexedBeanDao dao = new BackfillIndexedBeanDao();
+        dao.setKeyspaceFactory(_pm);
+        dao.init();
+        
+        try
+        {
+            int numBeans = 10;
+            List<BackfillIndexedBean> beans = new ArrayList<BackfillIndexedBean>();
+            for(long i = 0; i < numBeans; i++)
+            {
+                BackfillIndexedBean bean = new BackfillIndexedBean();
+                bean.setRowKey(i);
+                bean.setLongVal(i);
+                beans.add(bean);
+            }
+            dao.mput(beans);
+            
+            BackfillIndexedBean start = new BackfillIndexedBean(), end = new BackfillIndexedBean();
+            start.setLongVal(0L);
+            end.setLongVal((long) numBeans);
+            
+            //not used until backfilled
+            try
+            {
+                dao.mfindBetween(start, end);
+                fail("index not backfilled");
+            }
+            catch(IllegalStateException ex)
+            {
+                //success
+            }
+            
+            assertEquals(numBeans, dao.backfillIndex("longVal"));
+            assertEquals(numBeans, dao.mfindBetween(start, end).size());
+            
+            //completion is persisted
+            BackfillIndexedBeanDao restarted = new BackfillIndexedBeanDao();
+            restarted.setKeyspaceFactory(_pm);
+            restarted.init();
+            try
+            {
+                assertEquals(numBeans, restarted.mfindBetween(start, end).size());
+            }
+            finally
+            {
+                restarted.destroy();
+            }
+        }
+        finally
+        {
+            dao.destroy();
+        }
+    }
+    
+    @Test
+    public void testCostBasedIndexSelection() throws Exception
+    {
+        IndexedBeanDao dao = new IndexedBeanDao();
+        dao.setKeyspaceFactory(_pm);
+        dao.setStaleValueIndexStrategy(_indexedStrategy);
+        dao.setCostBasedIndexSelection(true);
+        dao.init();
+        
+        try
+        {
+            //no statistics, the hash index is chosen as it has fewer columns
+            IndexedBean template = new IndexedBean();
+            template.setIntVal(0);
+            template.setStrVal2("sv2-7");
+            assertEquals(0, dao.mfind(template).size());
+            assertEquals(1, dao.hashFindIndexStats().getNumOps());
+            assertEquals(0, dao.rangeFindIndexStats().getNumOps());
+            
+            int numBeans = 250;
+            List<IndexedBean> beans = new ArrayList<IndexedBean>();
+            for(long i = 0; i < numBeans; i++)
+            {
+                IndexedBean idxBean = new IndexedBean();
+                idxBean.setRowKey(i);
+                idxBean.setIntVal(0);
+                idxBean.setLongVal(i);
+                idxBean.setStrVal2("sv2-" + i);
+                beans.add(idxBean);
+            }
+            dao.mput(beans);
+            
+            for(IndexStatistics stats : dao.indexStatistics())
+            {
+                if(stats.getIndex().getIndexedProperties().get(0).getName().equals("intVal"))
+                {
+                    assertEquals(numBeans, stats.getNumEntriesWritten());
+                    assertEquals(1, stats.estimateDistinct(1));
+                }
+                else if(stats.getIndex().getIndexedProperties().get(0).getName().equals("strVal2"))
+                {
+                    assertEquals(numBeans, stats.getNumEntriesWritten());
+                    assertTrue(stats.estimateDistinct(1) > numBeans * 0.8);
+                    assertTrue(stats.estimateEntriesPerValue(1) < 2);
+                }
+            }
+            
+            //every row has intVal 0, the strVal2 range index is cheaper
+            assertEquals(1, dao.mfind(template).size());
+            assertEquals(1, dao.hashFindIndexStats().getNumOps());
+            assertEquals(1, dao.rangeFindIndexStats().getNumOps());
+        }
+        finally
+        {
+            dao.destroy();
+        }
+    }
+    
+    @Test
+    public void testIndexIntersection() throws Exception
+    {
+        int numBeans = 250, expected = 0;
+        List<IndexedBean> beans = new ArrayList<IndexedBean>();
+        for(long i = 0; i < numBeans; i++)
+        {
+            IndexedBean idxBean = new IndexedBean();
+            idxBean.setRowKey(i);
+            idxBean.setLongVal(i);
+            idxBean.setStrVal("s" + i % 5);
+            idxBean.setStrVal2("t" + i % 7);
+            beans.add(idxBean);
+            
+            if(i % 5 == 1 && i % 7 == 3)
+                expected++;
+        }
+        _indexedDao.mput(beans);
+        
+        IndexedBean template = new IndexedBean();
+        template.setStrVal("s1");
+        template.setStrVal2("t3");
+        
+        FindOptions options = new FindOptions();
+        options.setIndexIntersection(true);
+        Collection<IndexedBean> found = _indexedDao.mfind(template, options);
+        assertEquals(expected, found.size());
+        for(IndexedBean bean : found)
+        {
+            assertEquals(1, bean.getRowKey() % 5);
+            assertEquals(3, bean.getRowKey() % 7);
+            assertEquals(beans.get(bean.getRowKey().intValue()), bean);
+        }
+        
+        assertEquals(expected, _indexedDao.mfind(template).size()); //single index
+        
+        options.setMaxRows(2);
+        assertEquals(2, _indexedDao.mfind(template, options).size());
+        
+        template.setStrVal2("t7");
+        assertEquals(0, _indexedDao.mfind(template, options).size());
+        
+        FindPlan plan = _indexedDao.explain(template, options);
+        assertEquals(1, plan.getIntersectedPlans().size());
+        Set<String> planned = new HashSet<String>();
+        planned.add(plan.getIndex().id());
+        planned.add(plan.getIntersectedPlans().get(0).getIndex().id());
+        assertEquals(2, planned.size());
+        assertTrue(plan.getIntersectedPlans().get(0).getIntersectedPlans().isEmpty());
+        
+        assertTrue(_indexedDao.explain(template).getIntersectedPlans().isEmpty()); //single index
+    }
+    
+    @Test
+    public void testExplain() throws Exception
+    {
+        IndexedBeanDao dao = new IndexedBeanDao();
+        dao.setKeyspaceFactory(_pm);
+        dao.setStaleValueIndexStrategy(_indexedStrategy);
+        dao.init();
+        
+        try
+        {
+            IndexedBean start = new IndexedBean(), end = new IndexedBean();
+            start.setLongVal(10L);
+            end.setLongVal(20L);
+            
+            FindPlan plan = dao.explainBetween(start, end);
+            assertEquals("longVal", plan.getIndex().id());
+            assertEquals(1, plan.getPartitionKeys().size());
+            assertEquals("longVal", plan.getPartitionKeys().get(0).get(0));
+            assertEquals(10L, plan.getStartColumn().get(0));
+            assertEquals(20L, plan.getEndColumn().get(0));
+            assertNull(plan.getProjection());
+            assertEquals(-1, plan.getEstimatedRows(), 0);
+            
+            IndexedBean template = new IndexedBean();
+            template.setIntVal(5);
+            plan = dao.explain(template);
+            assertEquals(EIndexType.HASH, plan.getIndex().getType());
+            assertTrue(plan.getPartitionKeys().isEmpty());
+            assertNull(plan.getStartColumn());
+            
+            List<IndexedBean> beans = new ArrayList<IndexedBean>();
+            for(long i = 0; i < 250; i++)
+            {
+                IndexedBean idxBean = new IndexedBean();
+                idxBean.setRowKey(i);
+                idxBean.setLongVal(i);
+                beans.add(idxBean);
+            }
+            dao.mput(beans);
+            
+            template = new IndexedBean();
+            template.setLongVal(5L);
+            plan = dao.explain(template, new FindOptions(Collections.singleton("strVal"), null));
+            assertEquals("longVal", plan.getIndex().id());
+            assertEquals(new HashSet<Object>(Arrays.asList("strVal", "longVal")), plan.getProjection());
+            assertEquals(1, plan.getEstimatedRows(), 0.5);
+            assertEquals(2, plan.getEstimatedRoundTrips(), 0);
+            
+            //no rows read
+            assertEquals(0, dao.rangeFindIndexStats().getNumOps());
+            assertEquals(0, dao.hashFindIndexStats().getNumOps());
+        }
+        finally
+        {
+            dao.destroy();
+        }
+    }
+    
+    @Test
+    public void testFindIn() throws Exception
+    {
+        int numBeans = 250;
+        List<IndexedBean> beans = new ArrayList<IndexedBean>();
+        for(long i = 0; i < numBeans; i++)
+        {
+            IndexedBean idxBean = new IndexedBean();
+            idxBean.setRowKey(i);
+            idxBean.setLongVal(i / 3);
+            idxBean.setIntVal((int) i % 10);
+            beans.add(idxBean);
+        }
+        _indexedDao.mput(beans);
+        
+        Set<Long> keys = new HashSet<Long>();
+        for(IndexedBean bean : _indexedDao.mfindIn("longVal", Arrays.asList(1L, 5L, 5L, 70L, 1000L)))
+        {
+            assertTrue(keys.add(bean.getRowKey()));
+            assertEquals(beans.get(bean.getRowKey().intValue()), bean);
+        }
+        assertEquals(new HashSet<Long>(Arrays.asList(3L, 4L, 5L, 15L, 16L, 17L, 210L, 211L, 212L)), keys);
+        
+        //hash index
+        keys.clear();
+        for(IndexedBean bean : _indexedDao.mfindIn("intVal", Arrays.asList(1, 2)))
+        {
+            assertTrue(bean.getIntVal() == 1 || bean.getIntVal() == 2);
+            assertTrue(keys.add(bean.getRowKey()));
+        }
+        assertEquals(50, keys.size());
+        
+        FindOptions options = new FindOptions();
+        options.setMaxRows(4);
+        assertEquals(4, _indexedDao.mfindIn("longVal", Arrays.asList(1L, 5L, 70L), options).size());
+        assertEquals(4, _indexedDao.mfindIn("intVal", Arrays.asList(1, 2), options).size());
+        assertTrue(_indexedDao.mfindIn("longVal", Collections.emptyList()).isEmpty());
+        
+        try
+        {
+            _indexedDao.mfindIn("intVal2", Arrays.asList(1, 2));
+            fail("not indexed");
+        }
+        catch(IllegalStateException ex)
+        {
+            //success
+        }
+    }
+    
+    @Test
+    public void testMultiRangeFind() throws Exception
+    {
+        int numBeans = 250;
+        List<IndexedBean> beans = new ArrayList<IndexedBean>();
+        for(long i = 0; i < numBeans; i++)
+        {
+            IndexedBean idxBean = new IndexedBean();
+            idxBean.setRowKey(i);
+            idxBean.setLongVal(i);
+            beans.add(idxBean);
+        }
+        _indexedDao.mput(beans);
+        
+        List<IndexedBean> starts = new ArrayList<IndexedBean>(), ends = new ArrayList<IndexedBean>();
+        long[][] ranges = {{10, 20}, {15, 25}, {100, 105}};
+        for(long[] range : ranges)
+        {
+            IndexedBean start = new IndexedBean(), end = new IndexedBean();
+            start.setLongVal(range[0]);
+            end.setLongVal(range[1]);
+            starts.add(start);
+            ends.add(end);
+        }
+        
+        FindBetweenOptions options = new FindBetweenOptions();
+        options.setRowOrder(EFindOrder.DESCENDING);
+        List<IndexedBean> found = new ArrayList<IndexedBean>(_indexedDao.mfindBetween(starts, ends, options));
+        assertEquals(22, found.size()); //overlapping ranges returned once
+        for(int i = 0; i < 6; i++)
+            assertEquals(beans.get(105 - i), found.get(i));
+        for(int i = 6; i < found.size(); i++)
+            assertEquals(beans.get(25 - i + 6), found.get(i));
+        
+        options.setMaxRows(5);
+        found = new ArrayList<IndexedBean>(_indexedDao.mfindBetween(starts, ends, options));
+        assertEquals(beans.subList(101, 106), reverse(found));
+        
+        try
+        {
+            _indexedDao.mfindBetween(starts, ends.subList(0, 2), null);
+            fail("mismatched ranges");
+        }
+        catch(IllegalArgumentException ex)
+        {
+            //success
+        }
+    }
+    
+    @Test
+    public void testRawValueFilter() throws Exception
+    {
+        int numBeans = 250;
+        List<IndexedBean> beans = new ArrayList<IndexedBean>();
+        for(long i = 0; i < numBeans; i++)
+        {
+            IndexedBean idxBean = new IndexedBean();
+            idxBean.setRowKey(i);
+            idxBean.setLongVal(i);
+            idxBean.setIntVal2((int) i % 10);
+            beans.add(idxBean);
+        }
+        _indexedDao.mput(beans);
+        _indexedDao.delete(13L); //leaves a stale index value
+        
+        IndexedBean start = new IndexedBean(), end = new IndexedBean();
+        start.setLongVal(0L);
+        start.setIntVal2(3);
+        end.setLongVal((long) numBeans);
+        end.setIntVal2(3);
+        
+        List<IndexedBean> found = new ArrayList<IndexedBean>(_indexedDao.mfindBetween(start, end));
+        assertEquals(24, found.size());
+        for(IndexedBean b : found)
+            assertEquals(3, b.getIntVal2());
+
+        //rows rejected before loading are not stale, the deleted row is
+        assertEquals(1, _indexedStrategy.records.size());
+        assertEquals(1, _indexedStrategy.records.get(0).values.size());
+        assertEquals(13L, _indexedStrategy.records.get(0).values.iterator().next().getColumnName().get(0));
+        
+        //rows missing a filtered column load its default value, a primitive default still matches
+        beans.clear();
+        for(long i = numBeans; i < numBeans + 10; i++)
+        {
+            IndexedBean idxBean = new IndexedBean();
+            idxBean.setRowKey(i);
+            idxBean.setLongVal((long) numBeans);
+            if(i % 2 == 0)
+                idxBean.setIntVal2(5);
+            beans.add(idxBean);
+        }
+        _indexedDao.mput(beans);
+        
+        IndexedBean tmpl = new IndexedBean();
+        tmpl.setLongVal((long) numBeans);
+        tmpl.setIntVal2(0);
+        found = new ArrayList<IndexedBean>(_indexedDao.mfind(tmpl));
+        Collections.sort(found);
+        assertEquals(5, found.size());
+        for(IndexedBean b : found)
+        {
+            assertEquals(1, b.getRowKey() % 2);
+            assertEquals(0, b.getIntVal2());
+        }
+    }
+    
+    @Test
+    public void testIndexPartitionMigration() throws Exception
+    {
+        int numBeans = 100;
+        List<IndexedBean> beans = new ArrayList<IndexedBean>();
+        for(long i = 0; i < numBeans; i++)
+        {
+            IndexedBean idxBean = new IndexedBean();
+            idxBean.setRowKey(i);
+            idxBean.setLongVal(i);
+            beans.add(idxBean);
+        }
+        _indexedDao.mput(beans.subList(0, numBeans/2));
+        
+        IndexedBean start = new IndexedBean(), end = new IndexedBean();
+        start.setLongVal(0L);
+        end.setLongVal((long) numBeans);
+        
+        try
+        {
+            _indexedDao.migrateIndexPartitioner("longVal");
+            fail("migration not started");
+        }
+        catch(IllegalStateException ex)
+        {
+            //success
+        }
+        
+        try
+        {
+            _indexedDao.startIndexPartitionerMigration(new HashModIndexRowPartitioner(4)
+            {
+            }, "longVal");
+            fail("partitioner can't be restored");
+        }
+        catch(IllegalArgumentException ex)
+        {
+            //success
+        }
+        
+        _indexedDao.startIndexPartitionerMigration(new FourPartitioner(), "longVal");
+        
+        //processes started during a migration restore it
+        IndexedBeanDao restarted = new IndexedBeanDao();
+        restarted.setKeyspaceFactory(_pm);
+        restarted.setStaleValueIndexStrategy(_indexedStrategy);
+        restarted.init();
+        List<IndexedBean> found;
+        try
+        {
+            restarted.mput(beans.subList(numBeans/2, numBeans)); //written to both partitioners' rows
+            assertEquals(1, _indexedDao.explainBetween(start, end).getPartitionKeys().size());
+            assertEquals(1, restarted.explainBetween(start, end).getPartitionKeys().size());
+            assertEquals(numBeans, _indexedDao.mfindBetween(start, end).size());
+            
+            assertEquals(numBeans/2, _indexedDao.migrateIndexPartitioner("longVal"));
+            assertEquals(4, _indexedDao.explainBetween(start, end).getPartitionKeys().size());
+            found = new ArrayList<IndexedBean>(_indexedDao.mfindBetween(start, end));
+            assertEquals(numBeans, found.size());
+            assertEquals(new HashSet<IndexedBean>(beans), new HashSet<IndexedBean>(found));
+            
+            //running processes pick up the switch when refreshed
+            assertEquals(1, restarted.explainBetween(start, end).getPartitionKeys().size());
+            restarted.refreshIndexStatus();
+            assertEquals(4, restarted.explainBetween(start, end).getPartitionKeys().size());
+        }
+        finally
+        {
+            restarted.destroy();
+        }
+        
+        assertEquals(numBeans, _indexedDao.completeIndexPartitionerMigration(true, "longVal"));
+        found = new ArrayList<IndexedBean>(_indexedDao.mfindBetween(start, end));
+        assertEquals(new HashSet<IndexedBean>(beans), new HashSet<IndexedBean>(found));
+        assertEquals(numBeans, found.size());
+        assertTrue(_indexedStrategy.records.isEmpty());
+        
+        //completed migrations are restored until the annotation is changed
+        restarted = new IndexedBeanDao();
+        restarted.setKeyspaceFactory(_pm);
+        restarted.init();
+        try
+        {
+            assertEquals(4, restarted.explainBetween(start, end).getPartitionKeys().size());
+            for(IndexStatistics stats : restarted.indexStatistics())
+            {
+                if(stats.getIndex().getType() == EIndexType.RANGE && stats.getIndex().getIndexedProperties().size() == 1)
+                {
+                    assertTrue(stats.getIndex().getIndexPartitioner() instanceof FourPartitioner);
+                    assertNull(stats.getIndex().getMigrationPartitioner());
+                }
+            }
+        }
+        finally
+        {
+            restarted.destroy();
+        }
+        
+        for(IndexStatistics stats : _indexedDao.indexStatistics())
+        {
+            if(stats.getIndex().getType() == EIndexType.RANGE && stats.getIndex().getIndexedProperties().size() == 1)
+            {
+                assertEquals(1, stats.partitions().hottestWritten(10).size()); //single partition before the migration
+                assertEquals(5, stats.partitions().hottestRead(10).size());
+            }
+        }
+    }
+    
+    @Test
+    public void testIndexPartitionMigrationSharedRows() throws Exception
+    {
+        int numBeans = 100;
+        List<IndexedBean> beans = new ArrayList<IndexedBean>();
+        for(long i = 0; i < numBeans; i++)
+        {
+            IndexedBean idxBean = new IndexedBean();
+            idxBean.setRowKey(i);
+            idxBean.setLongVal(i);
+            beans.add(idxBean);
+        }
+        _indexedDao.mput(beans);
+        
+        //the lower half of the values stays in the single partitioner's row, which retains the old entries of the upper half until cleanup
+        _indexedDao.startIndexPartitionerMigration(new SharedRowPartitioner(), "longVal");
+        assertEquals(numBeans/2, _indexedDao.migrateIndexPartitioner("longVal"));
+        
+        //the upper half is read from both rows, in different batches
+        IndexedBean start = new IndexedBean(), end = new IndexedBean();
+        start.setLongVal(0L);
+        end.setLongVal((long) numBeans);
+        List<IndexedBean> found = new ArrayList<IndexedBean>(_indexedDao.mfindBetween(start, end));
+        assertEquals(numBeans, found.size());
+        assertEquals(new HashSet<IndexedBean>(beans), new HashSet<IndexedBean>(found));
+        
+        assertEquals(numBeans/2, _indexedDao.completeIndexPartitionerMigration(true, "longVal"));
+        found = new ArrayList<IndexedBean>(_indexedDao.mfindBetween(start, end));
+        assertEquals(numBeans, found.size());
+        assertTrue(_indexedStrategy.records.isEmpty());
+    }
+    
+    @Test
+    public void testCollectionIndexes() throws Exception
+    {
+        CollectionIndexedBeanDao dao = new CollectionIndexedBeanDao();
+        dao.setKeyspaceFactory(_pm);
+        dao.init();
+        
+        int numBeans = 10;
+        List<CollectionIndexedBean> beans = new ArrayList<CollectionIndexedBean>();
+        for(long i = 0; i < numBeans; i++)
+        {
+            CollectionIndexedBean bean = new CollectionIndexedBean();
+            bean.setRowKey(i);
+            Map<String, String> tags = new HashMap<String, String>();
+            tags.put(i % 2 == 0 ? "even" : "odd", "tag");
+            tags.put("k" + i, "tag");
+            bean.setTags(tags);
+            bean.setScores(Collections.singletonMap("s", i));
+            bean.setLabels(new ArrayList<String>(Arrays.asList("l" + i, "all")));
+            beans.add(bean);
+        }
+        dao.mput(beans);
+        
+        //map keys
+        CollectionIndexedBean tmpl = new CollectionIndexedBean();
+        tmpl.setTags(Collections.singletonMap("even", "ignored"));
+        List<CollectionIndexedBean> actual = new ArrayList<CollectionIndexedBean>(dao.mfind(tmpl));
+        Collections.sort(actual);
+        assertEquals(numBeans/2, actual.size());
+        for(int i = 0; i < actual.size(); i++)
+            assertEquals(beans.get(2*i), actual.get(i));
+        
+        //list elements
+        tmpl = new CollectionIndexedBean();
+        tmpl.setLabels(Collections.singletonList("l3"));
+        assertEquals(Collections.singletonList(beans.get(3)), new ArrayList<CollectionIndexedBean>(dao.mfind(tmpl)));
+        
+        //map values
+        CollectionIndexedBean start = new CollectionIndexedBean(), end = new CollectionIndexedBean();
+        start.setScores(Collections.singletonMap("any", 2L));
+        end.setScores(Collections.singletonMap("any", 5L));
+        actual = new ArrayList<CollectionIndexedBean>(dao.mfindBetween(start, end));
+        Collections.sort(actual);
+        assertEquals(beans.subList(2, 6), actual);
+        
+        try
+        {
+            tmpl = new CollectionIndexedBean();
+            tmpl.setLabels(Arrays.asList("l1", "l2"));
+            dao.mfind(tmpl);
+            fail("multiple entries");
+        }
+        catch(IllegalArgumentException ex)
+        {
+            //success
+        }
+        
+        //removed map entries are removed from the index
+        CollectionIndexedBean update = new CollectionIndexedBean();
+        update.setRowKey(0L);
+        update.setTags(Collections.<String, String>singletonMap("even", null));
+        dao.put(update);
+        tmpl = new CollectionIndexedBean();
+        tmpl.setTags(Collections.singletonMap("even", "ignored"));
+        assertEquals(numBeans/2 - 1, dao.mfind(tmpl).size());
+        
+        //replaced list elements are removed when requested
+        update = new CollectionIndexedBean();
+        update.setRowKey(1L);
+        update.setLabels(Collections.singletonList("changed"));
+        PutOptions options = new PutOptions();
+        options.setRemoveStaleIndexValues(true);
+        dao.put(update, options);
+        tmpl = new CollectionIndexedBean();
+        tmpl.setLabels(Collections.singletonList("changed"));
+        assertEquals(1, dao.mfind(tmpl).size());
+        tmpl.setLabels(Collections.singletonList("l1"));
+        assertEquals(0, dao.mfind(tmpl).size());
+        
+        //null list elements are skipped, only stored elements past the new list's size are retained
+        update = new CollectionIndexedBean();
+        update.setRowKey(2L);
+        update.setLabels(Arrays.<String>asList(null, "changed2"));
+        dao.put(update, options);
+        update = new CollectionIndexedBean();
+        update.setRowKey(4L);
+        update.setLabels(Arrays.<String>asList((String) null));
+        dao.put(update, options);
+        tmpl.setLabels(Collections.singletonList("changed2"));
+        assertEquals(1, dao.mfind(tmpl).size());
+        tmpl.setLabels(Collections.singletonList("l2"));
+        assertEquals(0, dao.mfind(tmpl).size());
+        tmpl.setLabels(Collections.singletonList("l4"));
+        assertEquals(0, dao.mfind(tmpl).size());
+        
+        dao.delete(9L);
+        tmpl.setLabels(Collections.singletonList("all"));
+        List<CollectionIndexedBean> all = new ArrayList<CollectionIndexedBean>(dao.mfind(tmpl));
+        assertEquals(numBeans - 2, all.size()); //bean 2's list was replaced, bean 4 retains its second element
+        for(CollectionIndexedBean bean : all)
+            assertTrue(bean.getRowKey() != 2L && bean.getRowKey() != 9L);
+        
+        //rows with several entries in range are returned once, even when the entries are read in different batches
+        int numMulti = CassandraDaoBase.COL_RANGE_SIZE;
+        List<CollectionIndexedBean> multi = new ArrayList<CollectionIndexedBean>();
+        for(long i = 0; i < numMulti; i++)
+        {
+            CollectionIndexedBean bean = new CollectionIndexedBean();
+            bean.setRowKey(1000 + i);
+            Map<String, Long> scores = new HashMap<String, Long>();
+            scores.put("a", 1000 + i);
+            scores.put("b", 1000 + numMulti + i);
+            bean.setScores(scores);
+            multi.add(bean);
+        }
+        dao.mput(multi);
+        
+        start.setScores(Collections.singletonMap("any", 1000L));
+        end.setScores(Collections.singletonMap("any", 1000L + 2 * numMulti));
+        actual = new ArrayList<CollectionIndexedBean>(dao.mfindBetween(start, end));
+        Collections.sort(actual);
+        assertEquals(multi, actual);
+    }
+    
+    private <T> List<T> reverse(List<T> l)
+    {
+        List<T> rv = new ArrayList<T>(l);
+        Collections.reverse(rv);
+        return rv;
+    }
+    
+    @Test
+    public void testRangeIndexFind() throws Exception
+    {
+        int numBeans = CassandraDaoBase.ROW_RANGE_SIZE;
+        List<IndexedBean> idxBeans = new ArrayList<IndexedBean>();
+        List<CompositeIndexedBean> cIdxBeans = new ArrayList<CompositeIndexedBean>();
+        for(int i = 0; i < numBeans; i++)
+        {
+            IndexedBean idxBean = new IndexedBean();
+            idxBean.setRowKey(new Long(i));
+            idxBean.setCharVal('c');
+            idxBean.setIntVal(i);
+            idxBean.setIntVal2(i);
+            idxBean.setLongVal(i/10L);
+            idxBean.setStrVal("strval");
+            idxBean.setStrVal2(null);
+
+            idxBeans.add(idxBean);
+
+            CompositeIndexedBean cIdxBean = new CompositeIndexedBean();
+            cIdxBean.setCharVal('c');
+            cIdxBean.setRowKey(new Long(i));
+            cIdxBean.setIntVal(i);
+            cIdxBean.setLongVal(i/10);
+            cIdxBean.setStrVal("strval");
+            
+            cIdxBeans.add(cIdxBean);
+        }
+        
+        _indexedDao.mput(idxBeans);
+        _compositeIndexedDao.mput(cIdxBeans);
+        
+        assertEquals(1, _indexedDao.putIndexStats().getNumOps());
+        assertEquals(3*numBeans, _indexedDao.putIndexStats().getNumCols());
+        assertEquals(3*numBeans+2, _indexedDao.putIndexStats().getNumCassandraOps());
+        assertEquals(numBeans, _indexedDao.putIndexStats().getNumRows());
+
+        
+        IndexedBean idxTmpl = new IndexedBean();
+        idxTmpl.setLongVal(5L);
+        List<IndexedBean> idxActuals = new ArrayList<IndexedBean>(_indexedDao.mfind(idxTmpl));
+
+        Collections.sort(idxActuals);
+        assertBeansEqual(idxBeans.subList(50, 60), idxActuals);
+        for(IndexedBean idxBean : idxActuals)
+            assertTrue(((IEnhancedEntity) idxBean).getModifiedFields().isEmpty());
+
+        idxTmpl = new IndexedBean();
+        idxTmpl.setLongVal(5L);
+        idxTmpl.setIntVal2(55); //add post fetch filter...
+        idxActuals = new ArrayList<IndexedBean>(_indexedDao.mfind(idxTmpl));
+        assertBeansEqual(Collections.singletonList(idxBeans.get(55)), idxActuals);
+        
+        CompositeIndexedBean cIdxTmpl = new CompositeIndexedBean();
+        cIdxTmpl.setLongVal(5);
+        List<CompositeIndexedBean> cIdxActuals = new ArrayList<CompositeIndexedBean>(_compositeIndexedDao.mfind(cIdxTmpl));
+
+        Collections.sort(cIdxActuals);
+        assertBeansEqual(cIdxBeans.subList(50, 60), cIdxActuals);
+        for(CompositeIndexedBean cIdxBean : cIdxActuals)
+            assertTrue(((IEnhancedEntity) cIdxBean).getModifiedFields().isEmpty());
+
+        
+        assertEquals(0, _indexedStrategy.records.size());
+        assertEquals(0, _compositeStrategy.records.size());
+        
+        int idx = 50;
+        for(IndexedBean bean : idxBeans.subList(50, 55))
+        {
+            bean.setStrVal2(null);
+            bean.setLongVal(idx++ % 2 == 0 ? -1L : null);
+        }
+        
+        _indexedDao.mput(idxBeans.subList(50, 55));
+        idxTmpl = new IndexedBean();
+        idxTmpl.setLongVal(5L);
+        idxActuals = new ArrayList<IndexedBean>(_indexedDao.mfind(idxTmpl));
+        Collections.sort(idxActuals);
+        assertBeansEqual(idxBeans.subList(55, 60), idxActuals);
+        assertEquals(1, _indexedStrategy.records.size());
+        
+        StaleIndexUpdateRecord record = _indexedStrategy.records.get(0);
+        DynamicCompositeSerializer compositeSer = new DynamicCompositeSerializer();
+
+        Set<Long> actualStaleRowKeys = new HashSet<Long>();
+        Set<Long> expectedStaleRowKeys = new HashSet<Long>();
+        /*
+         * validate the clock values
+         */
+        for(StaleIndexValue stale : record.values)
+        {
+            actualStaleRowKeys.add((Long) stale.getColumnName().get(1));
+            
+            SliceQuery<DynamicComposite,DynamicComposite,byte[]> query = 
+                    HFactory.createSliceQuery(keyspace, compositeSer, compositeSer, BytesArraySerializer.get());
+
+            query.setKey(stale.getRowKey());
+            query.setColumnNames(stale.getColumnName());
+            query.setColumnFamily("indexedbean_idx");
+            List<HColumn<DynamicComposite,byte[]>> columns = query.execute().get().getColumns();
+            assertEquals(1, columns.size());
+            assertEquals(stale.getClock(), columns.get(0).getClock());
+        }
+        assertEquals(5, record.values.size());
+        for(IndexedBean i : idxBeans.subList(50, 55))
+            expectedStaleRowKeys.add(i.getRowKey());
+        
+        assertEquals(expectedStaleRowKeys, actualStaleRowKeys);
+        
+        /*
+         * do a between find
          */
         IndexedBean endIdxTmpl = new IndexedBean();
         endIdxTmpl.setLongVal(6L);
@@ -3591,11 +4731,343 @@ public class CassandraDaoBaseTest extends CassandraServiceTestBase
         assertEquals(10, _indexedDao.mfindBetween(startTmpl, endTmpl).size());
         
         assertEquals(1, _indexedDao.walRecoveryStats().getNumOps());
-        assertEquals(22, _indexedDao.walRecoveryStats().getNumCassandraOps());
+        assertEquals(5, _indexedDao.walRecoveryStats().getNumCassandraOps()); //slice, get, put, delete, empty slice
         assertEquals(10, _indexedDao.walRecoveryStats().getNumCols());
         assertEquals(1, _indexedDao.walRecoveryStats().getRecentTimings().length);
     }
     
+    @Test
+    public void testWalRecoveryScheduler() throws Exception
+    {
+        Collection<CassandraDaoBase<?, ?>> daos = Collections.<CassandraDaoBase<?, ?>>singleton(_indexedDao);
+        WalRecoveryScheduler scheduler = new WalRecoveryScheduler(_pm, daos, 60000, 100);
+        WalRecoveryScheduler other = new WalRecoveryScheduler(_pm, daos, 60000, 100);
+        assertEquals(0, scheduler.recover()); //take the lease
+        
+        List<IndexedBean> beans = new ArrayList<IndexedBean>();
+        for(long i = 0; i < 10; i++)
+        {
+            IndexedBean bean = new IndexedBean();
+            bean.setRowKey(i);
+            bean.setStrVal2("sval2");
+            bean.setLongVal(i);
+            beans.add(bean);
+        }
+
+        dropColumnFamily("indexedbean_idx");
+        
+        try
+        {
+            _indexedDao.mput(beans);
+        }
+        catch(Exception ex)
+        {
+            //success
+        }
+        
+        _pm.init(); //recreate table
+        Thread.sleep(1000);
+        
+        //only the lease holder recovers, all processes report the lag
+        assertEquals(0, other.recover());
+        assertFalse(other.monitor().isLeaseHeld());
+        assertTrue(other.monitor().getOldestPendingAge() >= 1000);
+        
+        assertEquals(10, scheduler.recover());
+        assertTrue(scheduler.monitor().isLeaseHeld());
+        assertTrue(scheduler.monitor().getOldestPendingAge() >= 1000);
+        assertEquals(10, scheduler.monitor().getLastRecoveredCount());
+        assertEquals(-1, _indexedDao.oldestWalEntryTime());
+        
+        IndexedBean startTmpl = new IndexedBean(), endTmpl = new IndexedBean();
+        startTmpl.setLongVal(0L);
+        endTmpl.setLongVal(9L);
+        assertEquals(10, _indexedDao.mfindBetween(startTmpl, endTmpl).size());
+        
+        assertEquals(0, other.recover());
+        assertFalse(other.monitor().isLeaseHeld());
+        assertEquals(0, other.monitor().getOldestPendingAge());
+        
+        assertEquals(0, scheduler.recover());
+        assertTrue(scheduler.monitor().isLeaseHeld());
+        assertEquals(0, scheduler.monitor().getOldestPendingAge());
+    }
+    
+    @Test
+    public void testDeferredWalCleanup() throws Exception
+    {
+        IndexedBeanDao dao = new IndexedBeanDao();
+        dao.setKeyspaceFactory(_pm);
+        dao.setWalCleanupInterval(60000);
+        dao.init();
+
+        try
+        {
+            List<IndexedBean> beans = new ArrayList<IndexedBean>();
+            for(long i = 0; i < 10; i++)
+            {
+                IndexedBean bean = new IndexedBean();
+                bean.setRowKey(i);
+                bean.setStrVal2("sval2");
+                bean.setLongVal(i);
+                beans.add(bean);
+            }
+            dao.mput(beans);
+            
+            EntityMetadata<IndexedBean> meta = new EntityMetadata<IndexedBean>(IndexedBean.class);
+            SliceQuery<byte[],Composite,byte[]> query = HFactory.createSliceQuery(_pm.createKeyspace(EConsistencyLevel.ONE), 
+                                                                                 BytesArraySerializer.get(), CompositeSerializer.get(), BytesArraySerializer.get());
+            query.setKey(meta.getFamilyNameBytes());
+            query.setColumnFamily(PersistenceManager.CF_IDXWAL);
+            query.setRange(null, null, false, 100);
+            
+            //WAL entries remain until the cleanup queue is flushed
+            assertEquals(10, query.execute().get().getColumns().size());
+            assertEquals(0, dao.walCleanupStats().getNumOps());
+            
+            dao.flush();
+            assertEquals(0, query.execute().get().getColumns().size());
+            assertEquals(1, dao.walCleanupStats().getNumCassandraOps());
+            assertEquals(10, dao.walCleanupStats().getNumCols());
+            
+            //puts racing shutdown clean up inline
+            dao.destroy();
+            dao.mput(beans);
+            assertEquals(0, query.execute().get().getColumns().size());
+            assertEquals(20, dao.walCleanupStats().getNumCols());
+        }
+        finally
+        {
+            dao.destroy();
+        }
+    }
+
+    @Test
+    public void testDeleteWalRecovery() throws Exception
+    {
+        IndexedBeanDao dao = new IndexedBeanDao();
+        dao.setKeyspaceFactory(_pm);
+        dao.setWalCleanupInterval(60000); //keep the WAL entry around
+        dao.init();
+
+        try
+        {
+            IndexedBean bean = new IndexedBean();
+            bean.setRowKey(1L);
+            bean.setLongVal(100L);
+            dao.put(bean);
+            dao.flush();
+            
+            DeleteOptions options = new DeleteOptions();
+            options.setRemoveIndexValues(true);
+            dao.delete(1L, options);
+            
+            //simulate a failed row deletion, the row survives but its index entries were removed
+            Thread.sleep(10);
+            EntityMetadata<IndexedBean> meta = new EntityMetadata<IndexedBean>(IndexedBean.class);
+            Mutator<byte[]> mutator = HFactory.createMutator(_pm.createKeyspace(EConsistencyLevel.ONE), BytesArraySerializer.get());
+            mutator.addInsertion(LongSerializer.get().toBytes(1L), 
+                                 meta.getFamilyName(), 
+                                 HFactory.createColumn(meta.getProperty("longVal").getPhysicalNameBytes(), 100L, BytesArraySerializer.get(), LongSerializer.get()));
+            mutator.execute();
+            
+            IndexedBean start = new IndexedBean(), end = new IndexedBean();
+            start.setLongVal(0L);
+            end.setLongVal(500L);
+            assertNotNull(dao.get(1L));
+            assertEquals(0, dao.mfindBetween(start, end).size());
+            
+            Thread.sleep(200);
+            assertEquals(1, dao.checkWal(System.currentTimeMillis() - 100));
+            Collection<IndexedBean> found = dao.mfindBetween(start, end);
+            assertEquals(1, found.size());
+            assertEquals(100L, found.iterator().next().getLongVal());
+        }
+        finally
+        {
+            dao.destroy();
+        }
+    }
+    
+    @Test
+    public void testAsyncIndex() throws Exception
+    {
+        AsyncIndexedBeanDao dao = new AsyncIndexedBeanDao();
+        dao.setKeyspaceFactory(_pm);
+        dao.setAsyncIndexInterval(60000);
+        dao.init();
+
+        try
+        {
+            List<AsyncIndexedBean> beans = new ArrayList<AsyncIndexedBean>();
+            for(long i = 0; i < 10; i++)
+            {
+                AsyncIndexedBean bean = new AsyncIndexedBean();
+                bean.setRowKey(i);
+                bean.setLongVal(i);
+                bean.setStrVal("s" + i);
+                beans.add(bean);
+            }
+            dao.mput(beans);
+            
+            AsyncIndexedBean start = new AsyncIndexedBean(), end = new AsyncIndexedBean();
+            start.setLongVal(0L);
+            end.setLongVal(100L);
+            
+            EntityMetadata<AsyncIndexedBean> meta = new EntityMetadata<AsyncIndexedBean>(AsyncIndexedBean.class);
+            SliceQuery<byte[],Composite,byte[]> query = HFactory.createSliceQuery(_pm.createKeyspace(EConsistencyLevel.ONE), 
+                                                                                 BytesArraySerializer.get(), CompositeSerializer.get(), BytesArraySerializer.get());
+            query.setKey(meta.getFamilyNameBytes());
+            query.setColumnFamily(PersistenceManager.CF_IDXWAL);
+            query.setRange(null, null, false, 100);
+            
+            //rows are written, index updates and their WAL entries are pending
+            assertEquals(beans.get(3), dao.get(3L));
+            assertEquals(0, dao.mfindBetween(start, end).size());
+            assertEquals(10, query.execute().get().getColumns().size());
+            assertEquals(0, dao.asyncIndexStats().getNumOps());
+            
+            dao.flush();
+            assertEquals(beans, new ArrayList<AsyncIndexedBean>(dao.mfindBetween(start, end)));
+            assertEquals(0, query.execute().get().getColumns().size());
+            assertEquals(10, dao.asyncIndexStats().getNumRows());
+            assertEquals(10, dao.asyncIndexStats().getNumCols());
+            
+            //stale entry removal is also deferred
+            PutOptions options = new PutOptions();
+            options.setRemoveStaleIndexValues(true);
+            beans.get(0).setLongVal(200L);
+            dao.put(beans.get(0), options);
+            dao.flush();
+            
+            assertEquals(beans.subList(1, 10), new ArrayList<AsyncIndexedBean>(dao.mfindBetween(start, end)));
+            assertEquals(12, dao.asyncIndexStats().getNumCols()); //1 insertion, 1 deletion
+        }
+        finally
+        {
+            dao.destroy();
+        }
+    }
+
+    @Test
+    public void testShardedWal() throws Exception
+    {
+        PartitionIndexBeanDao dao = new PartitionIndexBeanDao();
+        dao.setKeyspaceFactory(_pm);
+        dao.init();
+
+        try
+        {
+            List<PartitionedIndexBean> beans = new ArrayList<PartitionedIndexBean>();
+            for(long i = 0; i < 20; i++)
+            {
+                PartitionedIndexBean bean = new PartitionedIndexBean();
+                bean.setRowKey(i);
+                bean.setPartitionedValue(i);
+                beans.add(bean);
+            }
+
+            dropColumnFamily("pib_idx");
+
+            try
+            {
+                dao.mput(beans);
+            }
+            catch(Exception ex)
+            {
+                //success
+            }
+
+            //data put failed, wal columns should be spread across the shards
+            EntityMetadata<PartitionedIndexBean> meta = new EntityMetadata<PartitionedIndexBean>(PartitionedIndexBean.class);
+            assertEquals(4, meta.getWalRowKeys().size());
+            SliceQuery<byte[],Composite,byte[]> query = HFactory.createSliceQuery(_pm.createKeyspace(EConsistencyLevel.ONE), 
+                                                                                 BytesArraySerializer.get(), CompositeSerializer.get(), BytesArraySerializer.get());
+            query.setColumnFamily(PersistenceManager.CF_IDXWAL);
+            query.setRange(null, null, false, 100);
+
+            int total = 0, rows = 0;
+            for(byte[] walRowKey : meta.getWalRowKeys())
+            {
+                query.setKey(walRowKey);
+                int size = query.execute().get().getColumns().size();
+                total += size;
+                if(size > 0)
+                    rows++;
+            }
+            assertEquals(20, total);
+            assertTrue(rows > 1);
+
+            _pm.init(); //recreate table
+            Thread.sleep(1000);
+
+            assertEquals(20, dao.checkWal(System.currentTimeMillis() - 100));
+            assertEquals(20, dao.walRecoveryStats().getNumCols());
+
+            for(byte[] walRowKey : meta.getWalRowKeys())
+            {
+                query.setKey(walRowKey);
+                assertEquals(0, query.execute().get().getColumns().size());
+            }
+        }
+        finally
+        {
+            dao.destroy();
+        }
+    }
+
+    @Test
+    public void testParallelWalRecovery() throws Exception
+    {
+        PartitionIndexBeanDao dao = new PartitionIndexBeanDao();
+        dao.setKeyspaceFactory(_pm);
+        dao.setWalRecoveryThreads(3);
+        dao.setWalRecoveryBatchSize(3);
+        dao.init();
+
+        try
+        {
+            int numBeans = 25;
+            List<PartitionedIndexBean> beans = new ArrayList<PartitionedIndexBean>();
+            for(long i = 0; i < numBeans; i++)
+            {
+                PartitionedIndexBean bean = new PartitionedIndexBean();
+                bean.setRowKey(i);
+                bean.setPartitionedValue(i);
+                beans.add(bean);
+            }
+
+            dropColumnFamily("pib_idx");
+
+            try
+            {
+                dao.mput(beans);
+            }
+            catch(Exception ex)
+            {
+                //success
+            }
+
+            _pm.init(); //recreate table
+            Thread.sleep(1000);
+
+            //several batches per shard, each entry is recovered exactly once
+            assertEquals(numBeans, dao.checkWal(System.currentTimeMillis() - 100));
+            assertEquals(numBeans, dao.walRecoveryStats().getNumCols());
+            assertEquals(0, dao.checkWal(System.currentTimeMillis() - 100));
+            assertEquals(-1, dao.oldestWalEntryTime());
+
+            PartitionedIndexBean start = new PartitionedIndexBean(), end = new PartitionedIndexBean();
+            start.setPartitionedValue(0L);
+            end.setPartitionedValue((long) numBeans);
+            assertEquals(numBeans, dao.mfindBetween(start, end).size());
+        }
+        finally
+        {
+            dao.destroy();
+        }
+    }
+
     @Test
     public void testRangeIndexFindIteration() throws Exception
     {
@@ -3845,6 +5317,35 @@ public class CassandraDaoBaseTest extends CassandraServiceTestBase
     }
     
     
+    /*
+     * partitioners used to migrate to, restored by name
+     */
+    public static class FourPartitioner extends HashModIndexRowPartitioner
+    {
+        public FourPartitioner()
+        {
+            super(4);
+        }
+    }
+    
+    public static class SharedRowPartitioner implements IIndexRowPartitioner
+    {
+        private static final List<Object> SHARED = Collections.<Object>singletonList(new Byte((byte) 0)); //the single partitioner's row
+        private static final List<Object> UPPER = Collections.<Object>singletonList(new Byte((byte) 1));
+        
+        @Override
+        public List<List<Object>> partitionValue(List<Object> idxValue)
+        {
+            return Collections.singletonList((Long) idxValue.get(0) < 50 ? SHARED : UPPER);
+        }
+        
+        @Override
+        public List<List<Object>> partitionRange(List<Object> startIdxValues, List<Object> endIdxValues)
+        {
+            return Arrays.asList(SHARED, UPPER);
+        }
+    }
+    
     private class RecordingStrategy implements IStaleIndexValueStrategy 
     {
         List<StaleIndexUpdateRecord> records = new ArrayList<StaleIndexUpdateRecord>();
@@ -0,0 +1,8 @@
+package com.feedly.cassandra.dao;
+
+import com.feedly.cassandra.entity.enhance.CollectionIndexedBean;
+
+public class CollectionIndexedBeanDao extends CassandraDaoBase<Long, CollectionIndexedBean>
+{
+
+}
@@ -2,6 +2,8 @@ package com.feedly.cassandra.dao;
 
 import static org.junit.Assert.*;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Iterator;
@@ -12,13 +14,16 @@ import me.prettyprint.cassandra.serializers.DynamicCompositeSerializer;
 import me.prettyprint.hector.api.beans.DynamicComposite;
 import me.prettyprint.hector.api.beans.Row;
 import me.prettyprint.hector.api.factory.HFactory;
+import me.prettyprint.hector.api.mutation.Mutator;
 import me.prettyprint.hector.api.query.RangeSlicesQuery;
+import me.prettyprint.hector.api.query.SliceQuery;
 
 import org.junit.After;
 import org.junit.Before;
 import org.junit.Test;
 
 import com.feedly.cassandra.PersistenceManager;
+import com.feedly.cassandra.entity.EntityMetadata;
 import com.feedly.cassandra.entity.enhance.IndexedBean;
 import com.feedly.cassandra.test.CassandraServiceTestBase;
 
@@ -52,6 +57,172 @@ public class OfflineRepairStrategyTest extends CassandraServiceTestBase
         _strategy.destroy();
     }
     
+    @Test
+    public void testCoalescing()
+    {
+        OfflineRepairStrategy strategy = new OfflineRepairStrategy();
+        strategy.setFlushInterval(60000);
+        strategy.setBatchSize(1000);
+        strategy.setMaxQueueSize(15);
+        strategy.init();
+        
+        try
+        {
+            EntityMetadata<IndexedBean> meta = new EntityMetadata<IndexedBean>(IndexedBean.class);
+            List<StaleIndexValue> values = new ArrayList<StaleIndexValue>();
+            List<StaleIndexValue> values2 = new ArrayList<StaleIndexValue>();
+            for(long i = 0; i < 10; i++)
+            {
+                values.add(new StaleIndexValue(new DynamicComposite("longVal"), new DynamicComposite(i, i), 1));
+                values2.add(new StaleIndexValue(new DynamicComposite("longVal"), new DynamicComposite(i + 10, i + 10), 1));
+            }
+            
+            strategy.handle(meta, null, keyspace, values);
+            strategy.handle(meta, null, keyspace, values);
+            assertEquals(10, strategy.size());
+            assertEquals(10, strategy.monitor().getNumCoalescedRepairs());
+            
+            strategy.handle(meta, null, keyspace, values2);
+            assertEquals(15, strategy.size());
+            assertEquals(5, strategy.monitor().getNumDroppedRepairs());
+            
+            strategy.flush();
+            assertEquals(0, strategy.size());
+            assertEquals(15, strategy.monitor().getNumAppliedRepairs());
+            assertEquals(1, strategy.stats().getNumOps());
+        }
+        finally
+        {
+            strategy.destroy();
+        }
+    }
+    
+    @Test
+    public void testJournal() throws IOException
+    {
+        File file = File.createTempFile("repair", ".journal");
+        file.deleteOnExit();
+        
+        OfflineRepairStrategy strategy = new OfflineRepairStrategy();
+        strategy.setFlushInterval(60000);
+        strategy.setBatchSize(1000);
+        strategy.setJournalFile(file);
+        strategy.setJournalSize(64 * 1024);
+        strategy.setKeyspaceFactory(_pm);
+        strategy.init();
+        
+        EntityMetadata<IndexedBean> meta = new EntityMetadata<IndexedBean>(IndexedBean.class);
+        List<StaleIndexValue> values = new ArrayList<StaleIndexValue>();
+        for(long i = 0; i < 10; i++)
+            values.add(new StaleIndexValue(new DynamicComposite("longVal"), new DynamicComposite(i, i), 1));
+
+        strategy.handle(meta, null, keyspace, values);
+        assertEquals(10, strategy.size());
+        
+        //simulate a restart before the values are written
+        OfflineRepairStrategy restarted = new OfflineRepairStrategy();
+        restarted.setFlushInterval(60000);
+        restarted.setJournalFile(file);
+        restarted.setJournalSize(64 * 1024);
+        restarted.setKeyspaceFactory(_pm);
+        restarted.init();
+        
+        try
+        {
+            assertEquals(10, restarted.size());
+            assertEquals(10, restarted.monitor().getNumReplayedRepairs());
+            restarted.flush();
+            assertEquals(0, restarted.size());
+            assertEquals(10, restarted.monitor().getNumAppliedRepairs());
+        }
+        finally
+        {
+            restarted.destroy();
+        }
+        
+        //applied values are compacted out of the journal
+        strategy.destroy();
+        restarted = new OfflineRepairStrategy();
+        restarted.setJournalFile(file);
+        restarted.setJournalSize(64 * 1024);
+        restarted.setKeyspaceFactory(_pm);
+        restarted.init();
+        assertEquals(0, restarted.size());
+        restarted.destroy();
+        
+        //journal full, values beyond its capacity are dropped
+        strategy = new OfflineRepairStrategy();
+        strategy.setFlushInterval(60000);
+        strategy.setJournalFile(file);
+        strategy.setJournalSize(256);
+        strategy.setKeyspaceFactory(_pm);
+        strategy.init();
+        try
+        {
+            strategy.handle(meta, null, keyspace, values);
+            assertTrue(strategy.size() > 0);
+            assertEquals(10, strategy.size() + strategy.monitor().getNumDroppedRepairs());
+        }
+        finally
+        {
+            strategy.destroy();
+        }
+    }
+
+    @Test
+    public void testJournalRaisedClock() throws IOException
+    {
+        File file = File.createTempFile("repair", ".journal");
+        file.deleteOnExit();
+        
+        OfflineRepairStrategy strategy = new OfflineRepairStrategy();
+        strategy.setFlushInterval(60000);
+        strategy.setBatchSize(1000);
+        strategy.setJournalFile(file);
+        strategy.setJournalSize(64 * 1024);
+        strategy.setKeyspaceFactory(_pm);
+        strategy.init();
+        
+        EntityMetadata<IndexedBean> meta = new EntityMetadata<IndexedBean>(IndexedBean.class);
+        DynamicComposite rowKey = new DynamicComposite("longVal"), colName = new DynamicComposite(100L, 100L);
+        
+        //a newer stale column than the one first handled
+        Mutator<DynamicComposite> mutator = HFactory.createMutator(keyspace, DynamicCompositeSerializer.get());
+        mutator.addInsertion(rowKey, meta.getIndexFamilyName(), 
+                             HFactory.createColumn(colName, PutHelper.IDX_COL_VAL, 3L, DynamicCompositeSerializer.get(), BytesArraySerializer.get()));
+        mutator.execute();
+        
+        strategy.handle(meta, null, keyspace, Collections.singletonList(new StaleIndexValue(rowKey, colName, 1)));
+        strategy.handle(meta, null, keyspace, Collections.singletonList(new StaleIndexValue(rowKey, colName, 5)));
+        assertEquals(1, strategy.size());
+        
+        //simulate a crash, the replayed deletion uses the raised clock
+        OfflineRepairStrategy restarted = new OfflineRepairStrategy();
+        restarted.setFlushInterval(60000);
+        restarted.setJournalFile(file);
+        restarted.setJournalSize(64 * 1024);
+        restarted.setKeyspaceFactory(_pm);
+        restarted.init();
+        
+        try
+        {
+            assertEquals(1, restarted.size());
+            restarted.flush();
+            
+            SliceQuery<DynamicComposite, DynamicComposite, byte[]> query = 
+                    HFactory.createSliceQuery(keyspace, DynamicCompositeSerializer.get(), DynamicCompositeSerializer.get(), BytesArraySerializer.get());
+            query.setKey(rowKey);
+            query.setColumnFamily(meta.getIndexFamilyName());
+            query.setRange(null, null, false, 100);
+            assertEquals(0, query.execute().get().getColumns().size());
+        }
+        finally
+        {
+            restarted.destroy();
+            strategy.destroy();
+        }
+    }
+
     @Test
     public void testRepair()
     {
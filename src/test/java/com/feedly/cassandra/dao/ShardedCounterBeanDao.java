@@ -0,0 +1,8 @@
+package com.feedly.cassandra.dao;
+
+import com.feedly.cassandra.entity.enhance.ShardedCounterBean;
+
+public class ShardedCounterBeanDao extends CassandraDaoBase<Long, ShardedCounterBean>
+{
+
+}
@@ -0,0 +1,79 @@
+package com.feedly.cassandra.entity.enhance;
+
+import java.lang.reflect.Field;
+
+import com.feedly.cassandra.anno.Column;
+import com.feedly.cassandra.anno.ColumnFamily;
+import com.feedly.cassandra.anno.RowKey;
+import com.feedly.cassandra.entity.EntityUtils;
+
+@ColumnFamily(name="asyncindexbean")
+public class AsyncIndexedBean
+{
+    @RowKey
+    private Long rowKey;
+    
+    @Column(rangeIndexed=true, asyncRangeIndex=true)
+    private Long longVal;
+
+    @Column(name="s")
+    private String strVal;
+
+    public Long getRowKey()
+    {
+        return rowKey;
+    }
+
+    public void setRowKey(Long rowKey)
+    {
+        this.rowKey = rowKey;
+    }
+
+    public Long getLongVal()
+    {
+        return longVal;
+    }
+
+    public void setLongVal(Long longVal)
+    {
+        this.longVal = longVal;
+    }
+
+    public String getStrVal()
+    {
+        return strVal;
+    }
+
+    public void setStrVal(String strVal)
+    {
+        this.strVal = strVal;
+    }
+    
+    @Override
+    public boolean equals(Object obj)
+    {
+        if(obj instanceof AsyncIndexedBean)
+            return EntityUtils.beanFieldsEqual(this, obj);
+
+        return false;
+    }
+    
+    @Override
+    public String toString()
+    {
+        StringBuilder b = new StringBuilder();
+        for(Field f : getClass().getDeclaredFields())
+        {
+            try
+            {
+                b.append(f.getName() + ":" + f.get(this)).append(" ");
+            }
+            catch(Exception e)
+            {
+                return "error";
+            }
+        }
+        
+        return b.toString();
+    }
+}
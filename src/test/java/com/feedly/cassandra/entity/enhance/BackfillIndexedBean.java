@@ -0,0 +1,80 @@
+package com.feedly.cassandra.entity.enhance;
+
+import java.lang.reflect.Field;
+
+import com.feedly.cassandra.anno.Column;
+import com.feedly.cassandra.anno.ColumnFamily;
+import com.feedly.cassandra.anno.RowKey;
+import com.feedly.cassandra.entity.EntityUtils;
+
+@ColumnFamily(name="bib")
+public class BackfillIndexedBean implements Comparable<BackfillIndexedBean>
+{
+    @RowKey
+    private Long rowKey;
+
+    @Column(rangeIndexed=true, rangeIndexBackfill=true)
+    private Long longVal;
+    
+    public Long getRowKey()
+    {
+        return rowKey;
+    }
+
+    public void setRowKey(Long rowKey)
+    {
+        this.rowKey = rowKey;
+    }
+
+    public Long getLongVal()
+    {
+        return longVal;
+    }
+
+    public void setLongVal(Long longVal)
+    {
+        this.longVal = longVal;
+    }
+    
+    @Override
+    public boolean equals(Object obj)
+    {
+        if(obj instanceof BackfillIndexedBean)
+            return EntityUtils.beanFieldsEqual(this, obj);
+
+        return false;
+    }
+
+    @Override
+    public int compareTo(BackfillIndexedBean o)
+    {
+        return rowKey.compareTo(o.rowKey);
+    }
+    
+    @Override
+    public Object clone() throws CloneNotSupportedException
+    {
+        BackfillIndexedBean clone = (BackfillIndexedBean) super.clone();
+        
+        return clone;
+    }
+    
+    @Override
+    public String toString()
+    {
+        StringBuilder b = new StringBuilder();
+        for(Field f : getClass().getDeclaredFields())
+        {
+            try
+            {
+                b.append(f.getName() + ":" + f.get(this)).append(" ");
+            }
+            catch(Exception e)
+            {
+                return "error";
+            }
+        }
+        
+        return b.toString();
+    }
+}
@@ -0,0 +1,109 @@
+package com.feedly.cassandra.entity.enhance;
+
+import java.lang.reflect.Field;
+import java.util.List;
+import java.util.Map;
+
+import com.feedly.cassandra.anno.Column;
+import com.feedly.cassandra.anno.ColumnFamily;
+import com.feedly.cassandra.anno.RowKey;
+import com.feedly.cassandra.entity.ECollectionIndexType;
+import com.feedly.cassandra.entity.EntityUtils;
+
+@ColumnFamily(name="cib")
+public class CollectionIndexedBean implements Comparable<CollectionIndexedBean>
+{
+    @RowKey
+    private Long rowKey;
+
+    @Column(rangeIndexed=true)
+    private Map<String, String> tags;
+    
+    @Column(rangeIndexed=true, collectionIndex=ECollectionIndexType.VALUES)
+    private Map<String, Long> scores;
+    
+    @Column(rangeIndexed=true)
+    private List<String> labels;
+    
+    public Long getRowKey()
+    {
+        return rowKey;
+    }
+
+    public void setRowKey(Long rowKey)
+    {
+        this.rowKey = rowKey;
+    }
+
+    public Map<String, String> getTags()
+    {
+        return tags;
+    }
+
+    public void setTags(Map<String, String> tags)
+    {
+        this.tags = tags;
+    }
+
+    public Map<String, Long> getScores()
+    {
+        return scores;
+    }
+
+    public void setScores(Map<String, Long> scores)
+    {
+        this.scores = scores;
+    }
+
+    public List<String> getLabels()
+    {
+        return labels;
+    }
+
+    public void setLabels(List<String> labels)
+    {
+        this.labels = labels;
+    }
+
+    @Override
+    public boolean equals(Object obj)
+    {
+        if(obj instanceof CollectionIndexedBean)
+            return EntityUtils.beanFieldsEqual(this, obj);
+
+        return false;
+    }
+
+    @Override
+    public int compareTo(CollectionIndexedBean o)
+    {
+        return rowKey.compareTo(o.rowKey);
+    }
+    
+    @Override
+    public Object clone() throws CloneNotSupportedException
+    {
+        CollectionIndexedBean clone = (CollectionIndexedBean) super.clone();
+        
+        return clone;
+    }
+    
+    @Override
+    public String toString()
+    {
+        StringBuilder b = new StringBuilder();
+        for(Field f : getClass().getDeclaredFields())
+        {
+            try
+            {
+                b.append(f.getName() + ":" + f.get(this)).append(" ");
+            }
+            catch(Exception e)
+            {
+                return "error";
+            }
+        }
+        
+        return b.toString();
+    }
+}
@@ -8,7 +8,7 @@ import com.feedly.cassandra.anno.RowKey;
 import com.feedly.cassandra.entity.EntityUtils;
 import com.feedly.cassandra.entity.TestPartitioner;
 
-@ColumnFamily(name="pib")
+@ColumnFamily(name="pib", walShards=4)
 public class PartitionedIndexBean implements Comparable<PartitionedIndexBean>
 {
     @RowKey
@@ -0,0 +1,96 @@
+package com.feedly.cassandra.entity.enhance;
+
+import java.lang.reflect.Field;
+
+import com.feedly.cassandra.anno.Column;
+import com.feedly.cassandra.anno.ColumnFamily;
+import com.feedly.cassandra.anno.RowKey;
+import com.feedly.cassandra.dao.CounterColumn;
+import com.feedly.cassandra.entity.ECounterShardStrategy;
+import com.feedly.cassandra.entity.EntityUtils;
+
+@ColumnFamily(name="sharded_counter", compressed=false)
+public class ShardedCounterBean implements Cloneable, Comparable<ShardedCounterBean>
+{
+    @RowKey
+    private Long rowKey;
+    
+    @Column(name="c", counterShards=4)
+    private CounterColumn counterVal;
+    
+    @Column(name="t", counterShards=3, counterShardStrategy=ECounterShardStrategy.THREAD)
+    private CounterColumn threadCounterVal;
+    
+    public Long getRowKey()
+    {
+        return rowKey;
+    }
+
+    public void setRowKey(Long rowKey)
+    {
+        this.rowKey = rowKey;
+    }
+
+    public CounterColumn getCounterVal()
+    {
+        return counterVal;
+    }
+
+    public void setCounterVal(CounterColumn counterVal)
+    {
+        this.counterVal = counterVal;
+    }    
+
+    public CounterColumn getThreadCounterVal()
+    {
+        return threadCounterVal;
+    }
+
+    public void setThreadCounterVal(CounterColumn threadCounterVal)
+    {
+        this.threadCounterVal = threadCounterVal;
+    }
+    
+    @Override
+    public String toString()
+    {
+        StringBuilder b = new StringBuilder();
+        for(Field f : getClass().getDeclaredFields())
+        {
+            try
+            {
+                b.append(f.getName() + ":" + f.get(this)).append(" ");
+            }
+            catch(Exception e)
+            {
+                return "error";
+            }
+        }
+        
+        return b.toString();
+    }
+    
+    
+    @Override
+    public boolean equals(Object obj)
+    {
+        if(obj instanceof ShardedCounterBean)
+            return EntityUtils.beanFieldsEqual(this, obj);
+
+        return false;
+    }
+
+    @Override
+    public int compareTo(ShardedCounterBean o)
+    {
+        return rowKey.compareTo(o.rowKey);
+    }
+
+    @Override
+    public Object clone() throws CloneNotSupportedException
+    {
+        ShardedCounterBean clone = (ShardedCounterBean) super.clone();
+               
+        return clone;
+    }
+}